@@ -0,0 +1,95 @@
+package ai.plex.poc.android.data;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+
+import java.util.List;
+
+import ai.plex.poc.android.database.ChunkedSqliteTelemetryStore;
+import ai.plex.poc.android.database.SnapShotContract;
+import ai.plex.poc.android.database.SnapShotDBHelper;
+import ai.plex.poc.android.database.TelemetryStore;
+import ai.plex.poc.android.database.UploadMarks;
+import ai.plex.poc.android.sensorListeners.SensorSampleBatch;
+import ai.plex.poc.android.sensorListeners.SensorType;
+
+public class TestChunkedStore extends AndroidTestCase {
+    // Ten gyroscope samples make the chunk rows 1 to 3, the magnetic samples row 4
+    private static final int CHUNK_SIZE = 4;
+
+    private SQLiteDatabase db;
+    private ChunkedSqliteTelemetryStore store;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(SnapShotDBHelper.DATABASE_NAME);
+        db = new SnapShotDBHelper(mContext).getWritableDatabase();
+        store = new ChunkedSqliteTelemetryStore(db, CHUNK_SIZE);
+
+        assertEquals(10, store.append(batch(SensorType.GYROSCOPE, 10), 1));
+        assertEquals(3, store.append(batch(SensorType.MAGNETIC, 3), 1));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        store.close();
+        db.close();
+        super.tearDown();
+    }
+
+    private static SensorSampleBatch batch(SensorType sensorType, int count) {
+        SensorSampleBatch batch = new SensorSampleBatch(sensorType, count);
+        for (int i = 0; i < count; i++) {
+            batch.add(1000 + i * 20, new float[]{i, -i, i / 2f}, true);
+        }
+        return batch;
+    }
+
+    public void testAppendedSamplesArePendingInOrder() {
+        assertEquals(10, store.countPending(SensorType.GYROSCOPE));
+        assertEquals(3, store.countPending(SensorType.MAGNETIC));
+
+        List<TelemetryStore.Record> records = store.scanPending(SensorType.GYROSCOPE, 0, 6);
+        assertEquals(6, records.size());
+        for (int i = 0; i < records.size(); i++) {
+            assertEquals(1000 + i * 20, records.get(i).timestamp);
+            assertEquals(-i, records.get(i).values[1], 0);
+            assertEquals(1, records.get(i).tripId);
+            if (i > 0)
+                assertTrue(records.get(i).id > records.get(i - 1).id);
+        }
+
+        List<TelemetryStore.Record> next = store.scanPending(SensorType.GYROSCOPE, records.get(5).id, 10);
+        assertEquals(4, next.size());
+        assertEquals(1120, next.get(0).timestamp);
+    }
+
+    public void testPurgeKeepsPartlyAcknowledgedChunks() {
+        List<TelemetryStore.Record> records = store.scanPending(SensorType.GYROSCOPE, 0, 6);
+        assertTrue(store.acknowledge(SensorType.GYROSCOPE, records.get(0).id, records.get(5).id));
+        assertEquals(4, store.countPending(SensorType.GYROSCOPE));
+
+        // Only the first chunk was acknowledged whole
+        assertEquals(4, store.purge());
+        assertEquals(4, store.countPending(SensorType.GYROSCOPE));
+        assertEquals(1120, store.scanPending(SensorType.GYROSCOPE, 0, 1).get(0).timestamp);
+        assertEquals(3, store.countPending(SensorType.MAGNETIC));
+    }
+
+    public void testAcknowledgeWaitsForEarlierSamples() {
+        List<TelemetryStore.Record> records = store.scanPending(SensorType.GYROSCOPE, 0, 10);
+        assertFalse(store.acknowledge(SensorType.GYROSCOPE, records.get(4).id, records.get(9).id));
+        assertEquals(10, store.countPending(SensorType.GYROSCOPE));
+    }
+
+    public void testUploadedChunkRowsAreNotPending() {
+        // The UploadDataService uploaded the first two chunk rows
+        assertTrue(UploadMarks.acknowledge(db, SnapShotContract.SensorChunkEntry.TABLE_NAME, 1, 2));
+        assertEquals(2, store.countPending(SensorType.GYROSCOPE));
+        assertEquals(3, store.countPending(SensorType.MAGNETIC));
+
+        assertEquals(8, store.purge());
+        assertEquals(2, store.scanPending(SensorType.GYROSCOPE, 0, 10).size());
+    }
+}
@@ -0,0 +1,183 @@
+package ai.plex.poc.android.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+
+import ai.plex.poc.android.database.SnapShotContract;
+import ai.plex.poc.android.database.SnapShotDBHelper;
+import ai.plex.poc.android.database.SnapShotMigrations;
+import ai.plex.poc.android.database.UploadMarks;
+
+/**
+ * Upgrades a database written by the first release, which stored the flags as 'true' and 'false'
+ */
+public class TestMigrations extends AndroidTestCase {
+    private static final String UPLOADED = SnapShotContract.LinearAccelerationEntry.COLUMN_IS_RECORD_UPLOADED;
+    private static final String DRIVING = SnapShotContract.LinearAccelerationEntry.COLUMN_IS_DRIVING;
+    private static final String TRIP_ID = SnapShotContract.LinearAccelerationEntry.COLUMN_TRIP_ID;
+
+    private SQLiteDatabase db;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(SnapShotDBHelper.DATABASE_NAME);
+        createVersion1Database();
+        db = new SnapShotDBHelper(mContext).getWritableDatabase();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        db.close();
+        mContext.deleteDatabase(SnapShotDBHelper.DATABASE_NAME);
+        super.tearDown();
+    }
+
+    /**
+     * Writes the schema of version 1 with its flag strings:
+     * linear acceleration 1 to 5 with 3 and 5 not uploaded, location 1 to 3 all uploaded
+     */
+    private void createVersion1Database() {
+        SQLiteDatabase v1 = mContext.openOrCreateDatabase(SnapShotDBHelper.DATABASE_NAME, Context.MODE_PRIVATE, null);
+        try {
+            createVersion1Table(v1, SnapShotContract.LinearAccelerationEntry.TABLE_NAME,
+                    SnapShotContract.LinearAccelerationEntry.COLUMN_X, SnapShotContract.LinearAccelerationEntry.COLUMN_Y,
+                    SnapShotContract.LinearAccelerationEntry.COLUMN_Z);
+            createVersion1Table(v1, SnapShotContract.GyroscopeEntry.TABLE_NAME,
+                    SnapShotContract.GyroscopeEntry.COLUMN_ANGULAR_SPEED_X, SnapShotContract.GyroscopeEntry.COLUMN_ANGULAR_SPEED_Y,
+                    SnapShotContract.GyroscopeEntry.COLUMN_ANGULAR_SPEED_Z);
+            createVersion1Table(v1, SnapShotContract.RotationEntry.TABLE_NAME,
+                    SnapShotContract.RotationEntry.COLUMN_X_SIN, SnapShotContract.RotationEntry.COLUMN_Y_SIN,
+                    SnapShotContract.RotationEntry.COLUMN_Z_SIN, SnapShotContract.RotationEntry.COLUMN_ACCURACY,
+                    SnapShotContract.RotationEntry.COLUMN_COS);
+            createVersion1Table(v1, SnapShotContract.MagneticEntry.TABLE_NAME,
+                    SnapShotContract.MagneticEntry.COLUMN_X, SnapShotContract.MagneticEntry.COLUMN_Y,
+                    SnapShotContract.MagneticEntry.COLUMN_Z);
+            createVersion1Table(v1, SnapShotContract.LocationEntry.TABLE_NAME,
+                    SnapShotContract.LocationEntry.COLUMN_LONGITUDE, SnapShotContract.LocationEntry.COLUMN_LATITUDE,
+                    SnapShotContract.LocationEntry.COLUMN_SPEED);
+            createVersion1Table(v1, SnapShotContract.DetectedActivityEntry.TABLE_NAME,
+                    SnapShotContract.DetectedActivityEntry.COLUMN_NAME, SnapShotContract.DetectedActivityEntry.COLUMN_CONFIDENCDE);
+
+            String[] accelerationUploaded = {"true", "true", "false", "true", "false"};
+            for (int i = 0; i < accelerationUploaded.length; i++) {
+                ContentValues values = new ContentValues();
+                values.put(SnapShotContract.LinearAccelerationEntry.COLUMN_TIMESTAMP, 1000 + i);
+                values.put(SnapShotContract.LinearAccelerationEntry.COLUMN_X, i);
+                values.put(SnapShotContract.LinearAccelerationEntry.COLUMN_Y, i);
+                values.put(SnapShotContract.LinearAccelerationEntry.COLUMN_Z, i);
+                values.put(UPLOADED, accelerationUploaded[i]);
+                values.put(DRIVING, i % 2 == 0 ? "true" : "false");
+                assertEquals(i + 1, v1.insert(SnapShotContract.LinearAccelerationEntry.TABLE_NAME, null, values));
+            }
+            for (int i = 0; i < 3; i++) {
+                ContentValues values = new ContentValues();
+                values.put(SnapShotContract.LocationEntry.COLUMN_TIMESTAMP, 1000 + i);
+                values.put(SnapShotContract.LocationEntry.COLUMN_LONGITUDE, -79.4);
+                values.put(SnapShotContract.LocationEntry.COLUMN_LATITUDE, 43.7);
+                values.put(SnapShotContract.LocationEntry.COLUMN_SPEED, 10);
+                values.put(UPLOADED, "true");
+                values.put(DRIVING, "true");
+                assertEquals(i + 1, v1.insert(SnapShotContract.LocationEntry.TABLE_NAME, null, values));
+            }
+            v1.setVersion(1);
+        } finally {
+            v1.close();
+        }
+    }
+
+    private static void createVersion1Table(SQLiteDatabase db, String table, String... valueColumns) {
+        StringBuilder create = new StringBuilder("CREATE TABLE " + table + "(_id INTEGER PRIMARY KEY AUTOINCREMENT," +
+                SnapShotContract.LinearAccelerationEntry.COLUMN_TIMESTAMP + " INTEGER NOT NULL, ");
+        for (String column : valueColumns) {
+            create.append(column).append(" REAL NOT NULL, ");
+        }
+        create.append(UPLOADED + " STRING NOT NULL, " + DRIVING + " STRING NOT NULL)");
+        db.execSQL(create.toString());
+    }
+
+    public void testUpgrade_reachesTheLatestVersion() throws Throwable {
+        assertEquals(SnapShotMigrations.LATEST_VERSION, db.getVersion());
+    }
+
+    public void testUpgrade_keepsTheRecordedRows() throws Throwable {
+        assertEquals(5, DatabaseUtils.queryNumEntries(db, SnapShotContract.LinearAccelerationEntry.TABLE_NAME));
+        assertEquals(3, DatabaseUtils.queryNumEntries(db, SnapShotContract.LocationEntry.TABLE_NAME));
+        assertEquals(0, DatabaseUtils.queryNumEntries(db, SnapShotContract.GyroscopeEntry.TABLE_NAME));
+
+        Cursor cursor = db.query(SnapShotContract.LinearAccelerationEntry.TABLE_NAME,
+                new String[]{SnapShotContract.LinearAccelerationEntry.COLUMN_TIMESTAMP, SnapShotContract.LinearAccelerationEntry.COLUMN_X},
+                null, null, null, null, "_id");
+        try {
+            for (int i = 0; i < 5; i++) {
+                assertTrue(cursor.moveToNext());
+                assertEquals(1000 + i, cursor.getLong(0));
+                assertEquals(i, cursor.getDouble(1), 0);
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    public void testMigration5_convertsTheFlagsToIntegers() throws Throwable {
+        Cursor cursor = db.rawQuery("SELECT " + UPLOADED + ", typeof(" + UPLOADED + "), " + DRIVING + ", typeof(" + DRIVING + ")" +
+                " FROM " + SnapShotContract.LinearAccelerationEntry.TABLE_NAME + " ORDER BY _id", null);
+        try {
+            int[] uploaded = {1, 1, 0, 1, 0};
+            for (int i = 0; i < uploaded.length; i++) {
+                assertTrue(cursor.moveToNext());
+                assertEquals(uploaded[i], cursor.getInt(0));
+                assertEquals("integer", cursor.getString(1));
+                assertEquals(i % 2 == 0 ? 1 : 0, cursor.getInt(2));
+                assertEquals("integer", cursor.getString(3));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    public void testMigration6_seedsTheMarksBelowTheFirstRowNotUploaded() throws Throwable {
+        // Row 3 was not uploaded, row 4 was and is sent again once
+        assertEquals(2, UploadMarks.getMark(db, SnapShotContract.LinearAccelerationEntry.TABLE_NAME));
+        // Every row was uploaded
+        assertEquals(3, UploadMarks.getMark(db, SnapShotContract.LocationEntry.TABLE_NAME));
+        // No row was recorded
+        assertEquals(0, UploadMarks.getMark(db, SnapShotContract.GyroscopeEntry.TABLE_NAME));
+    }
+
+    public void testMigration7_addsTheTripIdToTheRecordedRows() throws Throwable {
+        String[] tables = {
+                SnapShotContract.LinearAccelerationEntry.TABLE_NAME,
+                SnapShotContract.GyroscopeEntry.TABLE_NAME,
+                SnapShotContract.RotationEntry.TABLE_NAME,
+                SnapShotContract.MagneticEntry.TABLE_NAME,
+                SnapShotContract.LocationEntry.TABLE_NAME,
+                SnapShotContract.DetectedActivityEntry.TABLE_NAME
+        };
+        for (String table : tables) {
+            assertTrue(table + " has no " + TRIP_ID, hasColumn(table, TRIP_ID));
+        }
+
+        // Rows recorded before trips existed belong to no trip
+        assertEquals(5, DatabaseUtils.queryNumEntries(db, SnapShotContract.LinearAccelerationEntry.TABLE_NAME, TRIP_ID + " = 0"));
+        assertEquals(3, DatabaseUtils.queryNumEntries(db, SnapShotContract.LocationEntry.TABLE_NAME, TRIP_ID + " = 0"));
+    }
+
+    private boolean hasColumn(String table, String column) {
+        Cursor cursor = db.rawQuery("PRAGMA table_info(" + table + ")", null);
+        try {
+            int nameIndex = cursor.getColumnIndex("name");
+            while (cursor.moveToNext()) {
+                if (column.equals(cursor.getString(nameIndex)))
+                    return true;
+            }
+            return false;
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package ai.plex.poc.android.data;
+
+import android.content.ContentValues;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+
+import ai.plex.poc.android.database.PartitionedSqliteTelemetryStore;
+import ai.plex.poc.android.database.SnapShotContract;
+import ai.plex.poc.android.database.SnapShotDBHelper;
+import ai.plex.poc.android.database.SqliteTelemetryStore;
+import ai.plex.poc.android.sensorListeners.SensorSampleBatch;
+import ai.plex.poc.android.sensorListeners.SensorType;
+
+public class TestPartitionedStore extends AndroidTestCase {
+    // Day of the old partition, 2000-01-01
+    private static final long OLD_DAY = 10957;
+
+    private SQLiteDatabase db;
+    private PartitionedSqliteTelemetryStore store;
+    private String oldPartition;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(SnapShotDBHelper.DATABASE_NAME);
+        db = new SnapShotDBHelper(mContext).getWritableDatabase();
+        oldPartition = createOldPartition(SensorType.GYROSCOPE, 10);
+        store = PartitionedSqliteTelemetryStore.getInstance(db);
+
+        SensorSampleBatch batch = new SensorSampleBatch(SensorType.GYROSCOPE, 5);
+        for (int i = 0; i < 5; i++) {
+            batch.add(System.currentTimeMillis(), new float[]{i, i, i}, true);
+        }
+        assertEquals(5, store.append(batch, 1));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        store.close();
+        db.close();
+        super.tearDown();
+    }
+
+    /**
+     * Creates a partition of an old day holding the ids 1 to count, like one left by a previous day
+     */
+    private String createOldPartition(SensorType sensorType, int count) {
+        String partition = SqliteTelemetryStore.getTableName(sensorType) + "_20000101";
+        String[] valueColumns = SqliteTelemetryStore.getValueColumns(sensorType);
+        StringBuilder create = new StringBuilder("CREATE TABLE " + partition + "(_id INTEGER PRIMARY KEY, " +
+                SnapShotContract.LinearAccelerationEntry.COLUMN_TIMESTAMP + " INTEGER NOT NULL, ");
+        for (String column : valueColumns) {
+            create.append(column).append(" REAL NOT NULL, ");
+        }
+        create.append(SnapShotContract.LinearAccelerationEntry.COLUMN_TRIP_ID + " INTEGER NOT NULL DEFAULT 0, " +
+                SnapShotContract.LinearAccelerationEntry.COLUMN_IS_DRIVING + " INTEGER NOT NULL)");
+        db.execSQL(create.toString());
+
+        for (int id = 1; id <= count; id++) {
+            ContentValues values = new ContentValues();
+            values.put("_id", id);
+            values.put(SnapShotContract.LinearAccelerationEntry.COLUMN_TIMESTAMP, OLD_DAY * 24 * 60 * 60 * 1000 + id);
+            for (String column : valueColumns) {
+                values.put(column, 0.5f);
+            }
+            values.put(SnapShotContract.LinearAccelerationEntry.COLUMN_IS_DRIVING, 0);
+            db.insert(partition, null, values);
+        }
+
+        ContentValues values = new ContentValues();
+        values.put(SnapShotContract.SamplePartitionEntry.COLUMN_PARTITION_TABLE, partition);
+        values.put(SnapShotContract.SamplePartitionEntry.COLUMN_SENSOR_TYPE, sensorType.name());
+        values.put(SnapShotContract.SamplePartitionEntry.COLUMN_DAY, OLD_DAY);
+        values.put(SnapShotContract.SamplePartitionEntry.COLUMN_FIRST_ID, 1);
+        db.insert(SnapShotContract.SamplePartitionEntry.TABLE_NAME, null, values);
+        return partition;
+    }
+
+    private boolean partitionExists(String partition) {
+        return DatabaseUtils.longForQuery(db, "SELECT COUNT(*) FROM sqlite_master WHERE type = 'table' AND name = ?",
+                new String[]{partition}) > 0;
+    }
+
+    public void testAppendContinuesTheIdsOfOldPartitions() {
+        assertEquals(15, store.countPending(SensorType.GYROSCOPE));
+        assertEquals(11, store.scanPending(SensorType.GYROSCOPE, 10, 1).get(0).id);
+    }
+
+    public void testPurgeDropsUploadedPartitions() {
+        assertEquals(0, store.purge());
+        assertTrue(store.acknowledge(SensorType.GYROSCOPE, 1, 10));
+
+        assertEquals(10, store.purge());
+        assertFalse(partitionExists(oldPartition));
+        assertEquals(5, store.countPending(SensorType.GYROSCOPE));
+
+        // The hot partition is kept even once uploaded
+        assertTrue(store.acknowledge(SensorType.GYROSCOPE, 11, 15));
+        assertEquals(0, store.purge());
+    }
+
+    public void testAcknowledgeWaitsForOlderPartitions() {
+        assertFalse(store.acknowledge(SensorType.GYROSCOPE, 11, 15));
+        assertEquals(15, store.countPending(SensorType.GYROSCOPE));
+    }
+
+    public void testEvictOldestDropsPendingPartitions() {
+        assertEquals(10, store.evictOldest());
+        assertFalse(partitionExists(oldPartition));
+        assertEquals(0, store.evictOldest());
+
+        // Nothing is left before the hot partition, its samples can be acknowledged
+        assertTrue(store.acknowledge(SensorType.GYROSCOPE, 11, 15));
+        assertEquals(0, store.countPending(SensorType.GYROSCOPE));
+    }
+}
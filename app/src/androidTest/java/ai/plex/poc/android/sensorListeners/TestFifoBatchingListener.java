@@ -0,0 +1,113 @@
+package ai.plex.poc.android.sensorListeners;
+
+import android.content.Context;
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener;
+import android.hardware.SensorManager;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.test.AndroidTestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Requests are made on the sensor thread so that the flush completed callback cannot arrive
+ * between them. Skipped on devices without an accelerometer or before KitKat.
+ */
+public class TestFifoBatchingListener extends AndroidTestCase {
+    private static final int SAMPLING_PERIOD = 20000; // microseconds
+    private static final int MAX_REPORT_LATENCY = 1000000; // microseconds
+    // Longer than the flush timeout of the listener
+    private static final long STOP_TIMEOUT = 10; // seconds
+
+    private HandlerThread sensorThread;
+    private Handler handler;
+    private Sensor sensor;
+    private FifoBatchingListener listener;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        sensorThread = new HandlerThread("TestFifoBatchingListener");
+        sensorThread.start();
+        handler = new Handler(sensorThread.getLooper());
+        SensorManager sensorManager = (SensorManager) mContext.getSystemService(Context.SENSOR_SERVICE);
+        sensor = sensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER);
+        if (sensor == null || Build.VERSION.SDK_INT < Build.VERSION_CODES.KITKAT)
+            return;
+        listener = new FifoBatchingListener(mContext, new SensorEventListener() {
+            @Override
+            public void onSensorChanged(SensorEvent event) {
+            }
+
+            @Override
+            public void onAccuracyChanged(Sensor sensor, int accuracy) {
+            }
+        }, sensor);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (listener != null)
+            listener.stopNow();
+        sensorThread.quit();
+        super.tearDown();
+    }
+
+    public void testStopCancelsPendingRestart() throws Exception {
+        if (listener == null)
+            return;
+        assertTrue(listener.start(SAMPLING_PERIOD, MAX_REPORT_LATENCY, handler));
+
+        final CountDownLatch stopped = new CountDownLatch(1);
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                listener.flushAndRestart(SAMPLING_PERIOD * 2, MAX_REPORT_LATENCY);
+                listener.flushAndStop(new Runnable() {
+                    @Override
+                    public void run() {
+                        stopped.countDown();
+                    }
+                });
+            }
+        });
+
+        assertTrue(stopped.await(STOP_TIMEOUT, TimeUnit.SECONDS));
+        assertFalse(listener.isRegistered());
+    }
+
+    public void testSecondStopRunsBothCallbacks() throws Exception {
+        if (listener == null)
+            return;
+        assertTrue(listener.start(SAMPLING_PERIOD, MAX_REPORT_LATENCY, handler));
+
+        final List<Integer> order = new ArrayList<>();
+        final CountDownLatch stopped = new CountDownLatch(2);
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < 2; i++) {
+                    final int call = i;
+                    listener.flushAndStop(new Runnable() {
+                        @Override
+                        public void run() {
+                            order.add(call);
+                            stopped.countDown();
+                        }
+                    });
+                }
+            }
+        });
+
+        assertTrue(stopped.await(STOP_TIMEOUT, TimeUnit.SECONDS));
+        assertFalse(listener.isRegistered());
+        assertEquals(0, (int) order.get(0));
+        assertEquals(1, (int) order.get(1));
+    }
+}
@@ -38,6 +38,10 @@ public final class Constants {
     public static final String LONGITUDE =
             "ai.plex.poc.android.LONGITUDE";
 
+    // Meters travelled in the last hour
+    public static final String RECENT_DISTANCE =
+            "ai.plex.poc.android.RECENT_DISTANCE";
+
     public static final String SHARED_PREFERENCES_FILE = "com.ai.plex.poc.android.prefsFile";
 
     public final class ACTIONS {
@@ -0,0 +1,116 @@
+package ai.plex.poc.android;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+
+import ai.plex.poc.android.sensorListeners.SensorClock;
+
+/**
+ * Process wide holder for the recording and driving flags. The flags are read on every sensor
+ * sample so they are kept in volatile fields, the shared preferences are only used to restore
+ * them when the process starts and are written asynchronously whenever a flag changes.
+ *
+ * The trip id is the one of the open trip and is reset to 0 once the trip is closed, so that
+ * samples recorded manually between trips are not written with the last one.
+ */
+public final class RecordingState {
+    public static final String PREF_IS_RECORDING = "isRecording";
+    public static final String PREF_IS_DRIVING = "isDriving";
+    public static final String PREF_TRIP_ID = "tripId";
+
+    private static RecordingState sInstance;
+
+    private final SharedPreferences prefs;
+    private volatile boolean isRecording;
+    private volatile boolean isDriving;
+    private volatile long tripId;
+
+    // Time recording last stopped, samples taken before it are still recorded when they are
+    // delivered late, for example when the sensor hub FIFO is flushed at the end of a trip
+    private volatile long recordingStoppedAt = 0; // elapsed realtime nanoseconds
+    private volatile boolean drivingWhenStopped = false;
+
+    private RecordingState(Context context) {
+        prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        isRecording = prefs.getBoolean(PREF_IS_RECORDING, false);
+        isDriving = prefs.getBoolean(PREF_IS_DRIVING, false);
+        tripId = prefs.getLong(PREF_TRIP_ID, 0);
+    }
+
+    public static synchronized RecordingState getsInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new RecordingState(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    public boolean isRecording() {
+        return isRecording;
+    }
+
+    public boolean isDriving() {
+        return isDriving;
+    }
+
+    /**
+     * The id of the open trip, 0 when no trip is open
+     */
+    public long getTripId() {
+        return tripId;
+    }
+
+    public void setTripId(long tripId) {
+        this.tripId = tripId;
+        prefs.edit().putLong(PREF_TRIP_ID, tripId).apply();
+    }
+
+    /**
+     * Checks whether a sample taken at the given time should be recorded
+     * @param sampleTime elapsed realtime in nanoseconds, see SensorClock.fromSensorTimestamp
+     */
+    public boolean isRecordingAt(long sampleTime) {
+        return isRecording || sampleTime <= recordingStoppedAt;
+    }
+
+    /**
+     * The driving flag that applied at the time the sample was taken
+     * @param sampleTime elapsed realtime in nanoseconds
+     */
+    public boolean isDrivingAt(long sampleTime) {
+        if (!isRecording && sampleTime <= recordingStoppedAt)
+            return drivingWhenStopped;
+        return isDriving;
+    }
+
+    private void onRecordingChanged(boolean recording) {
+        if (isRecording && !recording) {
+            drivingWhenStopped = isDriving;
+            recordingStoppedAt = SensorClock.elapsedRealtimeNanos();
+        }
+    }
+
+    public void setRecording(boolean recording) {
+        onRecordingChanged(recording);
+        isRecording = recording;
+        prefs.edit().putBoolean(PREF_IS_RECORDING, recording).apply();
+    }
+
+    public void setDriving(boolean driving) {
+        isDriving = driving;
+        prefs.edit().putBoolean(PREF_IS_DRIVING, driving).apply();
+    }
+
+    /**
+     * Sets both flags at once, used by the service when a trip starts or ends
+     */
+    public void setRecordingAndDriving(boolean recording, boolean driving) {
+        onRecordingChanged(recording);
+        isRecording = recording;
+        isDriving = driving;
+        prefs.edit()
+                .putBoolean(PREF_IS_RECORDING, recording)
+                .putBoolean(PREF_IS_DRIVING, driving)
+                .apply();
+    }
+}
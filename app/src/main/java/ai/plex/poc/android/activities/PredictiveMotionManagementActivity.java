@@ -31,6 +31,7 @@ import android.widget.ToggleButton;
 
 import ai.plex.poc.android.*;
 import ai.plex.poc.android.Constants;
+import ai.plex.poc.android.RecordingState;
 import ai.plex.poc.android.database.SnapShotDBHelper;
 import ai.plex.poc.android.sensorListeners.SensorType;
 import ai.plex.poc.android.services.UploadDataService;
@@ -199,12 +200,12 @@ public class PredictiveMotionManagementActivity extends AppCompatActivity implem
         switch(view.getId()) {
             case R.id.isDrivingToggleButton:
                 checked = ((ToggleButton) view).isChecked();
-                PreferenceManager.getDefaultSharedPreferences(this).edit().putBoolean("isDriving", checked).commit();
+                RecordingState.getsInstance(this).setDriving(checked);
                 updateStatus("Driving - " + (checked ? "ON" : "OFF"));
                 break;
             case R.id.isRecordingToggleButton:
                 checked = ((ToggleButton) view).isChecked();
-                PreferenceManager.getDefaultSharedPreferences(this).edit().putBoolean("isRecording", checked).commit();
+                RecordingState.getsInstance(this).setRecording(checked);
                 toggleSwitches(checked);
                 updateStatus("Recording - " + (checked ? "ON" : "OFF"));
                 if (checked) {
@@ -263,7 +264,7 @@ public class PredictiveMotionManagementActivity extends AppCompatActivity implem
                 break;
             case R.id.clearButton:
                 try {
-                    SnapShotDBHelper.clearTables(SnapShotDBHelper.getsInstance(this).getWritableDatabase());
+                    SnapShotDBHelper.clearTables(this);
                     updateStatus("Cleared data");
                 } catch (Exception e) {
                     updateStatus("Error clearing data");
@@ -299,8 +300,7 @@ public class PredictiveMotionManagementActivity extends AppCompatActivity implem
         drivingToggle.setChecked(false);
         recordingToggle.setChecked(false);
 
-        PreferenceManager.getDefaultSharedPreferences(this).edit().putBoolean("isDriving", false).commit();
-        PreferenceManager.getDefaultSharedPreferences(this).edit().putBoolean("isRecording", false).commit();
+        RecordingState.getsInstance(this).setRecordingAndDriving(false, false);
 
         toggleSwitches(false);
     }
@@ -372,8 +372,8 @@ public class PredictiveMotionManagementActivity extends AppCompatActivity implem
             TextView activityDetectorStatus = (TextView) findViewById(R.id.activityDetectorText);
             activityDetectorStatus.setText(activityName + " - " + activityConfidence);
 
-            boolean isDriving = PreferenceManager.getDefaultSharedPreferences(getApplicationContext()).getBoolean("isDriving", false);
-            boolean isRecording = PreferenceManager.getDefaultSharedPreferences(getApplicationContext()).getBoolean("isRecording", false);
+            boolean isDriving = RecordingState.getsInstance(context).isDriving();
+            boolean isRecording = RecordingState.getsInstance(context).isRecording();
             updateStatus("[Recording, Driving] = [" + isRecording + ", " + isDriving + "]");
         }
     }
@@ -387,8 +387,9 @@ public class PredictiveMotionManagementActivity extends AppCompatActivity implem
         public void onReceive(Context context, Intent intent) {
             Double latitude = intent.getDoubleExtra(Constants.LATITUDE, -1.0);
             Double longitude = intent.getDoubleExtra(Constants.LONGITUDE, -1.0);
+            double distance = intent.getDoubleExtra(Constants.RECENT_DISTANCE, 0);
             TextView locationStatus = (TextView) findViewById(R.id.locationStatus);
-            locationStatus.setText("[" + latitude + ", " + longitude+"]");
+            locationStatus.setText("[" + latitude + ", " + longitude+"], " + Math.round(distance) + " m in the last hour");
         }
     }
 }
@@ -0,0 +1,21 @@
+package ai.plex.poc.android.broadcastReceivers;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+
+import ai.plex.poc.android.services.RetentionService;
+
+/**
+ * A receiver responsible for starting the RetentionService when the phone
+ * is connected to power
+ * */
+public class PowerConnectedReceiver extends BroadcastReceiver {
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        //Deletes uploaded data and compacts the database while charging
+        Intent retentionIntent = new Intent(context, RetentionService.class);
+        context.startService(retentionIntent);
+    }
+}
@@ -0,0 +1,190 @@
+package ai.plex.poc.android.database;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import ai.plex.poc.android.database.SnapShotContract.SensorChunkEntry;
+import ai.plex.poc.android.sensorListeners.CompiledSensorDataWriter;
+import ai.plex.poc.android.sensorListeners.SensorSampleBatch;
+import ai.plex.poc.android.sensorListeners.SensorType;
+
+/**
+ * TelemetryStore that packs runs of samples into rows of the sensorChunk table, see
+ * SensorChunkCodec. The id of a sample is the _id of its chunk row shifted left by ID_SHIFT plus
+ * the index of the sample in the chunk, so ids grow per sensor type and the samples of a chunk
+ * are read by decoding its blobs.
+ *
+ * The table holds every sensor type, so samples acknowledged through the store are tracked per
+ * sensor type with UploadMarks under the name returned by getMarkName. Chunk rows uploaded whole
+ * by earlier versions of the UploadDataService are covered by the mark of the table, a sample is
+ * pending until one of the two marks covers it.
+ */
+public class ChunkedSqliteTelemetryStore implements TelemetryStore {
+    static final int ID_SHIFT = 16;
+    private static final long INDEX_MASK = (1L << ID_SHIFT) - 1;
+
+    private final SQLiteDatabase db;
+    private final int chunkSize;
+
+    /**
+     * @param chunkSize the maximum number of samples per row, at most 2^ID_SHIFT
+     */
+    public ChunkedSqliteTelemetryStore(SQLiteDatabase db, int chunkSize) {
+        this.db = db;
+        this.chunkSize = (int) Math.max(1, Math.min(chunkSize, INDEX_MASK + 1));
+    }
+
+    public static String getMarkName(SensorType sensorType) {
+        return "chunks/" + sensorType.name();
+    }
+
+    private static long toId(long rowId, long index) {
+        return (rowId << ID_SHIFT) | index;
+    }
+
+    /**
+     * The id of the last sample of the sensor type that is not pending
+     */
+    private long getMark(SensorType sensorType) {
+        long uploadedRows = UploadMarks.getMark(db, SensorChunkEntry.TABLE_NAME);
+        return Math.max(UploadMarks.getMark(db, getMarkName(sensorType)), toId(uploadedRows, INDEX_MASK));
+    }
+
+    /**
+     * Appends the batch in a transaction, nested in the one of the caller if there is one
+     */
+    @Override
+    public int append(SensorSampleBatch batch, long tripId) {
+        CompiledSensorDataWriter writer = CompiledSensorDataWriter.getInstance(db);
+        db.beginTransaction();
+        try {
+            int written = writer.insertChunks(batch, chunkSize, tripId);
+            db.setTransactionSuccessful();
+            return written;
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    /**
+     * Reads the chunk rows holding pending samples, a row holds at least one sample so maxCount
+     * rows after the one of the first id are enough
+     */
+    @Override
+    public List<Record> scanPending(SensorType sensorType, long afterId, int maxCount) {
+        long from = Math.max(afterId, getMark(sensorType));
+
+        ArrayList<Record> result = new ArrayList<>();
+        Cursor cursor = db.rawQuery("SELECT " + SensorChunkEntry._ID + ", " +
+                        SensorChunkEntry.COLUMN_START_TIME + ", " +
+                        SensorChunkEntry.COLUMN_SAMPLE_COUNT + ", " +
+                        SensorChunkEntry.COLUMN_VALUE_COUNT + ", " +
+                        SensorChunkEntry.COLUMN_TIMESTAMPS + ", " +
+                        SensorChunkEntry.COLUMN_VALUES + ", " +
+                        SensorChunkEntry.COLUMN_TRIP_ID + ", " +
+                        SensorChunkEntry.COLUMN_IS_DRIVING + " FROM " + SensorChunkEntry.TABLE_NAME +
+                        " WHERE " + SensorChunkEntry.COLUMN_SENSOR_TYPE + " = ? AND " + SensorChunkEntry._ID + " >= ?" +
+                        " ORDER BY " + SensorChunkEntry._ID + " LIMIT " + (maxCount + 1),
+                new String[]{sensorType.toString(), String.valueOf(from >> ID_SHIFT)});
+        try {
+            while (result.size() < maxCount && cursor.moveToNext()) {
+                long rowId = cursor.getLong(0);
+                int sampleCount = cursor.getInt(2);
+                int valueCount = cursor.getInt(3);
+                long[] timestamps = SensorChunkCodec.decodeTimestamps(cursor.getLong(1), cursor.getBlob(4), sampleCount);
+                float[] values = SensorChunkCodec.decodeValues(cursor.getBlob(5));
+                long tripId = cursor.getLong(6);
+                boolean isDriving = cursor.getInt(7) == 1;
+
+                for (int i = 0; i < sampleCount && result.size() < maxCount; i++) {
+                    long id = toId(rowId, i);
+                    if (id <= from)
+                        continue;
+                    result.add(new Record(id, sensorType, timestamps[i], tripId, isDriving,
+                            Arrays.copyOfRange(values, i * valueCount, (i + 1) * valueCount)));
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        return result;
+    }
+
+    /**
+     * Ids have gaps between chunks, the mark only moves if no pending sample comes before firstId
+     */
+    @Override
+    public boolean acknowledge(SensorType sensorType, long firstId, long lastId) {
+        long mark = getMark(sensorType);
+        if (lastId <= mark)
+            return false;
+
+        List<Record> first = scanPending(sensorType, mark, 1);
+        if (!first.isEmpty() && first.get(0).id < firstId)
+            return false;
+
+        UploadMarks.setMark(db, getMarkName(sensorType), lastId);
+        return true;
+    }
+
+    @Override
+    public long countPending(SensorType sensorType) {
+        long mark = getMark(sensorType);
+        long row = mark >> ID_SHIFT;
+        long index = mark & INDEX_MASK;
+        // The chunk of the mark only counts the samples after it
+        return DatabaseUtils.longForQuery(db, "SELECT IFNULL(SUM(CASE WHEN " + SensorChunkEntry._ID + " > ? THEN " +
+                        SensorChunkEntry.COLUMN_SAMPLE_COUNT + " ELSE MAX(" + SensorChunkEntry.COLUMN_SAMPLE_COUNT + " - ?, 0) END), 0)" +
+                        " FROM " + SensorChunkEntry.TABLE_NAME +
+                        " WHERE " + SensorChunkEntry.COLUMN_SENSOR_TYPE + " = ? AND " + SensorChunkEntry._ID + " >= ?",
+                new String[]{String.valueOf(row), String.valueOf(index + 1), sensorType.toString(), String.valueOf(row)});
+    }
+
+    /**
+     * Deletes the chunk rows whose samples were all acknowledged or uploaded
+     */
+    @Override
+    public long purge() {
+        long purged = 0;
+        for (SensorType sensorType : SqliteTelemetryStore.SENSOR_TYPES) {
+            long mark = getMark(sensorType);
+            long row = mark >> ID_SHIFT;
+            String selection = SensorChunkEntry.COLUMN_SENSOR_TYPE + " = ? AND (" + SensorChunkEntry._ID + " < ? OR (" +
+                    SensorChunkEntry._ID + " = ? AND " + SensorChunkEntry.COLUMN_SAMPLE_COUNT + " <= ?))";
+            String[] selectionArgs = {sensorType.toString(), String.valueOf(row), String.valueOf(row),
+                    String.valueOf((mark & INDEX_MASK) + 1)};
+
+            purged += DatabaseUtils.longForQuery(db, "SELECT IFNULL(SUM(" + SensorChunkEntry.COLUMN_SAMPLE_COUNT + "), 0) FROM " +
+                    SensorChunkEntry.TABLE_NAME + " WHERE " + selection, selectionArgs);
+            db.delete(SensorChunkEntry.TABLE_NAME, selection, selectionArgs);
+        }
+        return purged;
+    }
+
+    /**
+     * Deletes every chunk row, _id is AUTOINCREMENT so the ids of new samples stay above the marks
+     */
+    @Override
+    public long clear() {
+        long cleared = DatabaseUtils.longForQuery(db, "SELECT IFNULL(SUM(" + SensorChunkEntry.COLUMN_SAMPLE_COUNT + "), 0) FROM " +
+                SensorChunkEntry.TABLE_NAME, null);
+        db.delete(SensorChunkEntry.TABLE_NAME, null, null);
+        return cleared;
+    }
+
+    /**
+     * The database is shared with the rest of the app and stays open
+     */
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,254 @@
+package ai.plex.poc.android.database;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+
+import ai.plex.poc.android.sensorListeners.SensorSampleBatch;
+import ai.plex.poc.android.sensorListeners.SensorType;
+
+/**
+ * TelemetryStore kept in a SegmentLog per sensor type, one directory per sensor type, ids are the
+ * sequences of the log. The upload mark of a sensor type is kept in a small file next to its
+ * segments, written to a temporary file first and renamed over the previous one.
+ *
+ * The store only needs a directory and runs on a plain JVM, the SegmentStore used by the app
+ * keeps its marks in the database instead by overriding getMark and setMark.
+ */
+public class FileTelemetryStore implements TelemetryStore {
+    private static final String MARK_FILE = "mark";
+
+    private final File directory;
+    private final int segmentSize;
+    private final EnumMap<SensorType, SegmentLog> logs = new EnumMap<>(SensorType.class);
+    private final EnumMap<SensorType, Long> marks = new EnumMap<>(SensorType.class);
+
+    /**
+     * @param segmentSize bytes per segment file
+     */
+    public FileTelemetryStore(File directory, int segmentSize) {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+    }
+
+    protected File getDirectory(SensorType sensorType) {
+        return new File(directory, sensorType.name());
+    }
+
+    /**
+     * Returns the log of the sensor type, opening and recovering it on first use
+     */
+    protected synchronized SegmentLog getLog(SensorType sensorType) throws IOException {
+        SegmentLog log = logs.get(sensorType);
+        if (log == null) {
+            log = new SegmentLog(getDirectory(sensorType), sensorType.getValueCount(), segmentSize);
+            logs.put(sensorType, log);
+        }
+        return log;
+    }
+
+    /**
+     * The sequence of the last uploaded record of the sensor type, 0 if none was
+     */
+    protected long getMark(SensorType sensorType) throws IOException {
+        Long mark = marks.get(sensorType);
+        if (mark == null) {
+            mark = 0L;
+            File file = new File(getDirectory(sensorType), MARK_FILE);
+            if (file.exists()) {
+                DataInputStream in = new DataInputStream(new FileInputStream(file));
+                try {
+                    mark = in.readLong();
+                } finally {
+                    in.close();
+                }
+            }
+            marks.put(sensorType, mark);
+        }
+        return mark;
+    }
+
+    protected void setMark(SensorType sensorType, long mark) throws IOException {
+        File file = new File(getDirectory(sensorType), MARK_FILE);
+        File temporary = new File(getDirectory(sensorType), MARK_FILE + ".tmp");
+        FileOutputStream stream = new FileOutputStream(temporary);
+        DataOutputStream out = new DataOutputStream(stream);
+        try {
+            out.writeLong(mark);
+            out.flush();
+            stream.getFD().sync();
+        } finally {
+            out.close();
+        }
+        if (!temporary.renameTo(file))
+            throw new IOException("Can not replace " + file);
+        marks.put(sensorType, mark);
+    }
+
+    /**
+     * Appends the samples, they are readable once the call returns and written to storage by flush.
+     * The batch is stored whole or not at all, the caller appends it again after a failure.
+     */
+    @Override
+    public synchronized int append(SensorSampleBatch batch, long tripId) throws IOException {
+        if (batch.isEmpty())
+            return 0;
+        SegmentLog log = getLog(batch.getSensorType());
+        long lastSequence = log.getLastSequence();
+        float[] values = new float[batch.getStride()];
+        try {
+            for (int row = 0; row < batch.size(); row++) {
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = batch.getValue(row, i);
+                }
+                log.append(batch.getTimestamp(row), batch.isDriving(row) ? tripId : 0, batch.isDriving(row), values);
+            }
+            log.commit();
+        } catch (IOException ex) {
+            // Blocks are committed as they fill up, remove those of the batch
+            log.truncate(lastSequence);
+            throw ex;
+        }
+        return batch.size();
+    }
+
+    /**
+     * Writes the segments of every open log to storage
+     */
+    @Override
+    public synchronized void flush() {
+        for (SegmentLog log : logs.values()) {
+            log.force();
+        }
+    }
+
+    /**
+     * Opens a new reader for every scan, the reader skips the records of the segment before afterId
+     */
+    @Override
+    public synchronized List<Record> scanPending(SensorType sensorType, long afterId, int maxCount) throws IOException {
+        getLog(sensorType);
+        long from = Math.max(afterId, getMark(sensorType)) + 1;
+        ArrayList<Record> result = new ArrayList<>();
+        SegmentReader reader = new SegmentReader(getDirectory(sensorType), sensorType.getValueCount(), from);
+        try {
+            while (result.size() < maxCount && reader.next()) {
+                result.add(new Record(reader.getSequence(), sensorType, reader.getTimestamp(),
+                        reader.getTripId(), reader.isDriving(), reader.getValues().clone()));
+            }
+        } finally {
+            reader.close();
+        }
+        return result;
+    }
+
+    /**
+     * Sequences have no gaps, the mark only moves if the range starts right after it
+     */
+    @Override
+    public synchronized boolean acknowledge(SensorType sensorType, long firstId, long lastId) throws IOException {
+        long mark = getMark(sensorType);
+        if (lastId <= mark || firstId > mark + 1)
+            return false;
+        setMark(sensorType, Math.min(lastId, getLog(sensorType).getLastSequence()));
+        return true;
+    }
+
+    @Override
+    public synchronized long countPending(SensorType sensorType) throws IOException {
+        return Math.max(0, getLog(sensorType).getLastSequence() - getMark(sensorType));
+    }
+
+    /**
+     * Deletes the segments whose records were all acknowledged, the records of a segment that
+     * still holds pending ones are kept
+     */
+    @Override
+    public synchronized long purge() throws IOException {
+        long purged = 0;
+        for (SensorType sensorType : SensorType.values()) {
+            long[] segments = SegmentLog.listSegments(getDirectory(sensorType));
+            if (segments.length == 0)
+                continue;
+            getLog(sensorType).deleteUpTo(getMark(sensorType));
+            long[] remaining = SegmentLog.listSegments(getDirectory(sensorType));
+            if (remaining.length > 0)
+                purged += remaining[0] - segments[0];
+        }
+        return purged;
+    }
+
+    /**
+     * Deletes the segments of every sensor type, sequences start over so every mark goes back to
+     * 0, also the marks of sensor types whose segments were all purged
+     */
+    @Override
+    public synchronized long clear() throws IOException {
+        long cleared = 0;
+        for (SensorType sensorType : SensorType.values()) {
+            long[] segments = SegmentLog.listSegments(getDirectory(sensorType));
+            if (segments.length > 0) {
+                SegmentLog log = getLog(sensorType);
+                cleared += log.getLastSequence() - segments[0] + 1;
+                log.clear();
+            }
+            if (getMark(sensorType) != 0)
+                setMark(sensorType, 0);
+        }
+        return cleared;
+    }
+
+    /**
+     * Deletes the oldest segment of the sensor type with the most segments, even if its records
+     * were not acknowledged. The mark is moved past the deleted records so that reads and
+     * acknowledgements go on with the next segment.
+     * @return the number of records deleted before being acknowledged
+     */
+    public synchronized long evictOldest() throws IOException {
+        SensorType largest = null;
+        int mostSegments = 1;
+        for (SensorType sensorType : SensorType.values()) {
+            int segments = SegmentLog.listSegments(getDirectory(sensorType)).length;
+            if (segments > mostSegments) {
+                largest = sensorType;
+                mostSegments = segments;
+            }
+        }
+        if (largest == null)
+            return 0;
+
+        long first = SegmentLog.listSegments(getDirectory(largest))[0];
+        long last = getLog(largest).deleteOldest();
+        long mark = getMark(largest);
+        if (last <= mark)
+            return 0;
+        setMark(largest, last);
+        return last - Math.max(mark, first - 1);
+    }
+
+    /**
+     * The bytes taken by the segment files of every sensor type, segments are preallocated
+     */
+    public long getDiskUsage() {
+        long usage = 0;
+        for (SensorType sensorType : SensorType.values()) {
+            usage += SegmentLog.diskUsage(getDirectory(sensorType));
+        }
+        return usage;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        for (SegmentLog log : logs.values()) {
+            log.close();
+        }
+        logs.clear();
+        marks.clear();
+    }
+}
@@ -0,0 +1,110 @@
+package ai.plex.poc.android.database;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+
+import ai.plex.poc.android.sensorListeners.SensorSampleBatch;
+import ai.plex.poc.android.sensorListeners.SensorType;
+
+/**
+ * TelemetryStore kept on the heap, the baseline storage strategies are measured against. Nothing
+ * survives the process.
+ */
+public class MemoryTelemetryStore implements TelemetryStore {
+
+    private static class Samples {
+        // Records in id order, the first one has the id firstId
+        final ArrayList<Record> records = new ArrayList<>();
+        long firstId = 1;
+        long nextId = 1;
+        long mark = 0;
+    }
+
+    private final EnumMap<SensorType, Samples> samples = new EnumMap<>(SensorType.class);
+
+    private Samples getSamples(SensorType sensorType) {
+        Samples result = samples.get(sensorType);
+        if (result == null) {
+            result = new Samples();
+            samples.put(sensorType, result);
+        }
+        return result;
+    }
+
+    @Override
+    public synchronized int append(SensorSampleBatch batch, long tripId) {
+        Samples target = getSamples(batch.getSensorType());
+        for (int row = 0; row < batch.size(); row++) {
+            float[] values = new float[batch.getStride()];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = batch.getValue(row, i);
+            }
+            boolean isDriving = batch.isDriving(row);
+            target.records.add(new Record(target.nextId++, batch.getSensorType(), batch.getTimestamp(row),
+                    isDriving ? tripId : 0, isDriving, values));
+        }
+        return batch.size();
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public synchronized List<Record> scanPending(SensorType sensorType, long afterId, int maxCount) {
+        Samples source = getSamples(sensorType);
+        long from = Math.max(afterId, source.mark) + 1;
+        int start = (int) Math.max(0, from - source.firstId);
+        int end = Math.min(source.records.size(), start + maxCount);
+        ArrayList<Record> result = new ArrayList<>();
+        for (int i = start; i < end; i++) {
+            result.add(source.records.get(i));
+        }
+        return result;
+    }
+
+    @Override
+    public synchronized boolean acknowledge(SensorType sensorType, long firstId, long lastId) {
+        Samples target = getSamples(sensorType);
+        if (lastId <= target.mark || firstId > target.mark + 1)
+            return false;
+        target.mark = Math.min(lastId, target.nextId - 1);
+        return true;
+    }
+
+    @Override
+    public synchronized long countPending(SensorType sensorType) {
+        Samples source = getSamples(sensorType);
+        return source.nextId - 1 - source.mark;
+    }
+
+    @Override
+    public synchronized long purge() {
+        long purged = 0;
+        for (Samples target : samples.values()) {
+            int count = (int) Math.max(0, target.mark - target.firstId + 1);
+            target.records.subList(0, count).clear();
+            target.firstId += count;
+            purged += count;
+        }
+        return purged;
+    }
+
+    @Override
+    public synchronized long clear() {
+        long cleared = 0;
+        for (Samples target : samples.values()) {
+            cleared += target.records.size();
+            target.records.clear();
+            target.firstId = target.nextId;
+            target.mark = target.nextId - 1;
+        }
+        return cleared;
+    }
+
+    @Override
+    public synchronized void close() {
+        samples.clear();
+    }
+}
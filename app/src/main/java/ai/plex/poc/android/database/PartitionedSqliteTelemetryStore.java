@@ -0,0 +1,376 @@
+package ai.plex.poc.android.database;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+
+import ai.plex.poc.android.database.SnapShotContract.SamplePartitionEntry;
+import ai.plex.poc.android.sensorListeners.SensorSampleBatch;
+import ai.plex.poc.android.sensorListeners.SensorType;
+
+/**
+ * TelemetryStore that writes the samples of every sensor type into one table per day, named after
+ * the sample table and the day, e.g. gyroscope_20261016. Partitions are created on demand and
+ * listed in the samplePartition table. Inserts always go to the partition of the current day,
+ * which stays small, and a partition whose samples were all uploaded is removed with a DROP TABLE
+ * instead of deleting its rows one by one.
+ *
+ * Ids are assigned by the store and grow across partitions, so reading the partitions in the
+ * order of their first id reads the samples in id order. The current partition only moves
+ * forward, a clock set back keeps writing to the newest partition. Uploaded ids are tracked with
+ * UploadMarks under the name returned by getMarkName.
+ *
+ * Compiled statements belong to a database connection, use getInstance to obtain the store for
+ * the currently open database.
+ */
+public class PartitionedSqliteTelemetryStore implements TelemetryStore {
+    private static final String TAG = PartitionedSqliteTelemetryStore.class.getSimpleName();
+
+    private static final long DAY = 24L * 60 * 60 * 1000; // milliseconds
+
+    private static PartitionedSqliteTelemetryStore sInstance;
+
+    private final SQLiteDatabase db;
+    // Next id to assign, loaded from the partitions on first use
+    private final EnumMap<SensorType, Long> nextIds = new EnumMap<>(SensorType.class);
+    // Day of the partition inserts currently go to and its insert statement
+    private final EnumMap<SensorType, Long> hotDays = new EnumMap<>(SensorType.class);
+    private final EnumMap<SensorType, SQLiteStatement> statements = new EnumMap<>(SensorType.class);
+
+    private PartitionedSqliteTelemetryStore(SQLiteDatabase db) {
+        this.db = db;
+    }
+
+    /**
+     * Returns the store for the given database, statements are recompiled if the database was
+     * closed and reopened since the last call
+     */
+    public static synchronized PartitionedSqliteTelemetryStore getInstance(SQLiteDatabase db) {
+        if (sInstance == null || sInstance.db != db || !sInstance.db.isOpen()) {
+            if (sInstance != null)
+                sInstance.reset();
+            sInstance = new PartitionedSqliteTelemetryStore(db);
+        }
+        return sInstance;
+    }
+
+    public static String getMarkName(SensorType sensorType) {
+        return "partitions/" + sensorType.name();
+    }
+
+    private static String getPartitionName(SensorType sensorType, long day) {
+        SimpleDateFormat format = new SimpleDateFormat("yyyyMMdd", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return SqliteTelemetryStore.getTableName(sensorType) + "_" + format.format(new Date(day * DAY));
+    }
+
+    /**
+     * The partition tables of the sensor type in id order
+     */
+    private ArrayList<String> getPartitions(SensorType sensorType) {
+        ArrayList<String> partitions = new ArrayList<>();
+        Cursor cursor = db.query(SamplePartitionEntry.TABLE_NAME, new String[]{SamplePartitionEntry.COLUMN_PARTITION_TABLE},
+                SamplePartitionEntry.COLUMN_SENSOR_TYPE + " = ?", new String[]{sensorType.name()},
+                null, null, SamplePartitionEntry.COLUMN_FIRST_ID);
+        try {
+            while (cursor.moveToNext()) {
+                partitions.add(cursor.getString(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return partitions;
+    }
+
+    private long getNextId(SensorType sensorType) {
+        Long nextId = nextIds.get(sensorType);
+        if (nextId == null) {
+            // Ids never go below the mark, even when every partition was dropped
+            long lastId = UploadMarks.getMark(db, getMarkName(sensorType));
+            for (String partition : getPartitions(sensorType)) {
+                lastId = Math.max(lastId, DatabaseUtils.longForQuery(db, "SELECT IFNULL(MAX(_id), 0) FROM " + partition, null));
+            }
+            nextId = lastId + 1;
+            nextIds.put(sensorType, nextId);
+        }
+        return nextId;
+    }
+
+    /**
+     * Returns the insert statement of the partition of the current day, creating the partition
+     * when the day changed
+     */
+    private SQLiteStatement getHotStatement(SensorType sensorType) {
+        long day = System.currentTimeMillis() / DAY;
+        Long hotDay = hotDays.get(sensorType);
+        SQLiteStatement statement = statements.get(sensorType);
+        if (statement != null && hotDay != null && day <= hotDay)
+            return statement;
+
+        if (hotDay == null) {
+            hotDay = DatabaseUtils.longForQuery(db, "SELECT IFNULL(MAX(" + SamplePartitionEntry.COLUMN_DAY + "), 0) FROM " +
+                    SamplePartitionEntry.TABLE_NAME + " WHERE " + SamplePartitionEntry.COLUMN_SENSOR_TYPE + " = ?", new String[]{sensorType.name()});
+        }
+        day = Math.max(day, hotDay);
+        String partition = getPartitionName(sensorType, day);
+        String[] valueColumns = SqliteTelemetryStore.getValueColumns(sensorType);
+
+        StringBuilder create = new StringBuilder("CREATE TABLE IF NOT EXISTS " + partition + "(" +
+                "_id INTEGER PRIMARY KEY, " +
+                SnapShotContract.LinearAccelerationEntry.COLUMN_TIMESTAMP + " INTEGER NOT NULL, ");
+        StringBuilder insert = new StringBuilder("INSERT INTO " + partition + " (_id, " +
+                SnapShotContract.LinearAccelerationEntry.COLUMN_TIMESTAMP + ", ");
+        StringBuilder parameters = new StringBuilder("?, ?, ");
+        for (String column : valueColumns) {
+            create.append(column).append(" REAL NOT NULL, ");
+            insert.append(column).append(", ");
+            parameters.append("?, ");
+        }
+        create.append(SnapShotContract.LinearAccelerationEntry.COLUMN_TRIP_ID + " INTEGER NOT NULL DEFAULT 0, " +
+                SnapShotContract.LinearAccelerationEntry.COLUMN_IS_DRIVING + " INTEGER NOT NULL)");
+        insert.append(SnapShotContract.LinearAccelerationEntry.COLUMN_TRIP_ID + ", " +
+                SnapShotContract.LinearAccelerationEntry.COLUMN_IS_DRIVING + ") VALUES (").append(parameters).append("?, ?)");
+
+        db.execSQL(create.toString());
+        ContentValues values = new ContentValues();
+        values.put(SamplePartitionEntry.COLUMN_PARTITION_TABLE, partition);
+        values.put(SamplePartitionEntry.COLUMN_SENSOR_TYPE, sensorType.name());
+        values.put(SamplePartitionEntry.COLUMN_DAY, day);
+        values.put(SamplePartitionEntry.COLUMN_FIRST_ID, getNextId(sensorType));
+        db.insertWithOnConflict(SamplePartitionEntry.TABLE_NAME, null, values, SQLiteDatabase.CONFLICT_IGNORE);
+
+        if (statement != null)
+            statement.close();
+        statement = db.compileStatement(insert.toString());
+        statements.put(sensorType, statement);
+        hotDays.put(sensorType, day);
+        Log.d(TAG, "Writing " + sensorType + " samples to " + partition);
+        return statement;
+    }
+
+    /**
+     * Appends the batch in a transaction, nested in the one of the caller if there is one. The
+     * cached partitions and ids are dropped when it fails, a partition created by a transaction
+     * that is rolled back is created again on the next append.
+     */
+    @Override
+    public synchronized int append(SensorSampleBatch batch, long tripId) {
+        if (batch.isEmpty())
+            return 0;
+
+        SensorType sensorType = batch.getSensorType();
+        db.beginTransaction();
+        try {
+            SQLiteStatement statement = getHotStatement(sensorType);
+            long id = getNextId(sensorType);
+            int stride = batch.getStride();
+            for (int row = 0; row < batch.size(); row++) {
+                boolean isDriving = batch.isDriving(row);
+                statement.bindLong(1, id++);
+                statement.bindLong(2, batch.getTimestamp(row));
+                for (int i = 0; i < stride; i++) {
+                    statement.bindDouble(3 + i, batch.getValue(row, i));
+                }
+                statement.bindLong(3 + stride, isDriving ? tripId : 0);
+                statement.bindLong(4 + stride, isDriving ? 1 : 0);
+                statement.executeInsert();
+            }
+            db.setTransactionSuccessful();
+            nextIds.put(sensorType, id);
+            return batch.size();
+        } catch (SQLException ex) {
+            // The partition or the ids may not be what was cached, load them again
+            reset();
+            throw ex;
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public synchronized List<Record> scanPending(SensorType sensorType, long afterId, int maxCount) {
+        String[] valueColumns = SqliteTelemetryStore.getValueColumns(sensorType);
+        long from = Math.max(afterId, UploadMarks.getMark(db, getMarkName(sensorType)));
+
+        ArrayList<Record> result = new ArrayList<>();
+        for (String partition : getPartitions(sensorType)) {
+            if (result.size() >= maxCount)
+                break;
+            Cursor cursor = db.rawQuery("SELECT * FROM " + partition + " WHERE _id > ? ORDER BY _id LIMIT " + (maxCount - result.size()),
+                    new String[]{String.valueOf(from)});
+            try {
+                int idIndex = cursor.getColumnIndex("_id");
+                int timestampIndex = cursor.getColumnIndex(SnapShotContract.LinearAccelerationEntry.COLUMN_TIMESTAMP);
+                int tripIdIndex = cursor.getColumnIndex(SnapShotContract.LinearAccelerationEntry.COLUMN_TRIP_ID);
+                int isDrivingIndex = cursor.getColumnIndex(SnapShotContract.LinearAccelerationEntry.COLUMN_IS_DRIVING);
+                int[] valueIndexes = new int[valueColumns.length];
+                for (int i = 0; i < valueColumns.length; i++) {
+                    valueIndexes[i] = cursor.getColumnIndex(valueColumns[i]);
+                }
+
+                while (cursor.moveToNext()) {
+                    float[] values = new float[valueIndexes.length];
+                    for (int i = 0; i < values.length; i++) {
+                        values[i] = cursor.getFloat(valueIndexes[i]);
+                    }
+                    result.add(new Record(cursor.getLong(idIndex), sensorType, cursor.getLong(timestampIndex),
+                            cursor.getLong(tripIdIndex), cursor.getInt(isDrivingIndex) == 1, values));
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public synchronized boolean acknowledge(SensorType sensorType, long firstId, long lastId) {
+        String name = getMarkName(sensorType);
+        long mark = UploadMarks.getMark(db, name);
+        if (lastId <= mark)
+            return false;
+
+        // Samples between the mark and the range were not acknowledged, the range waits for them
+        if (firstId > mark + 1) {
+            for (String partition : getPartitions(sensorType)) {
+                if (DatabaseUtils.queryNumEntries(db, partition, "_id > " + mark + " AND _id < " + firstId) > 0) {
+                    Log.d(TAG, "Samples of " + name + " before " + firstId + " are not uploaded, the mark stays at " + mark);
+                    return false;
+                }
+            }
+        }
+
+        UploadMarks.setMark(db, name, lastId);
+        return true;
+    }
+
+    @Override
+    public synchronized long countPending(SensorType sensorType) {
+        long mark = UploadMarks.getMark(db, getMarkName(sensorType));
+        long count = 0;
+        for (String partition : getPartitions(sensorType)) {
+            count += DatabaseUtils.queryNumEntries(db, partition, "_id > " + mark);
+        }
+        return count;
+    }
+
+    /**
+     * Drops the partitions whose samples were all uploaded, the newest partition of every sensor
+     * type is kept because inserts go to it
+     */
+    @Override
+    public synchronized long purge() {
+        long purged = 0;
+        for (SensorType sensorType : SqliteTelemetryStore.SENSOR_TYPES) {
+            long mark = UploadMarks.getMark(db, getMarkName(sensorType));
+            ArrayList<String> partitions = getPartitions(sensorType);
+            for (int i = 0; i + 1 < partitions.size(); i++) {
+                String partition = partitions.get(i);
+                if (DatabaseUtils.longForQuery(db, "SELECT IFNULL(MAX(_id), 0) FROM " + partition, null) > mark)
+                    break;
+                purged += DatabaseUtils.queryNumEntries(db, partition);
+                dropPartition(db, partition);
+            }
+        }
+        return purged;
+    }
+
+    /**
+     * Drops the oldest partition of the sensor type with the most partitions, even if its samples
+     * were not uploaded, the newest partition of every sensor type is kept
+     * @return the number of samples dropped before being uploaded
+     */
+    public synchronized long evictOldest() {
+        ArrayList<String> largest = null;
+        SensorType largestType = null;
+        for (SensorType sensorType : SqliteTelemetryStore.SENSOR_TYPES) {
+            ArrayList<String> partitions = getPartitions(sensorType);
+            if (partitions.size() > 1 && (largest == null || partitions.size() > largest.size())) {
+                largest = partitions;
+                largestType = sensorType;
+            }
+        }
+        if (largest == null)
+            return 0;
+
+        String partition = largest.get(0);
+        long mark = UploadMarks.getMark(db, getMarkName(largestType));
+        long evicted = DatabaseUtils.queryNumEntries(db, partition, "_id > " + mark);
+        dropPartition(db, partition);
+        return evicted;
+    }
+
+    /**
+     * The database is shared with the rest of the app and stays open
+     */
+    @Override
+    public synchronized void close() {
+        reset();
+    }
+
+    /**
+     * Forgets the cached ids and partitions, they are loaded again on the next append
+     */
+    private synchronized void reset() {
+        for (SQLiteStatement statement : statements.values()) {
+            statement.close();
+        }
+        statements.clear();
+        hotDays.clear();
+        nextIds.clear();
+    }
+
+    private static void dropPartition(SQLiteDatabase db, String partition) {
+        db.beginTransaction();
+        try {
+            db.execSQL("DROP TABLE IF EXISTS " + partition);
+            db.delete(SamplePartitionEntry.TABLE_NAME, SamplePartitionEntry.COLUMN_PARTITION_TABLE + " = ?", new String[]{partition});
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        Log.d(TAG, "Dropped partition " + partition);
+    }
+
+    /**
+     * Drops every partition, uploaded or not. Ids never go below the marks, so new samples are
+     * pending.
+     */
+    @Override
+    public synchronized long clear() {
+        reset();
+
+        ArrayList<String> partitions = new ArrayList<>();
+        Cursor cursor = db.query(SamplePartitionEntry.TABLE_NAME, new String[]{SamplePartitionEntry.COLUMN_PARTITION_TABLE},
+                null, null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                partitions.add(cursor.getString(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        long cleared = 0;
+        for (String partition : partitions) {
+            cleared += DatabaseUtils.queryNumEntries(db, partition);
+            dropPartition(db, partition);
+        }
+        return cleared;
+    }
+}
@@ -0,0 +1,405 @@
+package ai.plex.poc.android.database;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of fixed width sensor records kept in rotating segment files of one directory,
+ * an alternative to one SQLite row per sample for data that is written once and read once in
+ * order. Every record gets a sequence number, a segment file is named after the sequence of its
+ * first record.
+ *
+ * A segment is preallocated by writing zeros over its whole size, so a full disk fails the
+ * rotation with an IOException instead of a fault on a mapped page, then mapped in memory. It
+ * starts with a header followed by blocks.
+ * A block is a record count and the CRC32 of its records followed by the records. Records are
+ * written into the open block and the block header is written last when the block is committed,
+ * a block with a count of 0 ends the segment. When the log is opened, the last segment is
+ * scanned and a torn block left by a crash is cut off with everything after it.
+ *
+ * Record layout, little endian: timestamp (long), trip id (long), flags (int, bit 0 driving),
+ * then the values (float). The log is not thread safe, it is written by a single thread and
+ * read through SegmentReader, which only sees committed blocks.
+ */
+public class SegmentLog implements Closeable {
+    static final int MAGIC = 0x504D5347; // "PMSG"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 32;
+    static final int BLOCK_HEADER_SIZE = 8;
+    static final int MAX_BLOCK_RECORDS = 128;
+    static final int FLAG_DRIVING = 1;
+    private static final String SUFFIX = ".seg";
+    // Zeros written at once when a segment is allocated
+    private static final int ALLOCATION_CHUNK_SIZE = 64 * 1024;
+
+    private final File directory;
+    private final int valueCount;
+    private final int recordSize;
+    private final int segmentSize;
+
+    private RandomAccessFile file;
+    private MappedByteBuffer buffer;
+    // Position of the header of the open block
+    private int blockStart;
+    private int blockRecords;
+    // Sequence of the next committed record
+    private volatile long nextSequence = 1;
+
+    private final CRC32 crc = new CRC32();
+    private final byte[] blockBytes;
+
+    /**
+     * Opens the log, recovering the last segment
+     * @param segmentSize bytes per segment file
+     */
+    public SegmentLog(File directory, int valueCount, int segmentSize) throws IOException {
+        this.directory = directory;
+        this.valueCount = valueCount;
+        this.recordSize = recordSize(valueCount);
+        this.segmentSize = segmentSize;
+        this.blockBytes = new byte[MAX_BLOCK_RECORDS * recordSize];
+        if (segmentSize < HEADER_SIZE + BLOCK_HEADER_SIZE + recordSize)
+            throw new IllegalArgumentException("Segment size " + segmentSize + " can not hold a record");
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("Can not create " + directory);
+        recover(Long.MAX_VALUE);
+    }
+
+    static int recordSize(int valueCount) {
+        return 8 + 8 + 4 + 4 * valueCount;
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    public int getValueCount() {
+        return valueCount;
+    }
+
+    /**
+     * The sequence of the last committed record, 0 if the log is empty
+     */
+    public long getLastSequence() {
+        return nextSequence - 1;
+    }
+
+    /**
+     * Adds a record to the open block, it is readable once the block is committed
+     */
+    public void append(long timestamp, long tripId, boolean isDriving, float[] values) throws IOException {
+        if (buffer == null || blockStart + BLOCK_HEADER_SIZE + (blockRecords + 1) * recordSize > buffer.capacity()) {
+            commit();
+            rotate();
+        }
+
+        int position = blockStart + BLOCK_HEADER_SIZE + blockRecords * recordSize;
+        buffer.putLong(position, timestamp);
+        buffer.putLong(position + 8, tripId);
+        buffer.putInt(position + 16, isDriving ? FLAG_DRIVING : 0);
+        for (int i = 0; i < valueCount; i++) {
+            buffer.putFloat(position + 20 + i * 4, i < values.length ? values[i] : 0);
+        }
+        blockRecords++;
+
+        if (blockRecords == MAX_BLOCK_RECORDS)
+            commit();
+    }
+
+    /**
+     * Closes the open block, its records get their sequence numbers
+     */
+    public void commit() {
+        if (blockRecords == 0)
+            return;
+
+        int length = blockRecords * recordSize;
+        for (int i = 0; i < length; i++) {
+            blockBytes[i] = buffer.get(blockStart + BLOCK_HEADER_SIZE + i);
+        }
+        crc.reset();
+        crc.update(blockBytes, 0, length);
+        buffer.putInt(blockStart + 4, (int) crc.getValue());
+        // The count is written last, it marks the block as complete
+        buffer.putInt(blockStart, blockRecords);
+
+        blockStart += BLOCK_HEADER_SIZE + length;
+        nextSequence += blockRecords;
+        blockRecords = 0;
+    }
+
+    /**
+     * Commits the open block and writes the segment to storage
+     */
+    public void force() {
+        commit();
+        if (buffer != null)
+            buffer.force();
+    }
+
+    /**
+     * Cuts the log back to the given sequence, which must end a committed block, and drops the
+     * open block. Used to undo an append that failed partway, segments created since are deleted.
+     */
+    public void truncate(long sequence) throws IOException {
+        blockRecords = 0;
+        if (sequence >= getLastSequence())
+            return;
+
+        buffer = null;
+        if (file != null) {
+            file.close();
+            file = null;
+        }
+        for (long segment : listSegments(directory)) {
+            if (segment > sequence)
+                deleteSegment(segmentFile(directory, segment));
+        }
+        nextSequence = sequence + 1;
+        recover(sequence);
+    }
+
+    /**
+     * Deletes every segment, sequences start over at 1
+     */
+    public void clear() throws IOException {
+        blockRecords = 0;
+        buffer = null;
+        if (file != null) {
+            file.close();
+            file = null;
+        }
+        for (long segment : listSegments(directory)) {
+            deleteSegment(segmentFile(directory, segment));
+        }
+        nextSequence = 1;
+    }
+
+    @Override
+    public void close() throws IOException {
+        force();
+        buffer = null;
+        if (file != null) {
+            file.close();
+            file = null;
+        }
+    }
+
+    /**
+     * Deletes the segments whose records all have a sequence up to the given one, the segment
+     * being written is kept
+     * @return the number of bytes freed
+     */
+    public long deleteUpTo(long sequence) {
+        long[] segments = listSegments(directory);
+        long freed = 0;
+        for (int i = 0; i + 1 < segments.length; i++) {
+            // The next segment starts right after the last record of this one
+            if (segments[i + 1] - 1 > sequence)
+                break;
+            File segment = segmentFile(directory, segments[i]);
+            long length = segment.length();
+            if (segment.delete())
+                freed += length;
+        }
+        return freed;
+    }
+
+    /**
+     * Deletes the oldest segment whether its records were uploaded or not, the segment being
+     * written is kept
+     * @return the sequence of the last record deleted, 0 if no segment was deleted
+     */
+    public long deleteOldest() {
+        long[] segments = listSegments(directory);
+        if (segments.length < 2 || !segmentFile(directory, segments[0]).delete())
+            return 0;
+        return segments[1] - 1;
+    }
+
+    /**
+     * The bytes taken by the segment files of the directory
+     */
+    static long diskUsage(File directory) {
+        long usage = 0;
+        for (long segment : listSegments(directory)) {
+            usage += segmentFile(directory, segment).length();
+        }
+        return usage;
+    }
+
+    private void rotate() throws IOException {
+        if (buffer != null) {
+            buffer.force();
+            buffer = null;
+            file.close();
+            file = null;
+        }
+
+        File segment = segmentFile(directory, nextSequence);
+        RandomAccessFile newFile = new RandomAccessFile(segment, "rw");
+        try {
+            allocate(newFile.getChannel(), segmentSize);
+            buffer = newFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        } catch (IOException ex) {
+            // Most likely the disk is full, no partial segment is left behind
+            newFile.close();
+            segment.delete();
+            throw ex;
+        }
+        file = newFile;
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+        buffer.putInt(0, MAGIC);
+        buffer.putShort(4, (short) VERSION);
+        buffer.putShort(6, (short) valueCount);
+        buffer.putInt(8, recordSize);
+        buffer.putInt(12, 0);
+        buffer.putLong(16, nextSequence);
+        buffer.putLong(24, System.currentTimeMillis());
+        blockStart = HEADER_SIZE;
+        blockRecords = 0;
+    }
+
+    /**
+     * Writes zeros over the file up to size so that its blocks are allocated, a sparse file would
+     * only run out of space once a mapped page is written
+     */
+    private static void allocate(FileChannel channel, long size) throws IOException {
+        ByteBuffer zeros = ByteBuffer.allocate(ALLOCATION_CHUNK_SIZE);
+        long position = 0;
+        while (position < size) {
+            zeros.clear();
+            zeros.limit((int) Math.min(zeros.capacity(), size - position));
+            position += channel.write(zeros, position);
+        }
+    }
+
+    /**
+     * Opens the last segment and finds the end of its committed blocks
+     * @param lastSequence blocks with records after it are cut off like torn ones
+     */
+    private void recover(long lastSequence) throws IOException {
+        long[] segments = listSegments(directory);
+        if (segments.length == 0)
+            return;
+
+        long base = segments[segments.length - 1];
+        File segment = segmentFile(directory, base);
+        nextSequence = base;
+        if (segment.length() < HEADER_SIZE + BLOCK_HEADER_SIZE + recordSize) {
+            // Torn while it was created
+            deleteSegment(segment);
+            return;
+        }
+
+        // The segment may have been created with another size, it is read as it is
+        file = new RandomAccessFile(segment, "rw");
+        buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segment.length());
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.getInt(0) != MAGIC || buffer.getShort(6) != valueCount || buffer.getLong(16) != base) {
+            // The header itself was torn, nothing in the segment can be trusted
+            buffer = null;
+            file.close();
+            file = null;
+            deleteSegment(segment);
+            return;
+        }
+
+        int position = HEADER_SIZE;
+        long count = 0;
+        while (true) {
+            int records = validBlock(position);
+            if (records <= 0 || base + count + records - 1 > lastSequence)
+                break;
+            position += BLOCK_HEADER_SIZE + records * recordSize;
+            count += records;
+        }
+
+        int capacity = buffer.capacity();
+        if (position + 4 <= capacity && buffer.getInt(position) != 0) {
+            // Torn or truncated tail, clear it so that no stale record follows the next block
+            for (int i = position; i < capacity; i++) {
+                buffer.put(i, (byte) 0);
+            }
+            buffer.force();
+        }
+
+        blockStart = position;
+        blockRecords = 0;
+        nextSequence = base + count;
+        if (count == 0) {
+            // The next segment would get the same name
+            buffer = null;
+            file.close();
+            file = null;
+            deleteSegment(segment);
+        }
+    }
+
+    /**
+     * @return the record count of the committed block at the position, 0 if there is none
+     */
+    private int validBlock(int position) {
+        int capacity = buffer.capacity();
+        if (position + BLOCK_HEADER_SIZE > capacity)
+            return 0;
+        int records = buffer.getInt(position);
+        if (records <= 0 || records > MAX_BLOCK_RECORDS || position + BLOCK_HEADER_SIZE + records * recordSize > capacity)
+            return 0;
+
+        int length = records * recordSize;
+        for (int i = 0; i < length; i++) {
+            blockBytes[i] = buffer.get(position + BLOCK_HEADER_SIZE + i);
+        }
+        crc.reset();
+        crc.update(blockBytes, 0, length);
+        return (int) crc.getValue() == buffer.getInt(position + 4) ? records : 0;
+    }
+
+    private static void deleteSegment(File segment) throws IOException {
+        if (!segment.delete())
+            throw new IOException("Can not delete " + segment);
+    }
+
+    /**
+     * The first sequence of every segment of the directory, in ascending order
+     */
+    static long[] listSegments(File directory) {
+        String[] names = directory.list(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.endsWith(SUFFIX);
+            }
+        });
+        if (names == null)
+            return new long[0];
+
+        long[] segments = new long[names.length];
+        int count = 0;
+        for (String name : names) {
+            try {
+                segments[count] = Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+                count++;
+            } catch (NumberFormatException ex) {
+                // Not a segment
+            }
+        }
+        segments = Arrays.copyOf(segments, count);
+        Arrays.sort(segments);
+        return segments;
+    }
+
+    static File segmentFile(File directory, long base) {
+        return new File(directory, String.format("%020d", base) + SUFFIX);
+    }
+}
@@ -0,0 +1,183 @@
+package ai.plex.poc.android.database;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.zip.CRC32;
+
+/**
+ * Reads the records of a SegmentLog directory in sequence order, starting at a given sequence.
+ * Blocks are read whole and checked against their CRC, the reader stops at the first block that
+ * is not committed or does not match, so it can run while the log is being written.
+ */
+public class SegmentReader implements Closeable {
+    private final File directory;
+    private final int valueCount;
+    private final int recordSize;
+    private final long fromSequence;
+
+    private long[] segments;
+    private int segmentIndex = -1;
+    private RandomAccessFile file;
+    private long filePosition;
+    private long nextSequence;
+
+    private final byte[] blockBytes;
+    private final ByteBuffer block;
+    private final ByteBuffer blockHeader = ByteBuffer.allocate(SegmentLog.BLOCK_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    private final CRC32 crc = new CRC32();
+    private int blockRecords = 0;
+    private int blockIndex = 0;
+
+    // The current record
+    private long sequence;
+    private long timestamp;
+    private long tripId;
+    private boolean isDriving;
+    private final float[] values;
+
+    /**
+     * @param fromSequence the first sequence to return
+     */
+    public SegmentReader(File directory, int valueCount, long fromSequence) {
+        this.directory = directory;
+        this.valueCount = valueCount;
+        this.recordSize = SegmentLog.recordSize(valueCount);
+        this.fromSequence = fromSequence;
+        this.blockBytes = new byte[SegmentLog.MAX_BLOCK_RECORDS * recordSize];
+        this.block = ByteBuffer.wrap(blockBytes).order(ByteOrder.LITTLE_ENDIAN);
+        this.values = new float[valueCount];
+        this.segments = SegmentLog.listSegments(directory);
+
+        // Start with the last segment that begins at or before the requested sequence
+        for (int i = 0; i < segments.length && segments[i] <= fromSequence; i++) {
+            segmentIndex = i - 1;
+        }
+    }
+
+    /**
+     * Moves to the next record
+     * @return false when there is no committed record left
+     */
+    public boolean next() throws IOException {
+        while (true) {
+            if (blockIndex < blockRecords) {
+                readRecord(blockIndex++);
+                if (sequence >= fromSequence)
+                    return true;
+                continue;
+            }
+            if (file != null && readBlock())
+                continue;
+            if (!openNextSegment())
+                return false;
+        }
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public long getTripId() {
+        return tripId;
+    }
+
+    public boolean isDriving() {
+        return isDriving;
+    }
+
+    /**
+     * The values of the current record, reused for the next one
+     */
+    public float[] getValues() {
+        return values;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (file != null) {
+            file.close();
+            file = null;
+        }
+    }
+
+    private void readRecord(int index) {
+        int position = index * recordSize;
+        sequence = nextSequence++;
+        timestamp = block.getLong(position);
+        tripId = block.getLong(position + 8);
+        isDriving = (block.getInt(position + 16) & SegmentLog.FLAG_DRIVING) != 0;
+        for (int i = 0; i < valueCount; i++) {
+            values[i] = block.getFloat(position + 20 + i * 4);
+        }
+    }
+
+    /**
+     * Reads the next committed block of the open segment
+     * @return false at the end of the committed blocks
+     */
+    private boolean readBlock() throws IOException {
+        blockRecords = 0;
+        blockIndex = 0;
+        if (filePosition + SegmentLog.BLOCK_HEADER_SIZE > file.length())
+            return false;
+
+        file.seek(filePosition);
+        file.readFully(blockHeader.array());
+        int records = blockHeader.getInt(0);
+        int length = records * recordSize;
+        if (records <= 0 || records > SegmentLog.MAX_BLOCK_RECORDS || filePosition + SegmentLog.BLOCK_HEADER_SIZE + length > file.length())
+            return false;
+
+        file.readFully(blockBytes, 0, length);
+        crc.reset();
+        crc.update(blockBytes, 0, length);
+        if ((int) crc.getValue() != blockHeader.getInt(4))
+            return false;
+
+        filePosition += SegmentLog.BLOCK_HEADER_SIZE + length;
+        blockRecords = records;
+        return true;
+    }
+
+    /**
+     * Moves to the segment after the open one, the open one stays open if there is none yet
+     */
+    private boolean openNextSegment() throws IOException {
+        long[] current = segments;
+        int next = segmentIndex + 1;
+        if (next >= current.length) {
+            // The writer may have started a new segment, or retention deleted old ones
+            current = SegmentLog.listSegments(directory);
+            next = 0;
+            while (next < current.length && segmentIndex >= 0 && current[next] <= segments[segmentIndex]) {
+                next++;
+            }
+            if (next >= current.length)
+                return false;
+        }
+
+        // The writer commits the last block of a segment before it starts the next one, a block
+        // committed since the last read is read before moving on
+        if (file != null && readBlock())
+            return true;
+
+        close();
+        segments = current;
+        segmentIndex = next;
+        File segment = SegmentLog.segmentFile(directory, segments[segmentIndex]);
+        if (!segment.exists())
+            return openNextSegment();
+        file = new RandomAccessFile(segment, "r");
+        filePosition = SegmentLog.HEADER_SIZE;
+        nextSequence = segments[segmentIndex];
+        return true;
+    }
+}
@@ -0,0 +1,57 @@
+package ai.plex.poc.android.database;
+
+import android.content.Context;
+
+import java.io.File;
+
+import ai.plex.poc.android.sensorListeners.SensorType;
+
+/**
+ * The FileTelemetryStore of the app, used in SensorDataBuffer.StorageMode.SEGMENTS. Logs live in
+ * the segments directory of the app files, one directory per sensor type.
+ *
+ * Upload marks are kept in the uploadMark table under the name returned by getMarkName instead of
+ * mark files, so that they are acknowledged and read like the marks of the other stores.
+ */
+public class SegmentStore extends FileTelemetryStore {
+    // Sensor types whose samples go through the SensorDataBuffer
+    public static final SensorType[] SENSOR_TYPES = {
+            SensorType.LINEAR_ACCELERATION,
+            SensorType.GYROSCOPE,
+            SensorType.MAGNETIC,
+            SensorType.ROTATION,
+            SensorType.FUSION
+    };
+
+    private static final int SEGMENT_SIZE = 4 * 1024 * 1024; // bytes
+
+    private static SegmentStore sInstance;
+
+    private final Context context;
+
+    private SegmentStore(Context context) {
+        super(new File(context.getFilesDir(), "segments"), SEGMENT_SIZE);
+        this.context = context;
+    }
+
+    public static synchronized SegmentStore getsInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new SegmentStore(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    public static String getMarkName(SensorType sensorType) {
+        return "segments/" + sensorType.name();
+    }
+
+    @Override
+    protected long getMark(SensorType sensorType) {
+        return UploadMarks.getMark(SnapShotDBHelper.getsInstance(context).getWritableDatabase(), getMarkName(sensorType));
+    }
+
+    @Override
+    protected void setMark(SensorType sensorType, long mark) {
+        UploadMarks.setMark(SnapShotDBHelper.getsInstance(context).getWritableDatabase(), getMarkName(sensorType), mark);
+    }
+}
@@ -0,0 +1,100 @@
+package ai.plex.poc.android.database;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import ai.plex.poc.android.sensorListeners.SensorSampleBatch;
+
+/**
+ * Encodes a run of samples into the blobs stored in the sensorChunk table.
+ *
+ * Timestamps: the first timestamp is stored in the startTime column, the blob holds the
+ * difference of every sample to the previous one as a zigzag encoded varint (1 or 2 bytes at
+ * usual sampling rates).
+ * Values: sampleCount * valueCount little endian 32 bit floats, sample after sample.
+ */
+public final class SensorChunkCodec {
+    private SensorChunkCodec() {
+    }
+
+    /**
+     * Encodes the timestamps of samples [from, to) of the batch relative to the timestamp of from
+     */
+    public static byte[] encodeTimestamps(SensorSampleBatch batch, int from, int to) {
+        // A varint of a 64 bit value takes at most 10 bytes
+        byte[] buffer = new byte[(to - from) * 10];
+        int length = 0;
+        long previous = batch.getTimestamp(from);
+
+        for (int i = from; i < to; i++) {
+            long timestamp = batch.getTimestamp(i);
+            long delta = timestamp - previous;
+            previous = timestamp;
+
+            long zigzag = (delta << 1) ^ (delta >> 63);
+            while ((zigzag & ~0x7FL) != 0) {
+                buffer[length++] = (byte) ((zigzag & 0x7F) | 0x80);
+                zigzag >>>= 7;
+            }
+            buffer[length++] = (byte) zigzag;
+        }
+
+        byte[] result = new byte[length];
+        System.arraycopy(buffer, 0, result, 0, length);
+        return result;
+    }
+
+    /**
+     * Packs the values of samples [from, to) of the batch
+     */
+    public static byte[] encodeValues(SensorSampleBatch batch, int from, int to) {
+        int stride = batch.getStride();
+        ByteBuffer buffer = ByteBuffer.allocate((to - from) * stride * 4).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = from; i < to; i++) {
+            for (int axis = 0; axis < stride; axis++) {
+                buffer.putFloat(batch.getValue(i, axis));
+            }
+        }
+        return buffer.array();
+    }
+
+    /**
+     * @param startTime the timestamp of the first sample
+     * @param blob the encoded deltas
+     * @param sampleCount the number of samples in the chunk
+     * @return the absolute timestamps of the samples
+     */
+    public static long[] decodeTimestamps(long startTime, byte[] blob, int sampleCount) {
+        long[] timestamps = new long[sampleCount];
+        long previous = startTime;
+        int position = 0;
+
+        for (int i = 0; i < sampleCount; i++) {
+            long zigzag = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = blob[position++];
+                zigzag |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+
+            long delta = (zigzag >>> 1) ^ -(zigzag & 1);
+            previous += delta;
+            timestamps[i] = previous;
+        }
+        return timestamps;
+    }
+
+    /**
+     * @return the packed values, sample after sample
+     */
+    public static float[] decodeValues(byte[] blob) {
+        ByteBuffer buffer = ByteBuffer.wrap(blob).order(ByteOrder.LITTLE_ENDIAN);
+        float[] values = new float[blob.length / 4];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = buffer.getFloat();
+        }
+        return values;
+    }
+}
@@ -0,0 +1,253 @@
+package ai.plex.poc.android.database;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import ai.plex.poc.android.database.SnapShotContract.LocationEntry;
+import ai.plex.poc.android.database.SnapShotContract.LocationRollupEntry;
+import ai.plex.poc.android.database.SnapShotContract.SensorRollupEntry;
+import ai.plex.poc.android.sensorListeners.SensorSampleBatch;
+import ai.plex.poc.android.sensorListeners.SensorType;
+
+/**
+ * Maintains the sensorRollup and locationRollup tables as samples are written: per sensor type,
+ * minute and axis the count, min, max, sum and sum of squares of the values, per minute the
+ * number of locations, the distance between them and the highest speed. How much was recorded
+ * can then be read from a few rows per minute instead of scanning the sample tables.
+ *
+ * A minute is the epoch time in milliseconds of its first millisecond. Rows are updated in place
+ * and inserted the first time a minute is seen, statistics of a batch are merged in one update
+ * per minute and axis.
+ *
+ * Compiled statements belong to a database connection, use getInstance to obtain the rollups for
+ * the currently open database. Rollups are written in the transaction of the rows they count, so
+ * they are rolled back with them.
+ */
+public class SensorRollups {
+    public static final long MINUTE = 60 * 1000; // milliseconds
+
+    // Locations further apart in time are not joined into a distance, recording was stopped between them
+    private static final long MAX_LOCATION_GAP = 2 * MINUTE;
+
+    private static final String SQL_UPDATE_SENSOR = "UPDATE " + SensorRollupEntry.TABLE_NAME + " SET " +
+            SensorRollupEntry.COLUMN_COUNT + " = " + SensorRollupEntry.COLUMN_COUNT + " + ?, " +
+            SensorRollupEntry.COLUMN_MIN + " = MIN(" + SensorRollupEntry.COLUMN_MIN + ", ?), " +
+            SensorRollupEntry.COLUMN_MAX + " = MAX(" + SensorRollupEntry.COLUMN_MAX + ", ?), " +
+            SensorRollupEntry.COLUMN_SUM + " = " + SensorRollupEntry.COLUMN_SUM + " + ?, " +
+            SensorRollupEntry.COLUMN_SUM_OF_SQUARES + " = " + SensorRollupEntry.COLUMN_SUM_OF_SQUARES + " + ? " +
+            "WHERE " + SensorRollupEntry.COLUMN_SENSOR_TYPE + " = ? AND " + SensorRollupEntry.COLUMN_MINUTE + " = ? AND " +
+            SensorRollupEntry.COLUMN_AXIS + " = ?";
+
+    private static final String SQL_INSERT_SENSOR = "INSERT INTO " + SensorRollupEntry.TABLE_NAME + " (" +
+            SensorRollupEntry.COLUMN_COUNT + ", " +
+            SensorRollupEntry.COLUMN_MIN + ", " +
+            SensorRollupEntry.COLUMN_MAX + ", " +
+            SensorRollupEntry.COLUMN_SUM + ", " +
+            SensorRollupEntry.COLUMN_SUM_OF_SQUARES + ", " +
+            SensorRollupEntry.COLUMN_SENSOR_TYPE + ", " +
+            SensorRollupEntry.COLUMN_MINUTE + ", " +
+            SensorRollupEntry.COLUMN_AXIS + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private static final String SQL_UPDATE_LOCATION = "UPDATE " + LocationRollupEntry.TABLE_NAME + " SET " +
+            LocationRollupEntry.COLUMN_COUNT + " = " + LocationRollupEntry.COLUMN_COUNT + " + 1, " +
+            LocationRollupEntry.COLUMN_DISTANCE + " = " + LocationRollupEntry.COLUMN_DISTANCE + " + ?, " +
+            LocationRollupEntry.COLUMN_MAX_SPEED + " = MAX(" + LocationRollupEntry.COLUMN_MAX_SPEED + ", ?) " +
+            "WHERE " + LocationRollupEntry.COLUMN_MINUTE + " = ?";
+
+    private static final String SQL_INSERT_LOCATION = "INSERT INTO " + LocationRollupEntry.TABLE_NAME + " (" +
+            LocationRollupEntry.COLUMN_COUNT + ", " +
+            LocationRollupEntry.COLUMN_DISTANCE + ", " +
+            LocationRollupEntry.COLUMN_MAX_SPEED + ", " +
+            LocationRollupEntry.COLUMN_MINUTE + ") VALUES (1, ?, ?, ?)";
+
+    private static final String SQL_PREVIOUS_LOCATION = "SELECT " + LocationEntry.COLUMN_TIMESTAMP + ", " +
+            LocationEntry.COLUMN_LATITUDE + ", " + LocationEntry.COLUMN_LONGITUDE + " FROM " + LocationEntry.TABLE_NAME +
+            " WHERE " + LocationEntry._ID + " < ? ORDER BY " + LocationEntry._ID + " DESC LIMIT 1";
+
+    private static SensorRollups sInstance;
+
+    private final SQLiteDatabase db;
+    private SQLiteStatement updateSensor;
+    private SQLiteStatement insertSensor;
+    private SQLiteStatement updateLocation;
+    private SQLiteStatement insertLocation;
+
+    private SensorRollups(SQLiteDatabase db) {
+        this.db = db;
+    }
+
+    /**
+     * Returns the rollups for the given database, statements are recompiled if the database was
+     * closed and reopened since the last call
+     */
+    public static synchronized SensorRollups getInstance(SQLiteDatabase db) {
+        if (sInstance == null || sInstance.db != db || !sInstance.db.isOpen()) {
+            if (sInstance != null)
+                sInstance.close();
+            sInstance = new SensorRollups(db);
+        }
+        return sInstance;
+    }
+
+    public static long toMinute(long timestamp) {
+        return timestamp - timestamp % MINUTE;
+    }
+
+    /**
+     * Adds the samples of the batch to the rollups of their minutes
+     */
+    public synchronized void addSamples(SensorSampleBatch batch) {
+        if (batch.isEmpty())
+            return;
+
+        int stride = batch.getStride();
+        long[] counts = new long[stride];
+        double[] mins = new double[stride];
+        double[] maxs = new double[stride];
+        double[] sums = new double[stride];
+        double[] sumsOfSquares = new double[stride];
+
+        if (updateSensor == null) {
+            updateSensor = db.compileStatement(SQL_UPDATE_SENSOR);
+            insertSensor = db.compileStatement(SQL_INSERT_SENSOR);
+        }
+        db.beginTransaction();
+        try {
+            long minute = toMinute(batch.getTimestamp(0));
+            for (int row = 0; row < batch.size(); row++) {
+                long rowMinute = toMinute(batch.getTimestamp(row));
+                if (rowMinute != minute) {
+                    // A new minute starts, merge the previous one
+                    write(batch.getSensorType(), minute, counts, mins, maxs, sums, sumsOfSquares);
+                    minute = rowMinute;
+                }
+                for (int axis = 0; axis < stride; axis++) {
+                    double value = batch.getValue(row, axis);
+                    if (counts[axis] == 0 || value < mins[axis])
+                        mins[axis] = value;
+                    if (counts[axis] == 0 || value > maxs[axis])
+                        maxs[axis] = value;
+                    counts[axis]++;
+                    sums[axis] += value;
+                    sumsOfSquares[axis] += value * value;
+                }
+            }
+            write(batch.getSensorType(), minute, counts, mins, maxs, sums, sumsOfSquares);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Merges the statistics of one minute into its rows and resets them
+     */
+    private void write(SensorType sensorType, long minute,
+                       long[] counts, double[] mins, double[] maxs, double[] sums, double[] sumsOfSquares) {
+        for (int axis = 0; axis < counts.length; axis++) {
+            if (counts[axis] == 0)
+                continue;
+            bind(updateSensor, sensorType, minute, axis, counts[axis], mins[axis], maxs[axis], sums[axis], sumsOfSquares[axis]);
+            if (updateSensor.executeUpdateDelete() == 0) {
+                bind(insertSensor, sensorType, minute, axis, counts[axis], mins[axis], maxs[axis], sums[axis], sumsOfSquares[axis]);
+                insertSensor.executeInsert();
+            }
+
+            counts[axis] = 0;
+            sums[axis] = 0;
+            sumsOfSquares[axis] = 0;
+        }
+    }
+
+    /**
+     * Both statements take the statistics first and the key last
+     */
+    private static void bind(SQLiteStatement statement, SensorType sensorType, long minute, int axis,
+                             long count, double min, double max, double sum, double sumOfSquares) {
+        statement.bindLong(1, count);
+        statement.bindDouble(2, min);
+        statement.bindDouble(3, max);
+        statement.bindDouble(4, sum);
+        statement.bindDouble(5, sumOfSquares);
+        statement.bindString(6, sensorType.name());
+        statement.bindLong(7, minute);
+        statement.bindLong(8, axis);
+    }
+
+    /**
+     * Adds a location row that was just inserted to the rollup of its minute, call it in the
+     * transaction of the insert. The distance from the location row before it is counted in the
+     * minute of this one.
+     * @param rowId the id of the inserted location row
+     */
+    public synchronized void addLocation(long rowId, long timestamp, double latitude, double longitude, float speed) {
+        double distance = 0;
+        Cursor cursor = db.rawQuery(SQL_PREVIOUS_LOCATION, new String[]{String.valueOf(rowId)});
+        try {
+            if (cursor.moveToFirst()) {
+                long previousTime = cursor.getLong(0);
+                if (timestamp > previousTime && timestamp - previousTime <= MAX_LOCATION_GAP)
+                    distance = Trips.distanceBetweenPoints(cursor.getDouble(1), cursor.getDouble(2), latitude, longitude);
+            }
+        } finally {
+            cursor.close();
+        }
+
+        if (updateLocation == null) {
+            updateLocation = db.compileStatement(SQL_UPDATE_LOCATION);
+            insertLocation = db.compileStatement(SQL_INSERT_LOCATION);
+        }
+        long minute = toMinute(timestamp);
+        updateLocation.bindDouble(1, distance);
+        updateLocation.bindDouble(2, speed);
+        updateLocation.bindLong(3, minute);
+        if (updateLocation.executeUpdateDelete() > 0)
+            return;
+
+        insertLocation.bindDouble(1, distance);
+        insertLocation.bindDouble(2, speed);
+        insertLocation.bindLong(3, minute);
+        insertLocation.executeInsert();
+    }
+
+    /**
+     * The distance in meters travelled from the minute of fromTime on
+     */
+    public static double getDistance(SQLiteDatabase db, long fromTime) {
+        Cursor cursor = db.rawQuery("SELECT IFNULL(SUM(" + LocationRollupEntry.COLUMN_DISTANCE + "), 0) FROM " + LocationRollupEntry.TABLE_NAME +
+                        " WHERE " + LocationRollupEntry.COLUMN_MINUTE + " >= ?",
+                new String[]{String.valueOf(toMinute(fromTime))});
+        try {
+            return cursor.moveToFirst() ? cursor.getDouble(0) : 0;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Deletes the rollups of the minutes before the one of time
+     * @return the number of rows deleted
+     */
+    public static int deleteBefore(SQLiteDatabase db, long time) {
+        String[] minute = new String[]{String.valueOf(toMinute(time))};
+        return db.delete(SensorRollupEntry.TABLE_NAME, SensorRollupEntry.COLUMN_MINUTE + " < ?", minute) +
+                db.delete(LocationRollupEntry.TABLE_NAME, LocationRollupEntry.COLUMN_MINUTE + " < ?", minute);
+    }
+
+    /**
+     * Releases the compiled statements, the database is shared with the rest of the app and
+     * stays open
+     */
+    private synchronized void close() {
+        SQLiteStatement[] statements = {updateSensor, insertSensor, updateLocation, insertLocation};
+        for (SQLiteStatement statement : statements) {
+            if (statement != null)
+                statement.close();
+        }
+        updateSensor = null;
+        insertSensor = null;
+        updateLocation = null;
+        insertLocation = null;
+    }
+}
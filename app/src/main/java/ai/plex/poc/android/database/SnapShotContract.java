@@ -14,6 +14,7 @@ public class SnapShotContract {
         public static final String COLUMN_X = "x";
         public static final String COLUMN_Y = "y";
         public static final String COLUMN_Z = "z";
+        public static final String COLUMN_TRIP_ID = "tripId";
         public static final String COLUMN_IS_DRIVING = "isDriving";
         public static final String COLUMN_IS_RECORD_UPLOADED = "isRecordUploaded";
     }
@@ -24,6 +25,7 @@ public class SnapShotContract {
         public static final String COLUMN_ANGULAR_SPEED_X = "angularSpeedX";
         public static final String COLUMN_ANGULAR_SPEED_Y = "angularSpeedY";
         public static final String COLUMN_ANGULAR_SPEED_Z = "angularSpeedZ";
+        public static final String COLUMN_TRIP_ID = "tripId";
         public static final String COLUMN_IS_DRIVING = "isDriving";
         public static final String COLUMN_IS_RECORD_UPLOADED = "isRecordUploaded";
     }
@@ -36,6 +38,7 @@ public class SnapShotContract {
         public static final String COLUMN_Z_SIN = "zSin";
         public static final String COLUMN_COS = "cos";
         public static final String COLUMN_ACCURACY = "accuarcy";
+        public static final String COLUMN_TRIP_ID = "tripId";
         public static final String COLUMN_IS_DRIVING = "isDriving";
         public static final String COLUMN_IS_RECORD_UPLOADED = "isRecordUploaded";
     }
@@ -46,6 +49,7 @@ public class SnapShotContract {
         public static final String COLUMN_X = "x";
         public static final String COLUMN_Y = "y";
         public static final String COLUMN_Z = "z";
+        public static final String COLUMN_TRIP_ID = "tripId";
         public static final String COLUMN_IS_DRIVING = "isDriving";
         public static final String COLUMN_IS_RECORD_UPLOADED = "isRecordUploaded";
     }
@@ -56,6 +60,7 @@ public class SnapShotContract {
         public static final String COLUMN_LATITUDE = "latitude";
         public static final String COLUMN_LONGITUDE = "longitude";
         public static final String COLUMN_SPEED = "speed";
+        public static final String COLUMN_TRIP_ID = "tripId";
         public static final String COLUMN_IS_DRIVING = "isDriving";
         public static final String COLUMN_IS_RECORD_UPLOADED = "isRecordUploaded";
     }
@@ -65,7 +70,128 @@ public class SnapShotContract {
         public static final String COLUMN_TIMESTAMP = "timestamp";
         public static final String COLUMN_NAME = "activityName";
         public static final String COLUMN_CONFIDENCDE = "activityConfidence";
+        public static final String COLUMN_TRIP_ID = "tripId";
         public static final String COLUMN_IS_DRIVING = "isDriving";
         public static final String COLUMN_IS_RECORD_UPLOADED = "isRecordUploaded";
     }
+
+    /**
+     * Stores a chunk of consecutive samples of one motion sensor in a single row. Timestamps are
+     * delta encoded and values are packed as little endian floats, see SensorChunkCodec.
+     */
+    public static final class SensorChunkEntry implements BaseColumns{
+        public static final String TABLE_NAME = "sensorChunk";
+        public static final String COLUMN_SENSOR_TYPE = "sensorType";
+        public static final String COLUMN_START_TIME = "startTime";
+        public static final String COLUMN_END_TIME = "endTime";
+        public static final String COLUMN_SAMPLE_COUNT = "sampleCount";
+        public static final String COLUMN_VALUE_COUNT = "valueCount";
+        public static final String COLUMN_TIMESTAMPS = "timestamps";
+        public static final String COLUMN_VALUES = "sampleValues";
+        public static final String COLUMN_TRIP_ID = "tripId";
+        public static final String COLUMN_IS_DRIVING = "isDriving";
+        public static final String COLUMN_IS_RECORD_UPLOADED = "isRecordUploaded";
+    }
+
+    /**
+     * Stores one time aligned frame of the motion sensors per row, see SensorFusionAligner
+     */
+    public static final class FusedFrameEntry implements BaseColumns{
+        public static final String TABLE_NAME = "fusedFrame";
+        public static final String COLUMN_TIMESTAMP = "timestamp";
+        public static final String COLUMN_ACCELERATION_X = "accelerationX";
+        public static final String COLUMN_ACCELERATION_Y = "accelerationY";
+        public static final String COLUMN_ACCELERATION_Z = "accelerationZ";
+        public static final String COLUMN_ANGULAR_SPEED_X = "angularSpeedX";
+        public static final String COLUMN_ANGULAR_SPEED_Y = "angularSpeedY";
+        public static final String COLUMN_ANGULAR_SPEED_Z = "angularSpeedZ";
+        public static final String COLUMN_MAGNETIC_X = "magneticX";
+        public static final String COLUMN_MAGNETIC_Y = "magneticY";
+        public static final String COLUMN_MAGNETIC_Z = "magneticZ";
+        public static final String COLUMN_ROTATION_X_SIN = "rotationXSin";
+        public static final String COLUMN_ROTATION_Y_SIN = "rotationYSin";
+        public static final String COLUMN_ROTATION_Z_SIN = "rotationZSin";
+        public static final String COLUMN_ROTATION_COS = "rotationCos";
+        public static final String COLUMN_TRIP_ID = "tripId";
+        public static final String COLUMN_IS_DRIVING = "isDriving";
+        public static final String COLUMN_IS_RECORD_UPLOADED = "isRecordUploaded";
+    }
+
+    /**
+     * Driving events detected on the device, see DrivingEventDetector
+     */
+    public static final class DrivingEventEntry implements BaseColumns{
+        public static final String TABLE_NAME = "drivingEvent";
+        public static final String COLUMN_EVENT_TYPE = "eventType";
+        public static final String COLUMN_START_TIME = "startTime";
+        public static final String COLUMN_END_TIME = "endTime";
+        public static final String COLUMN_PEAK_VALUE = "peakValue";
+        public static final String COLUMN_MEAN_VALUE = "meanValue";
+        public static final String COLUMN_PEAK_YAW_RATE = "peakYawRate";
+        public static final String COLUMN_TRIP_ID = "tripId";
+        public static final String COLUMN_IS_DRIVING = "isDriving";
+        public static final String COLUMN_IS_RECORD_UPLOADED = "isRecordUploaded";
+    }
+
+    /**
+     * A drive, rows recorded while driving carry its _id in their tripId column, rows recorded
+     * outside of a trip carry 0. endTime stays 0 until the trip is closed with its summary.
+     */
+    public static final class TripEntry implements BaseColumns{
+        public static final String TABLE_NAME = "trip";
+        public static final String COLUMN_START_TIME = "startTime";
+        public static final String COLUMN_END_TIME = "endTime";
+        public static final String COLUMN_DISTANCE = "distance";
+        public static final String COLUMN_MAX_SPEED = "maxSpeed";
+        public static final String COLUMN_LOCATION_COUNT = "locationCount";
+        public static final String COLUMN_DRIVING_EVENT_COUNT = "drivingEventCount";
+    }
+
+    /**
+     * Highest _id uploaded per table, rows with a greater _id are waiting for upload, see UploadMarks
+     */
+    public static final class UploadMarkEntry {
+        public static final String TABLE_NAME = "uploadMark";
+        public static final String COLUMN_TABLE_NAME = "tableName";
+        public static final String COLUMN_LAST_ID = "lastId";
+    }
+
+    /**
+     * Day partitions of the sample tables written by the PartitionedSqliteTelemetryStore, one row
+     * per partition table. firstId is the id of the first sample written to the partition.
+     */
+    public static final class SamplePartitionEntry {
+        public static final String TABLE_NAME = "samplePartition";
+        public static final String COLUMN_PARTITION_TABLE = "partitionTable";
+        public static final String COLUMN_SENSOR_TYPE = "sensorType";
+        public static final String COLUMN_DAY = "day";
+        public static final String COLUMN_FIRST_ID = "firstId";
+    }
+
+    /**
+     * Statistics of the samples of a sensor type per minute and axis, see SensorRollups. The mean
+     * is sum / count, the variance sumOfSquares / count - mean * mean.
+     */
+    public static final class SensorRollupEntry {
+        public static final String TABLE_NAME = "sensorRollup";
+        public static final String COLUMN_SENSOR_TYPE = "sensorType";
+        public static final String COLUMN_MINUTE = "minute";
+        public static final String COLUMN_AXIS = "axis";
+        public static final String COLUMN_COUNT = "count";
+        public static final String COLUMN_MIN = "minValue";
+        public static final String COLUMN_MAX = "maxValue";
+        public static final String COLUMN_SUM = "sum";
+        public static final String COLUMN_SUM_OF_SQUARES = "sumOfSquares";
+    }
+
+    /**
+     * Locations per minute with the distance travelled in meters and the highest speed in m/s
+     */
+    public static final class LocationRollupEntry {
+        public static final String TABLE_NAME = "locationRollup";
+        public static final String COLUMN_MINUTE = "minute";
+        public static final String COLUMN_COUNT = "count";
+        public static final String COLUMN_DISTANCE = "distance";
+        public static final String COLUMN_MAX_SPEED = "maxSpeed";
+    }
 }
@@ -1,10 +1,12 @@
 package ai.plex.poc.android.database;
 
+import android.annotation.TargetApi;
 import android.content.Context;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 import android.hardware.Sensor;
+import android.os.Build;
 import android.util.Log;
 
 import ai.plex.poc.android.database.SnapShotContract.*;
@@ -14,12 +16,34 @@ import ai.plex.poc.android.database.SnapShotContract.*;
  */
 public class SnapShotDBHelper extends SQLiteOpenHelper {
     private static final String TAG = SnapShotDBHelper.class.getSimpleName();
-    private static final int DATABASE_VERSION = 1;
+    private static final int DATABASE_VERSION = SnapShotMigrations.LATEST_VERSION;
     public static final String DATABASE_NAME = "snapShot.db";
     private static SnapShotDBHelper sInstance;
 
+    // Page cache of each connection, in pages of 4 KB
+    private static final int CACHE_SIZE = 1024;
+    // Memory mapped reads, available from SQLite 3.7.17 (Lollipop)
+    private static final long MMAP_SIZE = 16 * 1024 * 1024;
+
+    // Tables whose rows carry the trip they were recorded in
+    private static final String[] TRIP_TABLES = {
+            LinearAccelerationEntry.TABLE_NAME,
+            GyroscopeEntry.TABLE_NAME,
+            RotationEntry.TABLE_NAME,
+            MagneticEntry.TABLE_NAME,
+            LocationEntry.TABLE_NAME,
+            DetectedActivityEntry.TABLE_NAME,
+            SensorChunkEntry.TABLE_NAME,
+            FusedFrameEntry.TABLE_NAME,
+            DrivingEventEntry.TABLE_NAME
+    };
+
     public SnapShotDBHelper(Context context){
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        // With write-ahead logging the sensor writer and the upload reader do not block each other
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            setWriteAheadLoggingEnabled(true);
+        }
     }
 
     /**This accessor is synchronized to ensure that only one thread can access and modify the database
@@ -39,8 +63,9 @@ public class SnapShotDBHelper extends SQLiteOpenHelper {
                 LinearAccelerationEntry.COLUMN_X + " REAL NOT NULL, " +
                 LinearAccelerationEntry.COLUMN_Y + " REAL NOT NULL, " +
                 LinearAccelerationEntry.COLUMN_Z + " REAL NOT NULL, " +
-                LinearAccelerationEntry.COLUMN_IS_RECORD_UPLOADED + " STRING NOT NULL, " +
-                LinearAccelerationEntry.COLUMN_IS_DRIVING + " STRING NOT NULL" +");";
+                LinearAccelerationEntry.COLUMN_TRIP_ID + " INTEGER NOT NULL DEFAULT 0, " +
+                LinearAccelerationEntry.COLUMN_IS_RECORD_UPLOADED + " INTEGER NOT NULL, " +
+                LinearAccelerationEntry.COLUMN_IS_DRIVING + " INTEGER NOT NULL" +");";
 
         db.execSQL(SQL_CREATE_LINEAR_ACCELERATION);
 
@@ -50,8 +75,9 @@ public class SnapShotDBHelper extends SQLiteOpenHelper {
                 GyroscopeEntry.COLUMN_ANGULAR_SPEED_X + " REAL NOT NULL, " +
                 GyroscopeEntry.COLUMN_ANGULAR_SPEED_Y + " REAL NOT NULL, " +
                 GyroscopeEntry.COLUMN_ANGULAR_SPEED_Z + " REAL NOT NULL, " +
-                GyroscopeEntry.COLUMN_IS_RECORD_UPLOADED + " STRING NOT NULL, " +
-                GyroscopeEntry.COLUMN_IS_DRIVING + " STRING NOT NULL"+");";
+                GyroscopeEntry.COLUMN_TRIP_ID + " INTEGER NOT NULL DEFAULT 0, " +
+                GyroscopeEntry.COLUMN_IS_RECORD_UPLOADED + " INTEGER NOT NULL, " +
+                GyroscopeEntry.COLUMN_IS_DRIVING + " INTEGER NOT NULL"+");";
 
         db.execSQL(SQL_CREATE_GYROSCOPE);
 
@@ -63,8 +89,9 @@ public class SnapShotDBHelper extends SQLiteOpenHelper {
                 RotationEntry.COLUMN_Z_SIN + " REAL NOT NULL, " +
                 RotationEntry.COLUMN_ACCURACY + " REAL NOT NULL, " +
                 RotationEntry.COLUMN_COS + " REAL NOT NULL, " +
-                RotationEntry.COLUMN_IS_RECORD_UPLOADED + " STRING NOT NULL, " +
-                RotationEntry.COLUMN_IS_DRIVING + " STRING NOT NULL"+");";
+                RotationEntry.COLUMN_TRIP_ID + " INTEGER NOT NULL DEFAULT 0, " +
+                RotationEntry.COLUMN_IS_RECORD_UPLOADED + " INTEGER NOT NULL, " +
+                RotationEntry.COLUMN_IS_DRIVING + " INTEGER NOT NULL"+");";
 
         db.execSQL(SQL_CREATE_ROTATION);
 
@@ -74,8 +101,9 @@ public class SnapShotDBHelper extends SQLiteOpenHelper {
                 MagneticEntry.COLUMN_X + " REAL NOT NULL, " +
                 MagneticEntry.COLUMN_Y + " REAL NOT NULL, " +
                 MagneticEntry.COLUMN_Z + " REAL NOT NULL, " +
-                MagneticEntry.COLUMN_IS_RECORD_UPLOADED + " STRING NOT NULL, " +
-                MagneticEntry.COLUMN_IS_DRIVING + " STRING NOT NULL"+");";
+                MagneticEntry.COLUMN_TRIP_ID + " INTEGER NOT NULL DEFAULT 0, " +
+                MagneticEntry.COLUMN_IS_RECORD_UPLOADED + " INTEGER NOT NULL, " +
+                MagneticEntry.COLUMN_IS_DRIVING + " INTEGER NOT NULL"+");";
 
         db.execSQL(SQL_CREATE_MAGNETIC);
 
@@ -85,8 +113,9 @@ public class SnapShotDBHelper extends SQLiteOpenHelper {
                 LocationEntry.COLUMN_LONGITUDE + " REAL NOT NULL, " +
                 LocationEntry.COLUMN_LATITUDE + " REAL NOT NULL, " +
                 LocationEntry.COLUMN_SPEED + " REAL NOT NULL, " +
-                LocationEntry.COLUMN_IS_RECORD_UPLOADED + " STRING NOT NULL, " +
-                LocationEntry.COLUMN_IS_DRIVING + " STRING NOT NULL"+");";
+                LocationEntry.COLUMN_TRIP_ID + " INTEGER NOT NULL DEFAULT 0, " +
+                LocationEntry.COLUMN_IS_RECORD_UPLOADED + " INTEGER NOT NULL, " +
+                LocationEntry.COLUMN_IS_DRIVING + " INTEGER NOT NULL"+");";
 
         db.execSQL(SQL_CREATE_LOCATION);
 
@@ -95,38 +124,234 @@ public class SnapShotDBHelper extends SQLiteOpenHelper {
                 DetectedActivityEntry.COLUMN_TIMESTAMP + " INTEGER NOT NULL, " +
                 DetectedActivityEntry.COLUMN_NAME + " INTEGER NOT NULL, " +
                 DetectedActivityEntry.COLUMN_CONFIDENCDE + " INTEGER NOT NULL, "+
-                DetectedActivityEntry.COLUMN_IS_RECORD_UPLOADED + " STRING NOT NULL, " +
-                DetectedActivityEntry.COLUMN_IS_DRIVING + " STRING NOT NULL"+");";
+                DetectedActivityEntry.COLUMN_TRIP_ID + " INTEGER NOT NULL DEFAULT 0, " +
+                DetectedActivityEntry.COLUMN_IS_RECORD_UPLOADED + " INTEGER NOT NULL, " +
+                DetectedActivityEntry.COLUMN_IS_DRIVING + " INTEGER NOT NULL"+");";
 
         db.execSQL(SQL_CREATE_DETECTED_ACTIVITY);
+
+        createSensorChunkTable(db);
+        createFusedFrameTable(db);
+        createDrivingEventTable(db);
+        createUploadMarkTable(db);
+        createTripTable(db);
+        createTripIndexes(db, TRIP_TABLES);
+        createSamplePartitionTable(db);
+        createRollupTables(db);
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        configure(db);
+    }
+
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        // onConfigure is not called before Jelly Bean
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+            db.enableWriteAheadLogging();
+            configure(db);
+        }
+    }
+
+    /**
+     * Tunes the connection, a transaction committed in WAL mode with synchronous NORMAL is durable
+     * once the log is checkpointed, a crash can only lose the last transactions, not corrupt the database
+     */
+    private static void configure(SQLiteDatabase db) {
+        try {
+            // Only applies to a database without tables, older databases keep reusing their free pages
+            pragma(db, "PRAGMA auto_vacuum=INCREMENTAL");
+            pragma(db, "PRAGMA synchronous=NORMAL");
+            pragma(db, "PRAGMA cache_size=" + CACHE_SIZE);
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+                pragma(db, "PRAGMA mmap_size=" + MMAP_SIZE);
+            }
+        } catch (Exception ex) {
+            Log.e(TAG, "Error configuring the database");
+            ex.printStackTrace();
+        }
+    }
+
+    /**
+     * Runs a pragma through rawQuery since execSQL rejects pragmas that return a row
+     */
+    private static void pragma(SQLiteDatabase db, String sql) {
+        Cursor cursor = db.rawQuery(sql, null);
+        try {
+            cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    static void createSensorChunkTable(SQLiteDatabase db) {
+        final String SQL_CREATE_SENSOR_CHUNK = "CREATE TABLE " + SensorChunkEntry.TABLE_NAME + "(" +
+                SensorChunkEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
+                SensorChunkEntry.COLUMN_SENSOR_TYPE + " STRING NOT NULL, " +
+                SensorChunkEntry.COLUMN_START_TIME + " INTEGER NOT NULL, " +
+                SensorChunkEntry.COLUMN_END_TIME + " INTEGER NOT NULL, " +
+                SensorChunkEntry.COLUMN_SAMPLE_COUNT + " INTEGER NOT NULL, " +
+                SensorChunkEntry.COLUMN_VALUE_COUNT + " INTEGER NOT NULL, " +
+                SensorChunkEntry.COLUMN_TIMESTAMPS + " BLOB NOT NULL, " +
+                SensorChunkEntry.COLUMN_VALUES + " BLOB NOT NULL, " +
+                SensorChunkEntry.COLUMN_TRIP_ID + " INTEGER NOT NULL DEFAULT 0, " +
+                SensorChunkEntry.COLUMN_IS_RECORD_UPLOADED + " INTEGER NOT NULL, " +
+                SensorChunkEntry.COLUMN_IS_DRIVING + " INTEGER NOT NULL" + ");";
+
+        db.execSQL(SQL_CREATE_SENSOR_CHUNK);
+    }
+
+    static void createFusedFrameTable(SQLiteDatabase db) {
+        final String SQL_CREATE_FUSED_FRAME = "CREATE TABLE " + FusedFrameEntry.TABLE_NAME + "(" +
+                FusedFrameEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
+                FusedFrameEntry.COLUMN_TIMESTAMP + " INTEGER NOT NULL, " +
+                FusedFrameEntry.COLUMN_ACCELERATION_X + " REAL NOT NULL, " +
+                FusedFrameEntry.COLUMN_ACCELERATION_Y + " REAL NOT NULL, " +
+                FusedFrameEntry.COLUMN_ACCELERATION_Z + " REAL NOT NULL, " +
+                FusedFrameEntry.COLUMN_ANGULAR_SPEED_X + " REAL NOT NULL, " +
+                FusedFrameEntry.COLUMN_ANGULAR_SPEED_Y + " REAL NOT NULL, " +
+                FusedFrameEntry.COLUMN_ANGULAR_SPEED_Z + " REAL NOT NULL, " +
+                FusedFrameEntry.COLUMN_MAGNETIC_X + " REAL NOT NULL, " +
+                FusedFrameEntry.COLUMN_MAGNETIC_Y + " REAL NOT NULL, " +
+                FusedFrameEntry.COLUMN_MAGNETIC_Z + " REAL NOT NULL, " +
+                FusedFrameEntry.COLUMN_ROTATION_X_SIN + " REAL NOT NULL, " +
+                FusedFrameEntry.COLUMN_ROTATION_Y_SIN + " REAL NOT NULL, " +
+                FusedFrameEntry.COLUMN_ROTATION_Z_SIN + " REAL NOT NULL, " +
+                FusedFrameEntry.COLUMN_ROTATION_COS + " REAL NOT NULL, " +
+                FusedFrameEntry.COLUMN_TRIP_ID + " INTEGER NOT NULL DEFAULT 0, " +
+                FusedFrameEntry.COLUMN_IS_RECORD_UPLOADED + " INTEGER NOT NULL, " +
+                FusedFrameEntry.COLUMN_IS_DRIVING + " INTEGER NOT NULL" + ");";
+
+        db.execSQL(SQL_CREATE_FUSED_FRAME);
+    }
+
+    static void createDrivingEventTable(SQLiteDatabase db) {
+        final String SQL_CREATE_DRIVING_EVENT = "CREATE TABLE " + DrivingEventEntry.TABLE_NAME + "(" +
+                DrivingEventEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
+                DrivingEventEntry.COLUMN_EVENT_TYPE + " STRING NOT NULL, " +
+                DrivingEventEntry.COLUMN_START_TIME + " INTEGER NOT NULL, " +
+                DrivingEventEntry.COLUMN_END_TIME + " INTEGER NOT NULL, " +
+                DrivingEventEntry.COLUMN_PEAK_VALUE + " REAL NOT NULL, " +
+                DrivingEventEntry.COLUMN_MEAN_VALUE + " REAL NOT NULL, " +
+                DrivingEventEntry.COLUMN_PEAK_YAW_RATE + " REAL NOT NULL, " +
+                DrivingEventEntry.COLUMN_TRIP_ID + " INTEGER NOT NULL DEFAULT 0, " +
+                DrivingEventEntry.COLUMN_IS_RECORD_UPLOADED + " INTEGER NOT NULL, " +
+                DrivingEventEntry.COLUMN_IS_DRIVING + " INTEGER NOT NULL" + ");";
+
+        db.execSQL(SQL_CREATE_DRIVING_EVENT);
+    }
+
+    static void createTripTable(SQLiteDatabase db) {
+        final String SQL_CREATE_TRIP = "CREATE TABLE " + TripEntry.TABLE_NAME + "(" +
+                TripEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
+                TripEntry.COLUMN_START_TIME + " INTEGER NOT NULL, " +
+                TripEntry.COLUMN_END_TIME + " INTEGER NOT NULL DEFAULT 0, " +
+                TripEntry.COLUMN_DISTANCE + " REAL NOT NULL DEFAULT 0, " +
+                TripEntry.COLUMN_MAX_SPEED + " REAL NOT NULL DEFAULT 0, " +
+                TripEntry.COLUMN_LOCATION_COUNT + " INTEGER NOT NULL DEFAULT 0, " +
+                TripEntry.COLUMN_DRIVING_EVENT_COUNT + " INTEGER NOT NULL DEFAULT 0" + ");";
+
+        db.execSQL(SQL_CREATE_TRIP);
+    }
+
+    /**
+     * Indexes the rows of every trip, trip ids only grow so the index is appended to like the table
+     */
+    static void createTripIndexes(SQLiteDatabase db, String[] tables) {
+        for (String table : tables) {
+            db.execSQL("CREATE INDEX IF NOT EXISTS " + table + "_trip ON " + table +
+                    " (" + LinearAccelerationEntry.COLUMN_TRIP_ID + ")");
+        }
+    }
+
+    static void createSamplePartitionTable(SQLiteDatabase db) {
+        final String SQL_CREATE_SAMPLE_PARTITION = "CREATE TABLE " + SamplePartitionEntry.TABLE_NAME + "(" +
+                SamplePartitionEntry.COLUMN_PARTITION_TABLE + " TEXT PRIMARY KEY, " +
+                SamplePartitionEntry.COLUMN_SENSOR_TYPE + " TEXT NOT NULL, " +
+                SamplePartitionEntry.COLUMN_DAY + " INTEGER NOT NULL, " +
+                SamplePartitionEntry.COLUMN_FIRST_ID + " INTEGER NOT NULL" + ");";
+
+        db.execSQL(SQL_CREATE_SAMPLE_PARTITION);
+    }
+
+    static void createRollupTables(SQLiteDatabase db) {
+        final String SQL_CREATE_SENSOR_ROLLUP = "CREATE TABLE " + SensorRollupEntry.TABLE_NAME + "(" +
+                SensorRollupEntry.COLUMN_SENSOR_TYPE + " TEXT NOT NULL, " +
+                SensorRollupEntry.COLUMN_MINUTE + " INTEGER NOT NULL, " +
+                SensorRollupEntry.COLUMN_AXIS + " INTEGER NOT NULL, " +
+                SensorRollupEntry.COLUMN_COUNT + " INTEGER NOT NULL, " +
+                SensorRollupEntry.COLUMN_MIN + " REAL NOT NULL, " +
+                SensorRollupEntry.COLUMN_MAX + " REAL NOT NULL, " +
+                SensorRollupEntry.COLUMN_SUM + " REAL NOT NULL, " +
+                SensorRollupEntry.COLUMN_SUM_OF_SQUARES + " REAL NOT NULL, " +
+                "PRIMARY KEY (" + SensorRollupEntry.COLUMN_SENSOR_TYPE + ", " + SensorRollupEntry.COLUMN_MINUTE + ", " +
+                SensorRollupEntry.COLUMN_AXIS + "));";
+
+        db.execSQL(SQL_CREATE_SENSOR_ROLLUP);
+
+        final String SQL_CREATE_LOCATION_ROLLUP = "CREATE TABLE " + LocationRollupEntry.TABLE_NAME + "(" +
+                LocationRollupEntry.COLUMN_MINUTE + " INTEGER PRIMARY KEY, " +
+                LocationRollupEntry.COLUMN_COUNT + " INTEGER NOT NULL, " +
+                LocationRollupEntry.COLUMN_DISTANCE + " REAL NOT NULL, " +
+                LocationRollupEntry.COLUMN_MAX_SPEED + " REAL NOT NULL" + ");";
+
+        db.execSQL(SQL_CREATE_LOCATION_ROLLUP);
+    }
+
+    static void createUploadMarkTable(SQLiteDatabase db) {
+        final String SQL_CREATE_UPLOAD_MARK = "CREATE TABLE " + UploadMarkEntry.TABLE_NAME + "(" +
+                UploadMarkEntry.COLUMN_TABLE_NAME + " TEXT PRIMARY KEY, " +
+                UploadMarkEntry.COLUMN_LAST_ID + " INTEGER NOT NULL" + ");";
+
+        db.execSQL(SQL_CREATE_UPLOAD_MARK);
     }
 
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        db.execSQL("DROP TABLE IF EXISTS " + LinearAccelerationEntry.TABLE_NAME);
-        db.execSQL("DROP TABLE IF EXISTS " + RotationEntry.TABLE_NAME);
-        db.execSQL("DROP TABLE IF EXISTS " + GyroscopeEntry.TABLE_NAME);
-        db.execSQL("DROP TABLE IF EXISTS " + MagneticEntry.TABLE_NAME);
-        db.execSQL("DROP TABLE IF EXISTS " + LocationEntry.TABLE_NAME);
-        db.execSQL("DROP TABLE IF EXISTS " + DetectedActivityEntry.TABLE_NAME);
-        onCreate(db);
+        // Upgrades are applied one version at a time so that recorded data is kept
+        SnapShotMigrations.migrate(db, oldVersion, newVersion);
     }
 
-    public static boolean clearTables(SQLiteDatabase db){
+    /**
+     * Removes all the recorded data, the samples of every storage mode with their upload marks
+     */
+    public static boolean clearTables(Context context){
+        SQLiteDatabase db = getsInstance(context).getWritableDatabase();
+        // One transaction for all the tables instead of one per delete
+        db.beginTransaction();
+        try {
+            // Samples are removed through the store of every storage mode, the chunk size only matters for appends
+            Long count1 = new SqliteTelemetryStore(db).clear();
+            Long count2 = new ChunkedSqliteTelemetryStore(db, 1).clear();
+            Long count3 = PartitionedSqliteTelemetryStore.getInstance(db).clear();
+            Integer count4 = db.delete(LocationEntry.TABLE_NAME, null, null);
+            Integer count5 = db.delete(DetectedActivityEntry.TABLE_NAME, null, null);
+            Integer count6 = db.delete(DrivingEventEntry.TABLE_NAME, null, null);
+            Integer count7 = db.delete(TripEntry.TABLE_NAME, null, null);
+            Integer count8 = db.delete(SensorRollupEntry.TABLE_NAME, null, null) + db.delete(LocationRollupEntry.TABLE_NAME, null, null);
+            Log.d(TAG, "Deleted " + String.valueOf(count1) + " samples from the sensor tables.");
+            Log.d(TAG, "Deleted " + String.valueOf(count2) + " samples from SensorChunk.");
+            Log.d(TAG, "Deleted " + String.valueOf(count3) + " samples from the sample partitions.");
+            Log.d(TAG, "Deleted " + String.valueOf(count4) + " rows from Location.");
+            Log.d(TAG, "Deleted " + String.valueOf(count5) + " rows from DetectedActivity.");
+            Log.d(TAG, "Deleted " + String.valueOf(count6) + " rows from DrivingEvent.");
+            Log.d(TAG, "Deleted " + String.valueOf(count7) + " rows from Trip.");
+            Log.d(TAG, "Deleted " + String.valueOf(count8) + " rows from the rollups.");
+            db.setTransactionSuccessful();
+        } catch (Exception e) {
+            e.printStackTrace();
+            return false;
+        } finally {
+            db.endTransaction();
+        }
+
+        // The segment files are not part of the transaction, they are only deleted once the tables are
         try {
-            Integer count1 = db.delete(LinearAccelerationEntry.TABLE_NAME, null, null);
-            Integer count2 = db.delete(GyroscopeEntry.TABLE_NAME, null, null);
-            Integer count3 = db.delete(MagneticEntry.TABLE_NAME, null, null);
-            Integer count4 = db.delete(RotationEntry.TABLE_NAME, null, null);
-            Integer count5 = db.delete(LocationEntry.TABLE_NAME, null, null);
-            Integer count6 = db.delete(DetectedActivityEntry.TABLE_NAME, null, null);
-            Log.d(TAG, "Deleted " + String.valueOf(count1) + " rows from LinearAcceleration.");
-            Log.d(TAG, "Deleted " + String.valueOf(count2) + " rows from Gyroscope.");
-            Log.d(TAG, "Deleted " + String.valueOf(count3) + " rows from Magnetic.");
-            Log.d(TAG, "Deleted " + String.valueOf(count4) + " rows from Rotation.");
-            Log.d(TAG, "Deleted " + String.valueOf(count5) + " rows from Location.");
-            Log.d(TAG, "Deleted " + String.valueOf(count6) + " rows from DetectedActivity.");
-            return  true;
+            long count9 = SegmentStore.getsInstance(context).clear();
+            Log.d(TAG, "Deleted " + String.valueOf(count9) + " samples from the segment files.");
+            return true;
         } catch (Exception e) {
             e.printStackTrace();
             return false;
@@ -0,0 +1,181 @@
+package ai.plex.poc.android.database;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+/**
+ * Schema changes of the snapShot database, one step per version. An upgrade applies every step
+ * after the installed version in order, inside the upgrade transaction of SQLiteOpenHelper, so
+ * recorded data that was not uploaded yet is kept and a failing step leaves the database as it was.
+ *
+ * A schema change adds a step here with the next version, bumps LATEST_VERSION and makes the
+ * same change in SnapShotDBHelper.onCreate for new installs. A step names the tables it changes
+ * itself, so that it still matches the schema of its version when later steps add tables.
+ */
+public class SnapShotMigrations {
+    private static final String TAG = SnapShotMigrations.class.getSimpleName();
+
+    /**
+     * Moves the schema from version - 1 to version
+     */
+    static abstract class Migration {
+        final int version;
+        final String description;
+
+        Migration(int version, String description) {
+            this.version = version;
+            this.description = description;
+        }
+
+        abstract void apply(SQLiteDatabase db);
+    }
+
+    private static final Migration[] MIGRATIONS = {
+            new Migration(2, "Add the sensor chunk table") {
+                @Override
+                void apply(SQLiteDatabase db) {
+                    SnapShotDBHelper.createSensorChunkTable(db);
+                }
+            },
+            new Migration(3, "Add the fused frame table") {
+                @Override
+                void apply(SQLiteDatabase db) {
+                    SnapShotDBHelper.createFusedFrameTable(db);
+                }
+            },
+            new Migration(4, "Add the driving event table") {
+                @Override
+                void apply(SQLiteDatabase db) {
+                    SnapShotDBHelper.createDrivingEventTable(db);
+                }
+            },
+            new Migration(5, "Store the upload and driving flags as integers") {
+                @Override
+                void apply(SQLiteDatabase db) {
+                    // The columns were declared STRING, which has numeric affinity, so the integers
+                    // written from now on are stored and compared as integers
+                    String[] tables = {
+                            SnapShotContract.LinearAccelerationEntry.TABLE_NAME,
+                            SnapShotContract.GyroscopeEntry.TABLE_NAME,
+                            SnapShotContract.RotationEntry.TABLE_NAME,
+                            SnapShotContract.MagneticEntry.TABLE_NAME,
+                            SnapShotContract.LocationEntry.TABLE_NAME,
+                            SnapShotContract.DetectedActivityEntry.TABLE_NAME,
+                            SnapShotContract.SensorChunkEntry.TABLE_NAME,
+                            SnapShotContract.FusedFrameEntry.TABLE_NAME,
+                            SnapShotContract.DrivingEventEntry.TABLE_NAME
+                    };
+                    for (String table : tables) {
+                        for (String column : new String[]{SnapShotContract.LinearAccelerationEntry.COLUMN_IS_RECORD_UPLOADED, SnapShotContract.LinearAccelerationEntry.COLUMN_IS_DRIVING}) {
+                            db.execSQL("UPDATE " + table + " SET " + column + " = 1 WHERE " + column + " = 'true'");
+                            db.execSQL("UPDATE " + table + " SET " + column + " = 0 WHERE " + column + " = 'false'");
+                        }
+                    }
+                }
+            },
+            new Migration(6, "Track uploaded rows with a mark per table") {
+                @Override
+                void apply(SQLiteDatabase db) {
+                    SnapShotDBHelper.createUploadMarkTable(db);
+                    String[] tables = {
+                            SnapShotContract.LinearAccelerationEntry.TABLE_NAME,
+                            SnapShotContract.GyroscopeEntry.TABLE_NAME,
+                            SnapShotContract.RotationEntry.TABLE_NAME,
+                            SnapShotContract.MagneticEntry.TABLE_NAME,
+                            SnapShotContract.LocationEntry.TABLE_NAME,
+                            SnapShotContract.DetectedActivityEntry.TABLE_NAME,
+                            SnapShotContract.SensorChunkEntry.TABLE_NAME,
+                            SnapShotContract.FusedFrameEntry.TABLE_NAME,
+                            SnapShotContract.DrivingEventEntry.TABLE_NAME
+                    };
+                    String uploaded = SnapShotContract.LinearAccelerationEntry.COLUMN_IS_RECORD_UPLOADED;
+                    for (String table : tables) {
+                        // The mark starts below the first row that was not uploaded, uploaded rows
+                        // after it are sent again once
+                        db.execSQL("INSERT INTO " + SnapShotContract.UploadMarkEntry.TABLE_NAME + " (" +
+                                SnapShotContract.UploadMarkEntry.COLUMN_TABLE_NAME + ", " +
+                                SnapShotContract.UploadMarkEntry.COLUMN_LAST_ID + ") SELECT '" + table + "', " +
+                                "IFNULL((SELECT MIN(_id) FROM " + table + " WHERE " + uploaded + " = 0) - 1, " +
+                                "(SELECT IFNULL(MAX(_id), 0) FROM " + table + "))");
+                    }
+                }
+            },
+            new Migration(7, "Group recorded rows into trips") {
+                @Override
+                void apply(SQLiteDatabase db) {
+                    SnapShotDBHelper.createTripTable(db);
+                    String[] tables = {
+                            SnapShotContract.LinearAccelerationEntry.TABLE_NAME,
+                            SnapShotContract.GyroscopeEntry.TABLE_NAME,
+                            SnapShotContract.RotationEntry.TABLE_NAME,
+                            SnapShotContract.MagneticEntry.TABLE_NAME,
+                            SnapShotContract.LocationEntry.TABLE_NAME,
+                            SnapShotContract.DetectedActivityEntry.TABLE_NAME,
+                            SnapShotContract.SensorChunkEntry.TABLE_NAME,
+                            SnapShotContract.FusedFrameEntry.TABLE_NAME,
+                            SnapShotContract.DrivingEventEntry.TABLE_NAME
+                    };
+                    for (String table : tables) {
+                        // Rows recorded before trips existed belong to no trip
+                        addColumnIfMissing(db, table, SnapShotContract.LinearAccelerationEntry.COLUMN_TRIP_ID, "INTEGER NOT NULL DEFAULT 0");
+                    }
+                    SnapShotDBHelper.createTripIndexes(db, tables);
+                }
+            },
+            new Migration(8, "Register the day partitions of the sample tables") {
+                @Override
+                void apply(SQLiteDatabase db) {
+                    SnapShotDBHelper.createSamplePartitionTable(db);
+                }
+            },
+            new Migration(9, "Roll samples and locations up per minute") {
+                @Override
+                void apply(SQLiteDatabase db) {
+                    // Rollups start with the samples written from now on, earlier rows are not scanned
+                    SnapShotDBHelper.createRollupTables(db);
+                }
+            }
+    };
+
+    public static final int LATEST_VERSION = MIGRATIONS[MIGRATIONS.length - 1].version;
+
+    /**
+     * Adds a column unless the table has it already, tables created by earlier steps are created
+     * with the current schema and may already have it
+     */
+    static void addColumnIfMissing(SQLiteDatabase db, String table, String column, String definition) {
+        Cursor cursor = db.rawQuery("PRAGMA table_info(" + table + ")", null);
+        try {
+            int nameIndex = cursor.getColumnIndex("name");
+            while (cursor.moveToNext()) {
+                if (column.equals(cursor.getString(nameIndex)))
+                    return;
+            }
+        } finally {
+            cursor.close();
+        }
+        db.execSQL("ALTER TABLE " + table + " ADD COLUMN " + column + " " + definition);
+    }
+
+    /**
+     * Applies the steps after oldVersion up to newVersion
+     * @throws IllegalStateException if a step is missing, the upgrade transaction is then rolled back
+     */
+    public static void migrate(SQLiteDatabase db, int oldVersion, int newVersion) {
+        int version = oldVersion;
+        for (Migration migration : MIGRATIONS) {
+            if (migration.version <= oldVersion || migration.version > newVersion)
+                continue;
+            if (migration.version != version + 1)
+                throw new IllegalStateException("No migration to version " + (version + 1));
+
+            Log.d(TAG, "Migrating to version " + migration.version + ": " + migration.description);
+            migration.apply(db);
+            version = migration.version;
+        }
+
+        if (version != newVersion)
+            throw new IllegalStateException("No migration from version " + version + " to " + newVersion);
+    }
+}
@@ -0,0 +1,194 @@
+package ai.plex.poc.android.database;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import ai.plex.poc.android.sensorListeners.CompiledSensorDataWriter;
+import ai.plex.poc.android.sensorListeners.SensorSampleBatch;
+import ai.plex.poc.android.sensorListeners.SensorType;
+
+/**
+ * TelemetryStore backed by the sensor tables of the database, ids are the _id of the rows and
+ * acknowledged rows are tracked with UploadMarks. ChunkedSqliteTelemetryStore packs the samples
+ * into rows of the sensorChunk table instead.
+ */
+public class SqliteTelemetryStore implements TelemetryStore {
+    // Sensor types stored in the store, other types have no sample table
+    static final SensorType[] SENSOR_TYPES = {
+            SensorType.LINEAR_ACCELERATION,
+            SensorType.GYROSCOPE,
+            SensorType.MAGNETIC,
+            SensorType.ROTATION,
+            SensorType.FUSION
+    };
+
+    private final SQLiteDatabase db;
+
+    public SqliteTelemetryStore(SQLiteDatabase db) {
+        this.db = db;
+    }
+
+    /**
+     * The table the samples of the sensor type are stored in
+     */
+    public static String getTableName(SensorType sensorType) {
+        switch (sensorType) {
+            case LINEAR_ACCELERATION:
+                return SnapShotContract.LinearAccelerationEntry.TABLE_NAME;
+            case GYROSCOPE:
+                return SnapShotContract.GyroscopeEntry.TABLE_NAME;
+            case MAGNETIC:
+                return SnapShotContract.MagneticEntry.TABLE_NAME;
+            case ROTATION:
+                return SnapShotContract.RotationEntry.TABLE_NAME;
+            case FUSION:
+                return SnapShotContract.FusedFrameEntry.TABLE_NAME;
+            default:
+                throw new IllegalArgumentException("No sample table for " + sensorType);
+        }
+    }
+
+    /**
+     * The columns of the table of the sensor type in the order of the sample values
+     */
+    public static String[] getValueColumns(SensorType sensorType) {
+        switch (sensorType) {
+            case LINEAR_ACCELERATION:
+                return new String[]{
+                        SnapShotContract.LinearAccelerationEntry.COLUMN_X,
+                        SnapShotContract.LinearAccelerationEntry.COLUMN_Y,
+                        SnapShotContract.LinearAccelerationEntry.COLUMN_Z};
+            case GYROSCOPE:
+                return new String[]{
+                        SnapShotContract.GyroscopeEntry.COLUMN_ANGULAR_SPEED_X,
+                        SnapShotContract.GyroscopeEntry.COLUMN_ANGULAR_SPEED_Y,
+                        SnapShotContract.GyroscopeEntry.COLUMN_ANGULAR_SPEED_Z};
+            case MAGNETIC:
+                return new String[]{
+                        SnapShotContract.MagneticEntry.COLUMN_X,
+                        SnapShotContract.MagneticEntry.COLUMN_Y,
+                        SnapShotContract.MagneticEntry.COLUMN_Z};
+            case ROTATION:
+                return new String[]{
+                        SnapShotContract.RotationEntry.COLUMN_X_SIN,
+                        SnapShotContract.RotationEntry.COLUMN_Y_SIN,
+                        SnapShotContract.RotationEntry.COLUMN_Z_SIN,
+                        SnapShotContract.RotationEntry.COLUMN_COS,
+                        SnapShotContract.RotationEntry.COLUMN_ACCURACY};
+            case FUSION:
+                return new String[]{
+                        SnapShotContract.FusedFrameEntry.COLUMN_ACCELERATION_X,
+                        SnapShotContract.FusedFrameEntry.COLUMN_ACCELERATION_Y,
+                        SnapShotContract.FusedFrameEntry.COLUMN_ACCELERATION_Z,
+                        SnapShotContract.FusedFrameEntry.COLUMN_ANGULAR_SPEED_X,
+                        SnapShotContract.FusedFrameEntry.COLUMN_ANGULAR_SPEED_Y,
+                        SnapShotContract.FusedFrameEntry.COLUMN_ANGULAR_SPEED_Z,
+                        SnapShotContract.FusedFrameEntry.COLUMN_MAGNETIC_X,
+                        SnapShotContract.FusedFrameEntry.COLUMN_MAGNETIC_Y,
+                        SnapShotContract.FusedFrameEntry.COLUMN_MAGNETIC_Z,
+                        SnapShotContract.FusedFrameEntry.COLUMN_ROTATION_X_SIN,
+                        SnapShotContract.FusedFrameEntry.COLUMN_ROTATION_Y_SIN,
+                        SnapShotContract.FusedFrameEntry.COLUMN_ROTATION_Z_SIN,
+                        SnapShotContract.FusedFrameEntry.COLUMN_ROTATION_COS};
+            default:
+                throw new IllegalArgumentException("No sample table for " + sensorType);
+        }
+    }
+
+    /**
+     * Appends the batch in a transaction, nested in the one of the caller if there is one
+     */
+    @Override
+    public int append(SensorSampleBatch batch, long tripId) {
+        CompiledSensorDataWriter writer = CompiledSensorDataWriter.getInstance(db);
+        db.beginTransaction();
+        try {
+            int written = writer.insert(batch, tripId);
+            db.setTransactionSuccessful();
+            return written;
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public List<Record> scanPending(SensorType sensorType, long afterId, int maxCount) {
+        String table = getTableName(sensorType);
+        String[] valueColumns = getValueColumns(sensorType);
+        long from = Math.max(afterId, UploadMarks.getMark(db, table));
+
+        ArrayList<Record> result = new ArrayList<>();
+        Cursor cursor = db.rawQuery("SELECT * FROM " + table + " WHERE _id > ? ORDER BY _id LIMIT " + maxCount,
+                new String[]{String.valueOf(from)});
+        try {
+            int idIndex = cursor.getColumnIndex("_id");
+            int timestampIndex = cursor.getColumnIndex(SnapShotContract.LinearAccelerationEntry.COLUMN_TIMESTAMP);
+            int tripIdIndex = cursor.getColumnIndex(SnapShotContract.LinearAccelerationEntry.COLUMN_TRIP_ID);
+            int isDrivingIndex = cursor.getColumnIndex(SnapShotContract.LinearAccelerationEntry.COLUMN_IS_DRIVING);
+            int[] valueIndexes = new int[valueColumns.length];
+            for (int i = 0; i < valueColumns.length; i++) {
+                valueIndexes[i] = cursor.getColumnIndex(valueColumns[i]);
+            }
+
+            while (cursor.moveToNext()) {
+                float[] values = new float[valueIndexes.length];
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = cursor.getFloat(valueIndexes[i]);
+                }
+                result.add(new Record(cursor.getLong(idIndex), sensorType, cursor.getLong(timestampIndex),
+                        cursor.getLong(tripIdIndex), cursor.getInt(isDrivingIndex) == 1, values));
+            }
+        } finally {
+            cursor.close();
+        }
+        return result;
+    }
+
+    @Override
+    public boolean acknowledge(SensorType sensorType, long firstId, long lastId) {
+        return UploadMarks.acknowledge(db, getTableName(sensorType), firstId, lastId);
+    }
+
+    @Override
+    public long countPending(SensorType sensorType) {
+        String table = getTableName(sensorType);
+        return DatabaseUtils.queryNumEntries(db, table, UploadMarks.pendingSelection(db, table));
+    }
+
+    @Override
+    public long purge() {
+        long purged = 0;
+        for (SensorType sensorType : SENSOR_TYPES) {
+            String table = getTableName(sensorType);
+            purged += db.delete(table, "_id <= ?", new String[]{String.valueOf(UploadMarks.getMark(db, table))});
+        }
+        return purged;
+    }
+
+    /**
+     * Deletes every row of the sample tables, _id is AUTOINCREMENT so the marks stay valid
+     */
+    @Override
+    public long clear() {
+        long cleared = 0;
+        for (SensorType sensorType : SENSOR_TYPES) {
+            cleared += db.delete(getTableName(sensorType), null, null);
+        }
+        return cleared;
+    }
+
+    /**
+     * The database is shared with the rest of the app and stays open
+     */
+    @Override
+    public void close() {
+    }
+}
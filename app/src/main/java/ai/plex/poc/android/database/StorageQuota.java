@@ -0,0 +1,218 @@
+package ai.plex.poc.android.database;
+
+import android.content.Context;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+
+/**
+ * Keeps the sensor data within a storage budget. The budget covers the pages in use in the
+ * database, day partitions included, and the segment files of the SegmentStore. When it is
+ * exceeded, or the file system runs low, data is evicted in order of value: rows, partitions and
+ * segments that were already uploaded first, then the oldest partition or segment of raw motion
+ * samples, then the oldest raw magnetic and rotation rows, the other motion rows and finally
+ * driving events, activities and locations, which are kept the longest.
+ *
+ * Eviction is incremental, a call deletes at most a few chunks of rows in short transactions
+ * and the next call continues. Deleted pages are reused by SQLite, the RetentionService gives
+ * them back to the file system while charging. The number of rows evicted per table is kept
+ * for diagnostics, every eviction of data that was not uploaded is logged with the totals so far.
+ */
+public class StorageQuota {
+    private static final String TAG = StorageQuota.class.getSimpleName();
+
+    private static final long DEFAULT_BUDGET = 256L * 1024 * 1024; // bytes
+    // Free space always left on the file system
+    private static final long MIN_FREE_SPACE = 32L * 1024 * 1024; // bytes
+    // Time between two budget checks after a flush
+    private static final long CHECK_INTERVAL = 30000; // milliseconds
+    private static final int EVICTION_CHUNK_SIZE = 1000;
+    private static final int MAX_CHUNKS_PER_RUN = 5;
+
+    // Lowest value first
+    private static final String[] EVICTION_ORDER = {
+            SnapShotContract.MagneticEntry.TABLE_NAME,
+            SnapShotContract.RotationEntry.TABLE_NAME,
+            SnapShotContract.GyroscopeEntry.TABLE_NAME,
+            SnapShotContract.LinearAccelerationEntry.TABLE_NAME,
+            SnapShotContract.SensorChunkEntry.TABLE_NAME,
+            SnapShotContract.FusedFrameEntry.TABLE_NAME,
+            SnapShotContract.DrivingEventEntry.TABLE_NAME,
+            SnapShotContract.DetectedActivityEntry.TABLE_NAME,
+            SnapShotContract.LocationEntry.TABLE_NAME
+    };
+
+    private static StorageQuota sInstance;
+
+    // Names the partitions and segments are counted under
+    private static final String PARTITIONS = "partitions";
+    private static final String SEGMENTS = "segments";
+
+    private final Context context;
+    private long budget = DEFAULT_BUDGET;
+    private long lastCheckTime = 0;
+    private final LinkedHashMap<String, Long> evictedRows = new LinkedHashMap<>();
+    private long uploadedRowsEvicted = 0;
+
+    private StorageQuota(Context context) {
+        this.context = context;
+        evictedRows.put(PARTITIONS, 0L);
+        evictedRows.put(SEGMENTS, 0L);
+        for (String table : EVICTION_ORDER) {
+            evictedRows.put(table, 0L);
+        }
+    }
+
+    public static synchronized StorageQuota getsInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new StorageQuota(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Takes effect with the next flush
+     * @param budget the most bytes the database and the segment files may use
+     */
+    public synchronized void setBudget(long budget) {
+        this.budget = budget;
+        lastCheckTime = 0;
+    }
+
+    public synchronized long getBudget() {
+        return budget;
+    }
+
+    /**
+     * The number of rows that were evicted before being uploaded, per table, with the samples of
+     * the partitions and segments that were evicted
+     */
+    public synchronized LinkedHashMap<String, Long> getEvictedRows() {
+        return new LinkedHashMap<>(evictedRows);
+    }
+
+    /**
+     * The number of rows and samples that were evicted after being uploaded, no data was lost
+     * for them
+     */
+    public synchronized long getUploadedRowsEvicted() {
+        return uploadedRowsEvicted;
+    }
+
+    /**
+     * Checks the budget at most every CHECK_INTERVAL and evicts rows when it is exceeded, called
+     * after the sensor data is flushed
+     */
+    public synchronized void onDataWritten(SQLiteDatabase db) {
+        long now = SystemClock.elapsedRealtime();
+        if (lastCheckTime != 0 && now - lastCheckTime < CHECK_INTERVAL)
+            return;
+        lastCheckTime = now;
+        enforce(db, MAX_CHUNKS_PER_RUN);
+    }
+
+    /**
+     * Evicts rows right away, called when an insert failed because the disk is full
+     */
+    public synchronized void onDiskFull(SQLiteDatabase db) {
+        Log.e(TAG, "Disk full, evicting rows");
+        lastCheckTime = SystemClock.elapsedRealtime();
+        if (!enforce(db, MAX_CHUNKS_PER_RUN)) {
+            // Under budget but the file system is full, make room anyway
+            try {
+                evictChunk(db);
+            } catch (Exception ex) {
+                Log.e(TAG, "Error making room on a full disk");
+                ex.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Evicts up to maxChunks chunks of rows while the database is over its budget
+     * @return true if rows had to be evicted
+     */
+    private boolean enforce(SQLiteDatabase db, int maxChunks) {
+        boolean evicted = false;
+        try {
+            for (int chunk = 0; chunk < maxChunks && isOverBudget(db); chunk++) {
+                if (!evictChunk(db))
+                    break;
+                evicted = true;
+            }
+        } catch (Exception ex) {
+            Log.e(TAG, "Error enforcing the storage budget");
+            ex.printStackTrace();
+        }
+        return evicted;
+    }
+
+    private boolean isOverBudget(SQLiteDatabase db) {
+        long pageSize = DatabaseUtils.longForQuery(db, "PRAGMA page_size", null);
+        long pageCount = DatabaseUtils.longForQuery(db, "PRAGMA page_count", null);
+        long freePages = DatabaseUtils.longForQuery(db, "PRAGMA freelist_count", null);
+        long used = (pageCount - freePages) * pageSize + SegmentStore.getsInstance(context).getDiskUsage();
+        long usableSpace = new File(db.getPath()).getParentFile().getUsableSpace();
+        return used > budget || usableSpace < MIN_FREE_SPACE;
+    }
+
+    /**
+     * Deletes one chunk of data, uploaded rows of any table, partitions or segments first, then
+     * the oldest partition or segment, then the oldest rows of the table with the lowest value
+     * that has rows
+     * @return false if there was nothing left to delete
+     */
+    private boolean evictChunk(SQLiteDatabase db) throws IOException {
+        for (String table : EVICTION_ORDER) {
+            long first = DatabaseUtils.longForQuery(db, "SELECT IFNULL(MIN(_id), 0) FROM " + table, null);
+            long mark = UploadMarks.getMark(db, table);
+            if (first > 0 && first <= mark) {
+                int deleted = deleteRange(db, table, Math.min(first + EVICTION_CHUNK_SIZE - 1, mark));
+                uploadedRowsEvicted += deleted;
+                return true;
+            }
+        }
+        long purged = PartitionedSqliteTelemetryStore.getInstance(db).purge();
+        purged += SegmentStore.getsInstance(context).purge();
+        if (purged > 0) {
+            uploadedRowsEvicted += purged;
+            return true;
+        }
+
+        // Partitions and segments hold raw motion samples, the samples with the lowest value
+        long evicted = PartitionedSqliteTelemetryStore.getInstance(db).evictOldest();
+        if (evicted > 0) {
+            onEvicted(PARTITIONS, evicted);
+            return true;
+        }
+        evicted = SegmentStore.getsInstance(context).evictOldest();
+        if (evicted > 0) {
+            onEvicted(SEGMENTS, evicted);
+            return true;
+        }
+
+        for (String table : EVICTION_ORDER) {
+            long first = DatabaseUtils.longForQuery(db, "SELECT IFNULL(MIN(_id), 0) FROM " + table, null);
+            if (first > 0) {
+                onEvicted(table, deleteRange(db, table, first + EVICTION_CHUNK_SIZE - 1));
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void onEvicted(String name, long rows) {
+        evictedRows.put(name, evictedRows.get(name) + rows);
+        Log.d(TAG, "Evicted " + rows + " rows not uploaded from " + name + ", evicted so far: " +
+                evictedRows + " not uploaded, " + uploadedRowsEvicted + " uploaded");
+    }
+
+    private static int deleteRange(SQLiteDatabase db, String table, long lastId) {
+        return db.delete(table, "_id <= ?", new String[]{String.valueOf(lastId)});
+    }
+}
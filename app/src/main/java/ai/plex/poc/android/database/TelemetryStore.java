@@ -0,0 +1,85 @@
+package ai.plex.poc.android.database;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+
+import ai.plex.poc.android.sensorListeners.SensorSampleBatch;
+import ai.plex.poc.android.sensorListeners.SensorType;
+
+/**
+ * Storage of the motion samples written by the SensorDataBuffer, independent of how they are laid
+ * out. Every stored sample gets an id that grows with every append, per sensor type. Samples are
+ * pending until their ids are acknowledged, acknowledged samples are removed by purge.
+ *
+ * The storage mode of the SensorDataBuffer picks the store: SqliteTelemetryStore is the sensor
+ * tables of the database, ChunkedSqliteTelemetryStore the sensorChunk table,
+ * PartitionedSqliteTelemetryStore the day partitions of the sensor tables and SegmentStore the
+ * segment files. MemoryTelemetryStore and FileTelemetryStore do not depend on Android so
+ * storage strategies can be compared on a plain JVM.
+ */
+public interface TelemetryStore extends Closeable {
+
+    /**
+     * A stored sample
+     */
+    class Record {
+        public final long id;
+        public final SensorType sensorType;
+        public final long timestamp;
+        public final long tripId;
+        public final boolean isDriving;
+        public final float[] values;
+
+        public Record(long id, SensorType sensorType, long timestamp, long tripId, boolean isDriving, float[] values) {
+            this.id = id;
+            this.sensorType = sensorType;
+            this.timestamp = timestamp;
+            this.tripId = tripId;
+            this.isDriving = isDriving;
+            this.values = values;
+        }
+    }
+
+    /**
+     * Stores the samples of the batch, samples flagged as driving are stored with the trip id
+     * @return the number of samples stored
+     */
+    int append(SensorSampleBatch batch, long tripId) throws IOException;
+
+    /**
+     * Writes the samples appended so far to storage, stores that write them on append do nothing
+     */
+    void flush() throws IOException;
+
+    /**
+     * Reads pending samples in id order
+     * @param afterId only samples with a greater id are returned, 0 to start at the first pending one
+     * @param maxCount the most samples returned
+     */
+    List<Record> scanPending(SensorType sensorType, long afterId, int maxCount) throws IOException;
+
+    /**
+     * Records that the samples firstId to lastId were uploaded
+     * @return false if samples before firstId are still pending, the range stays pending then
+     */
+    boolean acknowledge(SensorType sensorType, long firstId, long lastId) throws IOException;
+
+    /**
+     * The number of pending samples of the sensor type
+     */
+    long countPending(SensorType sensorType) throws IOException;
+
+    /**
+     * Removes acknowledged samples of every sensor type
+     * @return the number of samples removed
+     */
+    long purge() throws IOException;
+
+    /**
+     * Removes every sample of every sensor type, pending or not. Samples appended afterwards are
+     * pending.
+     * @return the number of samples removed
+     */
+    long clear() throws IOException;
+}
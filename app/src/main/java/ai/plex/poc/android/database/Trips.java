@@ -0,0 +1,95 @@
+package ai.plex.poc.android.database;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import ai.plex.poc.android.database.SnapShotContract.DrivingEventEntry;
+import ai.plex.poc.android.database.SnapShotContract.LocationEntry;
+import ai.plex.poc.android.database.SnapShotContract.TripEntry;
+
+/**
+ * Opens a trip row when driving starts and closes it with a summary when driving stops. The
+ * summary is computed from the rows of the trip through the tripId indexes, so closing a trip
+ * reads the rows of that trip only.
+ */
+public class Trips {
+    private static final String TAG = Trips.class.getSimpleName();
+
+    /**
+     * @param startTime epoch milliseconds
+     * @return the id of the new trip, -1 if it could not be written
+     */
+    public static long startTrip(SQLiteDatabase db, long startTime) {
+        ContentValues values = new ContentValues();
+        values.put(TripEntry.COLUMN_START_TIME, startTime);
+        long tripId = db.insert(TripEntry.TABLE_NAME, null, values);
+        Log.d(TAG, "Started trip " + tripId);
+        return tripId;
+    }
+
+    /**
+     * Writes the end time and the summary of the trip
+     * @param endTime epoch milliseconds
+     */
+    public static void closeTrip(SQLiteDatabase db, long tripId, long endTime) {
+        double distance = 0;
+        float maxSpeed = 0;
+        int locationCount = 0;
+
+        Cursor cursor = db.rawQuery("SELECT " + LocationEntry.COLUMN_LATITUDE + ", " + LocationEntry.COLUMN_LONGITUDE + ", " +
+                LocationEntry.COLUMN_SPEED + " FROM " + LocationEntry.TABLE_NAME + " WHERE " + LocationEntry.COLUMN_TRIP_ID +
+                " = ? ORDER BY " + LocationEntry._ID, new String[]{String.valueOf(tripId)});
+        try {
+            double lastLatitude = 0;
+            double lastLongitude = 0;
+            while (cursor.moveToNext()) {
+                double latitude = cursor.getDouble(0);
+                double longitude = cursor.getDouble(1);
+                if (locationCount > 0)
+                    distance += distanceBetweenPoints(lastLatitude, lastLongitude, latitude, longitude);
+                maxSpeed = Math.max(maxSpeed, cursor.getFloat(2));
+                lastLatitude = latitude;
+                lastLongitude = longitude;
+                locationCount++;
+            }
+        } finally {
+            cursor.close();
+        }
+
+        long drivingEventCount = DatabaseUtils.queryNumEntries(db, DrivingEventEntry.TABLE_NAME,
+                DrivingEventEntry.COLUMN_TRIP_ID + " = ?", new String[]{String.valueOf(tripId)});
+
+        ContentValues values = new ContentValues();
+        values.put(TripEntry.COLUMN_END_TIME, endTime);
+        values.put(TripEntry.COLUMN_DISTANCE, distance);
+        values.put(TripEntry.COLUMN_MAX_SPEED, maxSpeed);
+        values.put(TripEntry.COLUMN_LOCATION_COUNT, locationCount);
+        values.put(TripEntry.COLUMN_DRIVING_EVENT_COUNT, drivingEventCount);
+        db.update(TripEntry.TABLE_NAME, values, TripEntry._ID + " = ?", new String[]{String.valueOf(tripId)});
+        Log.d(TAG, "Closed trip " + tripId + ": " + Math.round(distance) + " m, " + drivingEventCount + " driving events");
+    }
+
+    /**
+     * Great circle distance between two points in meters
+     */
+    public static double distanceBetweenPoints(double latitude1, double longitude1, double latitude2, double longitude2) {
+        // approximate radius of earth in m
+        double R = 6373000.0;
+
+        double lat1 = Math.toRadians(latitude1);
+        double lon1 = Math.toRadians(longitude1);
+        double lat2 = Math.toRadians(latitude2);
+        double lon2 = Math.toRadians(longitude2);
+
+        double dlon = lon2 - lon1;
+        double dlat = lat2 - lat1;
+
+        double a = Math.pow(Math.sin(dlat / 2),2) + Math.cos(lat1) * Math.cos(lat2) * Math.pow(Math.sin(dlon / 2), 2);
+        double c = 2 * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a));
+
+        return R * c;
+    }
+}
@@ -0,0 +1,62 @@
+package ai.plex.poc.android.database;
+
+import android.content.ContentValues;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import ai.plex.poc.android.database.SnapShotContract.UploadMarkEntry;
+
+/**
+ * Keeps the highest uploaded _id of every table. Rows are only appended and _id is AUTOINCREMENT,
+ * so the rows waiting for upload are the ones with an _id above the mark: selecting them is a
+ * primary key range scan and acknowledging a batch is a single row write instead of an update of
+ * every uploaded row.
+ *
+ * The mark only moves over rows that were all acknowledged. A batch that follows a batch which
+ * failed to upload leaves the mark where it is, its rows are sent again on the next upload.
+ */
+public class UploadMarks {
+    private static final String TAG = UploadMarks.class.getSimpleName();
+
+    /**
+     * @return the highest uploaded _id of the table, 0 if nothing was uploaded yet
+     */
+    public static long getMark(SQLiteDatabase db, String tableName) {
+        return DatabaseUtils.longForQuery(db, "SELECT IFNULL(MAX(" + UploadMarkEntry.COLUMN_LAST_ID + "), 0) FROM " +
+                UploadMarkEntry.TABLE_NAME + " WHERE " + UploadMarkEntry.COLUMN_TABLE_NAME + " = ?", new String[]{tableName});
+    }
+
+    /**
+     * Selection of the rows waiting for upload
+     */
+    public static String pendingSelection(SQLiteDatabase db, String tableName) {
+        return "_id > " + getMark(db, tableName);
+    }
+
+    /**
+     * Records that the rows firstId to lastId of the table were uploaded
+     * @return true if the mark moved
+     */
+    public static synchronized boolean acknowledge(SQLiteDatabase db, String tableName, long firstId, long lastId) {
+        long mark = getMark(db, tableName);
+        if (lastId <= mark)
+            return false;
+
+        // Rows between the mark and the batch were not acknowledged, the batch waits for them
+        if (firstId > mark + 1 && DatabaseUtils.queryNumEntries(db, tableName, "_id > " + mark + " AND _id < " + firstId) > 0) {
+            Log.d(TAG, "Rows of " + tableName + " before " + firstId + " are not uploaded, the mark stays at " + mark);
+            return false;
+        }
+
+        setMark(db, tableName, lastId);
+        return true;
+    }
+
+    public static void setMark(SQLiteDatabase db, String tableName, long lastId) {
+        ContentValues values = new ContentValues();
+        values.put(UploadMarkEntry.COLUMN_TABLE_NAME, tableName);
+        values.put(UploadMarkEntry.COLUMN_LAST_ID, lastId);
+        db.insertWithOnConflict(UploadMarkEntry.TABLE_NAME, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+    }
+}
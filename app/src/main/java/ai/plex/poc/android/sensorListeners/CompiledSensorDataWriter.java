@@ -0,0 +1,285 @@
+package ai.plex.poc.android.sensorListeners;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import java.util.EnumMap;
+
+import ai.plex.poc.android.database.SensorChunkCodec;
+import ai.plex.poc.android.database.SnapShotContract.*;
+
+/**
+ * Writes sensor rows through one precompiled insert statement per table. Values are bound
+ * as primitives straight from the sample arrays, so no ContentValues map or boxed values are
+ * created per row and SQLite does not have to parse the insert again.
+ *
+ * Rows flagged as driving are written with the id of the trip passed in, other rows with trip 0.
+ *
+ * Compiled statements belong to a database connection, use getInstance to obtain a writer
+ * for the currently open database. All writes are synchronized on the writer because the
+ * statements are shared.
+ */
+public class CompiledSensorDataWriter {
+    private static CompiledSensorDataWriter sInstance;
+
+    private final SQLiteDatabase db;
+    private final EnumMap<SensorType, SQLiteStatement> statements = new EnumMap<>(SensorType.class);
+    private SQLiteStatement chunkStatement;
+    private SQLiteStatement drivingEventStatement;
+
+    private CompiledSensorDataWriter(SQLiteDatabase db) {
+        this.db = db;
+    }
+
+    /**
+     * Returns the writer for the given database, statements are recompiled if the database
+     * was closed and reopened since the last call
+     */
+    public static synchronized CompiledSensorDataWriter getInstance(SQLiteDatabase db) {
+        if (sInstance == null || sInstance.db != db || !sInstance.db.isOpen()) {
+            if (sInstance != null)
+                sInstance.close();
+            sInstance = new CompiledSensorDataWriter(db);
+        }
+        return sInstance;
+    }
+
+    private SQLiteStatement getStatement(SensorType sensorType) {
+        SQLiteStatement statement = statements.get(sensorType);
+        if (statement == null) {
+            statement = db.compileStatement(insertSql(sensorType));
+            statements.put(sensorType, statement);
+        }
+        return statement;
+    }
+
+    private static String insertSql(SensorType sensorType) {
+        switch (sensorType) {
+            case LINEAR_ACCELERATION:
+                return "INSERT INTO " + LinearAccelerationEntry.TABLE_NAME + " (" +
+                        LinearAccelerationEntry.COLUMN_TIMESTAMP + ", " +
+                        LinearAccelerationEntry.COLUMN_X + ", " +
+                        LinearAccelerationEntry.COLUMN_Y + ", " +
+                        LinearAccelerationEntry.COLUMN_Z + ", " +
+                        LinearAccelerationEntry.COLUMN_TRIP_ID + ", " +
+                        LinearAccelerationEntry.COLUMN_IS_DRIVING + ", " +
+                        LinearAccelerationEntry.COLUMN_IS_RECORD_UPLOADED + ") VALUES (?, ?, ?, ?, ?, ?, 0)";
+            case GYROSCOPE:
+                return "INSERT INTO " + GyroscopeEntry.TABLE_NAME + " (" +
+                        GyroscopeEntry.COLUMN_TIMESTAMP + ", " +
+                        GyroscopeEntry.COLUMN_ANGULAR_SPEED_X + ", " +
+                        GyroscopeEntry.COLUMN_ANGULAR_SPEED_Y + ", " +
+                        GyroscopeEntry.COLUMN_ANGULAR_SPEED_Z + ", " +
+                        GyroscopeEntry.COLUMN_TRIP_ID + ", " +
+                        GyroscopeEntry.COLUMN_IS_DRIVING + ", " +
+                        GyroscopeEntry.COLUMN_IS_RECORD_UPLOADED + ") VALUES (?, ?, ?, ?, ?, ?, 0)";
+            case MAGNETIC:
+                return "INSERT INTO " + MagneticEntry.TABLE_NAME + " (" +
+                        MagneticEntry.COLUMN_TIMESTAMP + ", " +
+                        MagneticEntry.COLUMN_X + ", " +
+                        MagneticEntry.COLUMN_Y + ", " +
+                        MagneticEntry.COLUMN_Z + ", " +
+                        MagneticEntry.COLUMN_TRIP_ID + ", " +
+                        MagneticEntry.COLUMN_IS_DRIVING + ", " +
+                        MagneticEntry.COLUMN_IS_RECORD_UPLOADED + ") VALUES (?, ?, ?, ?, ?, ?, 0)";
+            case ROTATION:
+                return "INSERT INTO " + RotationEntry.TABLE_NAME + " (" +
+                        RotationEntry.COLUMN_TIMESTAMP + ", " +
+                        RotationEntry.COLUMN_X_SIN + ", " +
+                        RotationEntry.COLUMN_Y_SIN + ", " +
+                        RotationEntry.COLUMN_Z_SIN + ", " +
+                        RotationEntry.COLUMN_COS + ", " +
+                        RotationEntry.COLUMN_ACCURACY + ", " +
+                        RotationEntry.COLUMN_TRIP_ID + ", " +
+                        RotationEntry.COLUMN_IS_DRIVING + ", " +
+                        RotationEntry.COLUMN_IS_RECORD_UPLOADED + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, 0)";
+            case LOCATION:
+                return "INSERT INTO " + LocationEntry.TABLE_NAME + " (" +
+                        LocationEntry.COLUMN_TIMESTAMP + ", " +
+                        LocationEntry.COLUMN_LATITUDE + ", " +
+                        LocationEntry.COLUMN_LONGITUDE + ", " +
+                        LocationEntry.COLUMN_SPEED + ", " +
+                        LocationEntry.COLUMN_TRIP_ID + ", " +
+                        LocationEntry.COLUMN_IS_DRIVING + ", " +
+                        LocationEntry.COLUMN_IS_RECORD_UPLOADED + ") VALUES (?, ?, ?, ?, ?, ?, 0)";
+            case ACTIVITY_DETECTOR:
+                return "INSERT INTO " + DetectedActivityEntry.TABLE_NAME + " (" +
+                        DetectedActivityEntry.COLUMN_TIMESTAMP + ", " +
+                        DetectedActivityEntry.COLUMN_NAME + ", " +
+                        DetectedActivityEntry.COLUMN_CONFIDENCDE + ", " +
+                        DetectedActivityEntry.COLUMN_TRIP_ID + ", " +
+                        DetectedActivityEntry.COLUMN_IS_DRIVING + ", " +
+                        DetectedActivityEntry.COLUMN_IS_RECORD_UPLOADED + ") VALUES (?, ?, ?, ?, ?, 0)";
+            case FUSION:
+                return "INSERT INTO " + FusedFrameEntry.TABLE_NAME + " (" +
+                        FusedFrameEntry.COLUMN_TIMESTAMP + ", " +
+                        FusedFrameEntry.COLUMN_ACCELERATION_X + ", " +
+                        FusedFrameEntry.COLUMN_ACCELERATION_Y + ", " +
+                        FusedFrameEntry.COLUMN_ACCELERATION_Z + ", " +
+                        FusedFrameEntry.COLUMN_ANGULAR_SPEED_X + ", " +
+                        FusedFrameEntry.COLUMN_ANGULAR_SPEED_Y + ", " +
+                        FusedFrameEntry.COLUMN_ANGULAR_SPEED_Z + ", " +
+                        FusedFrameEntry.COLUMN_MAGNETIC_X + ", " +
+                        FusedFrameEntry.COLUMN_MAGNETIC_Y + ", " +
+                        FusedFrameEntry.COLUMN_MAGNETIC_Z + ", " +
+                        FusedFrameEntry.COLUMN_ROTATION_X_SIN + ", " +
+                        FusedFrameEntry.COLUMN_ROTATION_Y_SIN + ", " +
+                        FusedFrameEntry.COLUMN_ROTATION_Z_SIN + ", " +
+                        FusedFrameEntry.COLUMN_ROTATION_COS + ", " +
+                        FusedFrameEntry.COLUMN_TRIP_ID + ", " +
+                        FusedFrameEntry.COLUMN_IS_DRIVING + ", " +
+                        FusedFrameEntry.COLUMN_IS_RECORD_UPLOADED + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, 0)";
+            default:
+                throw new IllegalArgumentException("No table for sensor type " + sensorType);
+        }
+    }
+
+    /**
+     * Inserts one motion sensor sample, values missing from the array are written as 0
+     * @return the row id or -1 if the insert failed
+     */
+    public synchronized long insert(SensorType sensorType, long timestamp, float[] values, boolean isDriving, long tripId) {
+        SQLiteStatement statement = getStatement(sensorType);
+        int valueCount = sensorType.getValueCount();
+
+        statement.bindLong(1, timestamp);
+        for (int i = 0; i < valueCount; i++) {
+            statement.bindDouble(i + 2, i < values.length ? values[i] : 0);
+        }
+        statement.bindLong(valueCount + 2, isDriving ? tripId : 0);
+        statement.bindLong(valueCount + 3, isDriving ? 1 : 0);
+        return statement.executeInsert();
+    }
+
+    /**
+     * Inserts every sample of the batch, the caller is expected to hold a transaction
+     * @return the number of rows written
+     */
+    public synchronized int insert(SensorSampleBatch batch, long tripId) {
+        SQLiteStatement statement = getStatement(batch.getSensorType());
+        int valueCount = batch.getStride();
+        int written = 0;
+
+        for (int row = 0; row < batch.size(); row++) {
+            statement.bindLong(1, batch.getTimestamp(row));
+            for (int i = 0; i < valueCount; i++) {
+                statement.bindDouble(i + 2, batch.getValue(row, i));
+            }
+            statement.bindLong(valueCount + 2, batch.isDriving(row) ? tripId : 0);
+            statement.bindLong(valueCount + 3, batch.isDriving(row) ? 1 : 0);
+            if (statement.executeInsert() != -1)
+                written++;
+        }
+        return written;
+    }
+
+    /**
+     * Packs the samples of the batch into sensorChunk rows of at most chunkSize samples. A new
+     * chunk is started whenever the driving flag changes so that every chunk has a single flag.
+     * The caller is expected to hold a transaction.
+     * @return the number of samples written
+     */
+    public synchronized int insertChunks(SensorSampleBatch batch, int chunkSize, long tripId) {
+        if (chunkStatement == null) {
+            chunkStatement = db.compileStatement("INSERT INTO " + SensorChunkEntry.TABLE_NAME + " (" +
+                    SensorChunkEntry.COLUMN_SENSOR_TYPE + ", " +
+                    SensorChunkEntry.COLUMN_START_TIME + ", " +
+                    SensorChunkEntry.COLUMN_END_TIME + ", " +
+                    SensorChunkEntry.COLUMN_SAMPLE_COUNT + ", " +
+                    SensorChunkEntry.COLUMN_VALUE_COUNT + ", " +
+                    SensorChunkEntry.COLUMN_TIMESTAMPS + ", " +
+                    SensorChunkEntry.COLUMN_VALUES + ", " +
+                    SensorChunkEntry.COLUMN_TRIP_ID + ", " +
+                    SensorChunkEntry.COLUMN_IS_DRIVING + ", " +
+                    SensorChunkEntry.COLUMN_IS_RECORD_UPLOADED + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, 0)");
+        }
+
+        int written = 0;
+        int from = 0;
+        while (from < batch.size()) {
+            int to = from + 1;
+            while (to < batch.size() && to - from < chunkSize && batch.isDriving(to) == batch.isDriving(from)) {
+                to++;
+            }
+
+            chunkStatement.bindString(1, batch.getSensorType().toString());
+            chunkStatement.bindLong(2, batch.getTimestamp(from));
+            chunkStatement.bindLong(3, batch.getTimestamp(to - 1));
+            chunkStatement.bindLong(4, to - from);
+            chunkStatement.bindLong(5, batch.getStride());
+            chunkStatement.bindBlob(6, SensorChunkCodec.encodeTimestamps(batch, from, to));
+            chunkStatement.bindBlob(7, SensorChunkCodec.encodeValues(batch, from, to));
+            chunkStatement.bindLong(8, batch.isDriving(from) ? tripId : 0);
+            chunkStatement.bindLong(9, batch.isDriving(from) ? 1 : 0);
+            if (chunkStatement.executeInsert() != -1)
+                written += to - from;
+
+            from = to;
+        }
+        return written;
+    }
+
+    public synchronized long insertLocation(long timestamp, double latitude, double longitude, float speed, boolean isDriving, long tripId) {
+        SQLiteStatement statement = getStatement(SensorType.LOCATION);
+        statement.bindLong(1, timestamp);
+        statement.bindDouble(2, latitude);
+        statement.bindDouble(3, longitude);
+        statement.bindDouble(4, speed);
+        statement.bindLong(5, isDriving ? tripId : 0);
+        statement.bindLong(6, isDriving ? 1 : 0);
+        return statement.executeInsert();
+    }
+
+    public synchronized long insertActivity(long timestamp, int activityType, int confidence, boolean isDriving, long tripId) {
+        SQLiteStatement statement = getStatement(SensorType.ACTIVITY_DETECTOR);
+        statement.bindLong(1, timestamp);
+        statement.bindLong(2, activityType);
+        statement.bindLong(3, confidence);
+        statement.bindLong(4, isDriving ? tripId : 0);
+        statement.bindLong(5, isDriving ? 1 : 0);
+        return statement.executeInsert();
+    }
+
+    public synchronized long insertDrivingEvent(DrivingEventDetector.DrivingEvent event, long tripId) {
+        if (drivingEventStatement == null) {
+            drivingEventStatement = db.compileStatement("INSERT INTO " + DrivingEventEntry.TABLE_NAME + " (" +
+                    DrivingEventEntry.COLUMN_EVENT_TYPE + ", " +
+                    DrivingEventEntry.COLUMN_START_TIME + ", " +
+                    DrivingEventEntry.COLUMN_END_TIME + ", " +
+                    DrivingEventEntry.COLUMN_PEAK_VALUE + ", " +
+                    DrivingEventEntry.COLUMN_MEAN_VALUE + ", " +
+                    DrivingEventEntry.COLUMN_PEAK_YAW_RATE + ", " +
+                    DrivingEventEntry.COLUMN_TRIP_ID + ", " +
+                    DrivingEventEntry.COLUMN_IS_DRIVING + ", " +
+                    DrivingEventEntry.COLUMN_IS_RECORD_UPLOADED + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, 0)");
+        }
+        drivingEventStatement.bindString(1, event.type.toString());
+        drivingEventStatement.bindLong(2, event.startTime);
+        drivingEventStatement.bindLong(3, event.endTime);
+        drivingEventStatement.bindDouble(4, event.peakValue);
+        drivingEventStatement.bindDouble(5, event.meanValue);
+        drivingEventStatement.bindDouble(6, event.peakYawRate);
+        drivingEventStatement.bindLong(7, event.isDriving ? tripId : 0);
+        drivingEventStatement.bindLong(8, event.isDriving ? 1 : 0);
+        return drivingEventStatement.executeInsert();
+    }
+
+    private synchronized void close() {
+        for (SQLiteStatement statement : statements.values()) {
+            try {
+                statement.close();
+            } catch (Exception ex) {
+                ex.printStackTrace();
+            }
+        }
+        statements.clear();
+        if (chunkStatement != null) {
+            chunkStatement.close();
+            chunkStatement = null;
+        }
+        if (drivingEventStatement != null) {
+            drivingEventStatement.close();
+            drivingEventStatement = null;
+        }
+    }
+}
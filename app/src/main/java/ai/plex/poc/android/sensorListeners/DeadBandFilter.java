@@ -0,0 +1,103 @@
+package ai.plex.poc.android.sensorListeners;
+
+/**
+ * Drops samples of slowly changing sensors that stay within a dead band around the last stored
+ * sample. A sample is stored when any axis moves out of the band, or when the keyframe interval
+ * elapsed since the last stored sample.
+ *
+ * When a sample leaves the band after samples were skipped, the last skipped sample is stored
+ * as well. A skipped span is then bounded by two stored samples and every value in it is within
+ * the threshold of the first one, so holding the stored values reconstructs the stream within
+ * the thresholds. Without thresholds samples pass unchanged.
+ */
+public class DeadBandFilter extends SensorStage {
+    private float[] thresholds;
+    private long keyframeInterval;
+
+    private final float[] stored;
+    private long storedTime = -1;
+
+    private final float[] skipped;
+    private long skippedTime = -1;
+    private boolean hasSkipped = false;
+    private boolean emitSkipped = false;
+
+    /**
+     * @param thresholds the dead band per axis, axes past the end of the array are not compared,
+     *                   null to pass every sample
+     * @param keyframeInterval the longest time between two stored samples in milliseconds
+     */
+    public DeadBandFilter(int valueCount, float[] thresholds, long keyframeInterval) {
+        this.stored = new float[valueCount];
+        this.skipped = new float[valueCount];
+        setThresholds(thresholds, keyframeInterval);
+    }
+
+    public synchronized void setThresholds(float[] thresholds, long keyframeInterval) {
+        this.thresholds = thresholds == null ? null : thresholds.clone();
+        this.keyframeInterval = keyframeInterval;
+        reset();
+    }
+
+    @Override
+    public synchronized void accept(SensorType sensorType, long timestamp, float[] values, boolean isDriving) {
+        if (thresholds == null) {
+            emit(sensorType, timestamp, values, isDriving);
+        } else if (filter(timestamp, values)) {
+            if (emitSkipped)
+                emit(sensorType, skippedTime, skipped, isDriving);
+            emit(sensorType, timestamp, values, isDriving);
+        }
+    }
+
+    @Override
+    public synchronized void reset() {
+        storedTime = -1;
+        hasSkipped = false;
+        emitSkipped = false;
+    }
+
+    /**
+     * @param timestamp sample time in milliseconds
+     * @return true if the sample should be stored, if hasSkippedSample is then true the last
+     * skipped sample must be stored before it
+     */
+    public boolean filter(long timestamp, float[] values) {
+        int count = Math.min(stored.length, values.length);
+        emitSkipped = false;
+
+        boolean outOfBand = storedTime < 0;
+        for (int i = 0; i < thresholds.length && i < count && !outOfBand; i++) {
+            outOfBand = Math.abs(values[i] - stored[i]) > thresholds[i];
+        }
+
+        if (!outOfBand && timestamp - storedTime < keyframeInterval) {
+            System.arraycopy(values, 0, skipped, 0, count);
+            skippedTime = timestamp;
+            hasSkipped = true;
+            return false;
+        }
+
+        // A keyframe within the band does not end the span, the skipped samples stay within it
+        emitSkipped = hasSkipped && outOfBand;
+        hasSkipped = false;
+        System.arraycopy(values, 0, stored, 0, count);
+        storedTime = timestamp;
+        return true;
+    }
+
+    /**
+     * Whether the last skipped sample has to be stored before the accepted one
+     */
+    public boolean hasSkippedSample() {
+        return emitSkipped;
+    }
+
+    public long getSkippedTimestamp() {
+        return skippedTime;
+    }
+
+    public float[] getSkippedValues() {
+        return skipped;
+    }
+}
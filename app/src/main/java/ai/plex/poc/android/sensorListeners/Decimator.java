@@ -0,0 +1,165 @@
+package ai.plex.poc.android.sensorListeners;
+
+/**
+ * Lowers the rate at which samples of one sensor type are stored while the sensor keeps being
+ * sampled fast. Every axis goes through a second order Butterworth low-pass filter cut below the
+ * Nyquist frequency of the output rate, then one filtered sample is kept per output period, so
+ * that motion faster than the output rate does not alias into the stored samples.
+ *
+ * The input rate is estimated from the sample timestamps since the sampling interval changes
+ * with the motion, the filter is redesigned when it drifts. All state is kept in primitive
+ * arrays, filtering a sample does not allocate. Without an output rate samples pass unchanged.
+ */
+public class Decimator extends SensorStage {
+    // Cut off as a fraction of the output rate, below the output Nyquist frequency of 0.5
+    private static final double CUTOFF_RATIO = 0.4;
+    private static final double Q = 1 / Math.sqrt(2);
+    // Relative input rate change that triggers a new filter design
+    private static final double REDESIGN_THRESHOLD = 0.1;
+    // Weight of a new interval in the input interval estimate
+    private static final double INTERVAL_SMOOTHING = 0.05;
+
+    private final int valueCount;
+    private final boolean filterValues;
+    // 0 when samples pass unchanged
+    private long outputPeriod;
+
+    // Filter coefficients, normalized by a0
+    private double b0, b1, b2, a1, a2;
+    private boolean filterEnabled = false;
+    private double designInterval = 0;
+    // Transposed direct form II state per axis
+    private final double[] z1;
+    private final double[] z2;
+    private final float[] output;
+
+    private double inputInterval = 0;
+    private long lastInputTime = -1;
+    private long nextOutputTime = -1;
+
+    /**
+     * @param valueCount the number of axes of the samples
+     * @param outputRate samples kept per second, 0 to pass every sample
+     * @param filterValues false to only pick samples, for values that can not be averaged
+     */
+    public Decimator(int valueCount, double outputRate, boolean filterValues) {
+        this.valueCount = valueCount;
+        this.filterValues = filterValues;
+        this.z1 = new double[valueCount];
+        this.z2 = new double[valueCount];
+        this.output = new float[valueCount];
+        setOutputRate(outputRate);
+    }
+
+    public synchronized void setOutputRate(double outputRate) {
+        this.outputPeriod = outputRate <= 0 ? 0 : Math.max(1, Math.round(1000 / outputRate));
+        designInterval = 0;
+        reset();
+    }
+
+    @Override
+    public synchronized void reset() {
+        for (int i = 0; i < valueCount; i++) {
+            z1[i] = 0;
+            z2[i] = 0;
+        }
+        filterEnabled = false;
+        inputInterval = 0;
+        lastInputTime = -1;
+        nextOutputTime = -1;
+    }
+
+    @Override
+    public synchronized void accept(SensorType sensorType, long timestamp, float[] values, boolean isDriving) {
+        if (outputPeriod == 0) {
+            emit(sensorType, timestamp, values, isDriving);
+        } else if (filter(timestamp, values)) {
+            emit(sensorType, timestamp, output, isDriving);
+        }
+    }
+
+    /**
+     * Filters a sample
+     * @param timestamp sample time in milliseconds
+     * @return true if an output sample is due, it is then available from getOutput
+     */
+    public boolean filter(long timestamp, float[] values) {
+        updateInputInterval(timestamp);
+
+        int count = Math.min(valueCount, values.length);
+        for (int i = 0; i < count; i++) {
+            double x = values[i];
+            if (filterValues && filterEnabled) {
+                double y = b0 * x + z1[i];
+                z1[i] = b1 * x - a1 * y + z2[i];
+                z2[i] = b2 * x - a2 * y;
+                output[i] = (float) y;
+            } else {
+                output[i] = (float) x;
+            }
+        }
+
+        if (nextOutputTime < 0 || timestamp - nextOutputTime >= outputPeriod) {
+            // First sample, or the input paused, restart the output grid here
+            nextOutputTime = timestamp + outputPeriod;
+            return true;
+        }
+        if (timestamp >= nextOutputTime) {
+            nextOutputTime += outputPeriod;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * The last filtered sample, reused for the next one
+     */
+    public float[] getOutput() {
+        return output;
+    }
+
+    private void updateInputInterval(long timestamp) {
+        if (lastInputTime >= 0) {
+            long interval = timestamp - lastInputTime;
+            if (interval > 0 && interval < outputPeriod * 4) {
+                inputInterval = inputInterval == 0 ? interval : inputInterval + INTERVAL_SMOOTHING * (interval - inputInterval);
+            }
+        }
+        lastInputTime = timestamp;
+
+        if (inputInterval > 0 && Math.abs(inputInterval - designInterval) > designInterval * REDESIGN_THRESHOLD) {
+            design(inputInterval);
+        }
+    }
+
+    private void design(double interval) {
+        designInterval = interval;
+        double inputRate = 1000 / interval;
+        double cutoff = CUTOFF_RATIO * 1000 / outputPeriod;
+        // Input not faster than the output, there is nothing to remove
+        if (cutoff >= inputRate / 2) {
+            filterEnabled = false;
+            b0 = 1;
+            b1 = b2 = a1 = a2 = 0;
+            return;
+        }
+
+        double w0 = 2 * Math.PI * cutoff / inputRate;
+        double cos = Math.cos(w0);
+        double alpha = Math.sin(w0) / (2 * Q);
+        double a0 = 1 + alpha;
+        b0 = (1 - cos) / 2 / a0;
+        b1 = (1 - cos) / a0;
+        b2 = b0;
+        a1 = -2 * cos / a0;
+        a2 = (1 - alpha) / a0;
+        if (!filterEnabled) {
+            // Start from the steady state of the last output so that enabling the filter does not cause a step
+            for (int i = 0; i < valueCount; i++) {
+                z1[i] = output[i] * (1 - b0);
+                z2[i] = output[i] * (b2 - a2);
+            }
+        }
+        filterEnabled = true;
+    }
+}
@@ -0,0 +1,177 @@
+package ai.plex.poc.android.sensorListeners;
+
+/**
+ * Detects harsh braking, harsh acceleration and harsh cornering while samples are recorded, so
+ * that compact event rows are available right after a trip instead of after the raw data was
+ * uploaded and processed on the server.
+ *
+ * The device is assumed to be held in a cradle in portrait: the y axis points to the front of
+ * the vehicle, the x axis to its side and the z axis is the yaw axis. Linear acceleration along
+ * y and x and the gyroscope z rate are averaged over short sliding windows. An event starts when
+ * a smoothed signal crosses its threshold, ends when it falls back below a fraction of it and is
+ * reported if it lasted at least the minimum duration of its rule.
+ *
+ * The detector is shared by the linear acceleration and gyroscope chains of the SensorPipeline.
+ */
+public class DrivingEventDetector implements SensorSink {
+    public enum DrivingEventType {
+        HARSH_BRAKE,
+        HARSH_ACCELERATION,
+        HARSH_CORNERING
+    }
+
+    /**
+     * A detected event, values are in m/s^2 and rad/s
+     */
+    public static class DrivingEvent {
+        public final DrivingEventType type;
+        public final long startTime;
+        public final long endTime;
+        public final float peakValue;
+        public final float meanValue;
+        public final float peakYawRate;
+        public final boolean isDriving;
+
+        public DrivingEvent(DrivingEventType type, long startTime, long endTime, float peakValue,
+                            float meanValue, float peakYawRate, boolean isDriving) {
+            this.type = type;
+            this.startTime = startTime;
+            this.endTime = endTime;
+            this.peakValue = peakValue;
+            this.meanValue = meanValue;
+            this.peakYawRate = peakYawRate;
+            this.isDriving = isDriving;
+        }
+    }
+
+    /**
+     * Notified on the sensor writer thread when an event ended
+     */
+    public interface Listener {
+        void onDrivingEvent(DrivingEvent event);
+    }
+
+    // Length of the smoothing windows
+    private static final long WINDOW_LENGTH = 300; // milliseconds
+    private static final int WINDOW_CAPACITY = 256;
+    // An event ends once the signal drops below this fraction of the threshold
+    private static final float EXIT_RATIO = 0.7f;
+
+    /**
+     * A threshold and duration rule on one smoothed signal. The sign of the threshold gives the
+     * direction, a cornering rule matches both directions.
+     */
+    private static class Rule {
+        final DrivingEventType type;
+        final float threshold;
+        final long minDuration;
+        final boolean bothDirections;
+
+        boolean active = false;
+        long startTime;
+        long lastTime;
+        float peak;
+        double sum;
+        int count;
+        float peakYawRate;
+
+        Rule(DrivingEventType type, float threshold, long minDuration, boolean bothDirections) {
+            this.type = type;
+            this.threshold = threshold;
+            this.minDuration = minDuration;
+            this.bothDirections = bothDirections;
+        }
+
+        /**
+         * @return how far the value goes in the direction of the rule relative to the threshold
+         */
+        float level(float value) {
+            return bothDirections ? Math.abs(value) / Math.abs(threshold) : value / threshold;
+        }
+    }
+
+    private final Listener listener;
+    private final SlidingWindow longitudinal = new SlidingWindow(WINDOW_LENGTH, WINDOW_CAPACITY);
+    private final SlidingWindow lateral = new SlidingWindow(WINDOW_LENGTH, WINDOW_CAPACITY);
+    private final SlidingWindow yawRate = new SlidingWindow(WINDOW_LENGTH, WINDOW_CAPACITY);
+
+    private final Rule brakeRule = new Rule(DrivingEventType.HARSH_BRAKE, -3.0f, 300, false);
+    private final Rule accelerationRule = new Rule(DrivingEventType.HARSH_ACCELERATION, 2.5f, 500, false);
+    private final Rule corneringRule = new Rule(DrivingEventType.HARSH_CORNERING, 3.0f, 500, true);
+
+    public DrivingEventDetector(Listener listener) {
+        this.listener = listener;
+    }
+
+    @Override
+    public void accept(SensorType sensorType, long timestamp, float[] values, boolean isDriving) {
+        onSample(sensorType, timestamp, values, isDriving);
+    }
+
+    /**
+     * Feeds a linear acceleration or gyroscope sample, other sensor types are ignored
+     * @param timestamp sample time in epoch milliseconds
+     */
+    public synchronized void onSample(SensorType sensorType, long timestamp, float[] values, boolean isDriving) {
+        switch (sensorType) {
+            case LINEAR_ACCELERATION:
+                lateral.add(timestamp, values[0]);
+                longitudinal.add(timestamp, values[1]);
+                float longitudinalMean = longitudinal.getMean();
+                update(brakeRule, longitudinalMean, timestamp, isDriving);
+                update(accelerationRule, longitudinalMean, timestamp, isDriving);
+                update(corneringRule, lateral.getMean(), timestamp, isDriving);
+                break;
+            case GYROSCOPE:
+                yawRate.add(timestamp, values[2]);
+                break;
+        }
+    }
+
+    /**
+     * Drops the running windows and any event in progress, used when a trip starts
+     */
+    public synchronized void reset() {
+        longitudinal.clear();
+        lateral.clear();
+        yawRate.clear();
+        brakeRule.active = false;
+        accelerationRule.active = false;
+        corneringRule.active = false;
+    }
+
+    private void update(Rule rule, float value, long timestamp, boolean isDriving) {
+        float level = rule.level(value);
+
+        if (!rule.active) {
+            if (level >= 1) {
+                rule.active = true;
+                rule.startTime = timestamp;
+                rule.peak = value;
+                rule.sum = 0;
+                rule.count = 0;
+                rule.peakYawRate = 0;
+            } else {
+                return;
+            }
+        }
+
+        if (level < EXIT_RATIO) {
+            rule.active = false;
+            if (rule.lastTime - rule.startTime >= rule.minDuration && listener != null) {
+                listener.onDrivingEvent(new DrivingEvent(rule.type, rule.startTime, rule.lastTime, rule.peak,
+                        (float) (rule.sum / rule.count), rule.peakYawRate, isDriving));
+            }
+            return;
+        }
+
+        rule.lastTime = timestamp;
+        rule.sum += value;
+        rule.count++;
+        if (rule.level(value) > rule.level(rule.peak))
+            rule.peak = value;
+        float yaw = yawRate.getMean();
+        if (Math.abs(yaw) > Math.abs(rule.peakYawRate))
+            rule.peakYawRate = yaw;
+    }
+}
@@ -0,0 +1,185 @@
+package ai.plex.poc.android.sensorListeners;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener;
+import android.hardware.SensorEventListener2;
+import android.hardware.SensorManager;
+import android.os.Build;
+import android.os.Handler;
+import android.util.Log;
+
+/**
+ * Wraps a sensor monitor when the sensor is registered with a max report latency so that
+ * samples are batched in the sensor hub FIFO. The wrapper is needed to receive the flush
+ * completed callback, which only exists from KitKat, without making the monitors depend on
+ * SensorEventListener2.
+ *
+ * Stopping through flushAndStop asks the hardware to deliver everything still in the FIFO and
+ * only unregisters once the flush completed, so the end of a trip is not lost. The caller can be
+ * told once the listener stopped, for example to close the trip after its last samples.
+ */
+@TargetApi(Build.VERSION_CODES.KITKAT)
+public class FifoBatchingListener implements SensorEventListener2 {
+    private static final String TAG = FifoBatchingListener.class.getSimpleName();
+
+    // Unregister anyway if the flush completed callback never arrives
+    private static final long FLUSH_TIMEOUT = 5000; // milliseconds
+
+    private final Context context;
+    private final SensorEventListener monitor;
+    private final SensorManager sensorManager;
+    private final Sensor sensor;
+
+    private Handler handler;
+    private boolean registered = false;
+    private boolean stopRequested = false;
+    // Sampling parameters to register again with once the flush completed, -1 when stopping for good
+    private int restartSamplingPeriod = -1;
+    private int restartMaxReportLatency = 0;
+    // Run once the pending flush is over, whether it completed, timed out or was cancelled
+    private Runnable onStopped;
+
+    private final Runnable flushTimeout = new Runnable() {
+        @Override
+        public void run() {
+            Log.d(TAG, "Flush did not complete in time for " + sensor.getName());
+            stop();
+        }
+    };
+
+    public FifoBatchingListener(Context context, SensorEventListener monitor, Sensor sensor) {
+        this.context = context.getApplicationContext();
+        this.monitor = monitor;
+        this.sensor = sensor;
+        this.sensorManager = (SensorManager) context.getSystemService(Context.SENSOR_SERVICE);
+    }
+
+    @Override
+    public void onSensorChanged(SensorEvent event) {
+        monitor.onSensorChanged(event);
+    }
+
+    @Override
+    public void onAccuracyChanged(Sensor sensor, int accuracy) {
+        monitor.onAccuracyChanged(sensor, accuracy);
+    }
+
+    @Override
+    public void onFlushCompleted(Sensor sensor) {
+        stop();
+    }
+
+    /**
+     * Registers the listener with the given sampling period and max report latency
+     * @return true if the sensor accepted the registration
+     */
+    public synchronized boolean start(int samplingPeriod, int maxReportLatency, Handler handler) {
+        cancelStop();
+        this.handler = handler;
+        registered = sensorManager.registerListener(this, sensor, samplingPeriod, maxReportLatency, handler);
+        return registered;
+    }
+
+    public synchronized boolean isRegistered() {
+        return registered;
+    }
+
+    /**
+     * Registers again with new sampling parameters once the samples batched with the current
+     * ones have been delivered, unregistering right away would drop them
+     */
+    public synchronized void flushAndRestart(int samplingPeriod, int maxReportLatency) {
+        flushAndStop();
+        if (stopRequested) {
+            restartSamplingPeriod = samplingPeriod;
+            restartMaxReportLatency = maxReportLatency;
+        } else {
+            // The flush was not possible and the listener already stopped
+            start(samplingPeriod, maxReportLatency, handler);
+        }
+    }
+
+    /**
+     * Flushes the hardware FIFO and unregisters the listener once every batched sample was delivered
+     * and stays unregistered, a restart still pending is cancelled
+     * @param onStopped run on the sensor thread once the flushed samples were delivered, or right
+     *                  away when the flush is not possible. Runs after the ones of earlier calls
+     *                  that are still waiting for the same flush.
+     */
+    public synchronized void flushAndStop(final Runnable onStopped) {
+        final Runnable previous = this.onStopped;
+        if (previous == null) {
+            this.onStopped = onStopped;
+        } else {
+            this.onStopped = new Runnable() {
+                @Override
+                public void run() {
+                    previous.run();
+                    onStopped.run();
+                }
+            };
+        }
+        flushAndStop();
+    }
+
+    /**
+     * Flushes the hardware FIFO and unregisters the listener once every batched sample was delivered
+     * and stays unregistered, a restart still pending is cancelled
+     */
+    public synchronized void flushAndStop() {
+        restartSamplingPeriod = -1;
+        // A flush is pending already, it stops the listener as well
+        if (stopRequested)
+            return;
+
+        stopRequested = true;
+        if (sensorManager.flush(this) && handler != null) {
+            handler.postDelayed(flushTimeout, FLUSH_TIMEOUT);
+        } else {
+            stop();
+        }
+    }
+
+    /**
+     * Unregisters immediately, samples still in the FIFO are dropped
+     */
+    public synchronized void stopNow() {
+        cancelStop();
+        registered = false;
+        sensorManager.unregisterListener(this, sensor);
+    }
+
+    private synchronized void cancelStop() {
+        stopRequested = false;
+        restartSamplingPeriod = -1;
+        if (handler != null)
+            handler.removeCallbacks(flushTimeout);
+        Runnable stopped = onStopped;
+        onStopped = null;
+        if (stopped != null)
+            stopped.run();
+    }
+
+    private synchronized void stop() {
+        if (!stopRequested)
+            return;
+
+        int samplingPeriod = restartSamplingPeriod;
+        int maxReportLatency = restartMaxReportLatency;
+        cancelStop();
+        registered = false;
+        sensorManager.unregisterListener(this, sensor);
+
+        if (samplingPeriod > 0) {
+            start(samplingPeriod, maxReportLatency, handler);
+            Log.d(TAG, "Flushed and restarted " + sensor.getName());
+        } else {
+            // Persist what the flush delivered instead of waiting for the next batch
+            SensorPipeline.getsInstance(context).flush();
+            Log.d(TAG, "Flushed and stopped " + sensor.getName());
+        }
+    }
+}
@@ -1,36 +0,0 @@
-package ai.plex.poc.android.sensorListeners;
-
-import android.content.Context;
-import android.hardware.Sensor;
-import android.hardware.SensorEvent;
-import android.hardware.SensorEventListener;
-import android.hardware.SensorManager;
-
-/**
- * Created by terek on 07/01/16.
- */
-public class GyroscopeMonitor implements SensorEventListener {
-    private Context applicationContext;
-    private SensorManager sensorManager;
-    private Sensor sensor;
-
-    public GyroscopeMonitor(Context context, Sensor sensor){
-        this.applicationContext = context;
-        this.sensorManager = (SensorManager)applicationContext.getSystemService(Context.SENSOR_SERVICE);
-        this.sensor = sensor;
-    }
-
-    @Override
-    public final void onAccuracyChanged(Sensor sensor, int accuracy) {
-        // Do something here if sensor accuracy changes.
-    }
-
-    @Override
-    public final void onSensorChanged(SensorEvent event) {
-        new SensorDataWriter(applicationContext,SensorType.GYROSCOPE).writeData(event);
-    }
-
-    public void pause() {
-        sensorManager.unregisterListener(this, sensor);
-    }
-}
\ No newline at end of file
@@ -0,0 +1,129 @@
+package ai.plex.poc.android.sensorListeners;
+
+import android.location.Location;
+import android.os.Build;
+import android.os.SystemClock;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Converts sample times to epoch milliseconds. Times are first expressed in elapsed realtime
+ * nanoseconds, the time base of Location.getElapsedRealtimeNanos and on most devices of
+ * SensorEvent.timestamp, then mapped to the wall clock with a cached offset.
+ *
+ * Some devices stamp sensor events with another clock, the monotonic clock that stops in deep
+ * sleep or the wall clock in nanoseconds. The time base of sensor timestamps is checked with the
+ * first event and again whenever a timestamp of a sensor goes backward or lands out of range,
+ * sensor timestamps are then shifted by the offset of their time base. Sensors report with their
+ * own delays and FIFO batches, so a timestamp is only compared with the last one of its sensor.
+ * The wall clock offset is recomputed periodically so that wall clock adjustments are picked up.
+ * Converting a sample only costs a few arithmetic operations and does not allocate.
+ */
+public final class SensorClock {
+    // How often the offset between elapsed realtime and the wall clock is recomputed
+    private static final long RESYNC_INTERVAL = 60L * 1000000000L; // nanoseconds
+    // Sensor timestamps further than this in the future, or older, are not in the assumed time
+    // base. Samples batched in the sensor hub FIFO are at most a few seconds old.
+    private static final long MAX_FUTURE_DRIFT = 1000000000L; // nanoseconds
+    private static final long MAX_SAMPLE_AGE = 60L * 1000000000L; // nanoseconds
+
+    // Epoch milliseconds at elapsed realtime 0
+    private static volatile long bootTime;
+    private static volatile long lastSync = Long.MIN_VALUE; // elapsed realtime nanoseconds
+
+    // Added to sensor timestamps to express them in elapsed realtime, 0 once the time base is
+    // known to be elapsed realtime
+    private static volatile long sensorOffset = 0; // nanoseconds
+    private static volatile boolean sensorTimeBaseChecked = false;
+    // Last timestamp of every sensor type, by ordinal
+    private static final AtomicLongArray lastSensorTimestamps = new AtomicLongArray(SensorType.values().length);
+    static {
+        for (int i = 0; i < lastSensorTimestamps.length(); i++) {
+            lastSensorTimestamps.set(i, Long.MIN_VALUE);
+        }
+    }
+
+    private SensorClock() {
+    }
+
+    /**
+     * @param sensorType the sensor that reported the event
+     * @param timestamp SensorEvent.timestamp
+     * @return the sample time in elapsed realtime nanoseconds
+     */
+    public static long fromSensorTimestamp(SensorType sensorType, long timestamp) {
+        long now = elapsedRealtimeNanos();
+        long sampleTime = timestamp + sensorOffset;
+        long lastTimestamp = lastSensorTimestamps.getAndSet(sensorType.ordinal(), timestamp);
+        if (!sensorTimeBaseChecked || timestamp < lastTimestamp || !isInRange(sampleTime, now)) {
+            sensorOffset = getSensorOffset(timestamp, now);
+            sensorTimeBaseChecked = true;
+            sampleTime = timestamp + sensorOffset;
+        }
+        return sampleTime;
+    }
+
+    /**
+     * The offset from the time base of the sensor timestamp to elapsed realtime. Elapsed realtime,
+     * the monotonic clock and the wall clock are tried in that order. A timestamp in none of them
+     * keeps the current offset if it still maps in range, otherwise the sample is taken as just
+     * delivered.
+     */
+    private static long getSensorOffset(long timestamp, long now) {
+        if (isInRange(timestamp, now))
+            return 0;
+
+        long monotonic = System.nanoTime();
+        if (isInRange(timestamp, monotonic))
+            return now - monotonic;
+
+        long wallClock = System.currentTimeMillis() * 1000000L;
+        if (isInRange(timestamp, wallClock))
+            return now - wallClock;
+
+        if (sensorTimeBaseChecked && isInRange(timestamp + sensorOffset, now))
+            return sensorOffset;
+        return now - timestamp;
+    }
+
+    private static boolean isInRange(long sampleTime, long now) {
+        return sampleTime <= now + MAX_FUTURE_DRIFT && sampleTime >= now - MAX_SAMPLE_AGE;
+    }
+
+    /**
+     * @param elapsedRealtimeNanos sample time in the elapsed realtime time base
+     * @return the sample time in epoch milliseconds
+     */
+    public static long toEpochMillis(long elapsedRealtimeNanos) {
+        // The current time decides when to resync, sample times may lag behind it
+        long now = elapsedRealtimeNanos();
+        if (lastSync == Long.MIN_VALUE || now - lastSync > RESYNC_INTERVAL) {
+            resync(now);
+        }
+        return bootTime + elapsedRealtimeNanos / 1000000L;
+    }
+
+    /**
+     * @return the time the location fix was taken in epoch milliseconds
+     */
+    public static long toEpochMillis(Location location) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1 && location.getElapsedRealtimeNanos() > 0) {
+            return toEpochMillis(location.getElapsedRealtimeNanos());
+        }
+        return location.getTime() > 0 ? location.getTime() : System.currentTimeMillis();
+    }
+
+    /**
+     * @return the current time in elapsed realtime nanoseconds
+     */
+    public static long elapsedRealtimeNanos() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1)
+            return SystemClock.elapsedRealtimeNanos();
+        return SystemClock.elapsedRealtime() * 1000000L;
+    }
+
+    private static void resync(long elapsed) {
+        bootTime = System.currentTimeMillis() - elapsed / 1000000L;
+        lastSync = elapsed;
+    }
+}
@@ -0,0 +1,340 @@
+package ai.plex.poc.android.sensorListeners;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteFullException;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.EnumMap;
+
+import ai.plex.poc.android.RecordingState;
+import ai.plex.poc.android.database.ChunkedSqliteTelemetryStore;
+import ai.plex.poc.android.database.PartitionedSqliteTelemetryStore;
+import ai.plex.poc.android.database.SegmentStore;
+import ai.plex.poc.android.database.SensorRollups;
+import ai.plex.poc.android.database.SnapShotDBHelper;
+import ai.plex.poc.android.database.SqliteTelemetryStore;
+import ai.plex.poc.android.database.StorageQuota;
+import ai.plex.poc.android.database.TelemetryStore;
+
+/**
+ * Queues sensor samples in memory and writes them to the TelemetryStore of the storage mode
+ * once a batch fills up or the flush interval elapses, every batch in a single transaction with
+ * its rollups. This avoids committing a transaction for every sensor event.
+ *
+ * The buffer is the last sink of the sample chains built by SensorPipeline and also queues the
+ * events of the DrivingEventDetector. It is shared by all the chains, all the public methods are
+ * synchronized so that samples can be added from the writer thread while the service flushes on
+ * stop.
+ *
+ * Batches that fail to be written are kept and written again with the next flush. A batch is only
+ * dropped when it is still full once its next sample arrives, the drops are counted and logged.
+ */
+public class SensorDataBuffer implements SensorSink, DrivingEventDetector.Listener {
+    private static final String TAG = SensorDataBuffer.class.getSimpleName();
+
+    /**
+     * How samples are laid out, every mode is a TelemetryStore. Driving events are always written
+     * to their table.
+     * ROWS: one row per sample in the table of the sensor, see SqliteTelemetryStore
+     * CHUNKS: runs of samples packed into a single row of the sensorChunk table, see
+     * ChunkedSqliteTelemetryStore
+     * SEGMENTS: fixed width records appended to the segment files of the SegmentStore
+     * PARTITIONS: one row per sample in day partitions of the sensor tables, see
+     * PartitionedSqliteTelemetryStore
+     */
+    public enum StorageMode {
+        ROWS,
+        CHUNKS,
+        SEGMENTS,
+        PARTITIONS
+    }
+
+    // Number of samples per sensor type that triggers a flush
+    private static final int DEFAULT_MAX_BATCH_SIZE = 500;
+    // Maximum time samples are kept in memory before being flushed
+    private static final long DEFAULT_MAX_FLUSH_INTERVAL = 5000; // milliseconds
+    // Number of samples packed into one row in the chunk storage mode
+    private static final int DEFAULT_CHUNK_SIZE = 100;
+
+    private static SensorDataBuffer sInstance;
+
+    private Context context;
+    private final EnumMap<SensorType, SensorSampleBatch> batches = new EnumMap<>(SensorType.class);
+    private final int maxBatchSize;
+    private long maxFlushInterval = DEFAULT_MAX_FLUSH_INTERVAL;
+    private long lastFlushTime = SystemClock.elapsedRealtime();
+    private StorageMode storageMode = StorageMode.ROWS;
+    private int chunkSize = DEFAULT_CHUNK_SIZE;
+    private final ArrayList<DrivingEventDetector.DrivingEvent> pendingEvents = new ArrayList<>();
+    // Batches and rows lost because a flush failed, logged with every loss
+    private long droppedBatchCount = 0;
+    private long droppedRowCount = 0;
+    // Handler of the writer thread the timed flush runs on, null until the pipeline sets it
+    private Handler flushHandler;
+    private boolean flushScheduled = false;
+
+    private final Runnable timedFlush = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (SensorDataBuffer.this) {
+                flushScheduled = false;
+                flush();
+                // A failed flush is tried again once the interval elapsed
+                scheduleFlush();
+            }
+        }
+    };
+
+    private SensorDataBuffer(Context context, int maxBatchSize) {
+        this.context = context;
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    public static synchronized SensorDataBuffer getsInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new SensorDataBuffer(context.getApplicationContext(), DEFAULT_MAX_BATCH_SIZE);
+        }
+        return sInstance;
+    }
+
+    /**
+     * Sets the longest time samples may wait in memory before being written
+     * @param maxFlushInterval in milliseconds
+     */
+    public synchronized void setMaxFlushInterval(long maxFlushInterval) {
+        this.maxFlushInterval = maxFlushInterval;
+    }
+
+    /**
+     * Sets the handler of the writer thread, the flush interval is timed on it so that samples
+     * are written even when no new sample arrives
+     */
+    public synchronized void setFlushHandler(Handler flushHandler) {
+        if (this.flushHandler != null)
+            this.flushHandler.removeCallbacks(timedFlush);
+        this.flushHandler = flushHandler;
+        flushScheduled = false;
+        scheduleFlush();
+    }
+
+    /**
+     * Posts the timed flush for the queued samples and events if it is not pending
+     */
+    private void scheduleFlush() {
+        if (flushHandler == null || flushScheduled || !hasData())
+            return;
+        long delay = Math.max(0, lastFlushTime + maxFlushInterval - SystemClock.elapsedRealtime());
+        flushScheduled = flushHandler.postDelayed(timedFlush, delay);
+    }
+
+    private boolean hasData() {
+        boolean hasData = !pendingEvents.isEmpty();
+        for (SensorSampleBatch batch : batches.values()) {
+            hasData |= !batch.isEmpty();
+        }
+        return hasData;
+    }
+
+    /**
+     * Selects how samples are written from the next flush on
+     * @param storageMode
+     * @param chunkSize the maximum number of samples per row in the chunk mode
+     */
+    public synchronized void setStorageMode(StorageMode storageMode, int chunkSize) {
+        this.storageMode = storageMode;
+        this.chunkSize = Math.max(1, chunkSize);
+    }
+
+    public synchronized StorageMode getStorageMode() {
+        return storageMode;
+    }
+
+    private SensorSampleBatch getBatch(SensorType sensorType) {
+        SensorSampleBatch batch = batches.get(sensorType);
+        if (batch == null) {
+            batch = new SensorSampleBatch(sensorType, maxBatchSize);
+            batches.put(sensorType, batch);
+        }
+        return batch;
+    }
+
+    /**
+     * Queues a copy of the sample, the values array is reused by the caller
+     */
+    @Override
+    public synchronized void accept(SensorType sensorType, long timestamp, float[] values, boolean isDriving) {
+        SensorSampleBatch batch = getBatch(sensorType);
+        if (batch.isFull()) {
+            // The last flush failed and kept the batch, drop it so that new samples are accepted
+            onDropped(1, batch.size());
+            batch.clear();
+        }
+        batch.add(timestamp, values, isDriving);
+
+        if (batch.isFull())
+            flush();
+        else
+            scheduleFlush();
+    }
+
+    /**
+     * Queues a detected event, it is written with the next flush
+     */
+    @Override
+    public synchronized void onDrivingEvent(DrivingEventDetector.DrivingEvent event) {
+        Log.d(TAG, "Driving event detected: " + event.type);
+        if (pendingEvents.size() >= maxBatchSize) {
+            // Failed flushes kept the events, drop them like a full batch
+            onDropped(1, pendingEvents.size());
+            pendingEvents.clear();
+        }
+        pendingEvents.add(event);
+        scheduleFlush();
+    }
+
+    /**
+     * Writes the queued events, then every queued batch in its own transaction. What fails to be
+     * written stays queued for the next flush.
+     * @return the number of rows written
+     */
+    public synchronized int flush() {
+        lastFlushTime = SystemClock.elapsedRealtime();
+        if (!hasData())
+            return 0;
+
+        int written = 0;
+        try {
+            SQLiteDatabase db = SnapShotDBHelper.getsInstance(context).getWritableDatabase();
+            StorageQuota storageQuota = StorageQuota.getsInstance(context);
+            // Samples are flushed before a trip is opened or closed, they were recorded in the open trip
+            long tripId = RecordingState.getsInstance(context).getTripId();
+            TelemetryStore store = getStore(db, storageMode);
+            try {
+                written = writeEvents(db, tripId);
+            } catch (SQLiteFullException ex) {
+                // The transaction was rolled back, make room and write the events again
+                storageQuota.onDiskFull(db);
+                written = writeEvents(db, tripId);
+            }
+            try {
+                written += append(db, store, tripId);
+            } catch (SQLiteFullException ex) {
+                // Batches that were stored are cleared, only the others are appended again
+                storageQuota.onDiskFull(db);
+                written += append(db, store, tripId);
+            } catch (IOException ex) {
+                // The segment files could not grow, make room like for a full database
+                Log.e(TAG, "Error appending to the segment files, retrying");
+                storageQuota.onDiskFull(db);
+                written += append(db, store, tripId);
+            }
+            Log.d(TAG, "flush: " + written + " records written");
+            storageQuota.onDataWritten(db);
+        } catch (Exception ex) {
+            // Events and batches are cleared once written, the others are kept
+            int keptRows = pendingEvents.size();
+            for (SensorSampleBatch batch : batches.values()) {
+                keptRows += batch.size();
+            }
+            Log.e(TAG, "flush failed, " + keptRows + " records kept for the next flush");
+            ex.printStackTrace();
+        }
+        return written;
+    }
+
+    /**
+     * Counts batches dropped before they could be written
+     */
+    private void onDropped(int batches, int rows) {
+        droppedBatchCount += batches;
+        droppedRowCount += rows;
+        Log.e(TAG, "dropped " + rows + " records in " + batches + " batches after failed flushes, " +
+                droppedRowCount + " records in " + droppedBatchCount + " batches dropped so far");
+    }
+
+    /**
+     * The store the samples of a storage mode are written to, the upload reads every mode back
+     * through it since samples of a previous mode may still be pending
+     */
+    public synchronized TelemetryStore getStore(SQLiteDatabase db, StorageMode storageMode) {
+        switch (storageMode) {
+            case CHUNKS:
+                return new ChunkedSqliteTelemetryStore(db, chunkSize);
+            case SEGMENTS:
+                return SegmentStore.getsInstance(context);
+            case PARTITIONS:
+                return PartitionedSqliteTelemetryStore.getInstance(db);
+            default:
+                return new SqliteTelemetryStore(db);
+        }
+    }
+
+    /**
+     * Writes the queued events in one transaction
+     */
+    private int writeEvents(SQLiteDatabase db, long tripId) {
+        if (pendingEvents.isEmpty())
+            return 0;
+        int written = 0;
+        CompiledSensorDataWriter writer = CompiledSensorDataWriter.getInstance(db);
+        db.beginTransaction();
+        try {
+            for (DrivingEventDetector.DrivingEvent event : pendingEvents) {
+                if (writer.insertDrivingEvent(event, tripId) != -1)
+                    written++;
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        // Written, a retry of the samples must not write them again
+        pendingEvents.clear();
+        return written;
+    }
+
+    /**
+     * Appends every batch to the store with its rollups in one transaction, every batch is
+     * cleared as soon as it is stored. A batch stored in the database is kept if its rollup
+     * fails, the rollback removed its rows.
+     */
+    private int append(SQLiteDatabase db, TelemetryStore store, long tripId) throws IOException {
+        int written = 0;
+        for (SensorSampleBatch batch : batches.values()) {
+            if (batch.isEmpty())
+                continue;
+            db.beginTransaction();
+            try {
+                written += store.append(batch, tripId);
+                // Rows stored in this transaction are rolled back with a failed rollup and kept
+                if (storageMode == StorageMode.SEGMENTS)
+                    rollUp(db, batch);
+                else
+                    SensorRollups.getInstance(db).addSamples(batch);
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            batch.clear();
+        }
+        store.flush();
+        return written;
+    }
+
+    /**
+     * Adds a batch stored in the segment files to the rollups. Errors are only logged, the
+     * samples are already on disk and a retry must not store them again.
+     */
+    private static void rollUp(SQLiteDatabase db, SensorSampleBatch batch) {
+        try {
+            SensorRollups.getInstance(db).addSamples(batch);
+        } catch (Exception ex) {
+            Log.e(TAG, "Error rolling up " + batch.getSensorType() + " samples");
+            ex.printStackTrace();
+        }
+    }
+}
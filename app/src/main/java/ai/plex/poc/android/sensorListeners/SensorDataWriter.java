@@ -1,28 +1,56 @@
 package ai.plex.poc.android.sensorListeners;
 
-import android.content.ContentValues;
 import android.content.Context;
-import android.content.SharedPreferences;
 import android.database.sqlite.SQLiteDatabase;
-import android.hardware.Sensor;
+import android.database.sqlite.SQLiteFullException;
 import android.hardware.SensorEvent;
 import android.location.Location;
-import android.preference.PreferenceManager;
 import android.util.Log;
 
 import com.google.android.gms.location.DetectedActivity;
 
-import java.util.Date;
-import ai.plex.poc.android.database.SnapShotContract;
+import java.util.ArrayDeque;
+
+import ai.plex.poc.android.RecordingState;
+import ai.plex.poc.android.database.SensorRollups;
 import ai.plex.poc.android.database.SnapShotDBHelper;
+import ai.plex.poc.android.database.StorageQuota;
 
 /**
  * Created by terek on 14/01/16.
+ * Writes the rows of one sensor type as they are delivered. Location and activity rows that can
+ * not be written because the disk is full are kept and written before the next row, keep one
+ * writer per sensor type and use it from a single thread.
  */
 public class SensorDataWriter {
+    private static final String TAG = SensorDataWriter.class.getSimpleName();
+
+    // Rows kept while the disk is full, about ten minutes of locations
+    private static final int MAX_PENDING_ROWS = 600;
+
     private Context context;
     private SQLiteDatabase db;
     private SensorType sensorType;
+    private final ArrayDeque<PendingRow> pendingRows = new ArrayDeque<>();
+
+    /**
+     * A location or activity row waiting to be written
+     */
+    private static class PendingRow {
+        final long timestamp;
+        final Location location;
+        final DetectedActivity activity;
+        final boolean isDriving;
+        final long tripId;
+
+        PendingRow(long timestamp, Location location, DetectedActivity activity, boolean isDriving, long tripId) {
+            this.timestamp = timestamp;
+            this.location = location;
+            this.activity = activity;
+            this.isDriving = isDriving;
+            this.tripId = tripId;
+        }
+    }
 
     public SensorDataWriter(Context context, SensorType sensorType){
         this.context = context;
@@ -42,83 +70,97 @@ public class SensorDataWriter {
     }
 
     private void writeData(SensorEvent event, Location location, DetectedActivity activity) {
-        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
-        boolean isRecording = prefs.getBoolean("isRecording", false);
-        boolean isDriving = prefs.getBoolean("isDriving", false);
+        RecordingState recordingState = RecordingState.getsInstance(context);
+        boolean isDriving = recordingState.isDriving();
+        long tripId = recordingState.getTripId();
 
-        if (isRecording) {
+        if (recordingState.isRecording()) {
             try {
                     this.db = SnapShotDBHelper.getsInstance(context).getWritableDatabase();
-                    ContentValues values = new ContentValues();
+                    CompiledSensorDataWriter writer = CompiledSensorDataWriter.getInstance(db);
                     long rowId = -1;
                     switch (this.sensorType) {
                         case LINEAR_ACCELERATION:
-                            values.put(SnapShotContract.LinearAccelerationEntry.COLUMN_X, event.values[0]);
-                            values.put(SnapShotContract.LinearAccelerationEntry.COLUMN_Y, event.values[1]);
-                            values.put(SnapShotContract.LinearAccelerationEntry.COLUMN_Z, event.values[2]);
-                            values.put(SnapShotContract.LinearAccelerationEntry.COLUMN_IS_DRIVING, String.valueOf(isDriving));
-                            values.put(SnapShotContract.LinearAccelerationEntry.COLUMN_TIMESTAMP, new Date().getTime());
-                            values.put(SnapShotContract.LinearAccelerationEntry.COLUMN_IS_RECORD_UPLOADED, "false");
-                            rowId = db.insert(SnapShotContract.LinearAccelerationEntry.TABLE_NAME, null, values);
-                            break;
                         case GYROSCOPE:
-                            values.put(SnapShotContract.GyroscopeEntry.COLUMN_ANGULAR_SPEED_X, event.values[0]);
-                            values.put(SnapShotContract.GyroscopeEntry.COLUMN_ANGULAR_SPEED_Y, event.values[1]);
-                            values.put(SnapShotContract.GyroscopeEntry.COLUMN_ANGULAR_SPEED_Z, event.values[2]);
-                            values.put(SnapShotContract.GyroscopeEntry.COLUMN_IS_DRIVING, String.valueOf(isDriving));
-                            values.put(SnapShotContract.GyroscopeEntry.COLUMN_TIMESTAMP, new Date().getTime());
-                            values.put(SnapShotContract.GyroscopeEntry.COLUMN_IS_RECORD_UPLOADED, "false");
-                            rowId = db.insert(SnapShotContract.GyroscopeEntry.TABLE_NAME, null, values);
-                            break;
                         case MAGNETIC:
-                            values.put(SnapShotContract.MagneticEntry.COLUMN_X, event.values[0]);
-                            values.put(SnapShotContract.MagneticEntry.COLUMN_Y, event.values[1]);
-                            values.put(SnapShotContract.MagneticEntry.COLUMN_Z, event.values[2]);
-                            values.put(SnapShotContract.MagneticEntry.COLUMN_IS_DRIVING, String.valueOf(isDriving));
-                            values.put(SnapShotContract.MagneticEntry.COLUMN_TIMESTAMP, new Date().getTime());
-                            values.put(SnapShotContract.MagneticEntry.COLUMN_IS_RECORD_UPLOADED, "false");
-                            rowId = db.insert(SnapShotContract.MagneticEntry.TABLE_NAME, null, values);
-                            break;
                         case ROTATION:
-                            values.put(SnapShotContract.RotationEntry.COLUMN_X_SIN, event.values[0]);
-                            values.put(SnapShotContract.RotationEntry.COLUMN_Y_SIN, event.values[1]);
-                            values.put(SnapShotContract.RotationEntry.COLUMN_Z_SIN, event.values[2]);
-                            //This is added because the 4 and 5th values were added in a later version of the API
-                            if (event.values.length > 3) {
-                                values.put(SnapShotContract.RotationEntry.COLUMN_COS, event.values[3]  );
-                                values.put(SnapShotContract.RotationEntry.COLUMN_ACCURACY, event.values[4]);
-                            } else {
-                                values.put(SnapShotContract.RotationEntry.COLUMN_COS, 0);
-                                values.put(SnapShotContract.RotationEntry.COLUMN_ACCURACY, 0);
-                            }
-                            values.put(SnapShotContract.RotationEntry.COLUMN_IS_DRIVING, String.valueOf(isDriving));
-                            values.put(SnapShotContract.RotationEntry.COLUMN_TIMESTAMP, new Date().getTime());
-                            values.put(SnapShotContract.RotationEntry.COLUMN_IS_RECORD_UPLOADED, "false");
-                            rowId = db.insert(SnapShotContract.RotationEntry.TABLE_NAME, null, values);
+                            rowId = writer.insert(this.sensorType, SensorClock.toEpochMillis(SensorClock.fromSensorTimestamp(this.sensorType, event.timestamp)), event.values, isDriving, tripId);
                             break;
                         case LOCATION:
-                            values.put(SnapShotContract.LocationEntry.COLUMN_LATITUDE, location.getLatitude());
-                            values.put(SnapShotContract.LocationEntry.COLUMN_LONGITUDE, location.getLongitude());
-                            values.put(SnapShotContract.LocationEntry.COLUMN_SPEED, location.getSpeed());
-                            values.put(SnapShotContract.LocationEntry.COLUMN_IS_DRIVING, String.valueOf(isDriving));
-                            values.put(SnapShotContract.LocationEntry.COLUMN_TIMESTAMP, new Date().getTime());
-                            values.put(SnapShotContract.LocationEntry.COLUMN_IS_RECORD_UPLOADED, "false");
-                            rowId = db.insert(SnapShotContract.LocationEntry.TABLE_NAME, null, values);
+                            queue(new PendingRow(SensorClock.toEpochMillis(location), location, null, isDriving, tripId));
+                            rowId = writePending(writer);
                             break;
                         case ACTIVITY_DETECTOR:
-                            values.put(SnapShotContract.DetectedActivityEntry.COLUMN_NAME, String.valueOf(activity.getType()));
-                            values.put(SnapShotContract.DetectedActivityEntry.COLUMN_CONFIDENCDE, String.valueOf(activity.getConfidence()));
-                            values.put(SnapShotContract.DetectedActivityEntry.COLUMN_TIMESTAMP, new Date().getTime());
-                            values.put(SnapShotContract.DetectedActivityEntry.COLUMN_IS_DRIVING, String.valueOf(isDriving));
-                            values.put(SnapShotContract.DetectedActivityEntry.COLUMN_IS_RECORD_UPLOADED, "false");
-                            rowId = db.insert(SnapShotContract.DetectedActivityEntry.TABLE_NAME, null, values);
+                            queue(new PendingRow(System.currentTimeMillis(), null, activity, isDriving, tripId));
+                            rowId = writePending(writer);
                             break;
                     }
 
                     Log.d(this.sensorType.toString() + " records written", String.valueOf(rowId));
+            } catch (SQLiteFullException ex){
+                // The sensor event is reused by the framework, it can not be kept
+                if (db != null)
+                    StorageQuota.getsInstance(context).onDiskFull(db);
+                else
+                    Log.e(TAG, "Disk full, the database could not be opened");
             } catch (Exception ex){
                 ex.printStackTrace();
             }
         }
     }
+
+    private void queue(PendingRow row) {
+        pendingRows.addLast(row);
+        if (pendingRows.size() > MAX_PENDING_ROWS) {
+            pendingRows.removeFirst();
+            Log.e(TAG, "Disk full, dropped the oldest " + sensorType + " row");
+        }
+    }
+
+    /**
+     * Writes the pending rows in order, they are kept if the disk stays full after making room
+     * @return the id of the last row written, -1 if none was
+     */
+    private long writePending(CompiledSensorDataWriter writer) {
+        long rowId = -1;
+        while (!pendingRows.isEmpty()) {
+            PendingRow row = pendingRows.peekFirst();
+            try {
+                try {
+                    rowId = insert(writer, row);
+                } catch (SQLiteFullException ex) {
+                    StorageQuota.getsInstance(context).onDiskFull(db);
+                    rowId = insert(writer, row);
+                }
+            } catch (SQLiteFullException ex) {
+                Log.e(TAG, "Disk full, " + pendingRows.size() + " " + sensorType + " rows kept for the next write");
+                return -1;
+            } catch (Exception ex) {
+                // Writing the row again would fail the same way
+                ex.printStackTrace();
+            }
+            pendingRows.removeFirst();
+        }
+        return rowId;
+    }
+
+    /**
+     * Inserts the row, a location is inserted with its rollup in one transaction
+     */
+    private long insert(CompiledSensorDataWriter writer, PendingRow row) {
+        if (row.location == null)
+            return writer.insertActivity(row.timestamp, row.activity.getType(), row.activity.getConfidence(), row.isDriving, row.tripId);
+
+        Location location = row.location;
+        db.beginTransaction();
+        try {
+            long rowId = writer.insertLocation(row.timestamp, location.getLatitude(), location.getLongitude(), location.getSpeed(), row.isDriving, row.tripId);
+            if (rowId != -1)
+                SensorRollups.getInstance(db).addLocation(rowId, row.timestamp, location.getLatitude(), location.getLongitude(), location.getSpeed());
+            db.setTransactionSuccessful();
+            return rowId;
+        } finally {
+            db.endTransaction();
+        }
+    }
 }
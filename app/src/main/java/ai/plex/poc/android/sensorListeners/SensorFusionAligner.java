@@ -0,0 +1,256 @@
+package ai.plex.poc.android.sensorListeners;
+
+/**
+ * Resamples the linear acceleration, gyroscope, magnetic and rotation streams onto a common
+ * time grid and emits one fused frame per grid tick.
+ *
+ * For every stream a ring of recent samples is kept, long enough to cover the sensor FIFO
+ * batches which deliver the streams in bursts at different times. A tick is emitted once every
+ * live stream has a sample at or after it, the value of a stream at the tick is linearly
+ * interpolated between the samples around it. The rotation quaternion is interpolated component
+ * wise and normalized again. Streams that stopped reporting (or sensors missing on the device)
+ * hold their last value so they do not stall the other ones.
+ *
+ * The grid never ticks faster than the slowest live stream, whose rate is estimated from its
+ * recent samples, so a frame never repeats a held sample of a stream that was merely slower.
+ * Rates below one sample per MAX_INTERPOLATION_GAP are held rather than resampled anyway and do
+ * not slow the grid further.
+ *
+ * Frame layout: linear acceleration x, y, z, angular speed x, y, z, magnetic x, y, z,
+ * rotation x, y, z, cos. All buffers are preallocated, samples are processed without allocating.
+ *
+ * Frames are sent to the output sink as FUSION samples. The aligner is shared by the motion
+ * sensor chains of the SensorPipeline.
+ */
+public class SensorFusionAligner implements SensorSink {
+    public static final int FRAME_SIZE = 13;
+
+    // Streams in frame order
+    private static final int LINEAR_ACCELERATION = 0;
+    private static final int GYROSCOPE = 1;
+    private static final int MAGNETIC = 2;
+    private static final int ROTATION = 3;
+    private static final int STREAM_COUNT = 4;
+    private static final int[] STREAM_SIZES = {3, 3, 3, 4};
+    private static final int[] FRAME_OFFSETS = {0, 3, 6, 9};
+
+    // Samples kept per stream, 20 seconds at 50 Hz
+    private static final int HISTORY_SIZE = 1024;
+    // A stream is considered stopped when it lags the newest sample by more than this
+    private static final long MAX_STREAM_LAG = 15000; // milliseconds
+    // Samples further apart than this are not interpolated, the closest one is held
+    private static final long MAX_INTERPOLATION_GAP = 1000; // milliseconds
+    // Recent samples per stream the sample interval is averaged over
+    private static final int RATE_WINDOW = 16;
+
+    private final SensorSink output;
+    private long period;
+    private boolean enabled = true;
+    private boolean lastSampleDriving = false;
+
+    // Ring of samples per stream, sample n is at n % HISTORY_SIZE
+    private final long[][] times = new long[STREAM_COUNT][HISTORY_SIZE];
+    private final float[][] values = new float[STREAM_COUNT][HISTORY_SIZE * 4];
+    // Number of samples received per stream
+    private final long[] sampleCounts = new long[STREAM_COUNT];
+    // Sample at or before the next tick per stream, ticks only move forward
+    private final long[] cursors = new long[STREAM_COUNT];
+
+    private final float[] frame = new float[FRAME_SIZE];
+    // Time of the last frame, the next one follows it by the current tick period
+    private long lastTick = -1;
+    private long newestTime = 0;
+
+    /**
+     * @param period time between two fused frames in milliseconds
+     */
+    public SensorFusionAligner(long period, SensorSink output) {
+        this.period = period;
+        this.output = output;
+    }
+
+    /**
+     * @param enabled whether frames are produced
+     * @param period time between two frames in milliseconds
+     */
+    public synchronized void configure(boolean enabled, long period) {
+        this.enabled = enabled;
+        this.period = period;
+        reset();
+    }
+
+    @Override
+    public synchronized void accept(SensorType sensorType, long timestamp, float[] values, boolean isDriving) {
+        if (enabled)
+            onSample(sensorType, timestamp, values, isDriving);
+    }
+
+    /**
+     * Drops all buffered samples, used when a trip starts
+     */
+    public synchronized void reset() {
+        for (int i = 0; i < STREAM_COUNT; i++) {
+            sampleCounts[i] = 0;
+            cursors[i] = 0;
+        }
+        lastTick = -1;
+        newestTime = 0;
+    }
+
+    /**
+     * @param timestamp sample time in epoch milliseconds
+     */
+    public synchronized void onSample(SensorType sensorType, long timestamp, float[] sample, boolean isDriving) {
+        int stream = streamOf(sensorType);
+        if (stream < 0)
+            return;
+        lastSampleDriving = isDriving;
+
+        long count = sampleCounts[stream];
+        // Out of order samples would break the interpolation, they are dropped
+        if (count > 0 && timestamp < times[stream][(int) ((count - 1) % HISTORY_SIZE)])
+            return;
+
+        int slot = (int) (count % HISTORY_SIZE);
+        int size = STREAM_SIZES[stream];
+        times[stream][slot] = timestamp;
+        for (int i = 0; i < size; i++) {
+            values[stream][slot * 4 + i] = i < sample.length ? sample[i] : 0;
+        }
+        sampleCounts[stream] = count + 1;
+        if (timestamp > newestTime)
+            newestTime = timestamp;
+
+        emitFrames();
+    }
+
+    private void emitFrames() {
+        // The grid can only advance up to the oldest live stream, and at the rate of the slowest
+        long ready = Long.MAX_VALUE;
+        long tickPeriod = period;
+        boolean anyLive = false;
+        for (int i = 0; i < STREAM_COUNT; i++) {
+            if (isLive(i)) {
+                ready = Math.min(ready, latestTime(i));
+                tickPeriod = Math.max(tickPeriod, Math.min(sampleInterval(i), MAX_INTERPOLATION_GAP));
+                anyLive = true;
+            }
+        }
+        if (!anyLive)
+            return;
+
+        // Start the grid, or restart it after a pause instead of emitting a long run of held frames
+        long tick;
+        if (lastTick < 0 || ready - lastTick > MAX_STREAM_LAG)
+            tick = ((ready + tickPeriod - 1) / tickPeriod) * tickPeriod;
+        else
+            tick = lastTick + tickPeriod;
+
+        while (tick <= ready) {
+            for (int i = 0; i < STREAM_COUNT; i++) {
+                interpolate(i, tick);
+            }
+            normalizeRotation();
+            output.accept(SensorType.FUSION, tick, frame, lastSampleDriving);
+            lastTick = tick;
+            tick += tickPeriod;
+        }
+    }
+
+    private long latestTime(int stream) {
+        return times[stream][(int) ((sampleCounts[stream] - 1) % HISTORY_SIZE)];
+    }
+
+    /**
+     * Mean time between the recent samples of a stream in milliseconds, 0 before its second sample
+     */
+    private long sampleInterval(int stream) {
+        long count = sampleCounts[stream];
+        long intervals = Math.min(count - 1, Math.min(RATE_WINDOW, HISTORY_SIZE - 1));
+        if (intervals <= 0)
+            return 0;
+        long first = times[stream][(int) ((count - 1 - intervals) % HISTORY_SIZE)];
+        return (latestTime(stream) - first) / intervals;
+    }
+
+    private boolean isLive(int stream) {
+        return sampleCounts[stream] > 0 && newestTime - latestTime(stream) <= MAX_STREAM_LAG;
+    }
+
+    private void interpolate(int stream, long tick) {
+        int size = STREAM_SIZES[stream];
+        int offset = FRAME_OFFSETS[stream];
+        long count = sampleCounts[stream];
+
+        if (count == 0) {
+            for (int i = 0; i < size; i++) {
+                frame[offset + i] = 0;
+            }
+            return;
+        }
+
+        long[] streamTimes = times[stream];
+        float[] streamValues = values[stream];
+
+        // Move the cursor to the last sample at or before the tick, within the kept history
+        long oldest = Math.max(0, count - HISTORY_SIZE);
+        long cursor = Math.max(cursors[stream], oldest);
+        while (cursor + 1 < count && streamTimes[(int) ((cursor + 1) % HISTORY_SIZE)] <= tick) {
+            cursor++;
+        }
+        cursors[stream] = cursor;
+
+        int before = (int) (cursor % HISTORY_SIZE);
+        long beforeTime = streamTimes[before];
+        if (cursor + 1 >= count || tick <= beforeTime) {
+            // Hold the closest sample
+            System.arraycopy(streamValues, before * 4, frame, offset, size);
+            return;
+        }
+
+        int after = (int) ((cursor + 1) % HISTORY_SIZE);
+        long afterTime = streamTimes[after];
+        if (afterTime - beforeTime > MAX_INTERPOLATION_GAP) {
+            int closest = tick - beforeTime <= afterTime - tick ? before : after;
+            System.arraycopy(streamValues, closest * 4, frame, offset, size);
+            return;
+        }
+
+        float weight = (float) (tick - beforeTime) / (afterTime - beforeTime);
+        for (int i = 0; i < size; i++) {
+            float previous = streamValues[before * 4 + i];
+            frame[offset + i] = previous + weight * (streamValues[after * 4 + i] - previous);
+        }
+    }
+
+    private void normalizeRotation() {
+        int offset = FRAME_OFFSETS[ROTATION];
+        float x = frame[offset], y = frame[offset + 1], z = frame[offset + 2], w = frame[offset + 3];
+        // Older devices only report x, y and z, the scalar part is then derived from them
+        if (sampleCounts[ROTATION] > 0 && w == 0) {
+            w = (float) Math.sqrt(Math.max(0, 1 - x * x - y * y - z * z));
+        }
+        float norm = (float) Math.sqrt(x * x + y * y + z * z + w * w);
+        if (norm > 0) {
+            frame[offset] = x / norm;
+            frame[offset + 1] = y / norm;
+            frame[offset + 2] = z / norm;
+            frame[offset + 3] = w / norm;
+        }
+    }
+
+    private static int streamOf(SensorType sensorType) {
+        switch (sensorType) {
+            case LINEAR_ACCELERATION:
+                return LINEAR_ACCELERATION;
+            case GYROSCOPE:
+                return GYROSCOPE;
+            case MAGNETIC:
+                return MAGNETIC;
+            case ROTATION:
+                return ROTATION;
+            default:
+                return -1;
+        }
+    }
+}
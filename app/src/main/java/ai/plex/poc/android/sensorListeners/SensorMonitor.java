@@ -0,0 +1,57 @@
+package ai.plex.poc.android.sensorListeners;
+
+import android.content.Context;
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener;
+import android.hardware.SensorManager;
+
+import ai.plex.poc.android.RecordingState;
+
+/**
+ * Listens to one motion sensor and pushes its samples through a chain of sinks, see
+ * SensorPipeline. The callback only checks the recording state and maps the sensor timestamp to
+ * wall clock time, all the processing happens in the sinks.
+ */
+public class SensorMonitor implements SensorEventListener {
+    private final SensorManager sensorManager;
+    private final SensorType sensorType;
+    private final Sensor sensor;
+    private final RecordingState recordingState;
+    private final SensorSink sink;
+
+    public SensorMonitor(Context context, SensorType sensorType, Sensor sensor, SensorSink sink) {
+        this.sensorManager = (SensorManager) context.getSystemService(Context.SENSOR_SERVICE);
+        this.sensorType = sensorType;
+        this.sensor = sensor;
+        this.recordingState = RecordingState.getsInstance(context);
+        this.sink = sink;
+    }
+
+    @Override
+    public final void onAccuracyChanged(Sensor sensor, int accuracy) {
+        // Do something here if sensor accuracy changes.
+    }
+
+    @Override
+    public final void onSensorChanged(SensorEvent event) {
+        long sampleTime = SensorClock.fromSensorTimestamp(sensorType, event.timestamp);
+        // Samples flushed from the sensor FIFO can arrive after recording stopped, keep the ones taken before
+        if (!recordingState.isRecordingAt(sampleTime))
+            return;
+
+        sink.accept(sensorType, SensorClock.toEpochMillis(sampleTime), event.values, recordingState.isDrivingAt(sampleTime));
+    }
+
+    public SensorType getSensorType() {
+        return sensorType;
+    }
+
+    public Sensor getSensor() {
+        return sensor;
+    }
+
+    public void pause() {
+        sensorManager.unregisterListener(this, sensor);
+    }
+}
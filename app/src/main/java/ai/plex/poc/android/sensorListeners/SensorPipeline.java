@@ -0,0 +1,217 @@
+package ai.plex.poc.android.sensorListeners;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.util.EnumMap;
+
+/**
+ * Builds the chain of sinks the samples of each motion sensor go through. The monitors only put
+ * samples in a SensorSampleQueue, the chains run on its writer thread, in order:
+ * - the extra taps given when building the chain, such as the sampling rate controller
+ * - the driving event detector, for linear acceleration and gyroscope
+ * - the decimator of the sensor type, lowering the sample rate
+ * - the dead band filter of the sensor type, dropping samples that barely changed
+ * - the fusion aligner, off by default, which consumes the samples unless the raw samples are kept
+ * - the data buffer, which writes the samples to the database
+ *
+ * The decimator and the dead band filter run before the fusion aligner so that they apply to
+ * the fused frames as well as to the raw rows. The aligner holds the last value of a stream
+ * between the samples that pass them. The taps and the detector see every sample.
+ *
+ * The stages are configured in place, settings take effect on the next sample. New processing
+ * stages are added here and every motion sensor gets them through the same SensorMonitor.
+ */
+public class SensorPipeline {
+    private static final String TAG = SensorPipeline.class.getSimpleName();
+
+    // Time between two fused frames
+    private static final long DEFAULT_FUSION_PERIOD = 50; // milliseconds
+    // Dead band of the magnetic field per axis and of the rotation vector components
+    private static final float DEFAULT_MAGNETIC_DEAD_BAND = 0.5f; // uT
+    private static final float DEFAULT_ROTATION_DEAD_BAND = 0.002f;
+    // Longest time without a stored sample for a sensor with a dead band
+    private static final long DEFAULT_KEYFRAME_INTERVAL = 5000; // milliseconds
+
+    // Samples queued between the sensor thread and the writer thread, about 20 s of the four
+    // motion sensors at 50 Hz
+    private static final int SAMPLE_QUEUE_CAPACITY = 4096;
+
+    private static SensorPipeline sInstance;
+
+    private final SensorDataBuffer dataBuffer;
+    private final SensorSampleQueue sampleQueue;
+    private final DrivingEventDetector drivingEventDetector;
+    private final SensorFusionAligner fusionAligner;
+    private final EnumMap<SensorType, SensorTap> fusionTaps = new EnumMap<>(SensorType.class);
+    private final EnumMap<SensorType, Decimator> decimators = new EnumMap<>(SensorType.class);
+    private final EnumMap<SensorType, DeadBandFilter> deadBandFilters = new EnumMap<>(SensorType.class);
+    // Fused frames are opt-in, the raw rows are stored until setFusion is called
+    private boolean keepRawSamples = true;
+    private boolean fusionEnabled = false;
+
+    private SensorPipeline(Context context) {
+        dataBuffer = SensorDataBuffer.getsInstance(context);
+        sampleQueue = new SensorSampleQueue(SAMPLE_QUEUE_CAPACITY, SensorSampleQueue.OverflowPolicy.DROP_NEWEST);
+        sampleQueue.start();
+        // The flush interval of the buffer is timed on the thread that writes the samples
+        dataBuffer.setFlushHandler(sampleQueue.getWriterHandler());
+        drivingEventDetector = new DrivingEventDetector(dataBuffer);
+        fusionAligner = new SensorFusionAligner(DEFAULT_FUSION_PERIOD, dataBuffer);
+        fusionAligner.configure(fusionEnabled, DEFAULT_FUSION_PERIOD);
+
+        SensorType[] motionSensors = {SensorType.LINEAR_ACCELERATION, SensorType.GYROSCOPE, SensorType.MAGNETIC, SensorType.ROTATION};
+        for (SensorType sensorType : motionSensors) {
+            fusionTaps.put(sensorType, new SensorTap(fusionAligner, keepRawSamples));
+            // Rotation vector components can not be averaged independently, they are only picked
+            decimators.put(sensorType, new Decimator(sensorType.getValueCount(), 0, sensorType != SensorType.ROTATION));
+            deadBandFilters.put(sensorType, new DeadBandFilter(sensorType.getValueCount(), null, 0));
+        }
+
+        setDeadBand(SensorType.MAGNETIC, new float[]{DEFAULT_MAGNETIC_DEAD_BAND, DEFAULT_MAGNETIC_DEAD_BAND, DEFAULT_MAGNETIC_DEAD_BAND}, DEFAULT_KEYFRAME_INTERVAL);
+        // The accuracy of the rotation vector is not compared
+        setDeadBand(SensorType.ROTATION, new float[]{DEFAULT_ROTATION_DEAD_BAND, DEFAULT_ROTATION_DEAD_BAND, DEFAULT_ROTATION_DEAD_BAND, DEFAULT_ROTATION_DEAD_BAND}, DEFAULT_KEYFRAME_INTERVAL);
+    }
+
+    public static synchronized SensorPipeline getsInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new SensorPipeline(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Links the chain of a motion sensor type
+     * @param taps sinks that see every sample before the other stages
+     * @return the sink the monitor hands samples to on the sensor thread
+     */
+    public synchronized SensorSink buildChain(SensorType sensorType, SensorSink... taps) {
+        SensorTap fusionTap = fusionTaps.get(sensorType);
+        if (fusionTap == null)
+            throw new IllegalArgumentException("No chain for sensor type " + sensorType);
+
+        Decimator decimator = decimators.get(sensorType);
+        DeadBandFilter deadBandFilter = deadBandFilters.get(sensorType);
+        fusionTap.setNext(dataBuffer);
+        deadBandFilter.setNext(fusionTap);
+        decimator.setNext(deadBandFilter);
+
+        SensorSink head = decimator;
+        if (sensorType == SensorType.LINEAR_ACCELERATION || sensorType == SensorType.GYROSCOPE) {
+            SensorTap detectorTap = new SensorTap(drivingEventDetector, true);
+            detectorTap.setNext(head);
+            head = detectorTap;
+        }
+        for (int i = taps.length - 1; i >= 0; i--) {
+            SensorTap tap = new SensorTap(taps[i], true);
+            tap.setNext(head);
+            head = tap;
+        }
+        sampleQueue.setChain(sensorType, head);
+        return sampleQueue;
+    }
+
+    /**
+     * The queue between the sensor thread and the writer thread, exposes its depth and counters
+     */
+    public SensorSampleQueue getSampleQueue() {
+        return sampleQueue;
+    }
+
+    /**
+     * Sets what happens to the samples that arrive while the sample queue is full
+     * @param overflowPolicy DROP_NEWEST keeps the queued samples, DROP_OLDEST the most recent ones
+     */
+    public void setOverflowPolicy(SensorSampleQueue.OverflowPolicy overflowPolicy) {
+        sampleQueue.setOverflowPolicy(overflowPolicy);
+    }
+
+    /**
+     * Writes everything queued so far to the database, on the writer thread
+     */
+    public void flush() {
+        flushThen(null);
+    }
+
+    /**
+     * Writes everything queued so far to the database, then runs the task, both on the writer thread
+     * @param task null to only flush
+     */
+    public void flushThen(final Runnable task) {
+        sampleQueue.drainThen(new Runnable() {
+            @Override
+            public void run() {
+                dataBuffer.flush();
+                logSampleQueue();
+                if (task != null)
+                    task.run();
+            }
+        });
+    }
+
+    /**
+     * Logs the counters of the sample queue, samples dropped there never reach the buffer
+     */
+    private void logSampleQueue() {
+        long droppedCount = sampleQueue.getDroppedCount();
+        String counters = "sample queue: " + sampleQueue.getDepth() + "/" + sampleQueue.getCapacity() + " queued, " +
+                sampleQueue.getAcceptedCount() + " accepted, " + droppedCount + " dropped";
+        if (droppedCount > 0)
+            Log.e(TAG, counters);
+        else
+            Log.d(TAG, counters);
+    }
+
+    /**
+     * Configures the fused frames written for the motion sensors, they are off by default
+     * @param enabled whether motion samples are fed to the fusion aligner
+     * @param period shortest time between two frames in milliseconds, frames are never produced
+     *               faster than the slowest live stream delivers samples
+     * @param keepRawSamples whether the raw motion samples are written as well
+     */
+    public synchronized void setFusion(boolean enabled, long period, boolean keepRawSamples) {
+        this.fusionEnabled = enabled;
+        this.keepRawSamples = keepRawSamples;
+        fusionAligner.configure(enabled, period);
+        for (SensorTap fusionTap : fusionTaps.values()) {
+            fusionTap.setPassOn(keepRawSamples || !enabled);
+        }
+    }
+
+    public synchronized boolean isFusionEnabled() {
+        return fusionEnabled;
+    }
+
+    /**
+     * Lowers the rate of the samples of a sensor type fed to the fusion aligner and stored as raw
+     * samples, they are low-pass filtered first
+     * @param outputRate samples stored per second, 0 to store every sample
+     */
+    public synchronized void setDecimation(SensorType sensorType, double outputRate) {
+        decimators.get(sensorType).setOutputRate(outputRate);
+    }
+
+    /**
+     * Drops samples of a sensor type that stay within the thresholds of the last stored sample,
+     * before they reach the fusion aligner and the raw rows
+     * @param thresholds the dead band per axis, null to store every sample
+     * @param keyframeInterval the longest time between two stored samples in milliseconds
+     */
+    public synchronized void setDeadBand(SensorType sensorType, float[] thresholds, long keyframeInterval) {
+        deadBandFilters.get(sensorType).setThresholds(thresholds, keyframeInterval);
+    }
+
+    /**
+     * Drops the state left over from the previous trip, runs on the writer thread like the stages
+     */
+    public synchronized void startTrip() {
+        drivingEventDetector.reset();
+        fusionAligner.reset();
+        for (Decimator decimator : decimators.values()) {
+            decimator.reset();
+        }
+        for (DeadBandFilter deadBandFilter : deadBandFilters.values()) {
+            deadBandFilter.reset();
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package ai.plex.poc.android.sensorListeners;
+
+/**
+ * A fixed capacity batch of samples for a single sensor type. Values are kept in
+ * primitive arrays so that queuing a sample does not allocate.
+ */
+public class SensorSampleBatch {
+    private final SensorType sensorType;
+    private final int capacity;
+    private final int stride;
+
+    private final long[] timestamps;
+    private final float[] values;
+    private final boolean[] isDriving;
+    private int size = 0;
+
+    public SensorSampleBatch(SensorType sensorType, int capacity) {
+        this.sensorType = sensorType;
+        this.capacity = capacity;
+        this.stride = sensorType.getValueCount();
+        this.timestamps = new long[capacity];
+        this.values = new float[capacity * stride];
+        this.isDriving = new boolean[capacity];
+    }
+
+    /**
+     * Copies a sample into the batch, values beyond the ones provided are stored as 0
+     * @return false if the batch is full and the sample was not added
+     */
+    public boolean add(long timestamp, float[] sampleValues, boolean driving) {
+        if (size >= capacity)
+            return false;
+
+        int offset = size * stride;
+        int count = Math.min(stride, sampleValues.length);
+        System.arraycopy(sampleValues, 0, values, offset, count);
+        for (int i = count; i < stride; i++) {
+            values[offset + i] = 0;
+        }
+        timestamps[size] = timestamp;
+        isDriving[size] = driving;
+        size++;
+        return true;
+    }
+
+    public SensorType getSensorType() {
+        return sensorType;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    public boolean isFull() {
+        return size >= capacity;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int getStride() {
+        return stride;
+    }
+
+    public long getTimestamp(int index) {
+        return timestamps[index];
+    }
+
+    public float getValue(int index, int axis) {
+        return values[index * stride + axis];
+    }
+
+    public boolean isDriving(int index) {
+        return isDriving[index];
+    }
+
+    public void clear() {
+        size = 0;
+    }
+}
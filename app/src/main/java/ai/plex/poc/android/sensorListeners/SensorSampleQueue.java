@@ -0,0 +1,225 @@
+package ai.plex.poc.android.sensorListeners;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.util.Log;
+
+import java.util.EnumMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hands samples from the sensor thread to a writer thread through a bounded lock-free ring, so
+ * that the sensor callbacks only copy values and never wait for the filters or for SQLite.
+ *
+ * There is a single producer, the sensor thread, and a single consumer, the writer thread which
+ * runs the sink chain of the sample's sensor type. Slots are preallocated primitive arrays. The
+ * consumer copies a slot and then claims it by moving the tail forward with a compare and set;
+ * with the DROP_OLDEST policy the producer may move the tail first, the consumer then discards
+ * its copy and reads the next slot.
+ */
+public class SensorSampleQueue implements SensorSink {
+    private static final String TAG = SensorSampleQueue.class.getSimpleName();
+
+    /**
+     * What happens to a sample that arrives when the ring is full
+     * DROP_NEWEST: the new sample is dropped, the queued ones are kept
+     * DROP_OLDEST: the oldest queued sample is dropped to make room
+     */
+    public enum OverflowPolicy {
+        DROP_NEWEST,
+        DROP_OLDEST
+    }
+
+    // Samples are drained in bursts instead of waking the writer thread for each one
+    private static final long DRAIN_DELAY = 20; // milliseconds
+
+    private static final SensorType[] SENSOR_TYPES = SensorType.values();
+
+    private final int capacity;
+    private final int stride;
+    private final long[] timestamps;
+    private final int[] sensorTypes;
+    private final boolean[] isDriving;
+    private final float[] values;
+
+    // Next slot to write, only moved by the producer
+    private final AtomicLong head = new AtomicLong();
+    // Next slot to read, moved by the consumer and by the producer when dropping the oldest sample
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong acceptedCount = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+    private final AtomicBoolean drainScheduled = new AtomicBoolean(false);
+    private volatile OverflowPolicy overflowPolicy;
+
+    private final EnumMap<SensorType, SensorSink> chains = new EnumMap<>(SensorType.class);
+    private HandlerThread writerThread;
+    private Handler writerHandler;
+
+    // Consumer side copy of the slot being read
+    private final float[] slotValues;
+
+    private final Runnable drain = new Runnable() {
+        @Override
+        public void run() {
+            drain();
+        }
+    };
+
+    public SensorSampleQueue(int capacity, OverflowPolicy overflowPolicy) {
+        this.capacity = capacity;
+        this.stride = SensorType.MAX_VALUE_COUNT;
+        this.timestamps = new long[capacity];
+        this.sensorTypes = new int[capacity];
+        this.isDriving = new boolean[capacity];
+        this.values = new float[capacity * stride];
+        this.slotValues = new float[stride];
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    /**
+     * Sets the chain samples of a sensor type are handed to on the writer thread
+     */
+    public synchronized void setChain(SensorType sensorType, SensorSink chain) {
+        chains.put(sensorType, chain);
+    }
+
+    /**
+     * Sets what happens to the samples that arrive while the ring is full, from the next sample on
+     */
+    public void setOverflowPolicy(OverflowPolicy overflowPolicy) {
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    /**
+     * The number of samples waiting for the writer thread
+     */
+    public int getDepth() {
+        return (int) (head.get() - tail.get());
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public long getAcceptedCount() {
+        return acceptedCount.get();
+    }
+
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    /**
+     * Copies the sample into the ring, called on the sensor thread
+     */
+    @Override
+    public void accept(SensorType sensorType, long timestamp, float[] sample, boolean driving) {
+        long currentHead = head.get();
+        if (currentHead - tail.get() >= capacity) {
+            if (overflowPolicy == OverflowPolicy.DROP_NEWEST) {
+                droppedCount.incrementAndGet();
+                return;
+            }
+            // Drop the oldest sample, unless the consumer just took it
+            long currentTail = tail.get();
+            if (currentHead - currentTail >= capacity && tail.compareAndSet(currentTail, currentTail + 1))
+                droppedCount.incrementAndGet();
+        }
+
+        int slot = (int) (currentHead % capacity);
+        int offset = slot * stride;
+        int count = Math.min(stride, sample.length);
+        System.arraycopy(sample, 0, values, offset, count);
+        for (int i = count; i < stride; i++) {
+            values[offset + i] = 0;
+        }
+        timestamps[slot] = timestamp;
+        sensorTypes[slot] = sensorType.ordinal();
+        isDriving[slot] = driving;
+        // Publishes the slot to the consumer
+        head.set(currentHead + 1);
+        acceptedCount.incrementAndGet();
+
+        Handler handler = writerHandler;
+        if (handler != null && drainScheduled.compareAndSet(false, true))
+            handler.postDelayed(drain, DRAIN_DELAY);
+    }
+
+    /**
+     * Starts the writer thread if it is not running
+     */
+    public synchronized void start() {
+        if (writerThread != null)
+            return;
+        writerThread = new HandlerThread("SensorWriter", Process.THREAD_PRIORITY_BACKGROUND);
+        writerThread.start();
+        writerHandler = new Handler(writerThread.getLooper());
+        drainScheduled.set(false);
+    }
+
+    /**
+     * The handler of the writer thread, null until the queue is started
+     */
+    public synchronized Handler getWriterHandler() {
+        return writerHandler;
+    }
+
+    /**
+     * Runs the task on the writer thread once every sample queued so far went through its chain
+     */
+    public synchronized void drainThen(final Runnable task) {
+        if (writerHandler == null) {
+            drain();
+            task.run();
+            return;
+        }
+        writerHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                drain();
+                task.run();
+            }
+        });
+    }
+
+    /**
+     * Hands every queued sample to its chain, called on the writer thread
+     */
+    private void drain() {
+        drainScheduled.set(false);
+        while (true) {
+            long currentTail = tail.get();
+            if (currentTail >= head.get())
+                return;
+
+            int slot = (int) (currentTail % capacity);
+            System.arraycopy(values, slot * stride, slotValues, 0, stride);
+            long timestamp = timestamps[slot];
+            SensorType sensorType = SENSOR_TYPES[sensorTypes[slot]];
+            boolean driving = isDriving[slot];
+
+            // The producer overwrote the slot while it was read, skip it
+            if (!tail.compareAndSet(currentTail, currentTail + 1))
+                continue;
+
+            SensorSink chain;
+            synchronized (this) {
+                chain = chains.get(sensorType);
+            }
+            if (chain == null)
+                continue;
+            try {
+                chain.accept(sensorType, timestamp, slotValues, driving);
+            } catch (Exception ex) {
+                Log.e(TAG, "Error processing a " + sensorType + " sample");
+                ex.printStackTrace();
+            }
+        }
+    }
+}
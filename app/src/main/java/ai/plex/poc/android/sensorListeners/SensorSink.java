@@ -0,0 +1,13 @@
+package ai.plex.poc.android.sensorListeners;
+
+/**
+ * A stage of the sensor sample chain built by SensorPipeline. The values array is owned by the
+ * caller and reused for the next sample, a sink that keeps values must copy them.
+ */
+public interface SensorSink {
+    /**
+     * @param timestamp sample time in epoch milliseconds
+     * @param isDriving whether the sample was taken while driving
+     */
+    void accept(SensorType sensorType, long timestamp, float[] values, boolean isDriving);
+}
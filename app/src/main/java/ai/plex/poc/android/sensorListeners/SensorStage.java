@@ -0,0 +1,24 @@
+package ai.plex.poc.android.sensorListeners;
+
+/**
+ * A sink that passes samples on to the next sink of the chain. Filters emit fewer samples than
+ * they receive, taps look at every sample and pass it on unchanged.
+ */
+public abstract class SensorStage implements SensorSink {
+    private SensorSink next;
+
+    public void setNext(SensorSink next) {
+        this.next = next;
+    }
+
+    /**
+     * Drops the state kept between samples, used when a trip starts
+     */
+    public void reset() {
+    }
+
+    protected final void emit(SensorType sensorType, long timestamp, float[] values, boolean isDriving) {
+        if (next != null)
+            next.accept(sensorType, timestamp, values, isDriving);
+    }
+}
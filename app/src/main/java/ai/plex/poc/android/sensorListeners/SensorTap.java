@@ -0,0 +1,26 @@
+package ai.plex.poc.android.sensorListeners;
+
+/**
+ * Hands every sample to a side sink, such as a detector shared by several chains, before
+ * passing it on. Passing on can be turned off when the side sink consumes the samples.
+ */
+public class SensorTap extends SensorStage {
+    private final SensorSink side;
+    private volatile boolean passOn;
+
+    public SensorTap(SensorSink side, boolean passOn) {
+        this.side = side;
+        this.passOn = passOn;
+    }
+
+    public void setPassOn(boolean passOn) {
+        this.passOn = passOn;
+    }
+
+    @Override
+    public void accept(SensorType sensorType, long timestamp, float[] values, boolean isDriving) {
+        side.accept(sensorType, timestamp, values, isDriving);
+        if (passOn)
+            emit(sensorType, timestamp, values, isDriving);
+    }
+}
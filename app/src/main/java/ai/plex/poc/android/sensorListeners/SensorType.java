@@ -6,23 +6,37 @@ import android.hardware.Sensor;
  * Created by ashish on 17/02/16.
  */
 public enum SensorType {
-    LINEAR_ACCELERATION("LinearAcceleration", Sensor.TYPE_LINEAR_ACCELERATION),
-    ROTATION("Rotation", Sensor.TYPE_ROTATION_VECTOR),
-    GYROSCOPE("Gyroscope", Sensor.TYPE_GYROSCOPE),
-    MAGNETIC("Magnetic", Sensor.TYPE_MAGNETIC_FIELD),
-    LOCATION("Location", 10),
-    ACTIVITY_DETECTOR("ActivityDetector", 11);
+    LINEAR_ACCELERATION("LinearAcceleration", Sensor.TYPE_LINEAR_ACCELERATION, 3),
+    ROTATION("Rotation", Sensor.TYPE_ROTATION_VECTOR, 5),
+    GYROSCOPE("Gyroscope", Sensor.TYPE_GYROSCOPE, 3),
+    MAGNETIC("Magnetic", Sensor.TYPE_MAGNETIC_FIELD, 3),
+    LOCATION("Location", 10, 3),
+    ACTIVITY_DETECTOR("ActivityDetector", 11, 2),
+    // Time aligned frame of the four motion sensors, see SensorFusionAligner
+    FUSION("Fusion", 12, 13);
+
+    // The largest number of values any sensor type stores per sample
+    public static final int MAX_VALUE_COUNT = 13;
 
     private String stringValue;
     private int intValue;
+    private int valueCount;
 
-    private SensorType(String toString, int value) {
+    private SensorType(String toString, int value, int valueCount) {
         stringValue = toString;
         intValue = value;
+        this.valueCount = valueCount;
+    }
+
+    /**
+     * The number of values recorded for a single sample of this sensor type
+     */
+    public int getValueCount() {
+        return valueCount;
     }
 
     @Override
     public String toString() {
         return stringValue;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,61 @@
+package ai.plex.poc.android.sensorListeners;
+
+/**
+ * Running mean of a signal over the last windowLength milliseconds. Samples are kept in a
+ * preallocated ring and the sum is updated as samples enter and leave the window, so adding a
+ * sample is O(1) amortized whatever the window length.
+ */
+public class SlidingWindow {
+    private final long windowLength;
+    private final long[] times;
+    private final float[] values;
+    private int head = 0;
+    private int size = 0;
+    private double sum = 0;
+
+    /**
+     * @param windowLength in milliseconds
+     * @param capacity the most samples kept, older ones are evicted early when it is reached
+     */
+    public SlidingWindow(long windowLength, int capacity) {
+        this.windowLength = windowLength;
+        this.times = new long[capacity];
+        this.values = new float[capacity];
+    }
+
+    public void add(long timestamp, float value) {
+        // Evict the samples that left the window
+        while (size > 0 && (timestamp - times[head] >= windowLength || size == times.length)) {
+            sum -= values[head];
+            head = (head + 1) % times.length;
+            size--;
+        }
+
+        int tail = (head + size) % times.length;
+        times[tail] = timestamp;
+        values[tail] = value;
+        size++;
+        sum += value;
+    }
+
+    public float getMean() {
+        return size == 0 ? 0 : (float) (sum / size);
+    }
+
+    /**
+     * Time covered by the samples in the window
+     */
+    public long getSpan() {
+        return size == 0 ? 0 : times[(head + size - 1) % times.length] - times[head];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        head = 0;
+        size = 0;
+        sum = 0;
+    }
+}
@@ -0,0 +1,82 @@
+package ai.plex.poc.android.services;
+
+import android.util.JsonWriter;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+import ai.plex.poc.android.Constants;
+
+/**
+ * A POST of {"entries": [...]} to an API route, the entries are written to the connection as
+ * they are read instead of being collected in a JSONArray and converted to a string first.
+ *
+ * The request is sent in chunks of CHUNK_SIZE bytes, whatever the number of entries only the
+ * buffer of the writer and the chunk of the connection are held in memory.
+ */
+class JsonUpload {
+    private static final int CHUNK_SIZE = 8 * 1024; // bytes
+
+    private final HttpURLConnection connection;
+    private final JsonWriter writer;
+
+    /**
+     * Connects to the route and starts the entries array
+     */
+    JsonUpload(String apiRoute) throws IOException {
+        URL url = new URL("http://" + Constants.IP_ADDRESS + "/" + apiRoute);
+        connection = (HttpURLConnection) url.openConnection();
+        connection.setReadTimeout(10000 /* milliseconds */);
+        connection.setConnectTimeout(15000 /* milliseconds */);
+        connection.setRequestMethod("POST");
+        connection.setDoInput(true);
+        connection.setDoOutput(true);
+        connection.setChunkedStreamingMode(CHUNK_SIZE);
+
+        connection.setRequestProperty("Content-Type", "application/json;charset=utf-8");
+        connection.setRequestProperty("X-Requested-With", "XMLHttpRequest");
+
+        try {
+            connection.connect();
+            writer = new JsonWriter(new BufferedWriter(new OutputStreamWriter(connection.getOutputStream(), "UTF-8"), CHUNK_SIZE));
+            writer.beginObject();
+            writer.name("entries");
+            writer.beginArray();
+        } catch (IOException ex) {
+            connection.disconnect();
+            throw ex;
+        }
+    }
+
+    /**
+     * The writer of the entries, every entry is an object from beginObject to endObject
+     */
+    JsonWriter getWriter() {
+        return writer;
+    }
+
+    /**
+     * Ends the entries array, sends the last chunk and waits for the response
+     * @return the HTTP response code
+     */
+    int finish() throws IOException {
+        try {
+            writer.endArray();
+            writer.endObject();
+            writer.close();
+            return connection.getResponseCode();
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * Drops the request, the entries written so far are not acknowledged
+     */
+    void abort() {
+        connection.disconnect();
+    }
+}
@@ -6,19 +6,21 @@ import android.app.PendingIntent;
 import android.app.Service;
 import android.content.Context;
 import android.content.Intent;
-import android.content.SharedPreferences;
 import android.content.pm.PackageManager;
+import android.database.sqlite.SQLiteDatabase;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.hardware.Sensor;
+import android.hardware.SensorEventListener;
 import android.hardware.SensorManager;
 import android.location.Location;
 import android.os.Binder;
+import android.os.Build;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.HandlerThread;
 import android.os.IBinder;
-import android.preference.PreferenceManager;
+import android.os.Looper;
 import android.support.v4.app.NotificationCompat;
 import android.support.v4.content.ContextCompat;
 import android.support.v4.content.LocalBroadcastManager;
@@ -34,16 +36,23 @@ import com.google.android.gms.location.LocationResult;
 import com.google.android.gms.location.LocationServices;
 import com.google.common.collect.EvictingQueue;
 
+import java.util.EnumMap;
+import java.util.EnumSet;
 import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import ai.plex.poc.android.Constants;
 import ai.plex.poc.android.R;
+import ai.plex.poc.android.RecordingState;
 import ai.plex.poc.android.activities.PredictiveMotionManagementActivity;
 import ai.plex.poc.android.activities.WebAppActivity;
-import ai.plex.poc.android.sensorListeners.GyroscopeMonitor;
-import ai.plex.poc.android.sensorListeners.LinearAccelerationMonitor;
-import ai.plex.poc.android.sensorListeners.MagneticMonitor;
-import ai.plex.poc.android.sensorListeners.RotationMonitor;
+import ai.plex.poc.android.database.SensorRollups;
+import ai.plex.poc.android.database.SnapShotDBHelper;
+import ai.plex.poc.android.database.Trips;
+import ai.plex.poc.android.sensorListeners.FifoBatchingListener;
+import ai.plex.poc.android.sensorListeners.SensorMonitor;
+import ai.plex.poc.android.sensorListeners.SensorPipeline;
 import ai.plex.poc.android.sensorListeners.SensorDataWriter;
 import ai.plex.poc.android.sensorListeners.SensorType;
 
@@ -54,20 +63,29 @@ import ai.plex.poc.android.sensorListeners.SensorType;
  */
 public class PredictiveMotionDataService extends Service implements GoogleApiClient.ConnectionCallbacks, GoogleApiClient.OnConnectionFailedListener {
     private static boolean isRunning = false;
-    private static boolean isDriving = false;
+    private static volatile boolean isDriving = false;
 
     private static final String TAG = PredictiveMotionDataService.class.getSimpleName();
 
     // Used to allow sensor data to recorded on a separate thread
     private static HandlerThread sensorHandlerThread;
     private static Handler sensorHandler;
+    // Location and activity results are written on their own threads, one per type so that
+    // results of a type are processed in the order they were delivered
+    private static HandlerThread locationResultThread;
+    private static Handler locationResultHandler;
+    private static HandlerThread activityResultThread;
+    private static Handler activityResultHandler;
+    // Used on the result threads only, they keep the rows that could not be written
+    private static SensorDataWriter locationDataWriter;
+    private static SensorDataWriter activityDataWriter;
     private static SensorManager mSensorManager;
 
     //The listeners
-    private static LinearAccelerationMonitor linearAccelerationMonitor;
-    private static GyroscopeMonitor gyroscopeMonitor;
-    private static MagneticMonitor magneticMonitor;
-    private static RotationMonitor rotationMonitor;
+    private static SensorMonitor linearAccelerationMonitor;
+    private static SensorMonitor gyroscopeMonitor;
+    private static SensorMonitor magneticMonitor;
+    private static SensorMonitor rotationMonitor;
 
     //The sensors
     private static Sensor linearAccelerationSensor;
@@ -82,10 +100,33 @@ public class PredictiveMotionDataService extends Service implements GoogleApiCli
     PendingIntent mActivityRecognitionPendingIntent;
 
     private static int sensorDelayInterval = 1000000; // microseconds
+    // Bounds of the sampling interval chosen by the sampling rate controller
+    private static final int minSensorDelayInterval = 20000; // microseconds
+    private static final int maxSensorDelayInterval = 1000000; // microseconds
+    private static SamplingRateController samplingRateController;
+    // Motion sensors currently registered, these are re-registered when the sampling interval changes
+    private static EnumSet<SensorType> activeMotionSensors = EnumSet.noneOf(SensorType.class);
+    private static Handler mainHandler;
+    // How long samples may wait in the sensor hub FIFO before being reported, 0 disables batching
+    private static EnumMap<SensorType, Integer> maxReportLatencies = new EnumMap<>(SensorType.class);
+    static {
+        maxReportLatencies.put(SensorType.LINEAR_ACCELERATION, 5000000); // microseconds
+        maxReportLatencies.put(SensorType.GYROSCOPE, 5000000);
+        maxReportLatencies.put(SensorType.ROTATION, 10000000);
+        maxReportLatencies.put(SensorType.MAGNETIC, 10000000);
+    }
+    // Cap of the latency of the sensors feeding the sampling rate controller, a speed-up waits for their batches
+    private static final int adaptiveMaxReportLatency = 100000; // microseconds
+    // Listeners used when a sensor is registered in batching mode
+    private static EnumMap<SensorType, FifoBatchingListener> batchingListeners = new EnumMap<>(SensorType.class);
+    // Closes the last trip once its FIFO samples are written, null when no trip is waiting for them
+    private static TripCloser pendingTripClose;
     private static long initialActivityDetectionRequestInterval = 1000;
     private static long activityDetectionRequestInterval = 1000;
     private static long maxActivityDetectionRequestInterval = 5 * 60 * 1000; // 5 min
     private static final double minDistanceTravelled = 100; // Must travel 100 m in 20s in order to keep recording
+    // Period of the distance shown with the location, read from the location rollups
+    private static final long recentDistanceWindow = 60 * 60 * 1000; // milliseconds
     private static EvictingQueue<Location> recentLocations = EvictingQueue.create(20);
 
     // Binder given to clients
@@ -122,11 +163,50 @@ public class PredictiveMotionDataService extends Service implements GoogleApiCli
         gyroscopeSensor = mSensorManager.getDefaultSensor(Sensor.TYPE_GYROSCOPE);
         magneticSensor = mSensorManager.getDefaultSensor(Sensor.TYPE_MAGNETIC_FIELD);
 
-        //Initialize sensor monitors
-        linearAccelerationMonitor = new LinearAccelerationMonitor(this.getApplicationContext(), linearAccelerationSensor);
-        rotationMonitor = new RotationMonitor(this.getApplicationContext(), rotationSensor);
-        gyroscopeMonitor = new GyroscopeMonitor(this.getApplicationContext(), gyroscopeSensor);
-        magneticMonitor = new MagneticMonitor(this.getApplicationContext(), magneticSensor);
+        mainHandler = new Handler(Looper.getMainLooper());
+        if (locationResultThread == null) {
+            locationResultThread = new HandlerThread("LocationResultThread");
+            locationResultThread.start();
+            locationResultHandler = new Handler(locationResultThread.getLooper());
+        }
+        if (activityResultThread == null) {
+            activityResultThread = new HandlerThread("ActivityResultThread");
+            activityResultThread.start();
+            activityResultHandler = new Handler(activityResultThread.getLooper());
+        }
+        if (locationDataWriter == null) {
+            locationDataWriter = new SensorDataWriter(getApplicationContext(), SensorType.LOCATION);
+            activityDataWriter = new SensorDataWriter(getApplicationContext(), SensorType.ACTIVITY_DETECTOR);
+        }
+
+        // Adapt the sampling rate to the motion measured by the linear acceleration and gyroscope
+        samplingRateController = new SamplingRateController(minSensorDelayInterval, maxSensorDelayInterval,
+                new SamplingRateController.Listener() {
+                    @Override
+                    public void onSamplingIntervalChanged(final int samplingInterval) {
+                        Log.d(TAG, "Sampling interval changed to " + samplingInterval + " us");
+                        // Listeners are registered from the main thread
+                        mainHandler.post(new Runnable() {
+                            @Override
+                            public void run() {
+                                applySamplingInterval(samplingInterval);
+                            }
+                        });
+                    }
+                });
+
+        //Initialize sensor monitors, samples go through the chains of the pipeline
+        SensorPipeline pipeline = SensorPipeline.getsInstance(this);
+        linearAccelerationMonitor = new SensorMonitor(this.getApplicationContext(), SensorType.LINEAR_ACCELERATION, linearAccelerationSensor,
+                pipeline.buildChain(SensorType.LINEAR_ACCELERATION, samplingRateController));
+        rotationMonitor = new SensorMonitor(this.getApplicationContext(), SensorType.ROTATION, rotationSensor,
+                pipeline.buildChain(SensorType.ROTATION));
+        gyroscopeMonitor = new SensorMonitor(this.getApplicationContext(), SensorType.GYROSCOPE, gyroscopeSensor,
+                pipeline.buildChain(SensorType.GYROSCOPE, samplingRateController));
+        magneticMonitor = new SensorMonitor(this.getApplicationContext(), SensorType.MAGNETIC, magneticSensor,
+                pipeline.buildChain(SensorType.MAGNETIC));
+        // Batching listeners wrap the monitors, recreate them with the new monitors
+        batchingListeners.clear();
 
         mLocationRequest = new LocationRequest()
                 .setInterval(1000)
@@ -213,24 +293,10 @@ public class PredictiveMotionDataService extends Service implements GoogleApiCli
         // Register listeners on the SensorListener thread
         switch(sensorType) {
             case LINEAR_ACCELERATION:
-                if (linearAccelerationSensor != null)
-                    mSensorManager.registerListener(linearAccelerationMonitor, linearAccelerationSensor,
-                            sensorDelayInterval, sensorHandler);
-                break;
             case ROTATION:
-                if (rotationSensor != null)
-                    mSensorManager.registerListener(rotationMonitor, rotationSensor,
-                            sensorDelayInterval, sensorHandler);
-                break;
             case GYROSCOPE:
-                if (gyroscopeSensor != null)
-                    mSensorManager.registerListener(gyroscopeMonitor, gyroscopeSensor,
-                            sensorDelayInterval, sensorHandler);
-                break;
             case MAGNETIC:
-                if (magneticSensor != null)
-                    mSensorManager.registerListener(magneticMonitor, magneticSensor,
-                            sensorDelayInterval, sensorHandler);
+                registerMotionSensor(sensorType);
                 break;
             case LOCATION:
                 if (mGoogleApiClient.isConnected()) {
@@ -253,6 +319,134 @@ public class PredictiveMotionDataService extends Service implements GoogleApiCli
         }
     }
 
+    /**
+     * Registers the monitor of a motion sensor. When the sensor has a hardware FIFO and a max
+     * report latency is configured for it, samples are batched in the sensor hub so that the
+     * application processor is woken once per batch instead of once per sample.
+     */
+    private void registerMotionSensor(SensorType sensorType) {
+        Sensor sensor = getMotionSensor(sensorType);
+        SensorEventListener monitor = getMotionMonitor(sensorType);
+        if (sensor == null || monitor == null)
+            return;
+
+        activeMotionSensors.add(sensorType);
+
+        int maxReportLatency = getRegisteredReportLatency(sensorType);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT && maxReportLatency > 0 && sensor.getFifoMaxEventCount() > 0) {
+            FifoBatchingListener batchingListener = batchingListeners.get(sensorType);
+            if (batchingListener == null) {
+                batchingListener = new FifoBatchingListener(this, monitor, sensor);
+                batchingListeners.put(sensorType, batchingListener);
+            }
+            if (batchingListener.start(sensorDelayInterval, maxReportLatency, sensorHandler)) {
+                Log.d(TAG, sensorType + " batching with max report latency " + maxReportLatency + " us");
+                return;
+            }
+        }
+
+        mSensorManager.registerListener(monitor, sensor, sensorDelayInterval, sensorHandler);
+    }
+
+    /**
+     * Re-registers the active motion sensors with a new sampling interval
+     * @param samplingInterval in microseconds
+     */
+    private void applySamplingInterval(int samplingInterval) {
+        if (samplingInterval == sensorDelayInterval)
+            return;
+
+        sensorDelayInterval = samplingInterval;
+        for (SensorType sensorType : EnumSet.copyOf(activeMotionSensors)) {
+            FifoBatchingListener batchingListener = batchingListeners.get(sensorType);
+            if (batchingListener != null && batchingListener.isRegistered()) {
+                // Keep the samples already batched at the previous rate
+                batchingListener.flushAndRestart(sensorDelayInterval, getRegisteredReportLatency(sensorType));
+            } else {
+                stopSensor(sensorType);
+                startSensor(sensorType);
+            }
+        }
+    }
+
+    private Sensor getMotionSensor(SensorType sensorType) {
+        switch (sensorType) {
+            case LINEAR_ACCELERATION:
+                return linearAccelerationSensor;
+            case ROTATION:
+                return rotationSensor;
+            case GYROSCOPE:
+                return gyroscopeSensor;
+            case MAGNETIC:
+                return magneticSensor;
+            default:
+                return null;
+        }
+    }
+
+    private SensorEventListener getMotionMonitor(SensorType sensorType) {
+        switch (sensorType) {
+            case LINEAR_ACCELERATION:
+                return linearAccelerationMonitor;
+            case ROTATION:
+                return rotationMonitor;
+            case GYROSCOPE:
+                return gyroscopeMonitor;
+            case MAGNETIC:
+                return magneticMonitor;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Sets how long samples of a motion sensor may be batched in the sensor hub FIFO, takes effect
+     * the next time the sensor is started
+     * @param sensorType
+     * @param maxReportLatency in microseconds, 0 disables batching
+     */
+    public static void setMaxReportLatency(SensorType sensorType, int maxReportLatency) {
+        maxReportLatencies.put(sensorType, maxReportLatency);
+    }
+
+    public static int getMaxReportLatency(SensorType sensorType) {
+        Integer maxReportLatency = maxReportLatencies.get(sensorType);
+        return maxReportLatency == null ? 0 : maxReportLatency;
+    }
+
+    /**
+     * The max report latency a motion sensor is registered with. While the sampling rate adapts to
+     * the motion, the linear acceleration and gyroscope latencies are capped so that the controller
+     * sees a manoeuvre when it starts and not once the FIFO batch is reported.
+     */
+    private static int getRegisteredReportLatency(SensorType sensorType) {
+        int maxReportLatency = getMaxReportLatency(sensorType);
+        if (samplingRateController != null
+                && (sensorType == SensorType.LINEAR_ACCELERATION || sensorType == SensorType.GYROSCOPE))
+            return Math.min(maxReportLatency, adaptiveMaxReportLatency);
+        return maxReportLatency;
+    }
+
+    /**
+     * Stops a motion sensor once the samples batched in its hardware FIFO have been delivered,
+     * sensors that are not batching are stopped right away
+     * @param tripCloser waits for the batching listener to stop before closing the trip
+     */
+    private void flushAndStopSensor(SensorType sensorType, TripCloser tripCloser) {
+        activeMotionSensors.remove(sensorType);
+        FifoBatchingListener batchingListener = batchingListeners.get(sensorType);
+        if (batchingListener != null) {
+            SensorEventListener monitor = getMotionMonitor(sensorType);
+            Sensor sensor = getMotionSensor(sensorType);
+            if (monitor != null && sensor != null)
+                mSensorManager.unregisterListener(monitor, sensor);
+            tripCloser.expectStop();
+            batchingListener.flushAndStop(tripCloser);
+        } else {
+            stopSensor(sensorType);
+        }
+    }
+
     /**
      * Stops all sensors
      */
@@ -263,64 +457,130 @@ public class PredictiveMotionDataService extends Service implements GoogleApiCli
         stopSensor(SensorType.MAGNETIC);
         stopSensor(SensorType.LOCATION);
         stopSensor(SensorType.ACTIVITY_DETECTOR);
+
+        SensorPipeline.getsInstance(this).flush();
     }
 
     /**
-     *
+     * Hands the location and activity results delivered by the pending intents to their threads,
+     * the database write, the broadcast and the distance check do not run on the main thread
      * @param intent
      */
     //@Override
-    protected void onHandleIntent(Intent intent) {
+    protected void onHandleIntent(final Intent intent) {
         try {
-             if (ActivityRecognitionResult.hasResult(intent)) {
-                ActivityRecognitionResult result = ActivityRecognitionResult.extractResult(intent);
-                DetectedActivity detectedActivity = result.getMostProbableActivity();
-
-                int confidence = detectedActivity.getConfidence();
-                String mostProbableName = getActivityName(detectedActivity.getType());
-
-                new SensorDataWriter(this, SensorType.ACTIVITY_DETECTOR).writeData(detectedActivity);
-                Log.d(TAG, "Detected activity: " + mostProbableName + "(w confidence " + confidence + ")");
-
-                Intent localIntent = new Intent(Constants.ACTIVITY_UPDATE_BROADCAST_ACTION)
-                        // Puts the status into the Intent
-                        .putExtra(Constants.ACTIVITY_NAME, mostProbableName)
-                        .putExtra(Constants.ACTIVITY_CONFIDENCE, confidence);
-
-                // Broadcasts the Intent to receivers in this app.
-                LocalBroadcastManager.getInstance(this).sendBroadcast(localIntent);
-
-                 // In vehicle
-                 if (!isDriving) {
-                     if (detectedActivity.getType() == DetectedActivity.IN_VEHICLE) {
-                        resetActivityDetectionRequestInterval();
-                        startDriving();
-                        startAllSensors();
-                     } else if (activityDetectionRequestInterval < maxActivityDetectionRequestInterval) {
-                        activityDetectionRequestInterval = nextActivityDetectionRequestInterval();
-                        Log.d(TAG, "Backoff time updated to " + activityDetectionRequestInterval / 1000 + " s");
-                        startSensor(SensorType.ACTIVITY_DETECTOR);
-                     }
-                 }
+            if (ActivityRecognitionResult.hasResult(intent)) {
+                activityResultHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        handleActivityResult(intent);
+                    }
+                });
             } else if (LocationResult.hasResult(intent)) {
-                Location location = LocationResult.extractResult(intent).getLastLocation();
-                new SensorDataWriter(this, SensorType.LOCATION).writeData(location);
-                Log.i(TAG, "New Location at: " + location.getLatitude() + "/" + location.getLongitude() + " at " + location.getSpeed());
+                locationResultHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        handleLocationResult(intent);
+                    }
+                });
+            } else {
+                Log.d(TAG, "Intent had no data returned");
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
 
-                Intent localIntent = new Intent(Constants.LOCATION_UPDATE_BROADCAST_ACTION)
-                    .putExtra(Constants.LATITUDE, location.getLatitude())
-                    .putExtra(Constants.LONGITUDE, location.getLongitude());
+    /**
+     * Records an activity result, runs on the activity result thread
+     */
+    private void handleActivityResult(Intent intent) {
+        try {
+            ActivityRecognitionResult result = ActivityRecognitionResult.extractResult(intent);
+            final DetectedActivity detectedActivity = result.getMostProbableActivity();
 
-                // Broadcasts the Intent to receivers in this app.
-                LocalBroadcastManager.getInstance(this).sendBroadcast(localIntent);
-                recentLocations.add(location);
-                double recentDistance = recentDistanceTravelled();
-                if (recentLocations.size() == 20 && recentDistance < minDistanceTravelled) {
-                    stopDriving();
+            int confidence = detectedActivity.getConfidence();
+            String mostProbableName = getActivityName(detectedActivity.getType());
+
+            activityDataWriter.writeData(detectedActivity);
+            Log.d(TAG, "Detected activity: " + mostProbableName + "(w confidence " + confidence + ")");
+
+            Intent localIntent = new Intent(Constants.ACTIVITY_UPDATE_BROADCAST_ACTION)
+                    // Puts the status into the Intent
+                    .putExtra(Constants.ACTIVITY_NAME, mostProbableName)
+                    .putExtra(Constants.ACTIVITY_CONFIDENCE, confidence);
+
+            // Broadcasts the Intent to receivers in this app.
+            LocalBroadcastManager.getInstance(this).sendBroadcast(localIntent);
+
+            // Driving state transitions all happen on the main thread, one after the other
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    onActivityDetected(detectedActivity.getType());
                 }
-                 Log.d(TAG, "RecentDistanceTravelled :" + recentDistance);
-            } else {
-                Log.d(TAG, "Intent had no data returned");
+            });
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Starts a trip when the user is in a vehicle, backs off the detection otherwise, runs on the main thread
+     */
+    private void onActivityDetected(int activityType) {
+        // In vehicle
+        if (!isDriving) {
+            if (activityType == DetectedActivity.IN_VEHICLE) {
+                resetActivityDetectionRequestInterval();
+                startDriving();
+                startAllSensors();
+            } else if (activityDetectionRequestInterval < maxActivityDetectionRequestInterval) {
+                activityDetectionRequestInterval = nextActivityDetectionRequestInterval();
+                Log.d(TAG, "Backoff time updated to " + activityDetectionRequestInterval / 1000 + " s");
+                startSensor(SensorType.ACTIVITY_DETECTOR);
+            }
+        }
+    }
+
+    /**
+     * Records a location result, runs on the location result thread
+     */
+    private void handleLocationResult(Intent intent) {
+        try {
+            Location location = LocationResult.extractResult(intent).getLastLocation();
+            locationDataWriter.writeData(location);
+            Log.i(TAG, "New Location at: " + location.getLatitude() + "/" + location.getLongitude() + " at " + location.getSpeed());
+
+            SQLiteDatabase db = SnapShotDBHelper.getsInstance(this).getWritableDatabase();
+            double distance = SensorRollups.getDistance(db, System.currentTimeMillis() - recentDistanceWindow);
+
+            Intent localIntent = new Intent(Constants.LOCATION_UPDATE_BROADCAST_ACTION)
+                .putExtra(Constants.LATITUDE, location.getLatitude())
+                .putExtra(Constants.LONGITUDE, location.getLongitude())
+                .putExtra(Constants.RECENT_DISTANCE, distance);
+
+            // Broadcasts the Intent to receivers in this app.
+            LocalBroadcastManager.getInstance(this).sendBroadcast(localIntent);
+
+            boolean stopped;
+            double recentDistance;
+            synchronized (recentLocations) {
+                recentLocations.add(location);
+                recentDistance = recentDistanceTravelled();
+                stopped = recentLocations.size() == 20 && recentDistance < minDistanceTravelled;
+            }
+            Log.d(TAG, "RecentDistanceTravelled :" + recentDistance);
+
+            if (stopped) {
+                // Driving state transitions all happen on the main thread, one after the other
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (isDriving)
+                            stopDriving();
+                    }
+                });
             }
         } catch (Exception e) {
             e.printStackTrace();
@@ -406,38 +666,47 @@ public class PredictiveMotionDataService extends Service implements GoogleApiCli
         return interval;
     }
 
-    private void updateIsDrivingFlag() {
-        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(getApplicationContext());
-        PreferenceManager.getDefaultSharedPreferences(this).edit().putBoolean("isRecording", isDriving).commit();
-        PreferenceManager.getDefaultSharedPreferences(this).edit().putBoolean("isDriving", isDriving).commit();
+    private synchronized void updateIsDrivingFlag() {
+        // The in memory state is what the sensor thread reads, the preferences are written asynchronously
+        RecordingState.getsInstance(this).setRecordingAndDriving(isDriving, isDriving);
     }
 
     private void startDriving() {
         isDriving = true;
-        updateIsDrivingFlag();
+        // Every trip starts at the slowest rate, the controller speeds up when there is motion
+        samplingRateController.reset();
+        sensorDelayInterval = samplingRateController.getSamplingInterval();
+        // The previous trip is closed before this one opens, even if its FIFO samples are still on their way
+        if (pendingTripClose != null) {
+            pendingTripClose.close();
+            pendingTripClose = null;
+        }
+        // The trip is opened on the writer thread once the samples queued so far are written, the
+        // driving flag is only set once the trip id is, so that every driving sample is written with it
+        final long startTime = System.currentTimeMillis();
+        SensorPipeline.getsInstance(this).flushThen(new Runnable() {
+            @Override
+            public void run() {
+                // The trip ended before it could be opened
+                if (!isDriving)
+                    return;
+                // Samples of the previous trip may have been flushed from the FIFO until now, start clean
+                SensorPipeline.getsInstance(PredictiveMotionDataService.this).startTrip();
+                try {
+                    SQLiteDatabase db = SnapShotDBHelper.getsInstance(PredictiveMotionDataService.this).getWritableDatabase();
+                    long tripId = Trips.startTrip(db, startTime);
+                    if (tripId != -1)
+                        RecordingState.getsInstance(PredictiveMotionDataService.this).setTripId(tripId);
+                } catch (Exception ex) {
+                    Log.e(TAG, "Error starting a trip");
+                    ex.printStackTrace();
+                }
+                updateIsDrivingFlag();
+            }
+        });
         Log.d(TAG, "Started driving.");
     }
 
-    private double distanceBetweenPoints(Location point1, Location point2) {
-        if (point1 == null || point2 == null)
-            return 0.0;
-        // approximate radius of earth in m
-        double R = 6373000.0;
-
-        double lat1 = Math.toRadians(point1.getLatitude());
-        double lon1 = Math.toRadians(point1.getLongitude());
-        double lat2 = Math.toRadians(point2.getLatitude());
-        double lon2 = Math.toRadians(point2.getLongitude());
-
-        double dlon = lon2 - lon1;
-        double dlat = lat2 - lat1;
-
-        double a = Math.pow(Math.sin(dlat / 2),2) + Math.cos(lat1) * Math.cos(lat2) * Math.pow(Math.sin(dlon / 2), 2);
-        double c = 2 * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a));
-
-        return R * c;
-    }
-
     private double recentDistanceTravelled() {
         if (recentLocations.isEmpty() || recentLocations.size() == 1)
             return 0.0;
@@ -447,7 +716,8 @@ public class PredictiveMotionDataService extends Service implements GoogleApiCli
         Location prev = iter.hasNext() ? iter.next() : null;
         while (iter.hasNext()) {
             Location curr = iter.next();
-            distance = distance + distanceBetweenPoints(prev, curr);
+            distance = distance + Trips.distanceBetweenPoints(prev.getLatitude(), prev.getLongitude(),
+                    curr.getLatitude(), curr.getLongitude());
             prev = curr;
         }
         return distance;
@@ -482,18 +752,81 @@ public class PredictiveMotionDataService extends Service implements GoogleApiCli
         isDriving = false;
         updateIsDrivingFlag();
         resetActivityDetectionRequestInterval();
-        recentLocations.clear();
+        synchronized (recentLocations) {
+            recentLocations.clear();
+        }
 
-        // Stop everything but activity detection
-        stopSensor(SensorType.LINEAR_ACCELERATION);
-        stopSensor(SensorType.GYROSCOPE);
-        stopSensor(SensorType.ROTATION);
-        stopSensor(SensorType.MAGNETIC);
+        // Stop everything but activity detection, motion sensors deliver their FIFO contents first
+        // and the trip is closed once the last of them stopped
+        TripCloser tripCloser = new TripCloser(System.currentTimeMillis());
+        pendingTripClose = tripCloser;
+        flushAndStopSensor(SensorType.LINEAR_ACCELERATION, tripCloser);
+        flushAndStopSensor(SensorType.GYROSCOPE, tripCloser);
+        flushAndStopSensor(SensorType.ROTATION, tripCloser);
+        flushAndStopSensor(SensorType.MAGNETIC, tripCloser);
         stopSensor(SensorType.LOCATION);
+        tripCloser.run();
 
         Log.d(TAG, "Stopped driving.");
     }
 
+    /**
+     * Closes the open trip once every batching listener stopped, so that the samples flushed from
+     * the sensor hub FIFOs are written with the trip id first. The listeners stop on their own if
+     * the flush does not complete in time.
+     */
+    private class TripCloser implements Runnable {
+        private final long endTime;
+        // One count per listener still flushing, plus one for stopDriving until every flush was asked for
+        private final AtomicInteger remaining = new AtomicInteger(1);
+        private final AtomicBoolean closed = new AtomicBoolean(false);
+
+        TripCloser(long endTime) {
+            this.endTime = endTime;
+        }
+
+        void expectStop() {
+            remaining.incrementAndGet();
+        }
+
+        /**
+         * A batching listener stopped, runs on the sensor thread
+         */
+        @Override
+        public void run() {
+            if (remaining.decrementAndGet() == 0)
+                close();
+        }
+
+        /**
+         * Writes out the samples still queued in memory, then closes the trip on the writer thread.
+         * The trip id is read there, the trip is opened there as well.
+         */
+        void close() {
+            if (!closed.compareAndSet(false, true))
+                return;
+
+            SensorPipeline.getsInstance(PredictiveMotionDataService.this).flushThen(new Runnable() {
+                @Override
+                public void run() {
+                    RecordingState recordingState = RecordingState.getsInstance(PredictiveMotionDataService.this);
+                    long tripId = recordingState.getTripId();
+                    if (tripId == 0)
+                        return;
+                    // Samples recorded from now on, manually or without a trip, are not part of it
+                    recordingState.setTripId(0);
+                    try {
+                        SQLiteDatabase db = SnapShotDBHelper.getsInstance(PredictiveMotionDataService.this).getWritableDatabase();
+                        Trips.closeTrip(db, tripId, endTime);
+                    } catch (Exception ex) {
+                        Log.e(TAG, "Error closing trip " + tripId);
+                        ex.printStackTrace();
+                    }
+                }
+            });
+        }
+    }
+
     /**
      * Stops a sensor
      * @param sensorType
@@ -502,23 +835,18 @@ public class PredictiveMotionDataService extends Service implements GoogleApiCli
         // Unregister listeners
         switch(sensorType) {
             case LINEAR_ACCELERATION:
-                if (linearAccelerationMonitor != null && linearAccelerationSensor != null) {
-                    mSensorManager.unregisterListener(linearAccelerationMonitor, linearAccelerationSensor);
-                }
-                break;
             case ROTATION:
-                if (rotationMonitor != null && rotationSensor != null) {
-                    mSensorManager.unregisterListener(rotationMonitor, rotationSensor);
-                }
-                break;
             case GYROSCOPE:
-                if (gyroscopeMonitor != null && gyroscopeSensor != null) {
-                    mSensorManager.unregisterListener(gyroscopeMonitor, gyroscopeSensor);
-                }
-                break;
             case MAGNETIC:
-                if (magneticMonitor != null && magneticSensor != null) {
-                    mSensorManager.unregisterListener(magneticMonitor, magneticSensor);
+                activeMotionSensors.remove(sensorType);
+                SensorEventListener monitor = getMotionMonitor(sensorType);
+                Sensor sensor = getMotionSensor(sensorType);
+                if (monitor != null && sensor != null) {
+                    mSensorManager.unregisterListener(monitor, sensor);
+                }
+                FifoBatchingListener batchingListener = batchingListeners.get(sensorType);
+                if (batchingListener != null) {
+                    batchingListener.stopNow();
                 }
                 break;
             case LOCATION:
@@ -537,7 +865,8 @@ public class PredictiveMotionDataService extends Service implements GoogleApiCli
         isRunning = false;
         super.onDestroy();
         // Stop all components
-        stopDriving();
+        if (isDriving)
+            stopDriving();
         stopLocationUpdates();
         stopActivityDetection();
     }
@@ -0,0 +1,263 @@
+package ai.plex.poc.android.services;
+
+import android.app.AlarmManager;
+import android.app.IntentService;
+import android.app.PendingIntent;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.BatteryManager;
+import android.os.Build;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.File;
+
+import ai.plex.poc.android.RecordingState;
+import ai.plex.poc.android.database.PartitionedSqliteTelemetryStore;
+import ai.plex.poc.android.database.SegmentStore;
+import ai.plex.poc.android.database.SensorRollups;
+import ai.plex.poc.android.database.SnapShotContract;
+import ai.plex.poc.android.database.SnapShotDBHelper;
+import ai.plex.poc.android.database.UploadMarks;
+
+/**
+ * Deletes the rows that were uploaded and gives the freed space back to the file system. It runs
+ * when the phone is connected to power and only while it is charging and no trip is recorded.
+ *
+ * Rows are deleted in ranges of _id below the upload mark, each range in its own short
+ * transaction so that the sensor writer is never blocked for long, and the job stops between
+ * ranges as soon as recording starts or the phone is unplugged. Up to MAX_VACUUM_PAGES free pages
+ * are then released with incremental vacuum and the write-ahead log is checkpointed. Day
+ * partitions and segment files whose samples were all uploaded are dropped as well.
+ *
+ * Incremental vacuum only applies to databases created with it. A database created by an earlier
+ * version is converted once with a full VACUUM during this window, as long as its data is at most
+ * MAX_CONVERSION_SIZE and the disk has room for the copy. Larger ones are converted by a later run
+ * once retention deleted enough rows, until then SQLite reuses their free pages for new rows.
+ *
+ * A job that recording blocks or interrupts while the phone is charging runs again after
+ * RETRY_DELAY. Once the phone is unplugged the next power connection starts it.
+ */
+public class RetentionService extends IntentService {
+    //Tag for logging purposes
+    private static final String TAG = RetentionService.class.getSimpleName();
+
+    // Rows deleted per transaction
+    private static final int DELETE_CHUNK_SIZE = 2000;
+    // Pages released per incremental vacuum step, and per run
+    private static final int VACUUM_CHUNK_PAGES = 256;
+    private static final int MAX_VACUUM_PAGES = 16 * VACUUM_CHUNK_PAGES;
+
+    private static final int AUTO_VACUUM_INCREMENTAL = 2;
+    // Largest data converted to incremental vacuum, the VACUUM rewrites it and blocks the writers meanwhile
+    private static final long MAX_CONVERSION_SIZE = 64L * 1024 * 1024; // bytes
+
+    // Time before a job blocked by a recording while charging runs again
+    private static final long RETRY_DELAY = 30 * 60 * 1000; // milliseconds
+
+    // Rollups are kept this long, they are small but grow with every recorded minute
+    private static final long ROLLUP_RETENTION = 30L * 24 * 60 * 60 * 1000; // milliseconds
+
+    private static final String[] TABLES = {
+            SnapShotContract.LinearAccelerationEntry.TABLE_NAME,
+            SnapShotContract.GyroscopeEntry.TABLE_NAME,
+            SnapShotContract.RotationEntry.TABLE_NAME,
+            SnapShotContract.MagneticEntry.TABLE_NAME,
+            SnapShotContract.LocationEntry.TABLE_NAME,
+            SnapShotContract.DetectedActivityEntry.TABLE_NAME,
+            SnapShotContract.SensorChunkEntry.TABLE_NAME,
+            SnapShotContract.FusedFrameEntry.TABLE_NAME,
+            SnapShotContract.DrivingEventEntry.TABLE_NAME
+    };
+
+    public RetentionService() {
+        super("RetentionService");
+    }
+
+    @Override
+    protected void onHandleIntent(Intent intent) {
+        if (!canRun()) {
+            Log.d(TAG, "Retention postponed, not idle and charging");
+            scheduleRetry();
+            return;
+        }
+
+        try {
+            SQLiteDatabase db = SnapShotDBHelper.getsInstance(this).getWritableDatabase();
+            long sizeBefore = getDatabaseSize(db);
+
+            long deleted = 0;
+            for (String table : TABLES) {
+                if (!canRun())
+                    break;
+                deleted += deleteUploaded(db, table);
+            }
+            if (canRun()) {
+                // Partitions are dropped whole, no rows are deleted
+                long dropped = PartitionedSqliteTelemetryStore.getInstance(db).purge();
+                if (dropped > 0)
+                    Log.d(TAG, "Dropped " + dropped + " uploaded samples with their partitions");
+            }
+            if (canRun()) {
+                int rollups = SensorRollups.deleteBefore(db, System.currentTimeMillis() - ROLLUP_RETENTION);
+                if (rollups > 0)
+                    Log.d(TAG, "Deleted " + rollups + " rollups");
+            }
+            if (canRun()) {
+                long purged = SegmentStore.getsInstance(this).purge();
+                if (purged > 0)
+                    Log.d(TAG, "Deleted " + purged + " uploaded samples with their segments");
+            }
+
+            long compacted = 0;
+            if (canRun())
+                compacted = compact(db);
+            if (canRun())
+                checkpoint(db);
+
+            long reclaimed = sizeBefore - getDatabaseSize(db);
+            Log.d(TAG, "Retention deleted " + deleted + " rows, released " + compacted +
+                    " bytes of free pages and reclaimed " + reclaimed + " bytes");
+        } catch (Exception ex) {
+            Log.e(TAG, "Error running retention");
+            ex.printStackTrace();
+        }
+
+        // The steps check canRun before starting, the job was interrupted if it is false now
+        if (!canRun())
+            scheduleRetry();
+    }
+
+    /**
+     * The job runs while the phone is charging and no trip is being recorded
+     */
+    private boolean canRun() {
+        return !RecordingState.getsInstance(this).isRecording() && isCharging();
+    }
+
+    private boolean isCharging() {
+        Intent battery = registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        return battery != null && battery.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0;
+    }
+
+    /**
+     * Runs the job again after RETRY_DELAY while the phone is charging, the pending retry is
+     * replaced so that blocked runs do not pile up. An unplugged phone waits for PowerConnectedReceiver.
+     */
+    private void scheduleRetry() {
+        if (!isCharging()) {
+            Log.d(TAG, "Retention runs again when power is connected");
+            return;
+        }
+        PendingIntent retry = PendingIntent.getService(this, 0, new Intent(this, RetentionService.class),
+                PendingIntent.FLAG_UPDATE_CURRENT);
+        AlarmManager alarmManager = (AlarmManager) getSystemService(ALARM_SERVICE);
+        // Not a wakeup alarm, a sleeping phone runs the retry once it wakes up
+        alarmManager.set(AlarmManager.ELAPSED_REALTIME, SystemClock.elapsedRealtime() + RETRY_DELAY, retry);
+        Log.d(TAG, "Retention runs again in " + RETRY_DELAY / 1000 + " s");
+    }
+
+    /**
+     * Deletes the uploaded rows of the table, DELETE_CHUNK_SIZE rows at a time
+     * @return the number of rows deleted
+     */
+    private long deleteUploaded(SQLiteDatabase db, String table) {
+        long mark = UploadMarks.getMark(db, table);
+        long from = DatabaseUtils.longForQuery(db, "SELECT IFNULL(MIN(_id), 0) FROM " + table, null);
+        long deleted = 0;
+
+        while (from > 0 && from <= mark && canRun()) {
+            long to = Math.min(from + DELETE_CHUNK_SIZE - 1, mark);
+            deleted += db.delete(table, "_id <= ?", new String[]{String.valueOf(to)});
+            from = to + 1;
+        }
+        if (deleted > 0)
+            Log.d(TAG, "Deleted " + deleted + " uploaded rows from " + table);
+        return deleted;
+    }
+
+    /**
+     * Returns at most MAX_VACUUM_PAGES free pages to the file system, the rest is released by the
+     * next runs. A database created before incremental vacuum was enabled is converted first.
+     * @return the number of bytes released
+     */
+    private long compact(SQLiteDatabase db) {
+        if (DatabaseUtils.longForQuery(db, "PRAGMA auto_vacuum", null) != AUTO_VACUUM_INCREMENTAL)
+            return convertToIncrementalVacuum(db);
+
+        long freePages = DatabaseUtils.longForQuery(db, "PRAGMA freelist_count", null);
+        long remainingPages = freePages;
+        for (int pages = 0; remainingPages > 0 && pages < MAX_VACUUM_PAGES && canRun(); pages += VACUUM_CHUNK_PAGES) {
+            pragma(db, "PRAGMA incremental_vacuum(" + VACUUM_CHUNK_PAGES + ")");
+            remainingPages = DatabaseUtils.longForQuery(db, "PRAGMA freelist_count", null);
+        }
+        return (freePages - remainingPages) * db.getPageSize();
+    }
+
+    /**
+     * Enables incremental vacuum with a full VACUUM, which also releases every free page. The
+     * VACUUM writes a copy of the used pages, so it is only run when they are at most
+     * MAX_CONVERSION_SIZE and the disk has room for the copy and its journal.
+     * @return the number of bytes released, 0 if the database was not converted
+     */
+    private long convertToIncrementalVacuum(SQLiteDatabase db) {
+        long pageSize = db.getPageSize();
+        long freePages = DatabaseUtils.longForQuery(db, "PRAGMA freelist_count", null);
+        long usedSize = (DatabaseUtils.longForQuery(db, "PRAGMA page_count", null) - freePages) * pageSize;
+        if (usedSize > MAX_CONVERSION_SIZE) {
+            Log.d(TAG, "Database of " + usedSize + " bytes too large to convert to incremental vacuum");
+            return 0;
+        }
+        if (new File(db.getPath()).getParentFile().getUsableSpace() < 2 * usedSize) {
+            Log.d(TAG, "Not enough space to convert the database to incremental vacuum");
+            return 0;
+        }
+
+        try {
+            db.execSQL("PRAGMA auto_vacuum = " + AUTO_VACUUM_INCREMENTAL);
+            // The mode of an existing database only changes with a VACUUM, it can not run in a transaction
+            db.execSQL("VACUUM");
+        } catch (Exception ex) {
+            // Busy with an upload for instance, the next run tries again
+            Log.e(TAG, "Error converting the database to incremental vacuum");
+            ex.printStackTrace();
+            return 0;
+        }
+        Log.d(TAG, "Database converted to incremental vacuum");
+        return freePages * pageSize;
+    }
+
+    /**
+     * Copies the write-ahead log into the database and shrinks it
+     */
+    private void checkpoint(SQLiteDatabase db) {
+        // TRUNCATE is available from SQLite 3.8.8 (Marshmallow)
+        pragma(db, Build.VERSION.SDK_INT >= Build.VERSION_CODES.M ?
+                "PRAGMA wal_checkpoint(TRUNCATE)" : "PRAGMA wal_checkpoint(RESTART)");
+    }
+
+    /**
+     * Runs a pragma through rawQuery since execSQL rejects pragmas that return a row
+     */
+    private static void pragma(SQLiteDatabase db, String sql) {
+        Cursor cursor = db.rawQuery(sql, null);
+        try {
+            while (cursor.moveToNext()) {
+                // Step through every row, incremental_vacuum frees one page per step
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Size of the database file and of its write-ahead log in bytes
+     */
+    private static long getDatabaseSize(SQLiteDatabase db) {
+        String path = db.getPath();
+        return new File(path).length() + new File(path + "-wal").length();
+    }
+}
@@ -0,0 +1,154 @@
+package ai.plex.poc.android.services;
+
+import ai.plex.poc.android.sensorListeners.SensorSink;
+import ai.plex.poc.android.sensorListeners.SensorType;
+
+/**
+ * Picks the sensor sampling interval from the recent motion energy. Linear acceleration and
+ * gyroscope magnitudes are smoothed with an exponential moving average and mapped to one of a
+ * few sampling levels spread geometrically between the configured bounds.
+ *
+ * Changes have hysteresis: a level is entered when the activity crosses its threshold but is
+ * only left once the activity dropped well below it for a while, so listeners are not
+ * re-registered on every bump in the road.
+ */
+public class SamplingRateController implements SensorSink {
+    /**
+     * Notified on the sensor writer thread when a new sampling interval should be used
+     */
+    public interface Listener {
+        void onSamplingIntervalChanged(int samplingInterval);
+    }
+
+    // Activity thresholds to enter levels 1, 2 and 3, level 0 is the slowest rate
+    private static final double[] LEVEL_THRESHOLDS = {0.2, 0.5, 1.0};
+    // A level is left once the activity drops below this fraction of its threshold
+    private static final double EXIT_RATIO = 0.6;
+    // Magnitudes that count as an activity of 1, a firm brake or a sharp turn
+    private static final double ACCELERATION_REFERENCE = 1.5; // m/s^2
+    private static final double ANGULAR_SPEED_REFERENCE = 0.3; // rad/s
+    // Time constant of the moving averages
+    private static final double SMOOTHING_TIME = 1000; // milliseconds
+    // Minimum time between two changes, and how long the activity must stay low to slow down
+    private static final long MIN_CHANGE_INTERVAL = 1000; // milliseconds
+    private static final long SLOW_DOWN_DELAY = 10000; // milliseconds
+
+    private final Listener listener;
+    private final int[] levelIntervals = new int[LEVEL_THRESHOLDS.length + 1];
+
+    private double accelerationEnergy = 0;
+    private double angularEnergy = 0;
+    private long lastAccelerationTime = 0;
+    private long lastAngularTime = 0;
+
+    private int level = 0;
+    private long lastChangeTime = 0;
+    private long lowActivitySince = -1;
+
+    /**
+     * @param minInterval the fastest sampling interval allowed in microseconds
+     * @param maxInterval the slowest sampling interval allowed in microseconds
+     */
+    public SamplingRateController(int minInterval, int maxInterval, Listener listener) {
+        this.listener = listener;
+        setBounds(minInterval, maxInterval);
+    }
+
+    /**
+     * Spreads the sampling levels between the bounds
+     */
+    private void setBounds(int minInterval, int maxInterval) {
+        int levels = levelIntervals.length;
+        double ratio = Math.pow((double) minInterval / maxInterval, 1.0 / (levels - 1));
+        for (int i = 0; i < levels; i++) {
+            levelIntervals[i] = (int) Math.round(maxInterval * Math.pow(ratio, i));
+        }
+        levelIntervals[levels - 1] = minInterval;
+    }
+
+    public synchronized int getSamplingInterval() {
+        return levelIntervals[level];
+    }
+
+    /**
+     * Resets to the slowest rate, used when a trip starts
+     */
+    public synchronized void reset() {
+        accelerationEnergy = 0;
+        angularEnergy = 0;
+        lastAccelerationTime = 0;
+        lastAngularTime = 0;
+        level = 0;
+        lastChangeTime = 0;
+        lowActivitySince = -1;
+    }
+
+    @Override
+    public void accept(SensorType sensorType, long timestamp, float[] values, boolean isDriving) {
+        onSample(sensorType, timestamp, values);
+    }
+
+    /**
+     * Feeds a linear acceleration or gyroscope sample, other sensor types are ignored
+     * @param timestamp sample time in milliseconds
+     */
+    public synchronized void onSample(SensorType sensorType, long timestamp, float[] values) {
+        double magnitudeSquared = values[0] * values[0] + values[1] * values[1] + values[2] * values[2];
+
+        switch (sensorType) {
+            case LINEAR_ACCELERATION:
+                accelerationEnergy = smooth(accelerationEnergy, magnitudeSquared, timestamp - lastAccelerationTime, lastAccelerationTime);
+                lastAccelerationTime = timestamp;
+                break;
+            case GYROSCOPE:
+                angularEnergy = smooth(angularEnergy, magnitudeSquared, timestamp - lastAngularTime, lastAngularTime);
+                lastAngularTime = timestamp;
+                break;
+            default:
+                return;
+        }
+
+        double activity = Math.max(Math.sqrt(accelerationEnergy) / ACCELERATION_REFERENCE,
+                Math.sqrt(angularEnergy) / ANGULAR_SPEED_REFERENCE);
+        updateLevel(activity, timestamp);
+    }
+
+    private static double smooth(double average, double value, long elapsed, long lastTime) {
+        if (lastTime == 0)
+            return value;
+        double alpha = Math.max(0, elapsed) / (SMOOTHING_TIME + Math.max(0, elapsed));
+        return average + alpha * (value - average);
+    }
+
+    private void updateLevel(double activity, long timestamp) {
+        int target = 0;
+        while (target < LEVEL_THRESHOLDS.length && activity >= LEVEL_THRESHOLDS[target]) {
+            target++;
+        }
+
+        if (timestamp - lastChangeTime < MIN_CHANGE_INTERVAL)
+            return;
+
+        if (target > level) {
+            // Speed up right away so that events are captured at full resolution
+            lowActivitySince = -1;
+            changeLevel(target, timestamp);
+        } else if (level > 0 && activity < LEVEL_THRESHOLDS[level - 1] * EXIT_RATIO) {
+            if (lowActivitySince < 0) {
+                lowActivitySince = timestamp;
+            } else if (timestamp - lowActivitySince >= SLOW_DOWN_DELAY) {
+                lowActivitySince = -1;
+                changeLevel(Math.min(level - 1, target), timestamp);
+            }
+        } else {
+            lowActivitySince = -1;
+        }
+    }
+
+    private void changeLevel(int newLevel, long timestamp) {
+        level = newLevel;
+        lastChangeTime = timestamp;
+        if (listener != null)
+            listener.onSamplingIntervalChanged(levelIntervals[level]);
+    }
+}
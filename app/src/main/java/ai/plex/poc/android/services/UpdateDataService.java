@@ -1,7 +1,6 @@
 package ai.plex.poc.android.services;
 
 import android.app.IntentService;
-import android.content.ContentValues;
 import android.content.Intent;
 import android.database.sqlite.SQLiteDatabase;
 import android.util.Log;
@@ -11,6 +10,10 @@ import org.json.JSONObject;
 
 import ai.plex.poc.android.database.SnapShotContract;
 import ai.plex.poc.android.database.SnapShotDBHelper;
+import ai.plex.poc.android.database.UploadMarks;
+import ai.plex.poc.android.sensorListeners.SensorDataBuffer;
+import ai.plex.poc.android.sensorListeners.SensorDataBuffer.StorageMode;
+import ai.plex.poc.android.sensorListeners.SensorType;
 
 /**
  * Created by terek on 02/03/16.
@@ -60,62 +63,44 @@ public class UpdateDataService extends IntentService {
 
     /***
      * Updates records in the database to indicate that they have been submitted
-     * to the API
+     * to the API. Samples are acknowledged through the store of their storage mode, the other
+     * tables move their upload mark over the range of the uploaded ids.
      * @param dataIds
      */
     private void updateDataAsSubmitted(JSONObject dataIds){
         try {
-            String dataType = dataIds.get("dataType").toString();
-            switch (dataType) {
-                case SnapShotContract.LinearAccelerationEntry.TABLE_NAME:
-                    markDataAsSubmitted(dataIds.getJSONArray("data"), SnapShotContract.LinearAccelerationEntry.TABLE_NAME, SnapShotContract.LinearAccelerationEntry.COLUMN_IS_RECORD_UPLOADED, SnapShotContract.LinearAccelerationEntry._ID);
-                    break;
-                case SnapShotContract.DetectedActivityEntry.TABLE_NAME:
-                    markDataAsSubmitted(dataIds.getJSONArray("data"), SnapShotContract.DetectedActivityEntry.TABLE_NAME, SnapShotContract.DetectedActivityEntry.COLUMN_IS_RECORD_UPLOADED, SnapShotContract.DetectedActivityEntry._ID);
-                    break;
-                case SnapShotContract.GyroscopeEntry.TABLE_NAME:
-                    markDataAsSubmitted(dataIds.getJSONArray("data"), SnapShotContract.GyroscopeEntry.TABLE_NAME, SnapShotContract.GyroscopeEntry.COLUMN_IS_RECORD_UPLOADED, SnapShotContract.GyroscopeEntry._ID);
-                    break;
-                case SnapShotContract.LocationEntry.TABLE_NAME:
-                    markDataAsSubmitted(dataIds.getJSONArray("data"), SnapShotContract.LocationEntry.TABLE_NAME, SnapShotContract.LocationEntry.COLUMN_IS_RECORD_UPLOADED, SnapShotContract.LocationEntry._ID);
-                    break;
-                case SnapShotContract.MagneticEntry.TABLE_NAME:
-                    markDataAsSubmitted(dataIds.getJSONArray("data"), SnapShotContract.MagneticEntry.TABLE_NAME, SnapShotContract.MagneticEntry.COLUMN_IS_RECORD_UPLOADED, SnapShotContract.MagneticEntry._ID);
-                    break;
-                case SnapShotContract.RotationEntry.TABLE_NAME:
-                    markDataAsSubmitted(dataIds.getJSONArray("data"), SnapShotContract.RotationEntry.TABLE_NAME, SnapShotContract.RotationEntry.COLUMN_IS_RECORD_UPLOADED, SnapShotContract.RotationEntry._ID);
-                    break;
+            JSONArray ids = dataIds.getJSONArray("data");
+            if (ids.length() == 0)
+                return;
+            SQLiteDatabase db = SnapShotDBHelper.getsInstance(this).getWritableDatabase();
+            long firstId = ids.getLong(0);
+            long lastId = ids.getLong(ids.length() - 1);
+
+            boolean moved;
+            String uploaded;
+            if (dataIds.has("store")) {
+                StorageMode storageMode = StorageMode.valueOf(dataIds.getString("store"));
+                SensorType sensorType = SensorType.valueOf(dataIds.getString("sensorType"));
+                moved = SensorDataBuffer.getsInstance(this).getStore(db, storageMode).acknowledge(sensorType, firstId, lastId);
+                uploaded = storageMode + " " + sensorType + " samples";
+            } else {
+                String dataType = dataIds.get("dataType").toString();
+                switch (dataType) {
+                    case SnapShotContract.LocationEntry.TABLE_NAME:
+                    case SnapShotContract.DetectedActivityEntry.TABLE_NAME:
+                    case SnapShotContract.DrivingEventEntry.TABLE_NAME:
+                        moved = UploadMarks.acknowledge(db, dataType, firstId, lastId);
+                        uploaded = dataType;
+                        break;
+                    default:
+                        Log.d(TAG, "updateDataAsSubmitted: Unknown data type " + dataType);
+                        return;
+                }
             }
+            Log.d(TAG, "updateDataAsSubmitted: Records " + firstId + " to " + lastId + " uploaded in the " + uploaded + (moved ? "" : ", mark unchanged"));
         } catch (Exception ex) {
             Log.d(TAG, "updateDataAsSubmitted: " + ex.getMessage());
             ex.printStackTrace();
         }
     }
-
-    /**
-     * Method updates the record in the database to identify that a record has been uploaded successfully
-     * @param ids
-     */
-    private void markDataAsSubmitted(JSONArray ids, String tableName, String columnName, String idColumn ){
-        try {
-            SQLiteDatabase db = SnapShotDBHelper.getsInstance(this).getWritableDatabase();
-            String queryPart = " IN (";
-            for (int i = 0; i < ids.length(); i++) {
-                queryPart += "'" + String.valueOf(ids.get(i)) + "',";
-            }
-
-            //remove the last comma and add a closing bracket
-            queryPart = queryPart.substring(0, queryPart.lastIndexOf(',')) + ")";
-
-            ContentValues values = new ContentValues();
-            values.put(columnName, "true");
-            String selection = idColumn + queryPart;
-            //String[] selectionArgs = {queryPart};
-            int result = db.update(tableName, values, selection, null);
-            Log.d(TAG, "markDataAsSubmitted: Updated record with _id for " + result + " in the " + tableName);
-        } catch (Exception ex){
-            Log.d(TAG, "markDataAsSubmitted: " + ex.getMessage());
-            ex.printStackTrace();
-        }
-    }
 }
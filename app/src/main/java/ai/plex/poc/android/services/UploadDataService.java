@@ -15,24 +15,29 @@ import android.os.IBinder;
 import android.os.Looper;
 import android.os.Message;
 import android.support.annotation.Nullable;
+import android.util.Base64;
+import android.util.JsonWriter;
 import android.util.Log;
 
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import java.io.BufferedOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
 import java.net.HttpURLConnection;
-import java.net.URL;
-import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 
 import ai.plex.poc.android.Constants;
+import ai.plex.poc.android.database.SegmentStore;
 import ai.plex.poc.android.database.SnapShotContract;
 import ai.plex.poc.android.database.SnapShotDBHelper;
+import ai.plex.poc.android.database.SqliteTelemetryStore;
+import ai.plex.poc.android.database.TelemetryStore;
+import ai.plex.poc.android.database.UploadMarks;
+import ai.plex.poc.android.sensorListeners.SensorDataBuffer;
+import ai.plex.poc.android.sensorListeners.SensorDataBuffer.StorageMode;
+import ai.plex.poc.android.sensorListeners.SensorType;
 
 /**
  * Created by terek on 02/03/16.
@@ -90,14 +95,13 @@ public class UploadDataService extends Service {
     /*Query cursors, the reason they are created on the service level
     it is avoid having to recreate the cursors for every batch
     Batches are used to parallize the submission of the data*/
-    private Cursor linearAccelerationCursor;
-    private Cursor gyroscopeCursor;
-    private Cursor rotationCursor;
-    private Cursor magneticCursor;
-    private Cursor locationCursor;
-    private Cursor detectedActivityCursor;
+    //Cursors over the pending rows of the location, activity and driving event tables, kept between batches
+    private final HashMap<String, Cursor> tableCursors = new HashMap<>();
     private SQLiteDatabase db;
 
+    //Id of the last sample read per store and sensor type, same as the cursors for the samples
+    private final HashMap<String, Long> sampleIds = new HashMap<>();
+
     //Tag for logging purposes
     private static final String TAG = UploadDataService.class.getSimpleName();
 
@@ -166,117 +170,70 @@ public class UploadDataService extends Service {
      * @param
      */
     private void uploadData(String userId) {
-        //Compute the number of records to be uploaded for each type of reading
+        //Compute the number of records to be uploaded for each table and store of samples
         HashMap<String, Long> counts = getNumOfRecordsToUpload();
 
-        //Identify the ideal batch size using the minimum square root of the total records for
-        //all types of records
-        ArrayList<Long> sizes = new ArrayList<>();
-
-        //Total
-        long totalRecords = counts.get(SnapShotContract.LinearAccelerationEntry.TABLE_NAME) +
-                            counts.get(SnapShotContract.GyroscopeEntry.TABLE_NAME) +
-                            counts.get(SnapShotContract.RotationEntry.TABLE_NAME) +
-                            counts.get(SnapShotContract.MagneticEntry.TABLE_NAME) +
-                            counts.get(SnapShotContract.DetectedActivityEntry.TABLE_NAME) +
-                            counts.get(SnapShotContract.LocationEntry.TABLE_NAME);
-
-        sizes.add(Math.round(Math.sqrt(counts.get(SnapShotContract.LinearAccelerationEntry.TABLE_NAME))));
-        sizes.add(Math.round(Math.sqrt(counts.get(SnapShotContract.GyroscopeEntry.TABLE_NAME))));
-        sizes.add(Math.round(Math.sqrt(counts.get(SnapShotContract.RotationEntry.TABLE_NAME))));
-        sizes.add(Math.round(Math.sqrt(counts.get(SnapShotContract.MagneticEntry.TABLE_NAME))));
-        sizes.add(Math.round(Math.sqrt(counts.get(SnapShotContract.DetectedActivityEntry.TABLE_NAME))));
-        sizes.add(Math.round(Math.sqrt(counts.get(SnapShotContract.LocationEntry.TABLE_NAME))));
+        //Total, the driving events are sent first
+        long totalRecords = 0;
+        for (String key : counts.keySet()) {
+            if (!key.equals(SnapShotContract.DrivingEventEntry.TABLE_NAME))
+                totalRecords += counts.get(key);
+        }
 
         //batch size
         Long batchSize = Constants.MAX_ENTRIES_PER_API_SUBMISSION * 10l;
 
         //Records processed
         Long totalProcessedRecords = 0l;
-        Long processedLinearAccelerationRecords = 0l;
-        Long processedGyroscopeRecords = 0l;
-        Long processedMagnometerRecords= 0l;
-        Long processedRotationRecords = 0l;
-        Long processedLocationRecords = 0l;
-        Long processedActivityRecords = 0l;
-
+        HashMap<String, Long> processedRecords = new HashMap<>();
+        for (String key : counts.keySet()) {
+            processedRecords.put(key, 0l);
+        }
 
         //Use a try block with a finally clause to process the data and close the cursors afterwards
         try {
+            //Driving events are small and needed first, they are all sent before the raw data
+            Long processedDrivingEventRecords = 0l;
+            while (processedDrivingEventRecords < counts.get(SnapShotContract.DrivingEventEntry.TABLE_NAME) && !terminateRequested) {
+                submitTable(userId, SnapShotContract.DrivingEventEntry.TABLE_NAME, batchSize);
+                processedDrivingEventRecords += batchSize;
+            }
 
             //This approach ensures that records are uploaded in a parallel fashion rather than serial fashion
             while (totalProcessedRecords < totalRecords && !terminateRequested) {
 
-                if (processedLinearAccelerationRecords < counts.get(SnapShotContract.LinearAccelerationEntry.TABLE_NAME)) {
-                    submitLinearAcceleration(userId, batchSize);
-                    processedLinearAccelerationRecords += batchSize;
-                    totalProcessedRecords += batchSize;
-                }
-
-                if (processedGyroscopeRecords < counts.get(SnapShotContract.GyroscopeEntry.TABLE_NAME)) {
-                    submitGyroscope(userId, batchSize);
-                    processedGyroscopeRecords += batchSize;
-                    totalProcessedRecords += batchSize;
-                }
-
-                if (processedMagnometerRecords < counts.get(SnapShotContract.MagneticEntry.TABLE_NAME)) {
-                    submitMagnetic(userId, batchSize);
-                    processedMagnometerRecords += batchSize;
-                    totalProcessedRecords += batchSize;
-                }
-
-                if (processedLocationRecords < counts.get(SnapShotContract.LocationEntry.TABLE_NAME)) {
-                    submitLocation(userId, batchSize);
-                    processedLocationRecords += batchSize;
-                    totalProcessedRecords += batchSize;
-                }
-
-                if (processedActivityRecords < counts.get(SnapShotContract.DetectedActivityEntry.TABLE_NAME)) {
-                    submitDetectedActivity(userId, batchSize);
-                    processedActivityRecords += batchSize;
-                    totalProcessedRecords += batchSize;
+                for (String tableName : new String[]{SnapShotContract.LocationEntry.TABLE_NAME, SnapShotContract.DetectedActivityEntry.TABLE_NAME}) {
+                    if (processedRecords.get(tableName) < counts.get(tableName)) {
+                        submitTable(userId, tableName, batchSize);
+                        processedRecords.put(tableName, processedRecords.get(tableName) + batchSize);
+                        totalProcessedRecords += batchSize;
+                    }
                 }
 
-                if (processedRotationRecords < counts.get(SnapShotContract.RotationEntry.TABLE_NAME)) {
-                    submitRotation(userId, batchSize);
-                    processedRotationRecords += batchSize;
-                    totalProcessedRecords += batchSize;
+                //Samples of every storage mode, those of a mode used before may still be pending
+                for (StorageMode storageMode : StorageMode.values()) {
+                    for (SensorType sensorType : SegmentStore.SENSOR_TYPES) {
+                        String key = getSampleKey(storageMode, sensorType);
+                        if (processedRecords.get(key) < counts.get(key)) {
+                            submitSamples(userId, storageMode, sensorType, batchSize);
+                            processedRecords.put(key, processedRecords.get(key) + batchSize);
+                            totalProcessedRecords += batchSize;
+                        }
+                    }
                 }
-
-
             }
         } catch (Exception ex){
             Log.d(TAG, "uploadData: " + ex.getMessage());
             ex.printStackTrace();
         } finally {
             //Clear all resources
-            if (linearAccelerationCursor != null) {
-                linearAccelerationCursor.close();
-                linearAccelerationCursor = null;
-            }
-            if (gyroscopeCursor != null) {
-                gyroscopeCursor.close();
-                gyroscopeCursor = null;
-            }
-            if (magneticCursor != null) {
-                magneticCursor.close();
-                magneticCursor = null;
+            for (Cursor cursor : tableCursors.values()) {
+                cursor.close();
             }
-            if (locationCursor != null) {
-                locationCursor.close();
-                locationCursor = null;
-            }
-            if (rotationCursor != null) {
-                rotationCursor.close();
-                rotationCursor = null;
-            }
-            if (detectedActivityCursor != null) {
-                detectedActivityCursor.close();
-                detectedActivityCursor = null;
-            }
-            if (db != null)
-                db.close();
-                db = null;
+            tableCursors.clear();
+            sampleIds.clear();
+            // The connection belongs to the shared SnapShotDBHelper, other components keep using it
+            db = null;
         }
     }
 
@@ -293,23 +250,22 @@ public class UploadDataService extends Service {
             //Dictionary to host the result of the count
             HashMap<String, Long> results = new HashMap<>();
 
-            String selection = SnapShotContract.LinearAccelerationEntry.COLUMN_IS_RECORD_UPLOADED + " = 'false'";
-            results.put(SnapShotContract.LinearAccelerationEntry.TABLE_NAME, DatabaseUtils.queryNumEntries(db, SnapShotContract.LinearAccelerationEntry.TABLE_NAME, selection));
-
-            selection = SnapShotContract.RotationEntry.COLUMN_IS_RECORD_UPLOADED + " = 'false'";
-            results.put(SnapShotContract.RotationEntry.TABLE_NAME, DatabaseUtils.queryNumEntries(db, SnapShotContract.LinearAccelerationEntry.TABLE_NAME, selection));
+            String selection = UploadMarks.pendingSelection(db, SnapShotContract.LocationEntry.TABLE_NAME);
+            results.put(SnapShotContract.LocationEntry.TABLE_NAME, DatabaseUtils.queryNumEntries(db, SnapShotContract.LocationEntry.TABLE_NAME, selection));
 
-            selection = SnapShotContract.GyroscopeEntry.COLUMN_IS_RECORD_UPLOADED + " = 'false'";
-            results.put(SnapShotContract.GyroscopeEntry.TABLE_NAME, DatabaseUtils.queryNumEntries(db, SnapShotContract.LinearAccelerationEntry.TABLE_NAME, selection));
+            selection = UploadMarks.pendingSelection(db, SnapShotContract.DetectedActivityEntry.TABLE_NAME);
+            results.put(SnapShotContract.DetectedActivityEntry.TABLE_NAME, DatabaseUtils.queryNumEntries(db, SnapShotContract.DetectedActivityEntry.TABLE_NAME, selection));
 
-            selection = SnapShotContract.MagneticEntry.COLUMN_IS_RECORD_UPLOADED + " = 'false'";
-            results.put(SnapShotContract.MagneticEntry.TABLE_NAME, DatabaseUtils.queryNumEntries(db, SnapShotContract.LinearAccelerationEntry.TABLE_NAME, selection));
+            selection = UploadMarks.pendingSelection(db, SnapShotContract.DrivingEventEntry.TABLE_NAME);
+            results.put(SnapShotContract.DrivingEventEntry.TABLE_NAME, DatabaseUtils.queryNumEntries(db, SnapShotContract.DrivingEventEntry.TABLE_NAME, selection));
 
-            selection = SnapShotContract.LocationEntry.COLUMN_IS_RECORD_UPLOADED + " = 'false'";
-            results.put(SnapShotContract.LocationEntry.TABLE_NAME, DatabaseUtils.queryNumEntries(db, SnapShotContract.LinearAccelerationEntry.TABLE_NAME, selection));
-
-            selection = SnapShotContract.DetectedActivityEntry.COLUMN_IS_RECORD_UPLOADED + " = 'false'";
-            results.put(SnapShotContract.DetectedActivityEntry.TABLE_NAME, DatabaseUtils.queryNumEntries(db, SnapShotContract.LinearAccelerationEntry.TABLE_NAME, selection));
+            //Samples are counted by the store of every storage mode
+            for (StorageMode storageMode : StorageMode.values()) {
+                TelemetryStore store = SensorDataBuffer.getsInstance(this).getStore(db, storageMode);
+                for (SensorType sensorType : SegmentStore.SENSOR_TYPES) {
+                    results.put(getSampleKey(storageMode, sensorType), store.countPending(sensorType));
+                }
+            }
 
             return results;
         } catch (Exception ex){
@@ -320,652 +276,328 @@ public class UploadDataService extends Service {
     }
 
     /**
-     * A method submits a specified number of acceleration data points and supports soft service termination requests
-     * by checking the terminationRequested variable
+     * The key of the samples of a sensor type in a store, in the counts and the read ids
+     */
+    private static String getSampleKey(StorageMode storageMode, SensorType sensorType) {
+        return storageMode.name() + "/" + sensorType.name();
+    }
+
+    /**
+     * Submits the pending rows of the location, activity or driving event table and supports soft service termination requests
+     * by checking the terminationRequested variable. The cursor of the table is kept between
+     * batches to avoid asking for the data again.
      * @param username
+     * @param tableName
      * @param countRequested
      */
-    private void submitLinearAcceleration(String username, Long countRequested) {
+    private void submitTable(String username, String tableName, Long countRequested) {
         //Avoid having to get the database if there is an existing instance
         if (db == null)
             db = SnapShotDBHelper.getsInstance(this).getWritableDatabase();
 
-        //This array contains the read data
-        JSONArray data = new JSONArray();
+        //The upload the read data is written to, opened when the first record of a chunk is read
+        JsonUpload upload = null;
 
-        //This array will hold the ids of the read data, this will be used later to update database record to indicate successful upload
-        JSONObject dataIdsObject = new JSONObject();
-        //This array will hold all the ids and will be included in the dataIdsObject
-        JSONArray dataIds = new JSONArray();
+        //Range of the ids in the upload, used later to move the upload mark once it succeeded
+        long firstId = 0;
+        long lastId = 0;
 
         Integer recordsRead = 0;
 
+        //Verify that the user is connected to WIFI before any record is read
+        if (!isWifiConnected())
+            return;
+
         try {
-            //The reason for this is to avoid having to ask for the data again in between batch requests
-            if (linearAccelerationCursor == null)
-                linearAccelerationCursor = db.rawQuery("Select * from " + SnapShotContract.LinearAccelerationEntry.TABLE_NAME + " where " + SnapShotContract.LinearAccelerationEntry.COLUMN_IS_RECORD_UPLOADED + " = 'false'", null);
+            Cursor cursor = tableCursors.get(tableName);
+            if (cursor == null) {
+                cursor = db.rawQuery("Select * from " + tableName + " where " + UploadMarks.pendingSelection(db, tableName) + " order by _id", null);
+                tableCursors.put(tableName, cursor);
+            }
+
+            //Columns sent for every row, in the order they are sent
+            String[] columns = getUploadColumns(tableName);
+            int[] columnIndexes = new int[columns.length];
+            for (int i = 0; i < columns.length; i++) {
+                columnIndexes[i] = cursor.getColumnIndex(columns[i]);
+            }
+            int idIndex = cursor.getColumnIndex("_id");
+            int isDrivingIndex = cursor.getColumnIndex(SnapShotContract.LinearAccelerationEntry.COLUMN_IS_DRIVING);
+            int tripIdIndex = cursor.getColumnIndex(SnapShotContract.LinearAccelerationEntry.COLUMN_TRIP_ID);
 
             //Counter is used to chunk the read records for submission to the API and does not interfere with the counts
             //requested
             int counter = 0;
 
             //Continue working unless terminated or reached the requested number of records to submit
-            while (linearAccelerationCursor.moveToNext() && !terminateRequested && recordsRead < countRequested) {
-                Integer id = linearAccelerationCursor.getInt(linearAccelerationCursor.getColumnIndex(SnapShotContract.LinearAccelerationEntry._ID));
-                float x = linearAccelerationCursor.getFloat(linearAccelerationCursor.getColumnIndex(SnapShotContract.LinearAccelerationEntry.COLUMN_X));
-                float y = linearAccelerationCursor.getFloat(linearAccelerationCursor.getColumnIndex(SnapShotContract.LinearAccelerationEntry.COLUMN_Y));
-                float z = linearAccelerationCursor.getFloat(linearAccelerationCursor.getColumnIndex(SnapShotContract.LinearAccelerationEntry.COLUMN_Z));
-                long timestamp = linearAccelerationCursor.getLong(linearAccelerationCursor.getColumnIndex(SnapShotContract.LinearAccelerationEntry.COLUMN_TIMESTAMP));
-                String isDriving = linearAccelerationCursor.getString(linearAccelerationCursor.getColumnIndex(SnapShotContract.LinearAccelerationEntry.COLUMN_IS_DRIVING));
-
-                //Add the id to the array of read ids
-                dataIds.put(id);
-
+            while (recordsRead < countRequested && !terminateRequested && cursor.moveToNext()) {
                 //Increase number of records read
                 recordsRead++;
 
-                JSONObject responseObject = new JSONObject();
-                responseObject.put("deviceType", "Android");
-                responseObject.put("deviceOsVersion", Build.VERSION.RELEASE);
-                responseObject.put("dataType",SnapShotContract.LinearAccelerationEntry.TABLE_NAME);
-                responseObject.put(SnapShotContract.LinearAccelerationEntry.COLUMN_TIMESTAMP, timestamp);
-                responseObject.put(SnapShotContract.LinearAccelerationEntry.COLUMN_X, x);
-                responseObject.put(SnapShotContract.LinearAccelerationEntry.COLUMN_Y, y);
-                responseObject.put(SnapShotContract.LinearAccelerationEntry.COLUMN_Z, z);
-                responseObject.put(SnapShotContract.LinearAccelerationEntry.COLUMN_IS_DRIVING, isDriving);
-                responseObject.put("userId", username);
-                data.put(responseObject);
+                lastId = cursor.getLong(idIndex);
+                if (upload == null) {
+                    upload = new JsonUpload(getApiRoute(tableName));
+                    firstId = lastId;
+                }
+                writeRow(upload.getWriter(), username, tableName, columns, columnIndexes, cursor,
+                        cursor.getInt(isDrivingIndex) == 1, cursor.getLong(tripIdIndex));
 
                 counter++;
 
                 if (counter >= Constants.MAX_ENTRIES_PER_API_SUBMISSION){
-                    //Bundle the array in the JSONObject
-                    dataIdsObject.put("dataType", SnapShotContract.LinearAccelerationEntry.TABLE_NAME);
-                    dataIdsObject.put("data", dataIds);
                     //Call the post data service
-                    submitDataToApi(data, dataIdsObject);
-                    //reset data and processed ids
-                    data = new JSONArray();
-                    dataIdsObject = new JSONObject();
-                    dataIds = new JSONArray();
+                    finishUpload(upload, getTableIds(tableName, firstId, lastId));
+                    upload = null;
                     counter = 0;
                 }
             }
 
             //Catch remaining items < MAX_ENTRIES_PER_API_SUBMISSION
-            if (data.length() > 0 ) {
-                //Bundle the array in the JSONObject
-                dataIdsObject.put("dataType", SnapShotContract.LinearAccelerationEntry.TABLE_NAME);
-                dataIdsObject.put("data", dataIds);
+            if (upload != null) {
                 //Call the post data service
-                submitDataToApi(data, dataIdsObject);
+                finishUpload(upload, getTableIds(tableName, firstId, lastId));
+                upload = null;
             }
         } catch (Exception ex) {
-            Log.e(TAG, "Error submitting linear acceleration data to API.");
+            Log.e(TAG, "Error submitting " + tableName + " data to API.");
             ex.printStackTrace();
         } finally {
-            //cursor.close();
-            //db.close();
+            if (upload != null)
+                upload.abort();
+            //Database and cursor resources are freed in the finally block of the uploadData method
         }
-        Log.d(TAG, "submitData: " + recordsRead + " were read!");
+        Log.d(TAG, "submitData: " + recordsRead + " " + tableName + " records were read!");
     }
 
     /**
-     * Method submits gyroscope data and supports soft service termination requests
-     * by checking the terminationRequested variable
-     * @param username
-     * @param countRequested
+     * The columns of the location, activity and driving event tables sent for every row besides
+     * the driving flag and the trip
      */
-    private void submitGyroscope(String username, Long countRequested) {
-        //Avoid having to get the database if there is an existing instance
-        if (db == null)
-            db = SnapShotDBHelper.getsInstance(this).getWritableDatabase();
-
-        //This array contains the read data
-        JSONArray data = new JSONArray();
-
-        //This array will hold the ids of the read data, this will be used later to update database record to indicate successful upload
-        JSONObject dataIdsObject = new JSONObject();
-        //This array will hold all the ids and will be included in the dataIdsObject
-        JSONArray dataIds = new JSONArray();
-
-        Integer recordsRead = 0;
-
-        try {
-            //The reason for this is to avoid having to ask for the data again in between batch requests
-            if (gyroscopeCursor == null)
-                gyroscopeCursor = db.rawQuery("Select * from " + SnapShotContract.GyroscopeEntry.TABLE_NAME + " where " + SnapShotContract.GyroscopeEntry.COLUMN_IS_RECORD_UPLOADED + " = 'false'", null);
-
-            int counter = 0;
-
-            while (gyroscopeCursor.moveToNext() && !terminateRequested && recordsRead < countRequested) {
-
-                Integer id = gyroscopeCursor.getInt(gyroscopeCursor.getColumnIndex(SnapShotContract.GyroscopeEntry._ID));
-                float x = gyroscopeCursor.getFloat(gyroscopeCursor.getColumnIndex(SnapShotContract.GyroscopeEntry.COLUMN_ANGULAR_SPEED_X));
-                float y = gyroscopeCursor.getFloat(gyroscopeCursor.getColumnIndex(SnapShotContract.GyroscopeEntry.COLUMN_ANGULAR_SPEED_Y));
-                float z = gyroscopeCursor.getFloat(gyroscopeCursor.getColumnIndex(SnapShotContract.GyroscopeEntry.COLUMN_ANGULAR_SPEED_Z));
-                long timestamp = gyroscopeCursor.getLong(gyroscopeCursor.getColumnIndex(SnapShotContract.GyroscopeEntry.COLUMN_TIMESTAMP));
-                String isDriving = gyroscopeCursor.getString(gyroscopeCursor.getColumnIndex(SnapShotContract.GyroscopeEntry.COLUMN_IS_DRIVING));
-
-                //Add the id to the array of read ids
-                dataIds.put(id);
-
-                //Increase number of records read
-                recordsRead++;
-
-                JSONObject responseObject = new JSONObject();
-                responseObject.put("deviceType", "Android");
-                responseObject.put("deviceOsVersion", Build.VERSION.RELEASE);
-                responseObject.put("dataType",SnapShotContract.GyroscopeEntry.TABLE_NAME);
-                responseObject.put(SnapShotContract.GyroscopeEntry.COLUMN_TIMESTAMP, timestamp);
-                responseObject.put(SnapShotContract.GyroscopeEntry.COLUMN_ANGULAR_SPEED_X, x);
-                responseObject.put(SnapShotContract.GyroscopeEntry.COLUMN_ANGULAR_SPEED_X, y);
-                responseObject.put(SnapShotContract.GyroscopeEntry.COLUMN_ANGULAR_SPEED_X, z);
-                responseObject.put(SnapShotContract.GyroscopeEntry.COLUMN_IS_DRIVING, isDriving);
-                responseObject.put("userId", username);
-                data.put(responseObject);
-
-                counter++;
-
-                if (counter >= Constants.MAX_ENTRIES_PER_API_SUBMISSION){
-                    //Bundle the array in the JSONObject
-                    dataIdsObject.put("dataType", SnapShotContract.GyroscopeEntry.TABLE_NAME);
-                    dataIdsObject.put("data", dataIds);
-                    //Call the post data service
-                    submitDataToApi(data, dataIdsObject);
-                    //reset data and processedids
-                    data = new JSONArray();
-                    dataIdsObject = new JSONObject();
-                    dataIds = new JSONArray();
-                    counter = 0;
-                }
-            }
-
-            //Catch remaining items < MAX_ENTRIES_PER_API_SUBMISSION
-            if (data.length() > 0 ) {
-                //Bundle the array in the JSONObject
-                dataIdsObject.put("dataType", SnapShotContract.GyroscopeEntry.TABLE_NAME);
-                dataIdsObject.put("data", dataIds);
-                //Call the post data service
-                submitDataToApi(data, dataIdsObject);
-            }
-        } catch (Exception ex) {
-            Log.e(TAG, "Error submitting linear gyroscope data to API.");
-            ex.printStackTrace();
-        } finally {
-            //gyroscopeCursor.close();
-            //db.close();
+    private static String[] getUploadColumns(String tableName) {
+        switch (tableName) {
+            case SnapShotContract.LocationEntry.TABLE_NAME:
+                return new String[]{
+                        SnapShotContract.LocationEntry.COLUMN_TIMESTAMP,
+                        SnapShotContract.LocationEntry.COLUMN_LATITUDE,
+                        SnapShotContract.LocationEntry.COLUMN_LONGITUDE,
+                        SnapShotContract.LocationEntry.COLUMN_SPEED};
+            case SnapShotContract.DetectedActivityEntry.TABLE_NAME:
+                return new String[]{
+                        SnapShotContract.DetectedActivityEntry.COLUMN_TIMESTAMP,
+                        SnapShotContract.DetectedActivityEntry.COLUMN_NAME,
+                        SnapShotContract.DetectedActivityEntry.COLUMN_CONFIDENCDE};
+            case SnapShotContract.DrivingEventEntry.TABLE_NAME:
+                return new String[]{
+                        SnapShotContract.DrivingEventEntry.COLUMN_EVENT_TYPE,
+                        SnapShotContract.DrivingEventEntry.COLUMN_START_TIME,
+                        SnapShotContract.DrivingEventEntry.COLUMN_END_TIME,
+                        SnapShotContract.DrivingEventEntry.COLUMN_PEAK_VALUE,
+                        SnapShotContract.DrivingEventEntry.COLUMN_MEAN_VALUE,
+                        SnapShotContract.DrivingEventEntry.COLUMN_PEAK_YAW_RATE};
+            default:
+                throw new IllegalArgumentException("No upload columns for " + tableName);
         }
-        Log.d(TAG, "submitData: " + recordsRead + " were read!");
     }
 
     /**
-     * Method submits magnetic data and supports soft service termination requests
-     * by checking the terminationRequested variable
-     * @param username
-     * @param countRequested
+     * Writes the current row of the cursor, every column as the type it is stored with
      */
-    private void submitMagnetic(String username, Long countRequested) {
-        //Avoid having to get the database if there is an existing instance
-        if (db == null)
-            db = SnapShotDBHelper.getsInstance(this).getWritableDatabase();
-
-        //This array contains the read data
-        JSONArray data = new JSONArray();
-
-        //This array will hold the ids of the read data, this will be used later to update database record to indicate successful upload
-        JSONObject dataIdsObject = new JSONObject();
-        //This array will hold all the ids and will be included in the dataIdsObject
-        JSONArray dataIds = new JSONArray();
-
-        Integer recordsRead = 0;
-
-        try {
-            //The reason for this is to avoid having to ask for the data again in between batch requests
-            if (magneticCursor == null)
-                magneticCursor = db.rawQuery("Select * from " + SnapShotContract.MagneticEntry.TABLE_NAME + " where " + SnapShotContract.MagneticEntry.COLUMN_IS_RECORD_UPLOADED + " = 'false'", null);
-
-            int counter = 0;
-
-            while (magneticCursor.moveToNext() && !terminateRequested && recordsRead < countRequested) {
-
-                Integer id = magneticCursor.getInt(magneticCursor.getColumnIndex(SnapShotContract.MagneticEntry._ID));
-                float x = magneticCursor.getFloat(magneticCursor.getColumnIndex(SnapShotContract.MagneticEntry.COLUMN_X));
-                float y = magneticCursor.getFloat(magneticCursor.getColumnIndex(SnapShotContract.MagneticEntry.COLUMN_Y));
-                float z = magneticCursor.getFloat(magneticCursor.getColumnIndex(SnapShotContract.MagneticEntry.COLUMN_Z));
-                long timestamp = magneticCursor.getLong(magneticCursor.getColumnIndex(SnapShotContract.MagneticEntry.COLUMN_TIMESTAMP));
-                String isDriving = magneticCursor.getString(magneticCursor.getColumnIndex(SnapShotContract.MagneticEntry.COLUMN_IS_DRIVING));
-
-                //Add the id to the array of read ids
-                dataIds.put(id);
-
-                //Increase number of records read
-                recordsRead++;
-
-                JSONObject responseObject = new JSONObject();
-                responseObject.put("deviceType", "Android");
-                responseObject.put("deviceOsVersion", Build.VERSION.RELEASE);
-                responseObject.put("dataType",SnapShotContract.MagneticEntry.TABLE_NAME);
-                responseObject.put(SnapShotContract.MagneticEntry.COLUMN_TIMESTAMP, timestamp);
-                responseObject.put(SnapShotContract.MagneticEntry.COLUMN_X, x);
-                responseObject.put(SnapShotContract.MagneticEntry.COLUMN_Y, y);
-                responseObject.put(SnapShotContract.MagneticEntry.COLUMN_Z, z);
-                responseObject.put(SnapShotContract.MagneticEntry.COLUMN_IS_DRIVING, isDriving);
-                responseObject.put("userId", username);
-                data.put(responseObject);
-
-                counter++;
-
-                if (counter >= Constants.MAX_ENTRIES_PER_API_SUBMISSION){
-                    //Bundle the array in the JSONObject
-                    dataIdsObject.put("dataType", SnapShotContract.MagneticEntry.TABLE_NAME);
-                    dataIdsObject.put("data", dataIds);
-                    //Call the post data service
-                    submitDataToApi(data, dataIdsObject);
-                    //reset data and processedids
-                    data = new JSONArray();
-                    dataIdsObject = new JSONObject();
-                    dataIds = new JSONArray();
-                    counter = 0;
-                }
-            }
-
-            //Catch remaining items < MAX_ENTRIES_PER_API_SUBMISSION
-            if (data.length() > 0 ) {
-                //Bundle the array in the JSONObject
-                dataIdsObject.put("dataType", SnapShotContract.MagneticEntry.TABLE_NAME);
-                dataIdsObject.put("data", dataIds);
-                //Call the post data service
-                submitDataToApi(data, dataIdsObject);
+    private static void writeRow(JsonWriter writer, String username, String tableName, String[] columns, int[] columnIndexes,
+                                 Cursor cursor, boolean isDriving, long tripId) throws IOException {
+        writer.beginObject();
+        writer.name("deviceType").value("Android");
+        writer.name("deviceOsVersion").value(Build.VERSION.RELEASE);
+        writer.name("dataType").value(tableName);
+        for (int i = 0; i < columns.length; i++) {
+            writer.name(columns[i]);
+            int index = columnIndexes[i];
+            switch (cursor.getType(index)) {
+                case Cursor.FIELD_TYPE_INTEGER:
+                    writer.value(cursor.getLong(index));
+                    break;
+                case Cursor.FIELD_TYPE_FLOAT:
+                    writer.value(cursor.getDouble(index));
+                    break;
+                case Cursor.FIELD_TYPE_BLOB:
+                    writer.value(Base64.encodeToString(cursor.getBlob(index), Base64.NO_WRAP));
+                    break;
+                case Cursor.FIELD_TYPE_NULL:
+                    writer.nullValue();
+                    break;
+                default:
+                    writer.value(cursor.getString(index));
             }
-        } catch (Exception ex) {
-            Log.e(TAG, "Error submitting linear magnetic data to API.");
-            ex.printStackTrace();
-        } finally {
-            //magneticCursor.close();
-            //db.close();
         }
-        Log.d(TAG, "submitData: " + recordsRead + " were read!");
+        writer.name("isDriving").value(isDriving ? "true" : "false");
+        writer.name("tripId").value(tripId);
+        writer.name("userId").value(username);
+        writer.endObject();
     }
 
     /**
-     * Method submits rotation data and supports soft service termination requests
-     * by checking the terminationRequested variable
+     * Submits the pending samples of the sensor type kept in the store of a storage mode, every
+     * sample in the same format as a row of the table of the sensor type. The id of the last
+     * sample read is kept between batches so that the next one starts after it.
      * @param username
+     * @param storageMode
+     * @param sensorType
      * @param countRequested
      */
-    private void submitRotation(String username, Long countRequested) {
+    private void submitSamples(String username, StorageMode storageMode, SensorType sensorType, Long countRequested) {
         //Avoid having to get the database if there is an existing instance
         if (db == null)
             db = SnapShotDBHelper.getsInstance(this).getWritableDatabase();
 
-        //This array contains the read data
-        JSONArray data = new JSONArray();
+        String tableName = SqliteTelemetryStore.getTableName(sensorType);
+        String[] valueColumns = SqliteTelemetryStore.getValueColumns(sensorType);
+        String key = getSampleKey(storageMode, sensorType);
 
-        //This array will hold the ids of the read data, this will be used later to update database record to indicate successful upload
-        JSONObject dataIdsObject = new JSONObject();
-        //This array will hold all the ids and will be included in the dataIdsObject
-        JSONArray dataIds = new JSONArray();
+        int recordsRead = 0;
 
-        Integer recordsRead = 0;
+        //Verify that the user is connected to WIFI before any record is read
+        if (!isWifiConnected())
+            return;
 
         try {
-            //The reason for this is to avoid having to ask for the data again in between batch requests
-            if (rotationCursor == null)
-                rotationCursor = db.rawQuery("Select * from " + SnapShotContract.RotationEntry.TABLE_NAME + " where " + SnapShotContract.RotationEntry.COLUMN_IS_RECORD_UPLOADED + " = 'false'", null);
-
-            int counter = 0;
-
-            while (rotationCursor.moveToNext() && !terminateRequested && recordsRead < countRequested) {
-
-                Integer id = rotationCursor.getInt(rotationCursor.getColumnIndex(SnapShotContract.RotationEntry._ID));
-                float x = rotationCursor.getFloat(rotationCursor.getColumnIndex(SnapShotContract.RotationEntry.COLUMN_X_SIN));
-                float y = rotationCursor.getFloat(rotationCursor.getColumnIndex(SnapShotContract.RotationEntry.COLUMN_Y_SIN));
-                float z = rotationCursor.getFloat(rotationCursor.getColumnIndex(SnapShotContract.RotationEntry.COLUMN_Z_SIN));
-                float cos = rotationCursor.getFloat(rotationCursor.getColumnIndex(SnapShotContract.RotationEntry.COLUMN_COS));
-                float accuracy = rotationCursor.getFloat(rotationCursor.getColumnIndex(SnapShotContract.RotationEntry.COLUMN_ACCURACY));
-                long timestamp = rotationCursor.getLong(rotationCursor.getColumnIndex(SnapShotContract.RotationEntry.COLUMN_TIMESTAMP));
-                String isDriving = rotationCursor.getString(rotationCursor.getColumnIndex(SnapShotContract.RotationEntry.COLUMN_IS_DRIVING));
-
-                //Add the id to the array of read ids
-                dataIds.put(id);
-
-                //Increase number of records read
-                recordsRead++;
-
-                JSONObject responseObject = new JSONObject();
-                responseObject.put("deviceType", "Android");
-                responseObject.put("deviceOsVersion", Build.VERSION.RELEASE);
-                responseObject.put("dataType",SnapShotContract.RotationEntry.TABLE_NAME);
-                responseObject.put(SnapShotContract.RotationEntry.COLUMN_TIMESTAMP, timestamp);
-                responseObject.put(SnapShotContract.RotationEntry.COLUMN_X_SIN, x);
-                responseObject.put(SnapShotContract.RotationEntry.COLUMN_Y_SIN, y);
-                responseObject.put(SnapShotContract.RotationEntry.COLUMN_Z_SIN, z);
-                responseObject.put(SnapShotContract.RotationEntry.COLUMN_COS, cos);
-                responseObject.put(SnapShotContract.RotationEntry.COLUMN_ACCURACY, accuracy);
-                responseObject.put(SnapShotContract.RotationEntry.COLUMN_IS_DRIVING, isDriving);
-                responseObject.put("userId", username);
-                data.put(responseObject);
-
-                counter++;
+            TelemetryStore store = SensorDataBuffer.getsInstance(this).getStore(db, storageMode);
+            //0 starts at the first pending sample
+            long lastId = sampleIds.containsKey(key) ? sampleIds.get(key) : 0;
+
+            while (recordsRead < countRequested && !terminateRequested) {
+                List<TelemetryStore.Record> records = store.scanPending(sensorType, lastId,
+                        (int) Math.min(Constants.MAX_ENTRIES_PER_API_SUBMISSION, countRequested - recordsRead));
+                if (records.isEmpty())
+                    break;
 
-                if (counter >= Constants.MAX_ENTRIES_PER_API_SUBMISSION){
-                    //Bundle the array in the JSONObject
-                    dataIdsObject.put("dataType", SnapShotContract.RotationEntry.TABLE_NAME);
-                    dataIdsObject.put("data", dataIds);
-                    //Call the post data service
-                    submitDataToApi(data, dataIdsObject);
-                    //reset data and processedids
-                    data = new JSONArray();
-                    dataIdsObject = new JSONObject();
-                    dataIds = new JSONArray();
-                    counter = 0;
+                JsonUpload upload = new JsonUpload(getApiRoute(tableName));
+                try {
+                    for (TelemetryStore.Record record : records) {
+                        writeSample(upload.getWriter(), username, tableName, valueColumns, record.timestamp, record.values,
+                                record.isDriving, record.tripId);
+                    }
+                } catch (IOException ex) {
+                    upload.abort();
+                    throw ex;
                 }
-            }
-
-            //Catch remaining items < MAX_ENTRIES_PER_API_SUBMISSION
-            if (data.length() > 0 ) {
-                //Bundle the array in the JSONObject
-                dataIdsObject.put("dataType", SnapShotContract.RotationEntry.TABLE_NAME);
-                dataIdsObject.put("data", dataIds);
-                //Call the post data service
-                submitDataToApi(data, dataIdsObject);
+                recordsRead += records.size();
+                lastId = records.get(records.size() - 1).id;
+                sampleIds.put(key, lastId);
+                finishUpload(upload, getSampleIds(storageMode, sensorType, tableName, records.get(0).id, lastId));
             }
         } catch (Exception ex) {
-            Log.e(TAG, "Error submitting rotation data to API.");
+            Log.e(TAG, "Error submitting " + storageMode + " " + sensorType + " samples to API.");
             ex.printStackTrace();
-        } finally {
-            //rotationCursor.close();
-            //db.close();
         }
-        Log.d(TAG, "submitData: " + recordsRead + " were read!");
+        Log.d(TAG, "submitSamples: " + recordsRead + " " + storageMode + " " + sensorType + " records were read!");
     }
 
     /**
-     * Method submits location data and supports soft service termination requests
-     * by checking the terminationRequested variable
-     * @param username
-     * @param countRequested
+     * Writes a sample in the same format as the rows of its table
      */
-    private void submitLocation(String username, Long countRequested) {
-        //Avoid having to get the database if there is an existing instance
-        if (db == null)
-            db = SnapShotDBHelper.getsInstance(this).getWritableDatabase();
-
-        //This array contains the read data
-        JSONArray data = new JSONArray();
-
-        //This array will hold the ids of the read data, this will be used later to update database record to indicate successful upload
-        JSONObject dataIdsObject = new JSONObject();
-        //This array will hold all the ids and will be included in the dataIdsObject
-        JSONArray dataIds = new JSONArray();
-
-        Integer recordsRead = 0;
-
-        try {
-            //The reason for this is to avoid having to ask for the data again in between batch requests
-
-            if (locationCursor == null)
-                locationCursor = db.rawQuery("Select * from " + SnapShotContract.LocationEntry.TABLE_NAME + " where " + SnapShotContract.LocationEntry.COLUMN_IS_RECORD_UPLOADED + " = 'false'", null);
-
-            int counter = 0;
-
-            while (locationCursor.moveToNext() && !terminateRequested && recordsRead < countRequested) {
-
-                Integer id = locationCursor.getInt(locationCursor.getColumnIndex(SnapShotContract.LocationEntry._ID));
-                float x = locationCursor.getFloat(locationCursor.getColumnIndex(SnapShotContract.LocationEntry.COLUMN_LATITUDE));
-                float y = locationCursor.getFloat(locationCursor.getColumnIndex(SnapShotContract.LocationEntry.COLUMN_LONGITUDE));
-                float z = locationCursor.getFloat(locationCursor.getColumnIndex(SnapShotContract.LocationEntry.COLUMN_SPEED));
-                long timestamp = locationCursor.getLong(locationCursor.getColumnIndex(SnapShotContract.LocationEntry.COLUMN_TIMESTAMP));
-                String isDriving = locationCursor.getString(locationCursor.getColumnIndex(SnapShotContract.LocationEntry.COLUMN_IS_DRIVING));
-
-                //Add the id to the array of read ids
-                dataIds.put(id);
-
-                //Increase number of records read
-                recordsRead++;
-
-                JSONObject responseObject = new JSONObject();
-                responseObject.put("deviceType", "Android");
-                responseObject.put("deviceOsVersion", Build.VERSION.RELEASE);
-                responseObject.put("dataType",SnapShotContract.LocationEntry.TABLE_NAME);
-                responseObject.put(SnapShotContract.LocationEntry.COLUMN_TIMESTAMP, timestamp);
-                responseObject.put(SnapShotContract.LocationEntry.COLUMN_LATITUDE, x);
-                responseObject.put(SnapShotContract.LocationEntry.COLUMN_LONGITUDE, y);
-                responseObject.put(SnapShotContract.LocationEntry.COLUMN_SPEED, z);
-                responseObject.put(SnapShotContract.LocationEntry.COLUMN_IS_DRIVING, isDriving);
-                responseObject.put("userId", username);
-                data.put(responseObject);
-
-                counter++;
-
-                if (counter >= Constants.MAX_ENTRIES_PER_API_SUBMISSION){
-                    //Bundle the array in the JSONObject
-                    dataIdsObject.put("dataType", SnapShotContract.LocationEntry.TABLE_NAME);
-                    dataIdsObject.put("data", dataIds);
-                    //Call the post data service
-                    submitDataToApi(data, dataIdsObject);
-                    //reset data and processedids
-                    data = new JSONArray();
-                    dataIdsObject = new JSONObject();
-                    dataIds = new JSONArray();
-                    counter = 0;
-                }
-            }
-
-            //Catch remaining items < MAX_ENTRIES_PER_API_SUBMISSION
-            if (data.length() > 0 ) {
-                //Bundle the array in the JSONObject
-                dataIdsObject.put("dataType", SnapShotContract.LocationEntry.TABLE_NAME);
-                dataIdsObject.put("data", dataIds);
-                //Call the post data service
-                submitDataToApi(data, dataIdsObject);
-            }ConnectivityManager mConnectionManager = (ConnectivityManager) getSystemService(Context.CONNECTIVITY_SERVICE);
-            NetworkInfo networkInfo = mConnectionManager.getActiveNetworkInfo();
-        } catch (Exception ex) {
-
-            Log.e(TAG, "Error submitting location data to API.");
-            ex.printStackTrace();
-        } finally {
+    private static void writeSample(JsonWriter writer, String username, String tableName, String[] valueColumns, long timestamp,
+                                    float[] values, boolean isDriving, long tripId) throws IOException {
+        writer.beginObject();
+        writer.name("deviceType").value("Android");
+        writer.name("deviceOsVersion").value(Build.VERSION.RELEASE);
+        writer.name("dataType").value(tableName);
+        writer.name("timestamp").value(timestamp);
+        for (int i = 0; i < valueColumns.length; i++) {
+            writer.name(valueColumns[i]).value(values[i]);
         }
-        Log.d(TAG, "submitData: " + recordsRead + " were read!");
+        writer.name("isDriving").value(isDriving ? "true" : "false");
+        writer.name("tripId").value(tripId);
+        writer.name("userId").value(username);
+        writer.endObject();
     }
 
     /**
-     * Method submits detected activity data and supports soft service termination requests
-     * by checking the terminationRequested variable
-     * @param username
-     * @param countRequested
+     * The ids of a batch of table rows, the range from the first to the last row of the batch,
+     * the rows between them are all in the batch since they are read in id order
      */
-    private void submitDetectedActivity(String username, Long countRequested) {
-        //Avoid having to get the database if there is an existing instance
-        if (db == null)
-            db = SnapShotDBHelper.getsInstance(this).getWritableDatabase();
-
-        //This array contains the read data
-        JSONArray data = new JSONArray();
-
-        //This array will hold the ids of the read data, this will be used later to update database record to indicate successful upload
-        JSONObject dataIdsObject = new JSONObject();
-        //This array will hold all the ids and will be included in the dataIdsObject
+    private static JSONObject getTableIds(String tableName, long firstId, long lastId) throws JSONException {
         JSONArray dataIds = new JSONArray();
+        dataIds.put(firstId);
+        dataIds.put(lastId);
 
-        Integer recordsRead = 0;
-
-        try {
-            //The reason for this is to avoid having to ask for the data again in between batch requests
-            if (detectedActivityCursor == null)
-                detectedActivityCursor = db.rawQuery("Select * from " + SnapShotContract.DetectedActivityEntry.TABLE_NAME + " where " + SnapShotContract.DetectedActivityEntry.COLUMN_IS_RECORD_UPLOADED + " = 'false'", null);
-
-            int counter = 0;
-
-            while (detectedActivityCursor.moveToNext() && !terminateRequested && recordsRead < countRequested) {
-
-                Integer id = detectedActivityCursor.getInt(detectedActivityCursor.getColumnIndex(SnapShotContract.DetectedActivityEntry._ID));
-                int name = detectedActivityCursor.getInt(detectedActivityCursor.getColumnIndex(SnapShotContract.DetectedActivityEntry.COLUMN_NAME));
-                int confidence = detectedActivityCursor.getInt(detectedActivityCursor.getColumnIndex(SnapShotContract.DetectedActivityEntry.COLUMN_CONFIDENCDE));
-                long timestamp = detectedActivityCursor.getLong(detectedActivityCursor.getColumnIndex(SnapShotContract.DetectedActivityEntry.COLUMN_TIMESTAMP));
-                String isDriving = detectedActivityCursor.getString(detectedActivityCursor.getColumnIndex(SnapShotContract.DetectedActivityEntry.COLUMN_IS_DRIVING));
-
-                //Add the id to the array of read ids
-                dataIds.put(id);
-
-                //Increase number of records read
-                recordsRead++;
-
-                JSONObject responseObject = new JSONObject();
-                responseObject.put("deviceType", "Android");
-                responseObject.put("deviceOsVersion", Build.VERSION.RELEASE);
-                responseObject.put("dataType",SnapShotContract.DetectedActivityEntry.TABLE_NAME);
-                responseObject.put(SnapShotContract.DetectedActivityEntry.COLUMN_TIMESTAMP, timestamp);
-                responseObject.put(SnapShotContract.DetectedActivityEntry.COLUMN_NAME, name);
-                responseObject.put(SnapShotContract.DetectedActivityEntry.COLUMN_CONFIDENCDE, confidence);
-                responseObject.put(SnapShotContract.DetectedActivityEntry.COLUMN_IS_DRIVING, isDriving);
-                responseObject.put("userId", username);
-                data.put(responseObject);
+        JSONObject dataIdsObject = new JSONObject();
+        dataIdsObject.put("dataType", tableName);
+        dataIdsObject.put("data", dataIds);
+        return dataIdsObject;
+    }
 
-                counter++;
+    /**
+     * The ids of a batch of samples, the range from the first to the last record of the batch in
+     * the store of the storage mode
+     */
+    private static JSONObject getSampleIds(StorageMode storageMode, SensorType sensorType, String tableName,
+                                           long firstId, long lastId) throws JSONException {
+        JSONArray dataIds = new JSONArray();
+        dataIds.put(firstId);
+        dataIds.put(lastId);
 
-                if (counter >= Constants.MAX_ENTRIES_PER_API_SUBMISSION){
-                    //Bundle the array in the JSONObject
-                    dataIdsObject.put("dataType", SnapShotContract.DetectedActivityEntry.TABLE_NAME);
-                    dataIdsObject.put("data", dataIds);
-                    //Call the post data service
-                    submitDataToApi(data, dataIdsObject);
-                    //reset data and processedids
-                    data = new JSONArray();
-                    dataIdsObject = new JSONObject();
-                    dataIds = new JSONArray();
-                    counter = 0;
-                }
-            }
+        JSONObject dataIdsObject = new JSONObject();
+        dataIdsObject.put("dataType", tableName);
+        dataIdsObject.put("store", storageMode.name());
+        dataIdsObject.put("sensorType", sensorType.name());
+        dataIdsObject.put("data", dataIds);
+        return dataIdsObject;
+    }
 
-            //Catch remaining items < MAX_ENTRIES_PER_API_SUBMISSION
-            if (data.length() > 0 ) {
-                //Bundle the array in the JSONObject
-                dataIdsObject.put("dataType", SnapShotContract.DetectedActivityEntry.TABLE_NAME);
-                dataIdsObject.put("data", dataIds);
-                //Call the post data service
-                submitDataToApi(data, dataIdsObject);
-            }
-        } catch (Exception ex) {
-            Log.e(TAG, "Error submitting detected activity data to API.");
-            ex.printStackTrace();
-        } finally {
-            //Databse and cursor resrouces are freed in the finally block of the uploadData method
+    /**
+     * The API endpoint of the data of a table
+     */
+    private static String getApiRoute(String dataType) {
+        switch (dataType){
+            case SnapShotContract.LinearAccelerationEntry.TABLE_NAME:
+                return "androidLinearAccelerations";
+            case SnapShotContract.GyroscopeEntry.TABLE_NAME:
+                return "androidGyroscopes";
+            case SnapShotContract.MagneticEntry.TABLE_NAME:
+                return "androidMagnetics";
+            case SnapShotContract.RotationEntry.TABLE_NAME:
+                return "androidRotations";
+            case SnapShotContract.LocationEntry.TABLE_NAME:
+                return "androidLocations";
+            case SnapShotContract.DetectedActivityEntry.TABLE_NAME:
+                return "androidActivities";
+            case SnapShotContract.FusedFrameEntry.TABLE_NAME:
+                return "androidFusedFrames";
+            case SnapShotContract.DrivingEventEntry.TABLE_NAME:
+                return "androidDrivingEvents";
+            default:
+                throw new IllegalArgumentException("No API route for " + dataType);
         }
-        Log.d(TAG, "submitData: " + recordsRead + " were read!");
     }
 
     /**
-     * Submits data to the API
-     * @param dataArray
+     * Data is only submitted over WIFI
+     */
+    private boolean isWifiConnected() {
+        ConnectivityManager mConnectionManager = (ConnectivityManager) getSystemService(Context.CONNECTIVITY_SERVICE);
+        NetworkInfo networkInfo = mConnectionManager.getActiveNetworkInfo();
+        if (networkInfo != null && networkInfo.isConnected() && networkInfo.getType() == ConnectivityManager.TYPE_WIFI)
+            return true;
+
+        Log.d(TAG, "WIFI is not connected, data can't be submitted");
+        return false;
+    }
+
+    /**
+     * Completes an upload and marks its data as submitted once the API accepted it
+     * @param upload
      * @param dataIds
      */
-    private void submitDataToApi(JSONArray dataArray, JSONObject dataIds) {
-        //Try to convert the data to a JsonArray
+    private void finishUpload(JsonUpload upload, JSONObject dataIds) {
         try {
-            //Check that the intent is carrying data
-            if ( dataArray == null || dataArray.length() <= 0) {
-                return;
-            }
-
-            ConnectivityManager mConnectionManager = (ConnectivityManager) getSystemService(Context.CONNECTIVITY_SERVICE);
-            NetworkInfo networkInfo = mConnectionManager.getActiveNetworkInfo();
-
-            String dataType = "";
-            String api_route = "";
-
-            //Figure out which API endpoint to use based on the type of data being passed in
-            dataType = dataArray.optJSONObject(0).get("dataType").toString();
-            switch (dataType){
-                case SnapShotContract.LinearAccelerationEntry.TABLE_NAME:
-                    api_route = "androidLinearAccelerations";
-                    break;
-                case SnapShotContract.GyroscopeEntry.TABLE_NAME:
-                    api_route = "androidGyroscopes";
-                    break;
-                case SnapShotContract.MagneticEntry.TABLE_NAME:
-                    api_route = "androidMagnetics";
-                    break;
-                case SnapShotContract.RotationEntry.TABLE_NAME:
-                    api_route = "androidRotations";
-                    break;
-                case SnapShotContract.LocationEntry.TABLE_NAME:
-                    api_route = "androidLocations";
-                    break;
-                case SnapShotContract.DetectedActivityEntry.TABLE_NAME:
-                    api_route = "androidActivities";
-                    break;
-            }
+            int response = upload.finish();
+            Log.d(TAG, "The response was: " + response);
 
-            //Verify that the user is connected to WIFI
-            if (networkInfo != null && networkInfo.isConnected() && networkInfo.getType() == ConnectivityManager.TYPE_WIFI) {
-                JSONObject requestData = new JSONObject();
-                //JSONArray dataPoints = dataArray.optJSONObject(0));
-                try {
-                    requestData.put("entries", dataArray);
-                } catch (JSONException e) {
-                    e.printStackTrace();
-                }
-
-                InputStream is = null;
-                // Only display the first 500 characters of the retrieved
-                // web page content.
-
-                try {
-                    //Define the URL
-                    URL url = new URL("http://"+ Constants.IP_ADDRESS +"/"+ api_route);
-
-                    String message = requestData.toString();
-
-                    //Open a connection
-                    HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-                    //Set connection details
-                    connection.setReadTimeout(10000 /* milliseconds */);
-                    connection.setConnectTimeout(15000 /* milliseconds */);
-                    connection.setRequestMethod("POST");
-                    connection.setDoInput(true);
-                    connection.setDoOutput(true);
-
-                    //Set header details
-                    connection.setRequestProperty("Content-Type","application/json;charset=utf-8");
-                    connection.setRequestProperty("X-Requested-With", "XMLHttpRequest");
-
-                    //Connect
-                    connection.connect();
-
-                    //Setup data to send
-                    OutputStream os = new BufferedOutputStream(connection.getOutputStream());
-                    os.write(message.getBytes());
-                    os.flush();
-
-                    int response = connection.getResponseCode();
-                    Log.d(TAG, "The response was: " + response);
-
-                    if (response == HttpURLConnection.HTTP_OK){
-                        //updateDataAsSubmitted(dataIds);
-                        Intent updateDatabaseIntent = new Intent(this, UpdateDataService.class);
-                        updateDatabaseIntent.putExtra("dataIdsIn", dataIds.toString());
-                        startService(updateDatabaseIntent);
-                    }
-                } catch (Exception e) {
-                    e.printStackTrace();
-                } finally {
-                    if (is != null) {
-                        try {
-                            is.close();
-                        } catch (IOException e) {
-                            e.printStackTrace();
-                        }
-                    }
-                }
-            } else {
-                // display error
-                Log.d(TAG, "WIFI is not connected, data can't be submitted");
+            if (response == HttpURLConnection.HTTP_OK){
+                Intent updateDatabaseIntent = new Intent(this, UpdateDataService.class);
+                updateDatabaseIntent.putExtra("dataIdsIn", dataIds.toString());
+                startService(updateDatabaseIntent);
             }
         } catch (Exception e) {
-            Log.e(TAG, e.getMessage());
             e.printStackTrace();
         }
     }
@@ -0,0 +1,162 @@
+package ai.plex.poc.android.database;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import ai.plex.poc.android.sensorListeners.SensorSampleBatch;
+import ai.plex.poc.android.sensorListeners.SensorType;
+
+import static org.junit.Assert.*;
+
+public class FileTelemetryStoreTest {
+    // Holds a few blocks, the logs rotate often
+    private static final int SEGMENT_SIZE = 4096;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static SensorSampleBatch batch(int count, long firstTimestamp) {
+        SensorSampleBatch batch = new SensorSampleBatch(SensorType.GYROSCOPE, count);
+        for (int i = 0; i < count; i++) {
+            batch.add(firstTimestamp + i, new float[]{i, i + 1, i + 2}, i % 2 == 0);
+        }
+        return batch;
+    }
+
+    @Test
+    public void appendedSamples_arePendingInOrder() throws Exception {
+        FileTelemetryStore store = new FileTelemetryStore(folder.newFolder(), SEGMENT_SIZE);
+        assertEquals(200, store.append(batch(200, 1000), 5));
+        assertEquals(200, store.countPending(SensorType.GYROSCOPE));
+        assertEquals(0, store.countPending(SensorType.MAGNETIC));
+
+        List<TelemetryStore.Record> records = store.scanPending(SensorType.GYROSCOPE, 0, 50);
+        assertEquals(50, records.size());
+        assertEquals(1000, records.get(0).timestamp);
+        assertEquals(5, records.get(0).tripId);
+        assertEquals(0, records.get(1).tripId);
+        assertEquals(2, records.get(2).values[0], 0);
+
+        List<TelemetryStore.Record> next = store.scanPending(SensorType.GYROSCOPE, records.get(49).id, 500);
+        assertEquals(150, next.size());
+        assertEquals(1050, next.get(0).timestamp);
+        store.close();
+    }
+
+    @Test
+    public void reopenedStore_recoversTheSegmentsAndTheMark() throws Exception {
+        File directory = folder.newFolder();
+        FileTelemetryStore store = new FileTelemetryStore(directory, SEGMENT_SIZE);
+        store.append(batch(300, 0), 1);
+        assertTrue(store.acknowledge(SensorType.GYROSCOPE, 1, 100));
+        // Not closed, the committed blocks are recovered from the segments
+        store.flush();
+
+        FileTelemetryStore reopened = new FileTelemetryStore(directory, SEGMENT_SIZE);
+        assertEquals(200, reopened.countPending(SensorType.GYROSCOPE));
+        assertEquals(100, reopened.scanPending(SensorType.GYROSCOPE, 0, 1).get(0).timestamp);
+
+        // Sequences go on after the recovered records
+        reopened.append(batch(10, 5000), 1);
+        List<TelemetryStore.Record> records = reopened.scanPending(SensorType.GYROSCOPE, 300, 10);
+        assertEquals(301, records.get(0).id);
+        assertEquals(5000, records.get(0).timestamp);
+        reopened.close();
+        store.close();
+    }
+
+    @Test
+    public void acknowledge_waitsForTheSamplesBeforeTheRange() throws Exception {
+        FileTelemetryStore store = new FileTelemetryStore(folder.newFolder(), SEGMENT_SIZE);
+        store.append(batch(100, 0), 1);
+
+        assertFalse(store.acknowledge(SensorType.GYROSCOPE, 51, 100));
+        assertEquals(100, store.countPending(SensorType.GYROSCOPE));
+        assertTrue(store.acknowledge(SensorType.GYROSCOPE, 1, 50));
+        assertTrue(store.acknowledge(SensorType.GYROSCOPE, 51, 100));
+        assertFalse(store.acknowledge(SensorType.GYROSCOPE, 1, 100));
+        assertEquals(0, store.countPending(SensorType.GYROSCOPE));
+        store.close();
+    }
+
+    @Test
+    public void purge_deletesTheAcknowledgedSegments() throws Exception {
+        FileTelemetryStore store = new FileTelemetryStore(folder.newFolder(), SEGMENT_SIZE);
+        store.append(batch(1000, 0), 1);
+        long diskUsage = store.getDiskUsage();
+        assertTrue(store.acknowledge(SensorType.GYROSCOPE, 1, 600));
+
+        long purged = store.purge();
+        assertTrue(purged > 0 && purged <= 600);
+        assertTrue(store.getDiskUsage() < diskUsage);
+        assertEquals(400, store.countPending(SensorType.GYROSCOPE));
+        assertEquals(600, store.scanPending(SensorType.GYROSCOPE, 0, 1).get(0).timestamp);
+        store.close();
+    }
+
+    @Test
+    public void evictOldest_movesTheMarkPastTheDeletedSamples() throws Exception {
+        FileTelemetryStore store = new FileTelemetryStore(folder.newFolder(), SEGMENT_SIZE);
+        store.append(batch(1000, 0), 1);
+
+        long evicted = store.evictOldest();
+        assertTrue(evicted > 0 && evicted < 1000);
+        assertEquals(1000 - evicted, store.countPending(SensorType.GYROSCOPE));
+
+        List<TelemetryStore.Record> records = store.scanPending(SensorType.GYROSCOPE, 0, 10);
+        assertEquals(evicted + 1, records.get(0).id);
+        assertTrue(store.acknowledge(SensorType.GYROSCOPE, records.get(0).id, records.get(9).id));
+        store.close();
+    }
+
+    @Test
+    public void failedAppend_storesNothing() throws Exception {
+        FileTelemetryStore store = new FileTelemetryStore(folder.newFolder(), SEGMENT_SIZE);
+        assertEquals(0, store.countPending(SensorType.GYROSCOPE));
+        // A directory in place of the second segment fails its rotation
+        assertTrue(SegmentLog.segmentFile(store.getDirectory(SensorType.GYROSCOPE), 127).mkdir());
+        try {
+            store.append(batch(200, 0), 1);
+            fail();
+        } catch (IOException ex) {
+            // Expected
+        }
+        assertEquals(0, store.countPending(SensorType.GYROSCOPE));
+        assertTrue(store.scanPending(SensorType.GYROSCOPE, 0, 10).isEmpty());
+
+        // The truncation deleted the directory with the segments after the kept records
+        assertEquals(200, store.append(batch(200, 0), 1));
+        List<TelemetryStore.Record> records = store.scanPending(SensorType.GYROSCOPE, 0, 500);
+        assertEquals(200, records.size());
+        assertEquals(1, records.get(0).id);
+        assertEquals(0, records.get(0).timestamp);
+        store.close();
+    }
+
+    @Test
+    public void clear_removesEverySampleAndStartsOver() throws Exception {
+        File directory = folder.newFolder();
+        FileTelemetryStore store = new FileTelemetryStore(directory, SEGMENT_SIZE);
+        store.append(batch(1000, 0), 1);
+        assertTrue(store.acknowledge(SensorType.GYROSCOPE, 1, 100));
+
+        assertEquals(1000, store.clear());
+        assertEquals(0, store.countPending(SensorType.GYROSCOPE));
+        assertEquals(0, store.getDiskUsage());
+
+        // Sequences start over and the new samples are pending, also after a reopen
+        store.append(batch(10, 5000), 1);
+        store.close();
+        FileTelemetryStore reopened = new FileTelemetryStore(directory, SEGMENT_SIZE);
+        List<TelemetryStore.Record> records = reopened.scanPending(SensorType.GYROSCOPE, 0, 100);
+        assertEquals(10, records.size());
+        assertEquals(1, records.get(0).id);
+        assertEquals(5000, records.get(0).timestamp);
+        reopened.close();
+    }
+}
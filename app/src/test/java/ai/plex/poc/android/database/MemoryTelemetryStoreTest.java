@@ -0,0 +1,67 @@
+package ai.plex.poc.android.database;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import ai.plex.poc.android.sensorListeners.SensorSampleBatch;
+import ai.plex.poc.android.sensorListeners.SensorType;
+
+import static org.junit.Assert.*;
+
+public class MemoryTelemetryStoreTest {
+    private static SensorSampleBatch batch(int count, long firstTimestamp) {
+        SensorSampleBatch batch = new SensorSampleBatch(SensorType.MAGNETIC, count);
+        for (int i = 0; i < count; i++) {
+            batch.add(firstTimestamp + i, new float[]{i, 0, 0}, true);
+        }
+        return batch;
+    }
+
+    @Test
+    public void acknowledge_waitsForTheSamplesBeforeTheRange() throws Exception {
+        MemoryTelemetryStore store = new MemoryTelemetryStore();
+        store.append(batch(100, 0), 3);
+
+        assertFalse(store.acknowledge(SensorType.MAGNETIC, 11, 20));
+        assertTrue(store.acknowledge(SensorType.MAGNETIC, 1, 10));
+        assertTrue(store.acknowledge(SensorType.MAGNETIC, 11, 20));
+        assertEquals(80, store.countPending(SensorType.MAGNETIC));
+        // Ids that were never assigned are not acknowledged
+        assertTrue(store.acknowledge(SensorType.MAGNETIC, 21, 500));
+        assertEquals(0, store.countPending(SensorType.MAGNETIC));
+    }
+
+    @Test
+    public void purge_removesOnlyTheAcknowledgedSamples() throws Exception {
+        MemoryTelemetryStore store = new MemoryTelemetryStore();
+        store.append(batch(100, 0), 3);
+        store.acknowledge(SensorType.MAGNETIC, 1, 30);
+
+        assertEquals(30, store.purge());
+        assertEquals(0, store.purge());
+        List<TelemetryStore.Record> records = store.scanPending(SensorType.MAGNETIC, 0, 100);
+        assertEquals(70, records.size());
+        assertEquals(31, records.get(0).id);
+        assertEquals(3, records.get(0).tripId);
+
+        // Ids keep growing after a purge
+        store.append(batch(1, 1000), 3);
+        assertEquals(101, store.scanPending(SensorType.MAGNETIC, 100, 1).get(0).id);
+    }
+
+    @Test
+    public void clear_removesThePendingSamples() throws Exception {
+        MemoryTelemetryStore store = new MemoryTelemetryStore();
+        store.append(batch(100, 0), 3);
+        store.acknowledge(SensorType.MAGNETIC, 1, 30);
+
+        assertEquals(100, store.clear());
+        assertEquals(0, store.countPending(SensorType.MAGNETIC));
+        assertTrue(store.scanPending(SensorType.MAGNETIC, 0, 100).isEmpty());
+
+        store.append(batch(5, 1000), 3);
+        assertEquals(5, store.countPending(SensorType.MAGNETIC));
+        assertEquals(101, store.scanPending(SensorType.MAGNETIC, 0, 1).get(0).id);
+    }
+}
@@ -0,0 +1,175 @@
+package ai.plex.poc.android.database;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.*;
+
+public class SegmentLogTest {
+    private static final int VALUE_COUNT = 3;
+    // Holds a few blocks, the log rotates often
+    private static final int SEGMENT_SIZE = 4096;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void committedRecords_areReadInOrderAcrossSegments() throws Exception {
+        File directory = folder.newFolder("log");
+        SegmentLog log = new SegmentLog(directory, VALUE_COUNT, SEGMENT_SIZE);
+        for (int i = 1; i <= 1000; i++) {
+            log.append(i * 10, 7, i % 2 == 0, new float[]{i, -i, i / 2f});
+        }
+        log.close();
+
+        assertEquals(1000, log.getLastSequence());
+        assertTrue(SegmentLog.listSegments(directory).length > 1);
+
+        SegmentReader reader = new SegmentReader(directory, VALUE_COUNT, 1);
+        int count = 0;
+        while (reader.next()) {
+            count++;
+            assertEquals(count, reader.getSequence());
+            assertEquals(count * 10, reader.getTimestamp());
+            assertEquals(count % 2 == 0, reader.isDriving());
+            assertEquals(count, reader.getValues()[0], 0);
+            assertEquals(-count, reader.getValues()[1], 0);
+        }
+        reader.close();
+        assertEquals(1000, count);
+    }
+
+    @Test
+    public void reader_startsAtTheRequestedSequence() throws Exception {
+        File directory = folder.newFolder("log");
+        SegmentLog log = new SegmentLog(directory, VALUE_COUNT, SEGMENT_SIZE);
+        for (int i = 1; i <= 500; i++) {
+            log.append(i, 0, false, new float[]{i, 0, 0});
+        }
+        log.close();
+
+        SegmentReader reader = new SegmentReader(directory, VALUE_COUNT, 321);
+        assertTrue(reader.next());
+        assertEquals(321, reader.getSequence());
+        assertEquals(321, reader.getTimestamp());
+        reader.close();
+    }
+
+    @Test
+    public void uncommittedRecords_areNotVisible() throws Exception {
+        File directory = folder.newFolder("log");
+        SegmentLog log = new SegmentLog(directory, VALUE_COUNT, SEGMENT_SIZE);
+        log.append(1, 0, false, new float[]{1, 0, 0});
+        log.commit();
+        log.append(2, 0, false, new float[]{2, 0, 0});
+
+        SegmentReader reader = new SegmentReader(directory, VALUE_COUNT, 1);
+        assertTrue(reader.next());
+        assertFalse(reader.next());
+
+        log.commit();
+        assertTrue(reader.next());
+        assertEquals(2, reader.getSequence());
+        reader.close();
+        log.close();
+    }
+
+    @Test
+    public void recovery_dropsTheUncommittedBlock() throws Exception {
+        File directory = folder.newFolder("log");
+        SegmentLog log = new SegmentLog(directory, VALUE_COUNT, SEGMENT_SIZE);
+        log.append(1, 0, false, new float[]{1, 0, 0});
+        log.commit();
+        // Never committed, lost with the process
+        log.append(2, 0, false, new float[]{2, 0, 0});
+
+        SegmentLog reopened = new SegmentLog(directory, VALUE_COUNT, SEGMENT_SIZE);
+        assertEquals(1, reopened.getLastSequence());
+        reopened.append(3, 0, false, new float[]{3, 0, 0});
+        reopened.close();
+
+        SegmentReader reader = new SegmentReader(directory, VALUE_COUNT, 1);
+        assertTrue(reader.next());
+        assertEquals(1, reader.getTimestamp());
+        assertTrue(reader.next());
+        assertEquals(2, reader.getSequence());
+        assertEquals(3, reader.getTimestamp());
+        assertFalse(reader.next());
+        reader.close();
+    }
+
+    @Test
+    public void recovery_cutsOffATornBlock() throws Exception {
+        File directory = folder.newFolder("log");
+        SegmentLog log = new SegmentLog(directory, VALUE_COUNT, SEGMENT_SIZE);
+        log.append(1, 0, false, new float[]{1, 0, 0});
+        log.commit();
+        log.append(2, 0, false, new float[]{2, 0, 0});
+        log.append(3, 0, false, new float[]{3, 0, 0});
+        log.close();
+
+        // Corrupt a record of the second block
+        long[] segments = SegmentLog.listSegments(directory);
+        RandomAccessFile file = new RandomAccessFile(SegmentLog.segmentFile(directory, segments[0]), "rw");
+        int secondBlock = SegmentLog.HEADER_SIZE + SegmentLog.BLOCK_HEADER_SIZE + SegmentLog.recordSize(VALUE_COUNT);
+        file.seek(secondBlock + SegmentLog.BLOCK_HEADER_SIZE + 2);
+        file.write(0x55);
+        file.close();
+
+        SegmentLog reopened = new SegmentLog(directory, VALUE_COUNT, SEGMENT_SIZE);
+        assertEquals(1, reopened.getLastSequence());
+        reopened.close();
+    }
+
+    @Test
+    public void deleteUpTo_keepsSegmentsWithPendingRecords() throws Exception {
+        File directory = folder.newFolder("log");
+        SegmentLog log = new SegmentLog(directory, VALUE_COUNT, SEGMENT_SIZE);
+        for (int i = 1; i <= 1000; i++) {
+            log.append(i, 0, false, new float[]{i, 0, 0});
+        }
+        log.force();
+
+        assertTrue(log.deleteUpTo(500) > 0);
+        SegmentReader reader = new SegmentReader(directory, VALUE_COUNT, 501);
+        assertTrue(reader.next());
+        assertEquals(501, reader.getSequence());
+        reader.close();
+        log.close();
+    }
+
+    @Test
+    public void truncate_removesTheBlocksAfterTheSequence() throws Exception {
+        File directory = folder.newFolder("log");
+        SegmentLog log = new SegmentLog(directory, VALUE_COUNT, SEGMENT_SIZE);
+        for (int i = 1; i <= 100; i++) {
+            log.append(i, 0, false, new float[]{i, 0, 0});
+        }
+        log.commit();
+        int segments = SegmentLog.listSegments(directory).length;
+        for (int i = 101; i <= 1000; i++) {
+            log.append(i, 0, false, new float[]{i, 0, 0});
+        }
+        log.commit();
+
+        log.truncate(100);
+        assertEquals(100, log.getLastSequence());
+        assertEquals(segments, SegmentLog.listSegments(directory).length);
+
+        // Sequences go on after the kept records
+        log.append(5000, 0, false, new float[]{0, 0, 0});
+        log.close();
+        SegmentReader reader = new SegmentReader(directory, VALUE_COUNT, 100);
+        assertTrue(reader.next());
+        assertEquals(100, reader.getTimestamp());
+        assertTrue(reader.next());
+        assertEquals(101, reader.getSequence());
+        assertEquals(5000, reader.getTimestamp());
+        assertFalse(reader.next());
+        reader.close();
+    }
+}
@@ -0,0 +1,50 @@
+package ai.plex.poc.android.database;
+
+import org.junit.Test;
+
+import ai.plex.poc.android.sensorListeners.SensorSampleBatch;
+import ai.plex.poc.android.sensorListeners.SensorType;
+
+import static org.junit.Assert.*;
+
+public class SensorChunkCodecTest {
+    @Test
+    public void timestamps_roundTrip() throws Exception {
+        long[] timestamps = {1476640000000L, 1476640000020L, 1476640000019L, 1476640000040L, 1476650000000L, 1476650000000L};
+        SensorSampleBatch batch = new SensorSampleBatch(SensorType.GYROSCOPE, timestamps.length);
+        for (long timestamp : timestamps) {
+            batch.add(timestamp, new float[]{0, 0, 0}, false);
+        }
+
+        byte[] blob = SensorChunkCodec.encodeTimestamps(batch, 0, batch.size());
+        assertArrayEquals(timestamps, SensorChunkCodec.decodeTimestamps(timestamps[0], blob, timestamps.length));
+    }
+
+    @Test
+    public void regularTimestamps_takeOneBytePerSample() throws Exception {
+        SensorSampleBatch batch = new SensorSampleBatch(SensorType.GYROSCOPE, 100);
+        for (int i = 0; i < 100; i++) {
+            batch.add(1476640000000L + i * 20, new float[]{0, 0, 0}, false);
+        }
+        assertEquals(100, SensorChunkCodec.encodeTimestamps(batch, 0, 100).length);
+    }
+
+    @Test
+    public void values_roundTripForARange() throws Exception {
+        SensorSampleBatch batch = new SensorSampleBatch(SensorType.ROTATION, 10);
+        for (int i = 0; i < 10; i++) {
+            batch.add(i, new float[]{i, -i, i / 3f, Float.MAX_VALUE, Float.NaN}, false);
+        }
+
+        float[] values = SensorChunkCodec.decodeValues(SensorChunkCodec.encodeValues(batch, 4, 7));
+        assertEquals(3 * 5, values.length);
+        assertEquals(4, values[0], 0);
+        assertEquals(-5, values[6], 0);
+        assertEquals(6 / 3f, values[12], 0);
+        assertEquals(Float.MAX_VALUE, values[13], 0);
+        assertTrue(Float.isNaN(values[14]));
+
+        long[] timestamps = SensorChunkCodec.decodeTimestamps(4, SensorChunkCodec.encodeTimestamps(batch, 4, 7), 3);
+        assertArrayEquals(new long[]{4, 5, 6}, timestamps);
+    }
+}
@@ -0,0 +1,25 @@
+package ai.plex.poc.android.sensorListeners;
+
+import java.util.ArrayList;
+
+/**
+ * Keeps a copy of every sample it receives, the values array of a sink call is reused
+ */
+class CollectingSink implements SensorSink {
+    final ArrayList<SensorType> sensorTypes = new ArrayList<>();
+    final ArrayList<Long> timestamps = new ArrayList<>();
+    final ArrayList<float[]> values = new ArrayList<>();
+    final ArrayList<Boolean> isDriving = new ArrayList<>();
+
+    @Override
+    public void accept(SensorType sensorType, long timestamp, float[] values, boolean isDriving) {
+        this.sensorTypes.add(sensorType);
+        this.timestamps.add(timestamp);
+        this.values.add(values.clone());
+        this.isDriving.add(isDriving);
+    }
+
+    int size() {
+        return timestamps.size();
+    }
+}
@@ -0,0 +1,76 @@
+package ai.plex.poc.android.sensorListeners;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class DeadBandFilterTest {
+    private static final long KEYFRAME_INTERVAL = 1000; // milliseconds
+
+    private static DeadBandFilter filter(CollectingSink sink) {
+        DeadBandFilter filter = new DeadBandFilter(3, new float[]{0.5f, 0.5f, 0.5f}, KEYFRAME_INTERVAL);
+        filter.setNext(sink);
+        return filter;
+    }
+
+    @Test
+    public void withoutThresholds_everySamplePasses() throws Exception {
+        CollectingSink sink = new CollectingSink();
+        DeadBandFilter filter = new DeadBandFilter(3, null, KEYFRAME_INTERVAL);
+        filter.setNext(sink);
+        for (int i = 0; i < 50; i++) {
+            filter.accept(SensorType.MAGNETIC, i * 20, new float[]{1, 1, 1}, false);
+        }
+        assertEquals(50, sink.size());
+    }
+
+    @Test
+    public void samplesWithinTheBand_areDroppedBetweenKeyframes() throws Exception {
+        CollectingSink sink = new CollectingSink();
+        DeadBandFilter filter = filter(sink);
+        for (long time = 0; time <= 2000; time += 20) {
+            filter.accept(SensorType.MAGNETIC, time, new float[]{10, 20, 30}, true);
+        }
+        assertEquals(3, sink.size());
+        assertEquals(0, (long) sink.timestamps.get(0));
+        assertEquals(1000, (long) sink.timestamps.get(1));
+        assertEquals(2000, (long) sink.timestamps.get(2));
+    }
+
+    @Test
+    public void leavingTheBand_storesTheLastSkippedSampleFirst() throws Exception {
+        CollectingSink sink = new CollectingSink();
+        DeadBandFilter filter = filter(sink);
+        filter.accept(SensorType.MAGNETIC, 0, new float[]{0, 0, 0}, false);
+        filter.accept(SensorType.MAGNETIC, 20, new float[]{0.1f, 0, 0}, false);
+        filter.accept(SensorType.MAGNETIC, 40, new float[]{0.2f, 0, 0}, false);
+        filter.accept(SensorType.MAGNETIC, 60, new float[]{0, 0, 1}, false);
+
+        assertEquals(3, sink.size());
+        assertEquals(40, (long) sink.timestamps.get(1));
+        assertArrayEquals(new float[]{0.2f, 0, 0}, sink.values.get(1), 0);
+        assertEquals(60, (long) sink.timestamps.get(2));
+        assertArrayEquals(new float[]{0, 0, 1}, sink.values.get(2), 0);
+    }
+
+    @Test
+    public void onlyTheComparedAxes_areChecked() throws Exception {
+        CollectingSink sink = new CollectingSink();
+        // Like the rotation vector, the last value is not compared
+        DeadBandFilter filter = new DeadBandFilter(3, new float[]{0.5f, 0.5f}, KEYFRAME_INTERVAL);
+        filter.setNext(sink);
+        filter.accept(SensorType.ROTATION, 0, new float[]{0, 0, 0}, false);
+        filter.accept(SensorType.ROTATION, 20, new float[]{0, 0, 5}, false);
+        assertEquals(1, sink.size());
+    }
+
+    @Test
+    public void reset_storesTheNextSample() throws Exception {
+        CollectingSink sink = new CollectingSink();
+        DeadBandFilter filter = filter(sink);
+        filter.accept(SensorType.MAGNETIC, 0, new float[]{0, 0, 0}, false);
+        filter.reset();
+        filter.accept(SensorType.MAGNETIC, 20, new float[]{0, 0, 0}, false);
+        assertEquals(2, sink.size());
+    }
+}
@@ -0,0 +1,71 @@
+package ai.plex.poc.android.sensorListeners;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class DecimatorTest {
+    private static final long INPUT_PERIOD = 20; // milliseconds, 50 Hz
+
+    private static CollectingSink decimate(Decimator decimator, int count, float[][] values) {
+        CollectingSink sink = new CollectingSink();
+        decimator.setNext(sink);
+        for (int i = 0; i < count; i++) {
+            decimator.accept(SensorType.LINEAR_ACCELERATION, i * INPUT_PERIOD, values[i % values.length], true);
+        }
+        return sink;
+    }
+
+    @Test
+    public void withoutOutputRate_everySamplePassesUnchanged() throws Exception {
+        CollectingSink sink = decimate(new Decimator(3, 0, true), 100, new float[][]{{1, 2, 3}, {-1, -2, -3}});
+        assertEquals(100, sink.size());
+        assertArrayEquals(new float[]{-1, -2, -3}, sink.values.get(99), 0);
+        assertEquals(99 * INPUT_PERIOD, (long) sink.timestamps.get(99));
+    }
+
+    @Test
+    public void outputRate_keepsOneSamplePerPeriod() throws Exception {
+        // 2 s of input at 50 Hz, 10 Hz out
+        CollectingSink sink = decimate(new Decimator(3, 10, true), 100, new float[][]{{1, 1, 1}});
+        assertTrue(sink.size() >= 19 && sink.size() <= 21);
+        for (int i = 1; i < sink.size(); i++) {
+            assertEquals(100, sink.timestamps.get(i) - sink.timestamps.get(i - 1));
+        }
+    }
+
+    @Test
+    public void constantSignal_isKept() throws Exception {
+        CollectingSink sink = decimate(new Decimator(3, 10, true), 200, new float[][]{{5, -2, 0.5f}});
+        assertArrayEquals(new float[]{5, -2, 0.5f}, sink.values.get(sink.size() - 1), 1e-3f);
+    }
+
+    @Test
+    public void motionAboveTheOutputNyquistFrequency_doesNotAlias() throws Exception {
+        // 25 Hz alternation, picking every fifth sample without filtering would keep +1 or -1
+        CollectingSink sink = decimate(new Decimator(3, 10, true), 200, new float[][]{{1, 1, 1}, {-1, -1, -1}});
+        for (int i = sink.size() / 2; i < sink.size(); i++) {
+            assertEquals(0, sink.values.get(i)[0], 0.05);
+        }
+    }
+
+    @Test
+    public void valuesThatCanNotBeAveraged_arePicked() throws Exception {
+        CollectingSink sink = decimate(new Decimator(3, 10, false), 200, new float[][]{{1, 1, 1}, {-1, -1, -1}});
+        for (int i = 0; i < sink.size(); i++) {
+            assertEquals(1, Math.abs(sink.values.get(i)[0]), 0);
+        }
+    }
+
+    @Test
+    public void pausedInput_restartsTheOutputGrid() throws Exception {
+        Decimator decimator = new Decimator(3, 10, true);
+        CollectingSink sink = new CollectingSink();
+        decimator.setNext(sink);
+        decimator.accept(SensorType.GYROSCOPE, 0, new float[]{1, 1, 1}, false);
+        decimator.accept(SensorType.GYROSCOPE, 5030, new float[]{1, 1, 1}, false);
+        decimator.accept(SensorType.GYROSCOPE, 5050, new float[]{1, 1, 1}, false);
+        assertEquals(2, sink.size());
+        assertEquals(5030, (long) sink.timestamps.get(1));
+    }
+}
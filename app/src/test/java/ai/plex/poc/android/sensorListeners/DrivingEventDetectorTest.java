@@ -0,0 +1,79 @@
+package ai.plex.poc.android.sensorListeners;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+
+import static org.junit.Assert.*;
+
+public class DrivingEventDetectorTest {
+    private static final long PERIOD = 20; // milliseconds
+
+    private final ArrayList<DrivingEventDetector.DrivingEvent> events = new ArrayList<>();
+    private final DrivingEventDetector detector = new DrivingEventDetector(new DrivingEventDetector.Listener() {
+        @Override
+        public void onDrivingEvent(DrivingEventDetector.DrivingEvent event) {
+            events.add(event);
+        }
+    });
+
+    /**
+     * Feeds linear acceleration and a yaw rate from start to end
+     * @return the time after the last sample
+     */
+    private long feed(long start, long end, float lateral, float longitudinal, float yawRate) {
+        long time = start;
+        for (; time < end; time += PERIOD) {
+            detector.accept(SensorType.GYROSCOPE, time, new float[]{0, 0, yawRate}, true);
+            detector.accept(SensorType.LINEAR_ACCELERATION, time, new float[]{lateral, longitudinal, 0}, true);
+        }
+        return time;
+    }
+
+    @Test
+    public void sustainedDeceleration_isAHarshBrake() throws Exception {
+        long time = feed(0, 500, 0, 0, 0);
+        time = feed(time, time + 600, 0, -5, 0);
+        feed(time, time + 500, 0, 0, 0);
+
+        assertEquals(1, events.size());
+        DrivingEventDetector.DrivingEvent event = events.get(0);
+        assertEquals(DrivingEventDetector.DrivingEventType.HARSH_BRAKE, event.type);
+        assertTrue(event.endTime - event.startTime >= 300);
+        assertEquals(-5, event.peakValue, 0.01);
+        assertTrue(event.meanValue <= -3);
+        assertTrue(event.isDriving);
+    }
+
+    @Test
+    public void shortSpike_isNotAnEvent() throws Exception {
+        long time = feed(0, 500, 0, 0, 0);
+        time = feed(time, time + 100, 0, -5, 0);
+        feed(time, time + 500, 0, 0, 0);
+        assertEquals(0, events.size());
+    }
+
+    @Test
+    public void cornering_isDetectedInBothDirections() throws Exception {
+        long time = feed(0, 500, 0, 0, 0);
+        time = feed(time, time + 1000, 4, 0, 0.5f);
+        time = feed(time, time + 500, 0, 0, 0);
+        time = feed(time, time + 1000, -4, 0, -0.5f);
+        feed(time, time + 500, 0, 0, 0);
+
+        assertEquals(2, events.size());
+        assertEquals(DrivingEventDetector.DrivingEventType.HARSH_CORNERING, events.get(0).type);
+        assertEquals(0.5, events.get(0).peakYawRate, 0.01);
+        assertEquals(DrivingEventDetector.DrivingEventType.HARSH_CORNERING, events.get(1).type);
+        assertEquals(-4, events.get(1).peakValue, 0.01);
+    }
+
+    @Test
+    public void reset_dropsTheEventInProgress() throws Exception {
+        long time = feed(0, 500, 0, 0, 0);
+        time = feed(time, time + 600, 0, -5, 0);
+        detector.reset();
+        feed(time, time + 500, 0, 0, 0);
+        assertEquals(0, events.size());
+    }
+}
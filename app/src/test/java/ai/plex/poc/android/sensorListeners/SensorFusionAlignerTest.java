@@ -0,0 +1,100 @@
+package ai.plex.poc.android.sensorListeners;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SensorFusionAlignerTest {
+    private static final long PERIOD = 50; // milliseconds
+
+    private static void feedAll(SensorFusionAligner aligner, long timestamp, float value) {
+        aligner.accept(SensorType.LINEAR_ACCELERATION, timestamp, new float[]{value, 2 * value, 3 * value}, true);
+        aligner.accept(SensorType.GYROSCOPE, timestamp, new float[]{-value, 0, 0}, true);
+        aligner.accept(SensorType.MAGNETIC, timestamp, new float[]{40, 0, value}, true);
+        aligner.accept(SensorType.ROTATION, timestamp, new float[]{0, 0, 0, 1, 0}, true);
+    }
+
+    @Test
+    public void frames_areInterpolatedOnTheGrid() throws Exception {
+        CollectingSink sink = new CollectingSink();
+        SensorFusionAligner aligner = new SensorFusionAligner(PERIOD, sink);
+        for (long time = 0; time <= 100; time += 20) {
+            feedAll(aligner, time, time / 10f);
+        }
+
+        assertEquals(3, sink.size());
+        assertEquals(SensorType.FUSION, sink.sensorTypes.get(0));
+        assertEquals(0, (long) sink.timestamps.get(0));
+        assertEquals(50, (long) sink.timestamps.get(1));
+        assertEquals(100, (long) sink.timestamps.get(2));
+
+        float[] frame = sink.values.get(1);
+        assertEquals(SensorFusionAligner.FRAME_SIZE, frame.length);
+        assertArrayEquals(new float[]{5, 10, 15, -5, 0, 0, 40, 0, 5, 0, 0, 0, 1}, frame, 1e-4f);
+    }
+
+    @Test
+    public void frames_waitForTheSlowestStream() throws Exception {
+        CollectingSink sink = new CollectingSink();
+        SensorFusionAligner aligner = new SensorFusionAligner(PERIOD, sink);
+        feedAll(aligner, 0, 0);
+        for (long time = 50; time <= 200; time += 50) {
+            aligner.accept(SensorType.LINEAR_ACCELERATION, time, new float[]{1, 1, 1}, true);
+        }
+        assertEquals(1, sink.size());
+
+        for (long time = 50; time <= 200; time += 50) {
+            aligner.accept(SensorType.GYROSCOPE, time, new float[]{1, 1, 1}, true);
+            aligner.accept(SensorType.MAGNETIC, time, new float[]{1, 1, 1}, true);
+            aligner.accept(SensorType.ROTATION, time, new float[]{0, 0, 0, 1, 0}, true);
+        }
+        assertEquals(5, sink.size());
+    }
+
+    @Test
+    public void frames_doNotTickFasterThanTheSlowestStream() throws Exception {
+        CollectingSink sink = new CollectingSink();
+        SensorFusionAligner aligner = new SensorFusionAligner(PERIOD, sink);
+        // The magnetic stream only delivers 10 samples per second
+        for (long time = 0; time <= 400; time += 20) {
+            aligner.accept(SensorType.LINEAR_ACCELERATION, time, new float[]{1, 2, 3}, false);
+            if (time % 100 == 0)
+                aligner.accept(SensorType.MAGNETIC, time, new float[]{40, 0, 0}, false);
+        }
+
+        assertEquals(5, sink.size());
+        for (int i = 1; i < sink.size(); i++) {
+            assertEquals(100, sink.timestamps.get(i) - sink.timestamps.get(i - 1));
+        }
+    }
+
+    @Test
+    public void missingSensors_doNotStallTheFrames() throws Exception {
+        CollectingSink sink = new CollectingSink();
+        SensorFusionAligner aligner = new SensorFusionAligner(PERIOD, sink);
+        for (long time = 0; time <= 200; time += 20) {
+            aligner.accept(SensorType.LINEAR_ACCELERATION, time, new float[]{1, 2, 3}, false);
+        }
+        assertEquals(5, sink.size());
+        assertArrayEquals(new float[]{1, 2, 3, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0}, sink.values.get(4), 0);
+    }
+
+    @Test
+    public void rotation_isNormalized() throws Exception {
+        CollectingSink sink = new CollectingSink();
+        SensorFusionAligner aligner = new SensorFusionAligner(PERIOD, sink);
+        aligner.accept(SensorType.ROTATION, 0, new float[]{0, 0, 0, 2, 0}, false);
+        float[] frame = sink.values.get(0);
+        assertEquals(1, frame[12], 1e-6);
+    }
+
+    @Test
+    public void disabledAligner_emitsNothing() throws Exception {
+        CollectingSink sink = new CollectingSink();
+        SensorFusionAligner aligner = new SensorFusionAligner(PERIOD, sink);
+        aligner.configure(false, PERIOD);
+        feedAll(aligner, 0, 0);
+        feedAll(aligner, 100, 1);
+        assertEquals(0, sink.size());
+    }
+}
@@ -0,0 +1,106 @@
+package ai.plex.poc.android.sensorListeners;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * The queue is not started, drainThen then drains on the calling thread
+ */
+public class SensorSampleQueueTest {
+    private static SensorSampleQueue queue(int capacity, SensorSampleQueue.OverflowPolicy policy, CollectingSink sink) {
+        SensorSampleQueue queue = new SensorSampleQueue(capacity, policy);
+        queue.setChain(SensorType.GYROSCOPE, sink);
+        queue.setChain(SensorType.ROTATION, sink);
+        return queue;
+    }
+
+    private static void drain(SensorSampleQueue queue) {
+        queue.drainThen(new Runnable() {
+            @Override
+            public void run() {
+            }
+        });
+    }
+
+    @Test
+    public void samples_reachTheirChainInOrder() throws Exception {
+        CollectingSink sink = new CollectingSink();
+        SensorSampleQueue queue = queue(8, SensorSampleQueue.OverflowPolicy.DROP_NEWEST, sink);
+        float[] values = new float[3];
+        for (int i = 0; i < 5; i++) {
+            values[0] = i;
+            queue.accept(i % 2 == 0 ? SensorType.GYROSCOPE : SensorType.ROTATION, i * 10, values, i == 4);
+        }
+        assertEquals(5, queue.getDepth());
+
+        drain(queue);
+        assertEquals(0, queue.getDepth());
+        assertEquals(5, sink.size());
+        for (int i = 0; i < 5; i++) {
+            assertEquals(i * 10, (long) sink.timestamps.get(i));
+            assertEquals(i, sink.values.get(i)[0], 0);
+        }
+        assertEquals(SensorType.ROTATION, sink.sensorTypes.get(1));
+        assertTrue(sink.isDriving.get(4));
+    }
+
+    @Test
+    public void slots_areReusedAroundTheRing() throws Exception {
+        CollectingSink sink = new CollectingSink();
+        SensorSampleQueue queue = queue(4, SensorSampleQueue.OverflowPolicy.DROP_NEWEST, sink);
+        for (int i = 0; i < 100; i++) {
+            queue.accept(SensorType.GYROSCOPE, i, new float[]{i, 0, 0}, false);
+            if (i % 3 == 2)
+                drain(queue);
+        }
+        drain(queue);
+        assertEquals(100, sink.size());
+        assertEquals(99, sink.values.get(99)[0], 0);
+        assertEquals(0, queue.getDroppedCount());
+    }
+
+    @Test
+    public void fullRing_dropsTheNewestSamples() throws Exception {
+        CollectingSink sink = new CollectingSink();
+        SensorSampleQueue queue = queue(4, SensorSampleQueue.OverflowPolicy.DROP_NEWEST, sink);
+        for (int i = 0; i < 6; i++) {
+            queue.accept(SensorType.GYROSCOPE, i, new float[]{i, 0, 0}, false);
+        }
+        drain(queue);
+        assertEquals(2, queue.getDroppedCount());
+        assertEquals(4, queue.getAcceptedCount());
+        assertEquals(4, sink.size());
+        assertEquals(3, (long) sink.timestamps.get(3));
+    }
+
+    @Test
+    public void fullRing_dropsTheOldestSamples() throws Exception {
+        CollectingSink sink = new CollectingSink();
+        SensorSampleQueue queue = queue(4, SensorSampleQueue.OverflowPolicy.DROP_OLDEST, sink);
+        for (int i = 0; i < 6; i++) {
+            queue.accept(SensorType.GYROSCOPE, i, new float[]{i, 0, 0}, false);
+        }
+        drain(queue);
+        assertEquals(2, queue.getDroppedCount());
+        assertEquals(4, sink.size());
+        assertEquals(2, (long) sink.timestamps.get(0));
+        assertEquals(5, sink.values.get(3)[0], 0);
+    }
+
+    @Test
+    public void policyChange_appliesToTheNextSample() throws Exception {
+        CollectingSink sink = new CollectingSink();
+        SensorSampleQueue queue = queue(4, SensorSampleQueue.OverflowPolicy.DROP_NEWEST, sink);
+        for (int i = 0; i < 5; i++) {
+            queue.accept(SensorType.GYROSCOPE, i, new float[]{i, 0, 0}, false);
+        }
+        queue.setOverflowPolicy(SensorSampleQueue.OverflowPolicy.DROP_OLDEST);
+        queue.accept(SensorType.GYROSCOPE, 5, new float[]{5, 0, 0}, false);
+        drain(queue);
+        assertEquals(2, queue.getDroppedCount());
+        assertEquals(4, sink.size());
+        assertEquals(1, (long) sink.timestamps.get(0));
+        assertEquals(5, (long) sink.timestamps.get(3));
+    }
+}
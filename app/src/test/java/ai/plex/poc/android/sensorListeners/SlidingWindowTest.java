@@ -0,0 +1,54 @@
+package ai.plex.poc.android.sensorListeners;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SlidingWindowTest {
+    @Test
+    public void mean_coversTheSamplesInTheWindow() throws Exception {
+        SlidingWindow window = new SlidingWindow(100, 16);
+        assertEquals(0, window.getMean(), 0);
+
+        window.add(0, 1);
+        window.add(50, 3);
+        assertEquals(2, window.getMean(), 1e-6);
+        assertEquals(50, window.getSpan());
+
+        // The sample at 0 leaves the window
+        window.add(100, 5);
+        assertEquals(2, window.size());
+        assertEquals(4, window.getMean(), 1e-6);
+        assertEquals(50, window.getSpan());
+    }
+
+    @Test
+    public void fullWindow_evictsTheOldestSample() throws Exception {
+        SlidingWindow window = new SlidingWindow(1000, 2);
+        window.add(0, 1);
+        window.add(10, 2);
+        window.add(20, 6);
+        assertEquals(2, window.size());
+        assertEquals(4, window.getMean(), 1e-6);
+    }
+
+    @Test
+    public void longRun_keepsTheSumExact() throws Exception {
+        SlidingWindow window = new SlidingWindow(300, 64);
+        for (int i = 0; i < 10000; i++) {
+            window.add(i * 20, i % 2 == 0 ? 1 : 3);
+        }
+        assertEquals(15, window.size());
+        assertEquals(2, window.getMean(), 0.2);
+    }
+
+    @Test
+    public void clear_emptiesTheWindow() throws Exception {
+        SlidingWindow window = new SlidingWindow(100, 4);
+        window.add(0, 7);
+        window.clear();
+        assertEquals(0, window.size());
+        assertEquals(0, window.getMean(), 0);
+        assertEquals(0, window.getSpan());
+    }
+}
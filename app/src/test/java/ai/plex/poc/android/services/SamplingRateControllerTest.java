@@ -0,0 +1,124 @@
+package ai.plex.poc.android.services;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+
+import ai.plex.poc.android.sensorListeners.SensorType;
+
+import static org.junit.Assert.*;
+
+public class SamplingRateControllerTest {
+    private static final long PERIOD = 20; // milliseconds
+    private static final int MIN_INTERVAL = 20000; // microseconds
+    private static final int MAX_INTERVAL = 1000000; // microseconds
+
+    private long now;
+    private final ArrayList<Integer> intervals = new ArrayList<>();
+    private final ArrayList<Long> changeTimes = new ArrayList<>();
+    private final SamplingRateController controller = new SamplingRateController(MIN_INTERVAL, MAX_INTERVAL,
+            new SamplingRateController.Listener() {
+                @Override
+                public void onSamplingIntervalChanged(int samplingInterval) {
+                    intervals.add(samplingInterval);
+                    changeTimes.add(now);
+                }
+            });
+
+    /**
+     * Feeds linear acceleration and gyroscope samples from start to end
+     * @return the time after the last sample
+     */
+    private long feed(long start, long end, float acceleration, float angularSpeed) {
+        for (now = start; now < end; now += PERIOD) {
+            controller.onSample(SensorType.LINEAR_ACCELERATION, now, new float[]{acceleration, 0, 0});
+            controller.onSample(SensorType.GYROSCOPE, now, new float[]{0, 0, angularSpeed});
+        }
+        return now;
+    }
+
+    @Test
+    public void sharpManoeuvre_speedsUpOnItsFirstSample() throws Exception {
+        long time = feed(10000, 12000, 0, 0);
+        assertTrue(intervals.isEmpty());
+        assertEquals(MAX_INTERVAL, controller.getSamplingInterval());
+
+        feed(time, time + PERIOD, 20, 0);
+
+        assertEquals(1, intervals.size());
+        assertEquals(MIN_INTERVAL, (int) intervals.get(0));
+        assertEquals(time, (long) changeTimes.get(0));
+        assertEquals(MIN_INTERVAL, controller.getSamplingInterval());
+    }
+
+    @Test
+    public void sharpTurn_speedsUpOnItsFirstSample() throws Exception {
+        long time = feed(10000, 12000, 0, 0);
+
+        feed(time, time + PERIOD, 0, 4);
+
+        assertEquals(1, intervals.size());
+        assertEquals(MIN_INTERVAL, (int) intervals.get(0));
+        assertEquals(time, (long) changeTimes.get(0));
+    }
+
+    @Test
+    public void quietRoad_slowsDownOnlyAfterTheDelay() throws Exception {
+        long time = feed(10000, 12000, 0, 0);
+        time = feed(time, time + 200, 20, 0);
+        assertEquals(1, intervals.size());
+        long manoeuvreEnd = time;
+
+        feed(time, time + 30000, 0, 0);
+
+        assertEquals(2, intervals.size());
+        assertTrue(intervals.get(1) > MIN_INTERVAL);
+        // The activity decays below the exit threshold within a few seconds, then must stay low for 10 s
+        assertTrue(changeTimes.get(1) - manoeuvreEnd >= 10000);
+        assertTrue(changeTimes.get(1) - manoeuvreEnd < 20000);
+    }
+
+    @Test
+    public void bumpWhileQuiet_restartsTheSlowDownDelay() throws Exception {
+        long time = feed(10000, 12000, 0, 0);
+        time = feed(time, time + 200, 20, 0);
+        time = feed(time, time + 8000, 0, 0);
+        assertEquals(1, intervals.size());
+
+        // A manoeuvre before the delay elapsed keeps the rate, the quiet time counts again from its end
+        time = feed(time, time + 200, 20, 0);
+        long manoeuvreEnd = time;
+        time = feed(time, time + 8000, 0, 0);
+        assertEquals(1, intervals.size());
+
+        feed(time, time + 20000, 0, 0);
+        assertEquals(2, intervals.size());
+        assertTrue(changeTimes.get(1) - manoeuvreEnd >= 10000);
+    }
+
+    @Test
+    public void risingActivity_changesTheRateAtMostOncePerSecond() throws Exception {
+        // A mild start enters the first level
+        feed(10000, 10000 + PERIOD, 0.45f, 0);
+        assertEquals(1, intervals.size());
+        assertTrue(intervals.get(0) < MAX_INTERVAL);
+        assertTrue(intervals.get(0) > MIN_INTERVAL);
+
+        // The activity keeps rising, the next speed-up waits for a second after the first
+        feed(10000 + PERIOD, 13000, 20, 0);
+
+        assertEquals(2, intervals.size());
+        assertEquals(MIN_INTERVAL, (int) intervals.get(1));
+        assertEquals(11000, (long) changeTimes.get(1));
+    }
+
+    @Test
+    public void reset_goesBackToTheSlowestRate() throws Exception {
+        feed(10000, 12000, 20, 0);
+        assertEquals(MIN_INTERVAL, controller.getSamplingInterval());
+
+        controller.reset();
+
+        assertEquals(MAX_INTERVAL, controller.getSamplingInterval());
+    }
+}